@@ -32,11 +32,22 @@
 //    120317 Changed 'define' to replace an earlier definition
 //           instead of ignoring re-definition.
 //
+//  Version 1.89.J02
+//    261017 Use 'conformsTo' of UnitList.
+//           Table is kept in UnitsEngine.
+//           Use options bound to the current thread.
+//           Table is a Map: a FrozenMap after loading.
+//           Added 'expressions' and 'copy'.
+//           Added 'write' and 'read' for Snapshot.
+//
 //=========================================================================
 
 package units;
 
-import java.util.Hashtable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
 
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
@@ -56,9 +67,10 @@ class Alias extends Entity
   final String unitList;
 
   //-------------------------------------------------------------------
-  //  Table of Aliases.
+  /**  Table of Aliases in the current UnitsEngine. */
   //-------------------------------------------------------------------
-  static Hashtable<String,Alias> table = null;
+  static Map<String,Alias> table()
+    { return UnitsEngine.current().aliases; }
 
 
   //=====================================================================
@@ -84,7 +96,7 @@ class Alias extends Entity
   /**
    *  Constructs an Alias object from a parsed '!unitlist' statement.
    *  Checks the name and, if correct, enters the object into Alias table.
-   *  Writes diagnostics to Env.out.
+   *  Writes diagnostics to Env.out().
    *
    *  @param  name  the alias.
    *  @param  ulist the unit list.
@@ -100,7 +112,7 @@ class Alias extends Entity
 
       if (diag!=null)
       {
-         Env.out.println
+         Env.out().println
            (loc.where() + ". Alias '" + name
             + "' is ignored. It " + diag + ".");
          return;
@@ -109,14 +121,14 @@ class Alias extends Entity
       //---------------------------------------------------------------
       //  Install the alias in table.
       //---------------------------------------------------------------
-      Alias old = table.put(name, new Alias(name,ulist,loc ));
+      Alias old = table().put(name, new Alias(name,ulist,loc ));
 
       //---------------------------------------------------------------
       //  Write a message if an earlier definition was replaced.
       //---------------------------------------------------------------
       if (old!=null)
       {
-        Env.out.println
+        Env.out().println
           ("Unit list '" + name + "' defined in " + old.location.where() +
            ", is redefined in " + loc.where() + ".");
       }
@@ -138,8 +150,8 @@ void check()
       //  If requested, write check trace.
       //---------------------------------------------------------------
       String where = location.where() + ". ";
-      if (Env.verbose==2)
-        Env.out.println(where + "Doing '" + name + "'.");
+      if (Env.verbose()==2)
+        Env.out().println(where + "Doing '" + name + "'.");
 
       //---------------------------------------------------------------
       //  Check the unit list for correctness.
@@ -148,30 +160,30 @@ void check()
       { UnitList ul = new UnitList(unitList); }
       catch(EvalError e)
       {
-        Env.out.println
+        Env.out().println
             (where + "Unit list '" + name + "'. " + e.getMessage());
       }
 
       //---------------------------------------------------------------
       //  Alias must be different from function, unit, and prefix.
       //---------------------------------------------------------------
-      Function func = DefinedFunction.table.get(name);
+      Function func = DefinedFunction.table().get(name);
       if (func!=null)
-        Env.out.println
+        Env.out().println
           (where + "Unit list '" + name +
            "' hides the function defined in " +
            func.location.where() + ".");
 
-      Unit unit = Unit.table.get(name);
+      Unit unit = Unit.table().get(name);
       if (unit!=null)
-        Env.out.println
+        Env.out().println
           (where + "Unit list '" + name +
            "' hides the unit defined in " +
            unit.location.where() + ".");
 
-      Prefix pref = Prefix.table.get(name);
+      Prefix pref = Prefix.table().get(name);
       if (pref!=null)
-        Env.out.println
+        Env.out().println
           (where + "Unit list '" + name +
            "' hides the prefix defined in " +
            pref.location.where() + ".");
@@ -195,7 +207,7 @@ boolean conformsTo(final Value v)
       UnitList ul;
       try { ul = new UnitList(unitList); }
       catch(EvalError e) { return false; }
-      return ul.value[0].isCompatibleWith(v,Ignore.DIMLESS);
+      return ul.conformsTo(v);
     }
 
 
@@ -211,7 +223,7 @@ boolean conformsTo(final Value v)
    */
   static String showdef(final String name)
     {
-      Alias alias = Alias.table.get(name);
+      Alias alias = Alias.table().get(name);
       if (alias!=null) return "unit list, " + alias.unitList;
       else return null;
     }
@@ -229,4 +241,57 @@ boolean conformsTo(final Value v)
   @Override
 String desc()
     { return ("= " + unitList); }
+
+
+  //=====================================================================
+  //  expressions
+  //=====================================================================
+  /**
+   *  Returns the unit list of this Alias.
+   *
+   *  @return one-element array with the unit list.
+   */
+  @Override
+String[] expressions()
+    { return new String[]{unitList}; }
+
+
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this Alias.
+   *
+   *  @return the copy.
+   */
+  @Override
+Alias copy()
+    { return new Alias(name,unitList,location); }
+
+
+  //=====================================================================
+  //  write / read
+  //=====================================================================
+  /**
+   *  Writes the unit list of this Alias to a Snapshot.
+   *
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  @Override
+void write(final DataOutput out) throws IOException
+    { out.writeUTF(unitList); }
+
+  /**
+   *  Constructs Alias from unit list written by 'write'.
+   *
+   *  @param  name the alias.
+   *  @param  loc  location where defined.
+   *  @param  in   the input.
+   *  @return the Alias.
+   *  @throws IOException if reading failed.
+   */
+  static Alias read(final String name, final Location loc, final DataInput in)
+    throws IOException
+    { return new Alias(name,in.readUTF(),loc); }
 }
@@ -46,11 +46,16 @@
 //           was superfluous: each invocation has own static variables.
 //    120326 Instantiate and use 'Env.guiFont'.
 //
+//  Version 1.89.J02.
+//    261017 Import 'java.awt.Dimension' explicitly: the package
+//           has now its own class 'Dimension'.
+//
 //=========================================================================
 
 package units;
 
 import java.awt.*;
+import java.awt.Dimension;
 import java.awt.event.*;
 import javax.swing.*;
 
@@ -47,11 +47,21 @@
 //           defined in Product and Value.
 //    120209 Clarified error messages about undefined result.
 //
+//  Version 1.89.J02
+//    261017 Use 'mult' and 'div' of Value to add radian,
+//           so that the Value knows its dimension has changed.
+//           Moved computation of result to 'compute'. Added 'lower'.
+//           Table is kept in UnitsEngine; 'radian' saved in each object.
+//           Table is a Map: a FrozenMap after loading.
+//           Added 'expressions' and 'copy'.
+//           Added 'write'.
+//
 //=========================================================================
 
 package units;
 
-import java.util.Hashtable;
+import java.io.DataOutput;
+import java.util.Map;
 
 
 
@@ -67,9 +77,10 @@ import java.util.Hashtable;
 class BuiltInFunction extends Function
 {
   //-------------------------------------------------------------------
-  /**  Table of built-in functions. */
+  /**  Table of built-in functions in the current UnitsEngine. */
   //-------------------------------------------------------------------
-  static Hashtable<String,BuiltInFunction> table = null;
+  static Map<String,BuiltInFunction> table()
+    { return UnitsEngine.current().builtins; }
 
   //-------------------------------------------------------------------
   /**  Argument and result type. */
@@ -96,9 +107,10 @@ class BuiltInFunction extends Function
   private enum proc {SIN,COS,TAN,LN,LOG,LOG2,EXP,ASIN,ACOS,ATAN,SQRT,CBRT};
 
   //-------------------------------------------------------------------
-  /**  Radian (an angle is a unit reducible to radians). */
+  /**  Radian (an angle is a unit reducible to radians)
+   *   in the UnitsEngine of this function, or null if not defined. */
   //-------------------------------------------------------------------
-  private static Unit radian;
+  private final Unit radian;
 
 
   //=====================================================================
@@ -110,12 +122,14 @@ class BuiltInFunction extends Function
    *  @param name     function name.
    *  @param funcType code for argument and result type.
    *  @param procID   procedure code.
+   *  @param radian   radian unit.
    */
-  BuiltInFunction(String name, type funcType, proc procID)
+  BuiltInFunction(String name, type funcType, proc procID, Unit radian)
     {
       super(name,new Location());
       this.funcType = funcType;
       this.procID   = procID;
+      this.radian   = radian;
     }
 
   //=====================================================================
@@ -127,9 +141,11 @@ class BuiltInFunction extends Function
    *  @param name     function name.
    *  @param funcType code for argument and result type.
    *  @param procID   procedure code.
+   *  @param radian   radian unit.
    */
-  private static void insert(String name, type funcType, proc procID)
-    { table.put(name, new BuiltInFunction(name,funcType,procID)); }
+  private static void insert
+    (String name, type funcType, proc procID, Unit radian)
+    { table().put(name, new BuiltInFunction(name,funcType,procID,radian)); }
 
 
   //=====================================================================
@@ -140,25 +156,23 @@ class BuiltInFunction extends Function
    */
   static void makeTable()
     {
-      insert("sin",     type.ANGLEIN, proc.SIN);
-      insert("cos",     type.ANGLEIN, proc.COS);
-      insert("tan",     type.ANGLEIN, proc.TAN);
-      insert("ln",      type.DIMLESS, proc.LN);
-      insert("log",     type.DIMLESS, proc.LOG);
-      insert("log2",    type.DIMLESS, proc.LOG2);
-      insert("exp",     type.DIMLESS, proc.EXP);
-      insert("acos",    type.ANGLEOUT,proc.ACOS);
-      insert("atan",    type.ANGLEOUT,proc.ATAN);
-      insert("asin",    type.ANGLEOUT,proc.ASIN);
-      insert("sqrt",    type.NOCHECK, proc.SQRT);
-      insert("cuberoot",type.NOCHECK, proc.CBRT);
-
       //---------------------------------------------------------------
-      //  Make sure radian is defined and save its object.
+      //  Find radian object. It is saved in the functions.
       //---------------------------------------------------------------
-      Unit r = Unit.table.get("radian");
-      if (r!=null) radian = r;
-      else r = new Unit("radian",new Location(),"!");
+      Unit r = Unit.table().get("radian");
+
+      insert("sin",     type.ANGLEIN, proc.SIN, r);
+      insert("cos",     type.ANGLEIN, proc.COS, r);
+      insert("tan",     type.ANGLEIN, proc.TAN, r);
+      insert("ln",      type.DIMLESS, proc.LN,  r);
+      insert("log",     type.DIMLESS, proc.LOG, r);
+      insert("log2",    type.DIMLESS, proc.LOG2,r);
+      insert("exp",     type.DIMLESS, proc.EXP, r);
+      insert("acos",    type.ANGLEOUT,proc.ACOS,r);
+      insert("atan",    type.ANGLEOUT,proc.ATAN,r);
+      insert("asin",    type.ANGLEOUT,proc.ASIN,r);
+      insert("sqrt",    type.NOCHECK, proc.SQRT,r);
+      insert("cuberoot",type.NOCHECK, proc.CBRT,r);
     }
 
 
@@ -183,7 +197,7 @@ void applyTo(Value v)
           if (!v.isNumber())
           {
             String s = v.asString();
-            v.denominator.add(radian);
+            v.div(radian);
             if (!v.isNumber())
               throw new EvalError("Argument '" + s + "' of '" +
                             name + "' is not a number or angle.");
@@ -207,55 +221,141 @@ void applyTo(Value v)
       //---------------------------------------------------------------
       //  Apply the function
       //---------------------------------------------------------------
-      double arg = v.factor;
       switch (procID)
       {
-        case SIN:  v.factor = Math.sin(arg); break;
-        case COS:  v.factor = Math.cos(arg); break;
-        case TAN:  v.factor = Math.tan(arg); break;
-        case LN:   v.factor = Math.log(arg); break;
-        case LOG:  v.factor = Math.log(arg)/Math.log(10); break;
-        case LOG2: v.factor = Math.log(arg)/Math.log(2); break;
-        case EXP:  v.factor = Math.exp(arg); break;
-        case ASIN: v.factor = Math.asin(arg); break;
-        case ACOS: v.factor = Math.acos(arg); break;
-        case ATAN: v.factor = Math.atan(arg); break;
-        case SQRT: v.root(2); break;
-        case CBRT: v.root(3); break;
+        case SQRT: v.root(2); return;
+        case CBRT: v.root(3); return;
+        default:   v.factor = compute(v.factor);
+      }
+
+      //---------------------------------------------------------------
+      //  Result of a function returning angle is in radians.
+      //---------------------------------------------------------------
+      if (funcType==type.ANGLEOUT)
+        v.mult(radian);
+    }
+
+
+  //=====================================================================
+  //  compute
+  //=====================================================================
+  /**
+   *  Computes the numeric result of this function.
+   *  Not used for 'sqrt' and 'cuberoot', that apply to
+   *  Values with dimension.
+   *
+   *  @param  arg the argument: a number, or angle in radians.
+   *  @return the result: a number, or angle in radians.
+   */
+  double compute(double arg)
+    {
+      double result;
+      switch (procID)
+      {
+        case SIN:  result = Math.sin(arg); break;
+        case COS:  result = Math.cos(arg); break;
+        case TAN:  result = Math.tan(arg); break;
+        case LN:   result = Math.log(arg); break;
+        case LOG:  result = Math.log(arg)/Math.log(10); break;
+        case LOG2: result = Math.log(arg)/Math.log(2); break;
+        case EXP:  result = Math.exp(arg); break;
+        case ASIN: result = Math.asin(arg); break;
+        case ACOS: result = Math.acos(arg); break;
+        case ATAN: result = Math.atan(arg); break;
         default: throw new Error("Program Error; procID=" + procID);
       }
 
       //---------------------------------------------------------------
       //  Check result
       //---------------------------------------------------------------
-      double result = v.factor;
-      boolean NaN = Double.isNaN(result) | Double.isInfinite(result);
+      if (Double.isNaN(result) | Double.isInfinite(result))
+        throw new EvalError("The result of " +
+                            name + "(" + arg + ") is undefined.");
+      return result;
+    }
 
-      switch (funcType)
+
+  //=====================================================================
+  //  lower
+  //=====================================================================
+  /**
+   *  Lowers application of this function to a lowered argument
+   *  (see 'lower' in Expr).
+   *
+   *  @param  arg the lowered argument.
+   *  @return the lowered result, or null if the dimension
+   *          of 'arg' is not accepted by this function.
+   */
+  Conversion.Lowered lower(final Conversion.Lowered arg)
+    {
+      Dimension d;
+      switch (procID)
       {
-        case ANGLEIN:   //-------- Must be a number
-        case DIMLESS:
-          if (NaN)
-            throw new EvalError("The result of " +
-                            name + "(" + arg + ") is undefined.");
+        case SQRT:
+          d = arg.dim.root(2);
+          return d==null? null
+                 : new Conversion.Lowered(d,Conversion.root(arg.fn,2));
+        case CBRT:
+          d = arg.dim.root(3);
+          return d==null? null
+                 : new Conversion.Lowered(d,Conversion.root(arg.fn,3));
+        default:
           break;
+      }
 
-        case ANGLEOUT:  //-------- Must be an angle
-          if (NaN)
-            throw new EvalError("The result of " +
-                            name + "(" + arg + ") is undefined.");
-            v.numerator.add(radian);
-          break;
+      if (radian==null) return null;
+      Dimension angle = radian.reduced().dim;
+      if (arg.dim!=Dimension.ONE
+          && !(funcType==type.ANGLEIN && arg.dim==angle))
+        return null;
 
-        case NOCHECK:   //-------- No checking
-          break;
+      d = (funcType==type.ANGLEOUT)? angle : Dimension.ONE;
+      return new Conversion.Lowered(d,Conversion.apply(this,arg.fn));
+    }
 
-        default:        //-------- No other type exists
-          throw new Error("Program Error; funcType=" + funcType);
-      }
+
+  //=====================================================================
+  //  expressions
+  //=====================================================================
+  /**
+   *  Returns the name of radian, used to check and produce angles.
+   *
+   *  @return one-element array with "radian".
+   */
+  @Override
+String[] expressions()
+    { return new String[]{"radian"}; }
+
+
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this function that uses radian
+   *  of the current UnitsEngine.
+   *
+   *  @return the copy.
+   */
+  @Override
+BuiltInFunction copy()
+    {
+      return new BuiltInFunction
+        (name,funcType,procID,Unit.table().get("radian"));
     }
 
 
+  //=====================================================================
+  //  write
+  //=====================================================================
+  /**
+   *  Built-in functions are not saved in a Snapshot:
+   *  they are created again by 'makeTable'.
+   */
+  @Override
+void write(final DataOutput out)
+    { throw new Error("Program Error; built-in function '" + name + "' saved."); }
+
+
   //=====================================================================
   //  These methods, defined in Entity and Function classes,
   //  are never invoked for a BuiltInFunction.
@@ -59,10 +59,27 @@
 //    120318 In 'check': check name conflict using 'checkHiding'.
 //    120402 In 'check': added checking of inverse parameter.
 //
+//  Version 1.89.J02
+//    261017 FuncDef: keep reduced parameter dimension as Quantity,
+//           instead of parsing it on each application.
+//           FuncDef: evaluate compiled definition.
+//           Added 'lower' and 'parameter'.
+//           Use options bound to the current thread.
+//           Added 'expressions' and 'copy'.
+//           Added 'parameters'. Circular function is not applied.
+//           Added 'write' and 'read' for Snapshot.
+//           Added 'prepare'.
+//           'lower' and 'parameter' override those of DefinedFunction.
+//           Message about redefinition written by 'redefined' in DefinedFunction.
+//
 //=========================================================================
 
 package units;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
 //
@@ -136,7 +153,7 @@ class ComputedFunction extends DefinedFunction
 
       if (diag!=null)
       {
-         Env.out.println
+         Env.out().println
            (loc.where() + ". Function '" + name
             + "' is ignored. Its name " + diag + ".");
          return;
@@ -145,7 +162,7 @@ class ComputedFunction extends DefinedFunction
       //---------------------------------------------------------------
       //  Install the function in table.
       //---------------------------------------------------------------
-      Function old = table.put(name,new ComputedFunction
+      Function old = table().put(name,new ComputedFunction
                                           (name,loc,
                                            param,fwddef,fwddim,
                                            name,invdef,invdim));
@@ -153,12 +170,7 @@ class ComputedFunction extends DefinedFunction
       //---------------------------------------------------------------
       //  Write a message if an earlier definition is replaced.
       //---------------------------------------------------------------
-      if (old!=null)
-      {
-        Env.out.println
-          ("Function '" + name + "' defined in " + old.location.where() +
-           ", is redefined in " + loc.where() + ".");
-      }
+      if (old!=null) redefined(name,old.location,loc);
      }
 
 
@@ -189,6 +201,38 @@ void applyTo(Value v)
 void applyInverseTo(Value v)
     { inverse.applyTo(v,"~"); }
 
+  //=====================================================================
+  //  lower
+  //=====================================================================
+  /**
+   *  Lowers application of this function or its inverse
+   *  to a lowered argument (see 'lower' in Expr).
+   *
+   *  @param  arg the lowered argument.
+   *  @param  inv true for the inverse function.
+   *  @return the lowered result, or null if the definition
+   *          cannot be lowered for 'arg'.
+   */
+  @Override
+Conversion.Lowered lower(final Conversion.Lowered arg, boolean inv)
+    { return inv? inverse.lower(arg,"~") : forward.lower(arg,""); }
+
+
+  //=====================================================================
+  //  parameter
+  //=====================================================================
+  /**
+   *  Obtains reduced dimension of the parameter
+   *  of this function or its inverse.
+   *
+   *  @param  inv true for the inverse function.
+   *  @return the dimension as Quantity, or null if not specified.
+   */
+  @Override
+Quantity parameter(boolean inv)
+    { return inv? inverse.dimension("~") : forward.dimension(""); }
+
+
   //=====================================================================
   //  showdef
   //=====================================================================
@@ -214,8 +258,8 @@ String showdef()
   @Override
 void check()
     {
-      if (Env.verbose==2)
-        Env.out.println(location.where() + ". Doing function " + name);
+      if (Env.verbose()==2)
+        Env.out().println(location.where() + ". Doing function " + name);
 
       //---------------------------------------------------------------
       //  Function name must be different from that of alias, unit,
@@ -235,7 +279,7 @@ void check()
         { Value.parse(inverse.dimen); }
         catch (EvalError e)
         {
-          Env.out.println
+          Env.out().println
             (location.where() + ". Dimension '" + inverse.dimen +
              "' specified for argument of '~" + name +
              "' is invalid. " + e.getMessage() + ".");
@@ -258,7 +302,7 @@ void check()
         }
         catch (EvalError e)
         {
-          Env.out.println
+          Env.out().println
             (location.where() + ". Dimension '" + forward.dimen +
              "' specified for argument of '" + name +
              "' is invalid. " + e.getMessage() + ".");
@@ -271,7 +315,7 @@ void check()
       //---------------------------------------------------------------
       if (inverse.def==null)
       {
-        Env.out.println
+        Env.out().println
           (location.where() + ". Warning: no inverse for function '" +
            name + "'.");
         return;
@@ -299,7 +343,7 @@ void check()
       { applyTo(v); }
       catch (EvalError e)
       {
-        Env.out.println
+        Env.out().println
           (location.where() +
            ". Warning: inverse was not checked for '" +
            name + "'.");
@@ -319,14 +363,14 @@ void check()
         v.completereduce();
         double delta = v.factor-1;
         if (!v.isNumber() || delta<-1e-12 || delta>1e-12)
-          Env.out.println
+          Env.out().println
             (location.where() +
              ". Inverse is not the inverse for function '" +
              name + "'.");
       }
       catch (EvalError e)
       {
-        Env.out.println
+        Env.out().println
           (location.where() + ". Error in '~" + name + "(" +
            inverse.param + ")' defined as '" + inverse.def + "'.");
       }
@@ -377,6 +421,112 @@ String desc()
     { return "<function>"; }
 
 
+  //=====================================================================
+  //  expressions
+  //=====================================================================
+  /**
+   *  Returns the definitions and parameter dimensions
+   *  of this function and its inverse.
+   *
+   *  @return four-element array; dimensions may be null.
+   */
+  @Override
+String[] expressions()
+    {
+      return new String[]
+        {forward.def,forward.dimen,inverse.def,inverse.dimen};
+    }
+
+
+  //=====================================================================
+  //  parameters
+  //=====================================================================
+  /**
+   *  Returns the parameters of this function and its inverse.
+   *
+   *  @return two-element array with the parameters.
+   */
+  @Override
+String[] parameters()
+    { return new String[]{forward.param,inverse.param}; }
+
+
+  //=====================================================================
+  //  prepare
+  //=====================================================================
+  /**
+   *  Compiles the forward and inverse definitions
+   *  and reduces the parameter dimensions.
+   */
+  @Override
+void prepare()
+    {
+      if (circular) return;
+      forward.prepare("");
+      inverse.prepare("~");
+    }
+
+
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this function without the compiled
+   *  definitions and reduced dimensions.
+   *
+   *  @return the copy.
+   */
+  @Override
+ComputedFunction copy()
+    {
+      return new ComputedFunction
+        (name,location,
+         forward.param,forward.def,forward.dimen,
+         inverse.param,inverse.def,inverse.dimen);
+    }
+
+
+  //=====================================================================
+  //  write / read
+  //=====================================================================
+  /**
+   *  Writes the forward and inverse definitions to a Snapshot.
+   *
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  @Override
+void write(final DataOutput out) throws IOException
+    {
+      String[] s = { forward.param, forward.def, forward.dimen,
+                     inverse.param, inverse.def, inverse.dimen };
+      for (String t: s)
+      {
+        out.writeBoolean(t!=null);
+        if (t!=null) out.writeUTF(t);
+      }
+    }
+
+  /**
+   *  Constructs ComputedFunction from definitions written by 'write'.
+   *
+   *  @param  name function name.
+   *  @param  loc  location where defined.
+   *  @param  in   the input.
+   *  @return the ComputedFunction.
+   *  @throws IOException if reading failed.
+   */
+  static ComputedFunction read
+    (final String name, final Location loc, final DataInput in)
+    throws IOException
+    {
+      String[] s = new String[6];
+      for (int i=0;i<6;i++)
+        s[i] = in.readBoolean()? in.readUTF() : null;
+      return new ComputedFunction(name,loc,s[0],s[1],s[2],s[3],s[4],s[5]);
+    }
+
+
   //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
   //
   //  Inner class FuncDef
@@ -391,6 +541,12 @@ String desc()
     String def;   // Definition
     String dimen; // Dimension of parameter
 
+    // Reduced 'dimen', or null if not yet computed.
+    private volatile Quantity dimension = null;
+
+    // Compiled 'def', or null if not yet compiled.
+    private volatile Expr compiled = null;
+
     //===================================================================
     //  Constructor
     //===================================================================
@@ -419,29 +575,22 @@ String desc()
      */
     void applyTo(Value v, String inv)
       {
+        if (circular)
+          throw new EvalError("Definition of '" + name + "' is circular.");
         v.completereduce();
-        if (dimen!=null)
-        {
-          Value dim;
-          try
-          { dim = Value.parse(dimen); }
-          catch (EvalError e)
-          {
-            throw new EvalError("Invalid argument dimension, "
-                            + dimen + ", of function " + inv + name +
-                            ". " + e.getMessage());
-          }
-          dim.completereduce();
-          if (!dim.isCompatibleWith(v,Ignore.NONE))
+        Quantity dim = dimension(inv);
+        if (dim!=null && !dim.conformsTo(v.quantity(),Ignore.NONE))
           throw new EvalError("Argument " + v.asString() +
                             " of function " + inv + name +
                             " is not conformable to " +
                             dim.asString() + ".");
-        }
 
         Value result;
         try
-        { result = Value.parse(def,param,v); }
+        {
+          Expr expr = compiled();
+          result = (expr!=null)? expr.eval(v) : Value.parse(def,param,v);
+        }
         catch (EvalError e)
         {
           throw new EvalError("Invalid application of function '" +
@@ -451,5 +600,100 @@ String desc()
         v.copyFrom(result);
       }
 
+    //===================================================================
+    //  lower
+    //===================================================================
+    /**
+     *  Lowers the definition for a lowered argument.
+     *
+     *  @param  arg the lowered argument.
+     *  @param  inv "~" for inverse definition, otherwise "".
+     *  @return the lowered result, or null if the definition
+     *          cannot be lowered for 'arg'.
+     */
+    Conversion.Lowered lower(final Conversion.Lowered arg, String inv)
+      {
+        if (def==null || circular) return null;
+        Quantity dim = dimension(inv);
+        if (dim!=null && dim.dim!=arg.dim) return null;
+        Expr expr = compiled();
+        return expr==null? null : expr.lower(arg);
+      }
+
+    //===================================================================
+    //  dimension
+    //===================================================================
+    /**
+     *  Obtains reduced dimension of the parameter,
+     *  reducing it if needed.
+     *
+     *  @param  inv "~" for inverse definition, otherwise "".
+     *  @return the dimension as Quantity, or null if not specified.
+     */
+    Quantity dimension(String inv)
+      {
+        if (dimen==null) return null;
+        Quantity dim = dimension;
+        if (dim==null)
+        {
+          Value d;
+          try
+          { d = Value.parse(dimen); }
+          catch (EvalError e)
+          {
+            throw new EvalError("Invalid argument dimension, "
+                            + dimen + ", of function " + inv + name +
+                            ". " + e.getMessage());
+          }
+          d.completereduce();
+          dim = d.quantity();
+          dimension = dim;
+        }
+        return dim;
+      }
+
+    //===================================================================
+    //  prepare
+    //===================================================================
+    /**
+     *  Compiles the definition and reduces dimension of the parameter,
+     *  ignoring errors.
+     *
+     *  @param inv "~" for inverse definition, otherwise "".
+     */
+    void prepare(String inv)
+      {
+        if (def==null) return;
+        compiled();
+        try
+        { dimension(inv); }
+        catch (EvalError e)
+        { /* Reported when applied. */ }
+      }
+
+    //===================================================================
+    //  compiled
+    //===================================================================
+    /**
+     *  Obtains compiled definition, compiling it if needed.
+     *
+     *  @return the compiled definition, or null if it cannot
+     *          be compiled. (The error is then reported
+     *          by parsing the definition.)
+     */
+    private Expr compiled()
+      {
+        Expr expr = compiled;
+        if (expr==null)
+        {
+          try
+          { expr = Value.compile(def,param); }
+          catch (EvalError e)
+          { return null; }
+          compiled = expr;
+        }
+        return expr;
+      }
+
   } // end FuncDef
 }
@@ -0,0 +1,699 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Obtained by 'conversion' in UnitsEngine.
+//           Lowers tabular functions.
+//
+//=========================================================================
+
+package units;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class Conversion
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Numeric conversion function: computes a number from a number,
+ *  without constructing any Value.
+ *  <p>
+ *  A Conversion is obtained by 'of', which lowers the compiled
+ *  definitions of the units or functions involved (see 'lower'
+ *  in Expr). The dimensions are checked once, when the Conversion
+ *  is constructed; what remains is arithmetic on the factors
+ *  of reduced Values. Subexpressions that are affine in the argument,
+ *  such as the definitions of temperature scales, are folded
+ *  into a single 'a*x+b'.
+ *  <p>
+ *  This is an optional backend for programs that convert many
+ *  numbers the same way; they obtain it by 'conversion' in UnitsEngine.
+ *  Because operations are reassociated, the results may differ
+ *  from those of 'convert' in the last digits.
+ *  <p>
+ *  Conversion objects are immutable and can be shared between threads.
+ */
+
+abstract class Conversion
+{
+  //=====================================================================
+  //  apply
+  //=====================================================================
+  /**
+   *  Applies this Conversion to a number.
+   *
+   *  @param  x the argument.
+   *  @return the result.
+   */
+  abstract double apply(double x);
+
+
+  //=====================================================================
+  //  apply
+  //=====================================================================
+  /**
+   *  Applies this Conversion to an array of numbers.
+   *
+   *  @param x the arguments.
+   *  @param y array to receive the results. May be the same as 'x'.
+   */
+  void apply(final double[] x, final double[] y)
+    {
+      for (int i=0;i<x.length;i++)
+        y[i] = apply(x[i]);
+    }
+
+
+  //=====================================================================
+  //  isConstant
+  //=====================================================================
+  /**
+   *  Checks if this Conversion does not depend on its argument.
+   *
+   *  @return true if this is a Constant.
+   */
+  boolean isConstant()
+    { return false; }
+
+
+  //=====================================================================
+  //  of
+  //=====================================================================
+  /**
+   *  Constructs Conversion between two units or functions.
+   *  A unit expression 'u' as 'from' means 'x u', and as 'to'
+   *  it means conversion to a multiple of 'u'. A function name
+   *  'f' as 'from' means 'f(x)', and as 'to' it means '~f'.
+   *  A function name preceded by '~' means the inverse function.
+   *  The functions may be computed or tabular.
+   *
+   *  @param  from unit expression or function name to convert from.
+   *  @param  to   unit expression or function name to convert to.
+   *  @return the Conversion.
+   */
+  static Conversion of(final String from, final String to)
+    {
+      Lowered x = source(from.trim());
+      Lowered y;
+
+      DefinedFunction f = function(to.trim());
+      if (f!=null)
+        y = f.lower(x,!to.trim().startsWith("~"));
+      else
+      {
+        Value v = Value.parse(to);
+        v.completereduce();
+        if (!x.dim.conformsTo(v.dimension(),Ignore.DIMLESS))
+          throw new EvalError("Units '" + from + "' and '" + to
+                            + "' are not conformable.");
+        y = new Lowered(v.dimension(),divide(x.fn,constant(v.factor)));
+      }
+
+      if (y==null)
+        throw new EvalError("Conversion from '" + from + "' to '"
+                          + to + "' cannot be compiled.");
+      return y.fn;
+    }
+
+
+  //=====================================================================
+  //  source
+  //=====================================================================
+  /**
+   *  Lowers the argument part of 'of'.
+   *
+   *  @param  from unit expression or function name.
+   *  @return the lowered argument.
+   */
+  private static Lowered source(final String from)
+    {
+      DefinedFunction f = function(from);
+      if (f!=null)
+      {
+        boolean inverse = from.startsWith("~");
+        Quantity q = f.parameter(inverse);
+        Dimension d = q==null? Dimension.ONE : q.dim;
+        Lowered x = f.lower(new Lowered(d,IDENTITY),inverse);
+        if (x==null)
+          throw new EvalError("Function '" + from
+                            + "' cannot be compiled.");
+        return x;
+      }
+
+      Value v = Value.parse(from);
+      v.completereduce();
+      return new Lowered(v.dimension(),times(IDENTITY,constant(v.factor)));
+    }
+
+
+  //=====================================================================
+  //  function
+  //=====================================================================
+  /**
+   *  Finds DefinedFunction with given name.
+   *
+   *  @param  name function name, possibly preceded by '~'.
+   *  @return the function, or null if there is none.
+   */
+  private static DefinedFunction function(final String name)
+    {
+      String s = name;
+      if (s.startsWith("~")) s = s.substring(1).trim();
+      return DefinedFunction.table().get(s);
+    }
+
+
+  //=====================================================================
+  //  Factory methods
+  //=====================================================================
+  /** Conversion that returns its argument. */
+  static final Conversion IDENTITY = new Affine(1,0);
+
+  /**
+   *  Constructs Conversion that returns a constant.
+   *
+   *  @param  c the constant.
+   *  @return the Conversion.
+   */
+  static Conversion constant(double c)
+    { return new Constant(c); }
+
+  /**
+   *  Constructs Conversion that returns 'f(x) + g(x)'.
+   */
+  static Conversion plus(final Conversion f, final Conversion g)
+    {
+      if (f instanceof Affine && g instanceof Affine)
+      {
+        Affine a = (Affine)f;
+        Affine b = (Affine)g;
+        return affine(a.a+b.a,a.b+b.b,f,g);
+      }
+      return fold(new Sum(f,g),f,g);
+    }
+
+  /**
+   *  Constructs Conversion that returns 'f(x) * g(x)'.
+   */
+  static Conversion times(final Conversion f, final Conversion g)
+    {
+      if (f instanceof Affine && g.isConstant())
+        return scale((Affine)f,((Constant)g).b,f,g);
+      if (g instanceof Affine && f.isConstant())
+        return scale((Affine)g,((Constant)f).b,f,g);
+      return fold(new Product(f,g),f,g);
+    }
+
+  /**
+   *  Constructs Conversion that returns 'f(x) / g(x)'.
+   *  Division by zero is an error.
+   */
+  static Conversion divide(final Conversion f, final Conversion g)
+    {
+      if (f instanceof Affine && g.isConstant() && ((Constant)g).b!=0)
+      {
+        Affine a = (Affine)f;
+        double c = ((Constant)g).b;
+        return affine(a.a/c,a.b/c,f,g);
+      }
+      return fold(new Quotient(f,g),f,g);
+    }
+
+  /**
+   *  Constructs Conversion that returns '-f(x)'.
+   */
+  static Conversion negate(final Conversion f)
+    {
+      if (f instanceof Affine)
+        return scale((Affine)f,-1,f,f);
+      return new Product(f,constant(-1));
+    }
+
+  /**
+   *  Constructs Conversion that returns '1 / f(x)'.
+   *  Division by zero is an error.
+   */
+  static Conversion invert(final Conversion f)
+    { return fold(new Inverse(f),f,f); }
+
+  /**
+   *  Constructs Conversion that returns 'f(x)^n'
+   *  for nonnegative integer 'n'.
+   */
+  static Conversion power(final Conversion f, int n)
+    {
+      if (n==1) return f;
+      return fold(new IntPower(f,n),f,f);
+    }
+
+  /**
+   *  Constructs Conversion that returns n-th root of 'f(x)'.
+   *  Even root of a negative number is an error.
+   */
+  static Conversion root(final Conversion f, int n)
+    { return fold(new Root(f,n),f,f); }
+
+  /**
+   *  Constructs Conversion that returns 'f(x)^p' for nonnegative 'p'.
+   *  Undefined result is an error.
+   */
+  static Conversion power(final Conversion f, double p)
+    { return fold(new RealPower(f,p),f,f); }
+
+  /**
+   *  Constructs Conversion that returns 'f(x)^g(x)'
+   *  computed in the same way as 'power' in Value.
+   */
+  static Conversion power(final Conversion f, final Conversion g)
+    { return fold(new VarPower(f,g),f,g); }
+
+  /**
+   *  Constructs Conversion that returns the value of
+   *  built-in function 'func' for 'f(x)'.
+   */
+  static Conversion apply(final BuiltInFunction func, final Conversion f)
+    { return fold(new Builtin(func,f),f,f); }
+
+  /**
+   *  Constructs Conversion that returns the value of
+   *  tabular function 'func', or its inverse, for 'f(x)'.
+   */
+  static Conversion apply
+    (final TabularFunction func, final Conversion f, boolean inv)
+    { return fold(new Tabular(func,f,inv),f,f); }
+
+
+  //=====================================================================
+  //  affine / scale / fold
+  //=====================================================================
+  /**
+   *  Constructs Affine 'a*x+b', or Constant if 'f' and 'g' are constant.
+   */
+  private static Conversion affine
+    (double a, double b, final Conversion f, final Conversion g)
+    {
+      if (f.isConstant() && g.isConstant())
+        return constant(b);
+      return new Affine(a,b);
+    }
+
+  /**
+   *  Constructs Affine for 'f(x) * c'.
+   */
+  private static Conversion scale
+    (final Affine f, double c, final Conversion g, final Conversion h)
+    { return affine(f.a*c,f.b*c,g,h); }
+
+  /**
+   *  Replaces Conversion 'c' by Constant if 'f' and 'g' are constant.
+   *  If the constant cannot be computed, the error is left
+   *  to be reported when the Conversion is applied.
+   */
+  private static Conversion fold
+    (final Conversion c, final Conversion f, final Conversion g)
+    {
+      if (!f.isConstant() || !g.isConstant()) return c;
+      try
+      { return constant(c.apply(0)); }
+      catch (EvalError e)
+      { return c; }
+    }
+
+
+  //=====================================================================
+  //  Numeric counterparts of Value operations
+  //=====================================================================
+  /**
+   *  'power(int n)' of Value.
+   */
+  static double power(double b, int n)
+    {
+      double fac = 1.0;
+      for (int i=0;i<n;i++)
+        fac *= b;
+      return fac;
+    }
+
+  /**
+   *  Numeric part of 'root' of Value.
+   */
+  static double root(double b, int n)
+    {
+      if (n==0 || (n%2==0 && b<0))
+        throw new EvalError("Illegal n-th root of " + b
+                          +  ", n=" + n + ".");
+      if (b>=0)
+        return Math.pow(b,1.0/n);
+      else
+        return -Math.pow(-b,1.0/n);
+    }
+
+  /**
+   *  'invert' of Value.
+   */
+  static double invert(double b)
+    {
+      if (b==0)
+        throw new EvalError("Division by zero.");
+      return 1.0/b;
+    }
+
+  /**
+   *  Non-integer power in 'power(Value)' of Value.
+   */
+  static double power(double b, double p)
+    {
+      double f = Math.pow(b,p);
+      if (Double.isNaN(f))
+        throw new EvalError("The result of " + b + "^" + p
+                          + " is undefined.");
+      return f;
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Lowered
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Lowered expression: Conversion that computes the factor
+   *  of the reduced Value of the expression, and the Dimension
+   *  of that Value.
+   */
+  static final class Lowered
+  {
+    final Dimension dim;
+    final Conversion fn;
+
+    Lowered(final Dimension dim, final Conversion fn)
+      {
+        this.dim = dim;
+        this.fn = fn;
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Affine
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** a*x + b. */
+  private static class Affine extends Conversion
+  {
+    final double a;
+    final double b;
+
+    Affine(double a, double b)
+      {
+        this.a = a;
+        this.b = b;
+      }
+
+    @Override
+    double apply(double x)
+      { return a*x + b; }
+
+    @Override
+    void apply(final double[] x, final double[] y)
+      {
+        for (int i=0;i<x.length;i++)
+          y[i] = a*x[i] + b;
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Constant
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Constant b, seen as affine function with a = 0. */
+  private static final class Constant extends Affine
+  {
+    Constant(double b)
+      { super(0,b); }
+
+    @Override
+    double apply(double x)
+      { return b; }
+
+    @Override
+    boolean isConstant()
+      { return true; }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Sum, Product, Quotient
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** f(x) + g(x). */
+  private static final class Sum extends Conversion
+  {
+    private final Conversion f;
+    private final Conversion g;
+
+    Sum(final Conversion f, final Conversion g)
+      {
+        this.f = f;
+        this.g = g;
+      }
+
+    @Override
+    double apply(double x)
+      { return f.apply(x) + g.apply(x); }
+  }
+
+  /** f(x) * g(x). */
+  private static final class Product extends Conversion
+  {
+    private final Conversion f;
+    private final Conversion g;
+
+    Product(final Conversion f, final Conversion g)
+      {
+        this.f = f;
+        this.g = g;
+      }
+
+    @Override
+    double apply(double x)
+      { return f.apply(x) * g.apply(x); }
+  }
+
+  /** f(x) / g(x). */
+  private static final class Quotient extends Conversion
+  {
+    private final Conversion f;
+    private final Conversion g;
+
+    Quotient(final Conversion f, final Conversion g)
+      {
+        this.f = f;
+        this.g = g;
+      }
+
+    @Override
+    double apply(double x)
+      {
+        double d = g.apply(x);
+        if (d==0)
+          throw new EvalError("Division by zero.");
+        return f.apply(x) / d;
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Inverse, IntPower, Root, RealPower
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** 1 / f(x). */
+  private static final class Inverse extends Conversion
+  {
+    private final Conversion f;
+
+    Inverse(final Conversion f)
+      { this.f = f; }
+
+    @Override
+    double apply(double x)
+      { return invert(f.apply(x)); }
+  }
+
+  /** f(x)^n for integer n. */
+  private static final class IntPower extends Conversion
+  {
+    private final Conversion f;
+    private final int n;
+
+    IntPower(final Conversion f, int n)
+      {
+        this.f = f;
+        this.n = n;
+      }
+
+    @Override
+    double apply(double x)
+      { return power(f.apply(x),n); }
+  }
+
+  /** n-th root of f(x). */
+  private static final class Root extends Conversion
+  {
+    private final Conversion f;
+    private final int n;
+
+    Root(final Conversion f, int n)
+      {
+        this.f = f;
+        this.n = n;
+      }
+
+    @Override
+    double apply(double x)
+      { return root(f.apply(x),n); }
+  }
+
+  /** f(x)^p for real p. */
+  private static final class RealPower extends Conversion
+  {
+    private final Conversion f;
+    private final double p;
+
+    RealPower(final Conversion f, double p)
+      {
+        this.f = f;
+        this.p = p;
+      }
+
+    @Override
+    double apply(double x)
+      { return power(f.apply(x),p); }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  VarPower
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** f(x)^g(x), both numbers. */
+  private static final class VarPower extends Conversion
+  {
+    private final Conversion f;
+    private final Conversion g;
+
+    VarPower(final Conversion f, final Conversion g)
+      {
+        this.f = f;
+        this.g = g;
+      }
+
+    @Override
+    double apply(double x)
+      {
+        double b = f.apply(x);
+        double p = g.apply(x);
+        double r;
+        if (Math.floor(p)==p)
+          r = power(b,(int)Math.abs(p));
+        else if (Math.floor(1.0/p)==1.0/p)
+          r = root(b,(int)Math.abs(1.0/p));
+        else
+          r = power(b,Math.abs(p));
+        return p<0? invert(r) : r;
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Builtin
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Built-in function of f(x). */
+  private static final class Builtin extends Conversion
+  {
+    private final BuiltInFunction func;
+    private final Conversion f;
+
+    Builtin(final BuiltInFunction func, final Conversion f)
+      {
+        this.func = func;
+        this.f = f;
+      }
+
+    @Override
+    double apply(double x)
+      { return func.compute(f.apply(x)); }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Tabular
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Tabular function or its inverse of f(x). */
+  private static final class Tabular extends Conversion
+  {
+    private final TabularFunction func;
+    private final Conversion f;
+    private final boolean inv;
+
+    Tabular(final TabularFunction func, final Conversion f, boolean inv)
+      {
+        this.func = func;
+        this.f = f;
+        this.inv = inv;
+      }
+
+    @Override
+    double apply(double x)
+      {
+        double[] a = {f.apply(x)};
+        func.interpolate(a,a,inv);
+        return a[0];
+      }
+
+    @Override
+    void apply(final double[] x, final double[] y)
+      {
+        f.apply(x,y);
+        func.interpolate(y,y,inv);
+      }
+  }
+}
@@ -0,0 +1,120 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           'read' does not write why the snapshot is not used.
+//
+//=========================================================================
+
+package units;
+
+import java.io.InputStream;
+import java.util.Vector;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class DefaultSnapshot
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Snapshot of the default units file, built together with
+ *  the program and included in the JAR next to 'units.dat'.
+ *  It is used by 'build' in Tables when only the default file
+ *  is used, so that the program starts without parsing it.
+ *  <p>
+ *  The snapshot is written by 'main', invoked from the build
+ *  (see 'pom.xml') after the classes are compiled.
+ *  It is an ordinary snapshot with reduced forms (see Snapshot),
+ *  and is not used if 'units.dat' in the JAR was changed after
+ *  it was built, or if another locale is specified.
+ */
+
+public class DefaultSnapshot
+{
+  //-------------------------------------------------------------------
+  /** Name of the snapshot in the JAR. */
+  //-------------------------------------------------------------------
+  static final String RESOURCE = "units.snap";
+
+
+  //=====================================================================
+  //  read
+  //=====================================================================
+  /**
+   *  Obtains engine from the snapshot, if it exists
+   *  and can be used for given files and locale.
+   *  The user did not ask for this snapshot, so the reason
+   *  for not using it is not written, also in verbose mode.
+   *
+   *  @param  filenames unit definition files.
+   *  @param  locale    locale for the definition files.
+   *  @return the engine, or null if the snapshot cannot be used.
+   */
+  static UnitsEngine read
+    (final Vector<String> filenames, final String locale)
+    {
+      InputStream is = DefaultSnapshot.class.getResourceAsStream(RESOURCE);
+      if (is==null) return null;
+      return Snapshot.read(is,RESOURCE,filenames,locale,true);
+    }
+
+
+  //=====================================================================
+  //  main
+  //=====================================================================
+  /**
+   *  Loads the default units file for the default locale
+   *  and writes its snapshot. Messages are written to System.err.
+   *
+   *  @param argv the snapshot file to be written.
+   */
+  public static void main(final String[] argv)
+    {
+      if (argv.length!=1)
+        throw new Error("Usage: DefaultSnapshot <snapshot file>");
+
+      UnitsFile.fileAcc = new UnitsFile.StandAcc();
+      Env.out = new Env.Writer()
+        {
+          void print(final String s)
+            { System.err.print(s); }
+
+          void println(final String s)
+            { System.err.println(s); }
+        };
+
+      Vector<String> filenames = new Vector<String>();
+      filenames.add(Env.UNITSFILE);
+      UnitsEngine e = new UnitsEngine(filenames,Env.LOCALE);
+      if (!e.load(null) || !Snapshot.write(e,argv[0],true))
+        throw new Error("Snapshot '" + argv[0] + "' was not built.");
+    }
+}
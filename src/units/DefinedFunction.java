@@ -41,11 +41,19 @@
 //    120312 Moved here from Value the method 'convert'.
 //    120318 Added method 'checkHiding'.
 //
+//  Version 1.89.J02.
+//    261017 Table is kept in UnitsEngine.
+//           Use options bound to the current thread.
+//           Table is a Map: a FrozenMap after loading.
+//           Added 'prepare'.
+//           Added abstract 'lower' and 'parameter'.
+//           Added 'redefined', used also by LazyTables.
+//
 //=========================================================================
 
 package units;
 
-import java.util.Hashtable;
+import java.util.Map;
 
 
 
@@ -62,9 +70,10 @@ import java.util.Hashtable;
 abstract class DefinedFunction extends Function
 {
   //-------------------------------------------------------------------
-  /**  Table of defined functions. */
+  /**  Table of defined functions in the current UnitsEngine. */
   //-------------------------------------------------------------------
-  static Hashtable<String,DefinedFunction> table = null;
+  static Map<String,DefinedFunction> table()
+    { return UnitsEngine.current().functions; }
 
 
   //=====================================================================
@@ -80,6 +89,64 @@ abstract class DefinedFunction extends Function
     { super(name,loc); }
 
 
+  //=====================================================================
+  //  prepare
+  //=====================================================================
+  /**
+   *  Parses and compiles what this function needs for applications,
+   *  so that they do not need to do it. Errors are ignored:
+   *  they are reported when the function is applied or checked.
+   */
+  abstract void prepare();
+
+
+  //=====================================================================
+  //  lower
+  //=====================================================================
+  /**
+   *  Lowers application of this function or its inverse
+   *  to a lowered argument (see 'lower' in Expr).
+   *
+   *  @param  arg the lowered argument.
+   *  @param  inv true for the inverse function.
+   *  @return the lowered result, or null if the function
+   *          cannot be lowered for 'arg'.
+   */
+  abstract Conversion.Lowered lower(final Conversion.Lowered arg, boolean inv);
+
+
+  //=====================================================================
+  //  parameter
+  //=====================================================================
+  /**
+   *  Obtains reduced dimension of the parameter
+   *  of this function or its inverse.
+   *
+   *  @param  inv true for the inverse function.
+   *  @return the dimension as Quantity, or null if not specified.
+   */
+  abstract Quantity parameter(boolean inv);
+
+
+  //=====================================================================
+  //  redefined
+  //=====================================================================
+  /**
+   *  Writes message about a function being redefined.
+   *
+   *  @param name function name.
+   *  @param old  location of the earlier definition.
+   *  @param loc  location of the new definition.
+   */
+  static void redefined
+    (final String name, final Location old, final Location loc)
+    {
+      Env.out().println
+        ("Function '" + name + "' defined in " + old.where() +
+         ", is redefined in " + loc.where() + ".");
+    }
+
+
   //=====================================================================
   //  checkHiding
   //=====================================================================
@@ -90,16 +157,16 @@ abstract class DefinedFunction extends Function
    */
   void checkHiding()
     {
-      Unit unit = Unit.table.get(name);
+      Unit unit = Unit.table().get(name);
       if (unit!=null)
-        Env.out.println
+        Env.out().println
           (location.where() + ". Function '" + name +
            "' hides the unit defined in " +
            unit.location.where() + ".");
 
-      Prefix pref = Prefix.table.get(name);
+      Prefix pref = Prefix.table().get(name);
       if (pref!=null)
-        Env.out.println
+        Env.out().println
           (location.where() + ". Function '" + name +
            "' hides the prefix defined in " +
            pref.location.where() + ".");
@@ -119,7 +186,7 @@ abstract class DefinedFunction extends Function
    */
   static String showdef(final String name)
     {
-      Function func = DefinedFunction.table.get(name);
+      Function func = DefinedFunction.table().get(name);
       if (func!=null) return func.showdef();
       else return null;
     }
@@ -132,7 +199,7 @@ abstract class DefinedFunction extends Function
    *  Converts a unit expression to this function.
    *  It shows the argument of the function that
    *  produces the value specified by the expression.
-   *  The result is written to Env.out.
+   *  The result is written to Env.out().
    *  Writes error message to Env.out if conversion fails.
    *
    *  @param  fromExpr the expression.
@@ -152,21 +219,21 @@ abstract class DefinedFunction extends Function
       }
       catch(EvalError e)
       {
-        Env.out.println(e.getMessage());
+        Env.out().println(e.getMessage());
         return false;
       }
 
       //---------------------------------------------------------------
       //  Write out the result formatted as required.
       //---------------------------------------------------------------
-      if (Env.verbose==2)
-        Env.out.print("\t" + fromExpr + " = " + name + "(");
+      if (Env.verbose()==2)
+        Env.out().print("\t" + fromExpr + " = " + name + "(");
       else
-        if (Env.verbose==1) Env.out.print("\t");
-      Env.out.print(fromValue.asString());
-      if (Env.verbose==2)
-        Env.out.print(")");
-      Env.out.print("\n");
+        if (Env.verbose()==1) Env.out().print("\t");
+      Env.out().print(fromValue.asString());
+      if (Env.verbose()==2)
+        Env.out().print(")");
+      Env.out().print("\n");
       return true;
     }
 
@@ -0,0 +1,771 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Added 'cycles' and 'levels'. Parameters of functions are not names.
+//           Added constructor for entities constructed on demand.
+//           Replaced 'names' by 'startingWith' and 'endingWith'.
+//
+//=========================================================================
+
+package units;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class DependencyGraph
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Dependencies between entities of a UnitsEngine.
+ *  <p>
+ *  An entity uses another entity if a name appearing in its
+ *  definition (see 'expressions' and 'names' in Entity) resolves
+ *  to that entity: a defined or built-in function, an alias,
+ *  or the prefix or unit obtained by 'split' in Factor.
+ *  The graph keeps, for each entity, the names in its definition
+ *  and the entities it uses; and in the reverse direction,
+ *  for each entity the entities that use it, and for each name
+ *  the entities whose definitions contain it.
+ *  <p>
+ *  The graph is built by 'load' in UnitsEngine after the tables
+ *  are complete, and for an engine built by 'overlay' it is derived
+ *  from the graph of the original engine. A graph of some entities
+ *  is built when they are constructed on demand (see LazyTables).
+ *  A graph is not modified after it is built, so it can be read
+ *  by many threads without locking.
+ */
+
+class DependencyGraph
+{
+  //-------------------------------------------------------------------
+  //  Names in the definition of each entity.
+  //-------------------------------------------------------------------
+  private final Map<Entity,String[]> names;
+
+  //-------------------------------------------------------------------
+  //  Entities used by each entity.
+  //-------------------------------------------------------------------
+  private final Map<Entity,Entity[]> uses;
+
+  //-------------------------------------------------------------------
+  //  Entities using each entity. Absent if none.
+  //-------------------------------------------------------------------
+  private final Map<Entity,List<Entity>> users;
+
+  //-------------------------------------------------------------------
+  //  Entities with each name in their definitions.
+  //-------------------------------------------------------------------
+  private final Map<String,List<Entity>> mentions;
+
+  //-------------------------------------------------------------------
+  //  Keys of 'mentions' sorted, forward and reversed,
+  //  or null if not yet built.
+  //-------------------------------------------------------------------
+  private volatile Index index = null;
+
+  //-------------------------------------------------------------------
+  //  An empty array.
+  //-------------------------------------------------------------------
+  private static final Entity[] NONE = new Entity[0];
+
+
+  //=====================================================================
+  //  Constructors
+  //=====================================================================
+  /**
+   *  Constructs graph of all entities in the current UnitsEngine.
+   */
+  DependencyGraph()
+    {
+      names = new IdentityHashMap<Entity,String[]>();
+      uses = new IdentityHashMap<Entity,Entity[]>();
+      users = new IdentityHashMap<Entity,List<Entity>>();
+      mentions = new HashMap<String,List<Entity>>();
+
+      for (Entity x: entities(UnitsEngine.current()))
+        add(x,null);
+    }
+
+  /**
+   *  Constructs graph of the current UnitsEngine, that has
+   *  the same entities as the engine of a given graph,
+   *  except that some of them were removed and some added.
+   *  The entities that were not removed must resolve their
+   *  names to the same entities as before.
+   *
+   *  @param base    the given graph.
+   *  @param removed the removed entities.
+   *                 Entities not in 'base' are ignored.
+   *  @param added   the added entities.
+   */
+  DependencyGraph
+    (final DependencyGraph base,
+     final Set<Entity> removed, final Collection<Entity> added)
+    {
+      names = new IdentityHashMap<Entity,String[]>(base.names);
+      uses = new IdentityHashMap<Entity,Entity[]>(base.uses);
+      users = new IdentityHashMap<Entity,List<Entity>>(base.users);
+      mentions = new HashMap<String,List<Entity>>(base.mentions);
+
+      //---------------------------------------------------------------
+      //  The lists of 'base' are shared with this graph and must not
+      //  be modified. Lists created here are noted in 'copied'.
+      //---------------------------------------------------------------
+      Set<Object> copied = Collections.newSetFromMap
+                             (new IdentityHashMap<Object,Boolean>());
+
+      //---------------------------------------------------------------
+      //  Remove the entities and the edges leading to them.
+      //---------------------------------------------------------------
+      Set<Entity> usedBy = Collections.newSetFromMap
+                             (new IdentityHashMap<Entity,Boolean>());
+      Set<String> named = new HashSet<String>();
+      for (Entity x: removed)
+      {
+        String[] n = names.remove(x);
+        Entity[] u = uses.remove(x);
+        users.remove(x);
+        if (n==null) continue;
+        Collections.addAll(named,n);
+        Collections.addAll(usedBy,u);
+      }
+
+      for (Entity y: usedBy)
+      {
+        List<Entity> l = without(users.get(y),removed);
+        if (l==null) users.remove(y);
+        else
+        {
+          users.put(y,l);
+          copied.add(l);
+        }
+      }
+
+      for (String n: named)
+      {
+        List<Entity> l = without(mentions.get(n),removed);
+        if (l==null) mentions.remove(n);
+        else
+        {
+          mentions.put(n,l);
+          copied.add(l);
+        }
+      }
+
+      //---------------------------------------------------------------
+      //  Add the new entities.
+      //---------------------------------------------------------------
+      for (Entity x: added)
+      {
+        add(x,copied);
+        Collections.addAll(named,names.get(x));
+      }
+
+      //---------------------------------------------------------------
+      //  If 'base' has sorted names, update a copy of them.
+      //---------------------------------------------------------------
+      Index i = base.index;
+      if (i!=null)
+      {
+        i = new Index(i);
+        for (String n: named)
+        {
+          if (mentions.containsKey(n)) i.add(n);
+          else i.remove(n);
+        }
+        index = i;
+      }
+    }
+
+
+  /**
+   *  Constructs graph of given entities of the current UnitsEngine
+   *  and of the entities they use, directly or indirectly,
+   *  except the entities in a given set and those they use.
+   *  Used for entities constructed on demand (see LazyTables).
+   *
+   *  @param nodes the given entities. The other entities
+   *               of the graph are appended in order of discovery.
+   *  @param known the entities to be left out.
+   */
+  DependencyGraph(final List<Entity> nodes, final Set<Entity> known)
+    {
+      names = new IdentityHashMap<Entity,String[]>();
+      uses = new IdentityHashMap<Entity,Entity[]>();
+      users = new IdentityHashMap<Entity,List<Entity>>();
+      mentions = new HashMap<String,List<Entity>>();
+
+      Set<Entity> found = Collections.newSetFromMap
+                            (new IdentityHashMap<Entity,Boolean>());
+      found.addAll(nodes);
+      for (int i=0;i<nodes.size();i++)
+      {
+        Entity x = nodes.get(i);
+        add(x,null);
+        for (Entity y: uses.get(x))
+          if (!known.contains(y) && found.add(y)) nodes.add(y);
+      }
+    }
+
+
+  //=====================================================================
+  //  build
+  //=====================================================================
+  /**
+   *  Builds graph of the current UnitsEngine,
+   *  and installs it in the engine.
+   */
+  static void build()
+    { UnitsEngine.current().graph = new DependencyGraph(); }
+
+
+  //=====================================================================
+  //  uses
+  //=====================================================================
+  /**
+   *  Obtains entities used by an entity.
+   *
+   *  @param  x the entity.
+   *  @return the entities. Empty if 'x' is not in the graph.
+   */
+  Entity[] uses(final Entity x)
+    {
+      Entity[] u = uses.get(x);
+      return u==null? NONE : u.clone();
+    }
+
+
+  //=====================================================================
+  //  users
+  //=====================================================================
+  /**
+   *  Obtains entities that use an entity.
+   *
+   *  @param  x the entity.
+   *  @return read-only list of the entities.
+   */
+  List<Entity> users(final Entity x)
+    { return read(users.get(x)); }
+
+
+  //=====================================================================
+  //  mentioning
+  //=====================================================================
+  /**
+   *  Obtains entities whose definitions contain a name.
+   *
+   *  @param  name the name.
+   *  @return read-only list of the entities.
+   */
+  List<Entity> mentioning(final String name)
+    { return read(mentions.get(name)); }
+
+
+  //=====================================================================
+  //  startingWith / endingWith
+  //=====================================================================
+  /**
+   *  Obtains names that appear in definitions
+   *  and start with a given string.
+   *  The time is proportional to the logarithm of the number
+   *  of names plus the number of names found.
+   *
+   *  @param  s the string.
+   *  @return read-only set of the names, in sorted order.
+   */
+  Set<String> startingWith(final String s)
+    {
+      return Collections.unmodifiableSet
+        (index().forward.subSet(s,true,s + Character.MAX_VALUE,true));
+    }
+
+  /**
+   *  Obtains names that appear in definitions
+   *  and end with a given string.
+   *  The time is as for 'startingWith'.
+   *
+   *  @param  s the string.
+   *  @return new list of the names.
+   */
+  List<String> endingWith(final String s)
+    {
+      String r = reverse(s);
+      List<String> l = new ArrayList<String>();
+      for (String n: index().backward.subSet(r,true,r + Character.MAX_VALUE,true))
+        l.add(reverse(n));
+      return l;
+    }
+
+
+  //=====================================================================
+  //  index
+  //=====================================================================
+  /**
+   *  Obtains the sorted names, building them if needed.
+   */
+  private Index index()
+    {
+      Index i = index;
+      if (i!=null) return i;
+      i = new Index(null);
+      for (String n: mentions.keySet())
+        i.add(n);
+      index = i;
+      return i;
+    }
+
+
+  //=====================================================================
+  //  dependents
+  //=====================================================================
+  /**
+   *  Finds entities that depend on given entities:
+   *  the given entities, the entities that use them,
+   *  the entities that use those, and so on.
+   *  The time is proportional to the number of entities found
+   *  and the edges leading to them.
+   *
+   *  @param  roots the given entities.
+   *  @return the entities found, in order of discovery.
+   */
+  Set<Entity> dependents(final Collection<? extends Entity> roots)
+    {
+      Set<Entity> found = new LinkedHashSet<Entity>(roots);
+      List<Entity> todo = new ArrayList<Entity>(found);
+      while (!todo.isEmpty())
+      {
+        List<Entity> u = users.get(todo.remove(todo.size()-1));
+        if (u==null) continue;
+        for (Entity y: u)
+          if (found.add(y)) todo.add(y);
+      }
+      return found;
+    }
+
+
+  //=====================================================================
+  //  cycles
+  //=====================================================================
+  /**
+   *  Finds groups of entities whose definitions depend on each other:
+   *  strongly connected components of the graph that have more than
+   *  one entity or an entity that uses itself.
+   *  (Tarjan's algorithm, with explicit stack instead of recursion.)
+   *
+   *  @param  nodes entities to be searched, in the order of search.
+   *                Edges to other entities are ignored.
+   *  @return list of the groups, each group in order of discovery.
+   */
+  List<List<Entity>> cycles(final Collection<Entity> nodes)
+    {
+      Map<Entity,Node> node = nodes(nodes);
+      List<List<Entity>> result = new ArrayList<List<Entity>>();
+      List<Node> stack = new ArrayList<Node>();
+      List<Node> path = new ArrayList<Node>();
+      int counter = 0;
+
+      for (Entity root: nodes)
+      {
+        Node r = node.get(root);
+        if (r.index>=0) continue;
+        r.index = r.low = counter++;
+        stack.add(r);
+        r.onStack = true;
+        path.add(r);
+
+        while (!path.isEmpty())
+        {
+          Node v = path.get(path.size()-1);
+
+          //-----------------------------------------------------------
+          //  Visit the next entity used by 'v'.
+          //-----------------------------------------------------------
+          if (v.next<v.uses.length)
+          {
+            Node w = node.get(v.uses[v.next++]);
+            if (w==null) continue;
+            if (w==v) v.self = true;
+            if (w.index<0)
+            {
+              w.index = w.low = counter++;
+              stack.add(w);
+              w.onStack = true;
+              path.add(w);
+            }
+            else if (w.onStack && w.index<v.low)
+              v.low = w.index;
+            continue;
+          }
+
+          //-----------------------------------------------------------
+          //  All used entities visited. Leave 'v', and if it is
+          //  the root of a component, remove the component from stack.
+          //-----------------------------------------------------------
+          path.remove(path.size()-1);
+          if (!path.isEmpty())
+          {
+            Node u = path.get(path.size()-1);
+            if (v.low<u.low) u.low = v.low;
+          }
+
+          if (v.low!=v.index) continue;
+          List<Entity> comp = new ArrayList<Entity>();
+          Node w;
+          do
+          {
+            w = stack.remove(stack.size()-1);
+            w.onStack = false;
+            comp.add(w.entity);
+          }
+          while (w!=v);
+
+          if (comp.size()>1 || v.self)
+          {
+            Collections.reverse(comp);
+            result.add(comp);
+          }
+        }
+      }
+      return result;
+    }
+
+
+  //=====================================================================
+  //  levels
+  //=====================================================================
+  /**
+   *  Arranges entities in levels such that each entity uses
+   *  only entities from lower levels. Level 0 consists of entities
+   *  that use no other entities. Circular entities
+   *  (see 'circular' in Entity) are omitted, and edges
+   *  leading to them are ignored.
+   *
+   *  @param  nodes entities to be arranged.
+   *                Edges to other entities are ignored.
+   *  @return list of the levels, lowest first. Each level lists
+   *          entities in the order of 'nodes'.
+   */
+  List<List<Entity>> levels(final Collection<Entity> nodes)
+    {
+      Map<Entity,Node> node = nodes(nodes);
+
+      //---------------------------------------------------------------
+      //  Count for each entity the entities it waits for.
+      //  Use 'index' for the count and 'low' for the level.
+      //---------------------------------------------------------------
+      List<Node> ready = new ArrayList<Node>();
+      for (Entity x: nodes)
+      {
+        Node v = node.get(x);
+        v.index = 0;
+        v.low = 0;
+        if (x.circular) continue;
+        for (Entity y: v.uses)
+        {
+          Node w = node.get(y);
+          if (w!=null && w!=v && !y.circular) v.index++;
+        }
+        if (v.index==0) ready.add(v);
+      }
+
+      //---------------------------------------------------------------
+      //  Process entities in the order of becoming ready,
+      //  releasing their users.
+      //---------------------------------------------------------------
+      List<List<Entity>> result = new ArrayList<List<Entity>>();
+      for (int i=0;i<ready.size();i++)
+      {
+        Node v = ready.get(i);
+        while (result.size()<=v.low)
+          result.add(new ArrayList<Entity>());
+
+        List<Entity> u = users.get(v.entity);
+        if (u==null) continue;
+        for (Entity y: u)
+        {
+          Node w = node.get(y);
+          if (w==null || w==v || y.circular) continue;
+          if (w.low<v.low+1) w.low = v.low+1;
+          if (--w.index==0) ready.add(w);
+        }
+      }
+
+      //---------------------------------------------------------------
+      //  Fill the levels in the order of 'nodes'.
+      //  Entities that never became ready depend on each other
+      //  without being marked as circular; they are omitted.
+      //---------------------------------------------------------------
+      for (Entity x: nodes)
+      {
+        Node v = node.get(x);
+        if (!x.circular && v.index==0)
+          result.get(v.low).add(x);
+      }
+      return result;
+    }
+
+
+  //=====================================================================
+  //  nodes
+  //=====================================================================
+  /**
+   *  Constructs working Nodes for 'cycles' and 'levels'.
+   */
+  private Map<Entity,Node> nodes(final Collection<Entity> nodes)
+    {
+      Map<Entity,Node> node = new IdentityHashMap<Entity,Node>();
+      for (Entity x: nodes)
+      {
+        Entity[] u = uses.get(x);
+        node.put(x,new Node(x,u==null? NONE : u));
+      }
+      return node;
+    }
+
+
+  //=====================================================================
+  //  resolve
+  //=====================================================================
+  /**
+   *  Finds entities of the current UnitsEngine that a name
+   *  in a definition may stand for.
+   *
+   *  @param  name the name.
+   *  @return five-element array with defined function, built-in
+   *          function, alias, prefix, and unit; null if none.
+   */
+  static Entity[] resolve(final String name)
+    {
+      Factor[] pu = Factor.split(name);
+      return new Entity[]
+        { DefinedFunction.table().get(name),
+          BuiltInFunction.table().get(name),
+          Alias.table().get(name),
+          pu==null? null : pu[0],
+          pu==null? null : pu[1] };
+    }
+
+
+  //=====================================================================
+  //  entities
+  //=====================================================================
+  /**
+   *  Obtains all entities of a UnitsEngine.
+   *
+   *  @param  e the engine.
+   *  @return new list of the entities.
+   */
+  static List<Entity> entities(final UnitsEngine e)
+    {
+      List<Entity> all = new ArrayList<Entity>();
+      all.addAll(e.units.values());
+      all.addAll(e.prefixes.values());
+      all.addAll(e.builtins.values());
+      all.addAll(e.functions.values());
+      all.addAll(e.aliases.values());
+      return all;
+    }
+
+
+  //=====================================================================
+  //  add
+  //=====================================================================
+  /**
+   *  Adds an entity with its edges, resolving the names
+   *  in its definition in the current UnitsEngine.
+   *
+   *  @param x      the entity.
+   *  @param copied lists that may be modified, or null if all may.
+   */
+  private void add(final Entity x, final Set<Object> copied)
+    {
+      Set<String> n = new LinkedHashSet<String>();
+      for (String expr: x.expressions())
+        Entity.names(expr,n);
+      if (x instanceof Function)
+        for (String p: ((Function)x).parameters())
+          n.remove(p);
+
+      Set<Entity> u = Collections.newSetFromMap
+                        (new IdentityHashMap<Entity,Boolean>());
+      for (String name: n)
+      {
+        for (Entity y: resolve(name))
+          if (y!=null) u.add(y);
+        append(mentions,name,x,copied);
+      }
+
+      for (Entity y: u)
+        append(users,y,x,copied);
+
+      names.put(x,n.toArray(new String[n.size()]));
+      uses.put(x,u.toArray(new Entity[u.size()]));
+    }
+
+
+  //=====================================================================
+  //  append
+  //=====================================================================
+  /**
+   *  Appends an entity to the list for a key,
+   *  copying the list first if it may not be modified.
+   */
+  private static <K> void append
+    (final Map<K,List<Entity>> m, final K key, final Entity x,
+     final Set<Object> copied)
+    {
+      List<Entity> l = m.get(key);
+      if (l==null)
+      {
+        l = new ArrayList<Entity>(2);
+        m.put(key,l);
+        if (copied!=null) copied.add(l);
+      }
+      else if (copied!=null && !copied.contains(l))
+      {
+        l = new ArrayList<Entity>(l);
+        m.put(key,l);
+        copied.add(l);
+      }
+      l.add(x);
+    }
+
+
+  //=====================================================================
+  //  without
+  //=====================================================================
+  /**
+   *  Returns a copy of a list without given entities,
+   *  or null if nothing remains.
+   */
+  private static List<Entity> without
+    (final List<Entity> list, final Set<Entity> removed)
+    {
+      if (list==null) return null;
+      List<Entity> l = new ArrayList<Entity>(list.size());
+      for (Entity x: list)
+        if (!removed.contains(x)) l.add(x);
+      return l.isEmpty()? null : l;
+    }
+
+
+  //=====================================================================
+  //  read
+  //=====================================================================
+  /**
+   *  Returns read-only view of a list, or empty list for null.
+   */
+  private static List<Entity> read(final List<Entity> list)
+    {
+      if (list==null) return Collections.emptyList();
+      return Collections.unmodifiableList(list);
+    }
+
+
+  //=====================================================================
+  //  reverse
+  //=====================================================================
+  /**
+   *  Returns a string with characters in reverse order.
+   */
+  private static String reverse(final String s)
+    { return new StringBuilder(s).reverse().toString(); }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Index
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Names in sorted order, and the same names reversed
+   *  in sorted order. Not modified after it is installed in a graph.
+   */
+  private static final class Index
+  {
+    final TreeSet<String> forward;
+    final TreeSet<String> backward;
+
+    Index(final Index base)
+      {
+        forward = base==null? new TreeSet<String>() : new TreeSet<String>(base.forward);
+        backward = base==null? new TreeSet<String>() : new TreeSet<String>(base.backward);
+      }
+
+    void add(final String n)
+      {
+        forward.add(n);
+        backward.add(reverse(n));
+      }
+
+    void remove(final String n)
+      {
+        forward.remove(n);
+        backward.remove(reverse(n));
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Node
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Working data about an entity for 'cycles' and 'levels'. */
+  private static class Node
+  {
+    final Entity entity;
+    final Entity[] uses;
+    int index = -1;          // Visiting order / waiting count
+    int low = -1;            // Lowest index reachable / level
+    int next = 0;            // Next element of 'uses' to visit
+    boolean onStack = false; // Is on the stack of 'cycles'?
+    boolean self = false;    // Uses itself?
+
+    Node(final Entity entity, final Entity[] uses)
+      {
+        this.entity = entity;
+        this.uses = uses;
+      }
+  }
+}
@@ -0,0 +1,605 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Adapted to Product with exponents.
+//           Added 'times' and 'power'.
+//           Added 'root'.
+//           Interned Dimensions are kept in UnitsEngine.
+//           Interned Dimensions are held weakly (see Table).
+//           'conformsTo' compares contents if the references differ.
+//
+//=========================================================================
+
+package units;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class Dimension
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Dimension of a reduced Value: a product of primitive units,
+ *  each raised to a nonzero integer power.
+ *  <p>
+ *  Dimension objects are interned: there is at most one object for
+ *  each combination of primitive units and exponents
+ *  in a UnitsEngine.
+ *  Two reduced Values thus have the same dimension if and only if
+ *  their Dimension objects are identical, and checking conformability
+ *  amounts to comparing two references.
+ *  <p>
+ *  The interned Dimensions are held weakly (see Table).
+ *  Those of the entities in the tables are kept by their reduced
+ *  forms for the life of the engine; those computed only for
+ *  a request, such as 'm^N' for a new N, are forgotten when
+ *  no longer used. 'conformsTo' still compares contents
+ *  if the references differ.
+ *  <p>
+ *  The inverse of a Dimension and the Dimension with dimensionless
+ *  primitive units removed are computed once and kept with the object.
+ */
+
+class Dimension
+{
+  //-------------------------------------------------------------------
+  /** Primitive units, in increasing order of their 'id'. */
+  //-------------------------------------------------------------------
+  final Factor[] units;
+
+  //-------------------------------------------------------------------
+  /** Exponents of 'units'. None of them is zero. */
+  //-------------------------------------------------------------------
+  final int[] exps;
+
+  //-------------------------------------------------------------------
+  //  Hash code computed from 'units' and 'exps'.
+  //-------------------------------------------------------------------
+  private final int hash;
+
+  //-------------------------------------------------------------------
+  //  Inverse of this Dimension and this Dimension without
+  //  dimensionless units. Computed when first needed.
+  //  (Both are interned, so a race can only store the same object.)
+  //-------------------------------------------------------------------
+  private volatile Dimension inverse = null;
+  private volatile Dimension dimfree = null;
+
+  //-------------------------------------------------------------------
+  /** Dimension of a number. */
+  //-------------------------------------------------------------------
+  static final Dimension ONE = new Dimension(new Factor[0],new int[0]);
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs Dimension object. Does not intern it.
+   *
+   *  @param units primitive units in increasing order of 'id'.
+   *  @param exps  their nonzero exponents.
+   */
+  private Dimension(final Factor[] units, final int[] exps)
+    {
+      this.units = units;
+      this.exps = exps;
+      int h = 1;
+      for (int i=0;i<units.length;i++)
+        h = 31*(31*h + units[i].id) + exps[i];
+      hash = h;
+    }
+
+
+  //=====================================================================
+  //  of
+  //=====================================================================
+  /**
+   *  Obtains Dimension of a quotient of two Products.
+   *  Factors appearing in both Products cancel out.
+   *
+   *  @param  num the numerator.
+   *  @param  den the denominator.
+   *  @return interned Dimension of 'num / den', or null if 'num'
+   *          or 'den' contains a Factor that is not a primitive unit.
+   */
+  static Dimension of(final Product num, final Product den)
+    {
+      int n = num.size() + den.size();
+      if (n==0) return ONE;
+
+      Factor[] u = new Factor[n];
+      int[] e = new int[n];
+      int k = collect(num,1,u,e,0);
+      if (k<0) return null;
+      k = collect(den,-1,u,e,k);
+      if (k<0) return null;
+      return intern(u,e,k);
+    }
+
+
+  //=====================================================================
+  //  conformsTo
+  //=====================================================================
+  /**
+   *  Checks if this Dimension is the same as Dimension 'd',
+   *  except for units to be ignored.
+   *
+   *  @param  d the Dimension to compare with.
+   *  @param  ignore indicates which units should be ignored.
+   *  @return true if the Dimensions are the same, false otherwise.
+   */
+  boolean conformsTo(final Dimension d, Ignore ignore)
+    {
+      switch (ignore)
+      {
+        case NONE:      return this==d || equals(d);
+        case DIMLESS:   return dimfree()==d.dimfree()
+                               || dimfree().equals(d.dimfree());
+        case PRIMITIVE: return true;  // All units are primitive
+        default:        throw new Error("Program Error; ignore=" + ignore);
+      }
+    }
+
+
+  //=====================================================================
+  //  inverse
+  //=====================================================================
+  /**
+   *  Obtains the inverse of this Dimension.
+   *
+   *  @return interned Dimension with all exponents negated.
+   */
+  Dimension inverse()
+    {
+      Dimension inv = inverse;
+      if (inv!=null) return inv;
+
+      int[] e = new int[exps.length];
+      for (int i=0;i<exps.length;i++)
+        e[i] = -exps[i];
+      inv = intern(new Dimension(units,e));
+      inv.inverse = this;
+      inverse = inv;
+      return inv;
+    }
+
+
+  //=====================================================================
+  //  times
+  //=====================================================================
+  /**
+   *  Obtains the product of this Dimension and Dimension 'd'.
+   *
+   *  @param  d the multiplier.
+   *  @return interned Dimension of the product.
+   */
+  Dimension times(final Dimension d)
+    {
+      if (d==ONE) return this;
+      if (this==ONE) return d;
+
+      Factor[] u = new Factor[units.length+d.units.length];
+      int[] e = new int[u.length];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i<units.length || j<d.units.length)
+      {
+        if (j==d.units.length
+            || (i<units.length && units[i].id<d.units[j].id))
+        {
+          u[k] = units[i];
+          e[k++] = exps[i++];
+        }
+        else if (i==units.length || units[i].id>d.units[j].id)
+        {
+          u[k] = d.units[j];
+          e[k++] = d.exps[j++];
+        }
+        else
+        {
+          u[k] = units[i];
+          e[k++] = exps[i++] + d.exps[j++];
+        }
+      }
+      return intern(u,e,k);
+    }
+
+
+  //=====================================================================
+  //  power
+  //=====================================================================
+  /**
+   *  Raises this Dimension to integer power.
+   *
+   *  @param  n the exponent.
+   *  @return interned Dimension with all exponents multiplied by 'n'.
+   */
+  Dimension power(int n)
+    {
+      if (n==1) return this;
+      if (n==-1) return inverse();
+
+      int[] e = new int[exps.length];
+      for (int i=0;i<exps.length;i++)
+        e[i] = n*exps[i];
+      return intern(units,e,units.length);
+    }
+
+
+  //=====================================================================
+  //  root
+  //=====================================================================
+  /**
+   *  Obtains n-th root of this Dimension.
+   *
+   *  @param  n the root.
+   *  @return interned Dimension with all exponents divided by 'n',
+   *          or null if some exponent is not divisible by 'n'.
+   */
+  Dimension root(int n)
+    {
+      if (n==1) return this;
+
+      int[] e = new int[exps.length];
+      for (int i=0;i<exps.length;i++)
+      {
+        if (exps[i]%n!=0) return null;
+        e[i] = exps[i]/n;
+      }
+      return intern(units,e,units.length);
+    }
+
+
+  //=====================================================================
+  //  dimfree
+  //=====================================================================
+  /**
+   *  Obtains this Dimension with dimensionless units removed.
+   *
+   *  @return interned Dimension without dimensionless units.
+   */
+  Dimension dimfree()
+    {
+      Dimension df = dimfree;
+      if (df!=null) return df;
+
+      Factor[] u = new Factor[units.length];
+      int[] e = new int[units.length];
+      int k = 0;
+      for (int i=0;i<units.length;i++)
+      {
+        if (units[i].isDimless) continue;
+        u[k] = units[i];
+        e[k] = exps[i];
+        k++;
+      }
+      df = (k==units.length)? this : intern(u,e,k);
+      dimfree = df;
+      return df;
+    }
+
+
+  //=====================================================================
+  //  numerator / denominator
+  //=====================================================================
+  /**
+   *  Constructs the Product of units having positive exponents.
+   *
+   *  @return new Product.
+   */
+  Product numerator()
+    { return product(1); }
+
+  /**
+   *  Constructs the Product of units having negative exponents.
+   *
+   *  @return new Product.
+   */
+  Product denominator()
+    { return product(-1); }
+
+
+  //=====================================================================
+  //  equals / hashCode
+  //=====================================================================
+  /**
+   *  Compares contents. Used for interning, and by 'conformsTo'
+   *  if the references differ.
+   */
+  @Override
+  public boolean equals(Object o)
+    {
+      if (this==o) return true;
+      if (!(o instanceof Dimension)) return false;
+      Dimension d = (Dimension)o;
+      if (hash!=d.hash || units.length!=d.units.length) return false;
+      for (int i=0;i<units.length;i++)
+        if (units[i]!=d.units[i] || exps[i]!=d.exps[i]) return false;
+      return true;
+    }
+
+  @Override
+  public int hashCode()
+    { return hash; }
+
+
+  //=====================================================================
+  //  product
+  //=====================================================================
+  /**
+   *  Constructs the Product of units with exponents of given sign.
+   *
+   *  @param  sign +1 for positive exponents, -1 for negative.
+   *  @return new Product.
+   */
+  private Product product(int sign)
+    {
+      Product p = new Product();
+      for (int i=0;i<units.length;i++)
+        if (exps[i]*sign>0)
+          p.add(units[i],exps[i]*sign);
+      return p;
+    }
+
+
+  //=====================================================================
+  //  collect
+  //=====================================================================
+  /**
+   *  Adds Factors of a Product to arrays of units and exponents
+   *  kept in increasing order of 'id'.
+   *
+   *  @param  p    the Product.
+   *  @param  sign +1 for numerator, -1 for denominator.
+   *  @param  u    array of units.
+   *  @param  e    array of exponents.
+   *  @param  k    number of units already in the arrays.
+   *  @return new number of units in the arrays, or -1 if 'p'
+   *          contains a Factor that is not a primitive unit.
+   */
+  private static int collect
+    (final Product p, int sign, Factor[] u, int[] e, int k)
+    {
+      for (int i=0;i<p.size();i++)
+      {
+        Factor f = p.factor(i);
+        if (!f.isPrimitive) return -1;
+
+        int j = k-1;
+        while (j>=0 && u[j].id>f.id) j--;
+        if (j>=0 && u[j]==f)
+        {
+          e[j] += sign*p.exponent(i);
+          continue;
+        }
+        j++;
+        System.arraycopy(u,j,u,j+1,k-j);
+        System.arraycopy(e,j,e,j+1,k-j);
+        u[j] = f;
+        e[j] = sign*p.exponent(i);
+        k++;
+      }
+      return k;
+    }
+
+
+  //=====================================================================
+  //  intern
+  //=====================================================================
+  /**
+   *  Obtains interned Dimension for the first 'k' elements
+   *  of arrays of units and exponents. Elements with zero
+   *  exponent are skipped.
+   *
+   *  @param  u units in increasing order of 'id'.
+   *  @param  e their exponents.
+   *  @param  k number of elements to use.
+   *  @return interned Dimension.
+   */
+  static Dimension intern(final Factor[] u, final int[] e, int k)
+    {
+      int n = 0;
+      for (int i=0;i<k;i++)
+        if (e[i]!=0) n++;
+      if (n==0) return ONE;
+
+      Factor[] units = new Factor[n];
+      int[] exps = new int[n];
+      n = 0;
+      for (int i=0;i<k;i++)
+      {
+        if (e[i]==0) continue;
+        units[n] = u[i];
+        exps[n] = e[i];
+        n++;
+      }
+      return intern(new Dimension(units,exps));
+    }
+
+
+  //=====================================================================
+  //  intern
+  //=====================================================================
+  /**
+   *  Obtains the interned copy of given Dimension.
+   *
+   *  @param  d the Dimension.
+   *  @return interned Dimension equal to 'd'.
+   */
+  private static Dimension intern(final Dimension d)
+    {
+      if (d.units.length==0) return ONE;
+      return UnitsEngine.current().dimensions.intern(d);
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Table
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Interned Dimensions of a UnitsEngine, held by weak references.
+   *  A Dimension that is no longer used by anything is removed,
+   *  and is interned anew if it is computed again; there is still
+   *  at most one object for each Dimension in use.
+   *  <p>
+   *  The map is keyed by the units and exponents rather than
+   *  by the Dimension, so that the key does not keep it alive.
+   *  Entries whose Dimension was reclaimed are removed when
+   *  the table is next used.
+   */
+  static final class Table
+  {
+    private final ConcurrentHashMap<Key,Ref> map =
+      new ConcurrentHashMap<Key,Ref>();
+
+    private final ReferenceQueue<Dimension> queue =
+      new ReferenceQueue<Dimension>();
+
+    //=================================================================
+    //  intern
+    //=================================================================
+    /**
+     *  Obtains the interned copy of given Dimension.
+     *
+     *  @param  d the Dimension.
+     *  @return interned Dimension equal to 'd'.
+     */
+    Dimension intern(final Dimension d)
+      {
+        expunge();
+        Key key = new Key(d);
+        Ref ref = new Ref(d,key,queue);
+        while (true)
+        {
+          Ref old = map.putIfAbsent(key,ref);
+          if (old==null) return d;
+          Dimension x = old.get();
+          if (x!=null) return x;
+          map.remove(key,old);  // Reclaimed, not yet expunged.
+        }
+      }
+
+    //=================================================================
+    //  size
+    //=================================================================
+    /**
+     *  Obtains the number of interned Dimensions in use.
+     *
+     *  @return the number.
+     */
+    int size()
+      {
+        expunge();
+        return map.size();
+      }
+
+    //=================================================================
+    //  expunge
+    //=================================================================
+    /**
+     *  Removes entries of reclaimed Dimensions.
+     *  An entry is removed only if it still holds the same
+     *  reference, not one to a Dimension interned anew.
+     */
+    private void expunge()
+      {
+        Ref r;
+        while ((r=(Ref)queue.poll())!=null)
+          map.remove(r.key,r);
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Key
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Units and exponents of a Dimension, as key in Table. */
+  private static final class Key
+  {
+    private final Factor[] units;
+    private final int[] exps;
+    private final int hash;
+
+    Key(final Dimension d)
+      {
+        units = d.units;
+        exps = d.exps;
+        hash = d.hash;
+      }
+
+    @Override
+    public boolean equals(Object o)
+      {
+        if (this==o) return true;
+        if (!(o instanceof Key)) return false;
+        Key k = (Key)o;
+        return hash==k.hash
+               && Arrays.equals(units,k.units)
+               && Arrays.equals(exps,k.exps);
+      }
+
+    @Override
+    public int hashCode()
+      { return hash; }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Ref
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Weak reference to an interned Dimension, with its key.
+   *  Compared by identity, so that 'remove' in Table does not
+   *  remove another reference with the same key.
+   */
+  private static final class Ref extends WeakReference<Dimension>
+  {
+    final Key key;
+
+    Ref(final Dimension d, final Key key, final ReferenceQueue<Dimension> q)
+      {
+        super(d,q);
+        this.key = key;
+      }
+  }
+}
@@ -44,10 +44,19 @@
 //           to 'conformsTo' to avoid confusion with two-argument one
 //           defined in Product and Value.
 //
+//  Version 1.89.J02.
+//    261017 Added 'expressions', 'copy', and 'names'.
+//           Added 'circular'.
+//           Added 'write'.
+//
 //=========================================================================
 
 package units;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+
 
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
@@ -67,6 +76,9 @@ abstract class Entity implements Comparable<Entity>
   /** Where this Entity is defined. */
   Location location;
 
+  /** Does the definition depend on itself? Set when loading is complete. */
+  boolean circular = false;
+
   //=====================================================================
   //  Constructor.
   //=====================================================================
@@ -133,6 +145,83 @@ public int compareTo(Entity e)
   abstract String desc();
 
 
+  //=====================================================================
+  //  expressions
+  //=====================================================================
+  /**
+   *  Returns the expressions that make up definition of this Entity.
+   *  The names appearing in them are the names this Entity
+   *  depends on (see 'names').
+   *
+   *  @return the expressions. Never null; may contain nulls.
+   */
+  abstract String[] expressions();
+
+
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this Entity with the same definition,
+   *  but without any results computed from it.
+   *  Used by 'overlay' in UnitsEngine for entities whose definitions
+   *  refer to redefined entities. The copy resolves names
+   *  in the UnitsEngine bound at the time of use.
+   *
+   *  @return the copy.
+   */
+  abstract Entity copy();
+
+
+  //=====================================================================
+  //  write
+  //=====================================================================
+  /**
+   *  Writes the definition of this Entity to a Snapshot.
+   *  The name and location are written by Snapshot.
+   *  Each subclass that can be saved has a static method 'read'
+   *  that constructs the Entity from what was written.
+   *
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  abstract void write(final DataOutput out) throws IOException;
+
+
+  //=====================================================================
+  //  names
+  //=====================================================================
+  /**
+   *  Adds to a collection all words of an expression that may be names
+   *  of entities: the maximal sequences of name characters
+   *  (see 'word' in Grammar.peg), without a leading '~',
+   *  that do not begin with a digit, '_', '.' or ','.
+   *  The result may contain words that are not names.
+   *
+   *  @param expr  the expression. Nothing is added if null.
+   *  @param names collection to receive the words.
+   */
+  static void names(final String expr, final Collection<String> names)
+    {
+      if (expr==null) return;
+      int lg = expr.length();
+      int i = 0;
+      while (i<lg)
+      {
+        if (" \t\n+-*/|^();#~".indexOf(expr.charAt(i))>=0)
+        {
+          i++;
+          continue;
+        }
+        int start = i;
+        while (i<lg && " \t\n+-*/|^();#".indexOf(expr.charAt(i))<0)
+          i++;
+        if ("0123456789_.,~".indexOf(expr.charAt(start))<0)
+          names.add(expr.substring(start,i));
+      }
+    }
+
+
   //=====================================================================
   //  checkName
   //=====================================================================
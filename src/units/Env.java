@@ -86,6 +86,16 @@
 //           Modified 'getProperties' to obtain ENCODING and GUIFONT.
 //           Moved FileAcc and 'files' to UnitsFile.
 //
+//  Version 1.89.J02.
+//    261017 Added class Options and methods to access options
+//           bound to the current thread.
+//           Use table of the current UnitsEngine in 'convert'.
+//           Added 'snapshot'.
+//           Added 'mapped'.
+//           Added 'lazy'.
+//           Added 'watch'.
+//           'convert' binds the engine by 'pin'.
+//
 //=========================================================================
 
 package units;
@@ -178,6 +188,10 @@ class Env
   static boolean strict;            // Strict conversion
   static boolean unitcheck;         // Unit checking
   static boolean round;             // Round last element of unit list
+  static String  snapshot;          // Snapshot file, or null if none
+  static String  mapped;            // Mapped snapshot file, or null if none
+  static boolean lazy;              // Construct entities when first used
+  static boolean watch;             // Reload definition files when changed
 
 
 
@@ -209,6 +223,108 @@ class Env
   static Writer out;
 
 
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Options
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Options for one conversion or one loading of tables.
+   *  An Options object can be bound to the current thread by
+   *  'enter'; the methods 'verbose', 'oneline', 'strict', 'round',
+   *  and 'out' then return its values instead of the static
+   *  variables above, that serve as defaults.
+   *  Used by UnitsEngine to serve callers with different options.
+   */
+  static class Options
+  {
+    int     verbose;  // 0=compact, 1=normal, 2=verbose
+    boolean oneline;  // Only one line of output
+    boolean strict;   // Strict conversion
+    boolean round;    // Round last element of unit list
+    Writer  out;      // Output writer
+
+    /** Constructs Options with current default values. */
+    Options()
+      {
+        verbose = Env.verbose;
+        oneline = Env.oneline;
+        strict  = Env.strict;
+        round   = Env.round;
+        out     = Env.out;
+      }
+  }
+
+  //-------------------------------------------------------------------
+  //  Options bound to threads.
+  //-------------------------------------------------------------------
+  private static final ThreadLocal<Options> bound
+    = new ThreadLocal<Options>();
+
+
+  //=====================================================================
+  //  enter / leave
+  //=====================================================================
+  /**
+   *  Binds Options to the current thread.
+   *  Must be followed by 'leave', normally in a 'finally' clause.
+   *
+   *  @param  opts the Options, or null to keep those in effect.
+   *  @return Options bound before, to be passed to 'leave'.
+   */
+  static Options enter(final Options opts)
+    {
+      Options prev = bound.get();
+      if (opts!=null) bound.set(opts);
+      return prev;
+    }
+
+  /**
+   *  Restores the binding that was in effect before 'enter'.
+   *
+   *  @param prev the result of 'enter'.
+   */
+  static void leave(final Options prev)
+    {
+      if (prev==null) bound.remove();
+      else bound.set(prev);
+    }
+
+
+  //=====================================================================
+  //  Options in effect for the current thread
+  //=====================================================================
+  static int verbose()
+    {
+      Options o = bound.get();
+      return o==null? verbose : o.verbose;
+    }
+
+  static boolean oneline()
+    {
+      Options o = bound.get();
+      return o==null? oneline : o.oneline;
+    }
+
+  static boolean strict()
+    {
+      Options o = bound.get();
+      return o==null? strict : o.strict;
+    }
+
+  static boolean round()
+    {
+      Options o = bound.get();
+      return o==null? round : o.round;
+    }
+
+  static Writer out()
+    {
+      Options o = bound.get();
+      return o==null? out : o.out;
+    }
+
+
 
   //=====================================================================
   //  getProperties
@@ -357,6 +473,7 @@ class Env
   /**
    *  Performs the computation specified by the user.
    *  This is the main work horse of 'units'.
+   *  The current engine is used throughout (see 'pin' in UnitsEngine).
    *
    *  @param  fromExpr expression specifying the value to be converted.
    *  @param  fromValue the value to be converted, completely reduced.
@@ -368,51 +485,57 @@ class Env
   static boolean convert
     (final String fromExpr, final Value fromValue, final String toString)
     {
-      //---------------------------------------------------------------
-      //  If 'toString' is a unit list or name of a unit list,
-      //  show conversion to unit list.
-      //---------------------------------------------------------------
-      String uList = UnitList.isUnitList(toString);
-
-      if (uList!=null)
+      UnitsEngine prev = UnitsEngine.pin();
+      try
       {
-        UnitList ul = null;
-        try
-        { ul = new UnitList(uList); }
-        catch(EvalError ee)
+        //-------------------------------------------------------------
+        //  If 'toString' is a unit list or name of a unit list,
+        //  show conversion to unit list.
+        //-------------------------------------------------------------
+        String uList = UnitList.isUnitList(toString);
+
+        if (uList!=null)
         {
-          Env.out.println("Invalid unit list. " + ee.getMessage());
-          return false;
+          UnitList ul = null;
+          try
+          { ul = new UnitList(uList); }
+          catch(EvalError ee)
+          {
+            Env.out().println("Invalid unit list. " + ee.getMessage());
+            return false;
+          }
+
+          boolean ok = ul.convert(fromExpr,fromValue);
+          return ok;
         }
 
-        boolean ok = ul.convert(fromExpr,fromValue);
-        return ok;
-      }
+        //-------------------------------------------------------------
+        //  If 'toString' is a function name without argument,
+        //  show conversion to that function and return.
+        //-------------------------------------------------------------
+        DefinedFunction func = DefinedFunction.table().get(toString);
+        if (func!=null)
+        {
+          boolean ok = func.convert(fromExpr,fromValue);
+          return ok;
+        }
 
-      //---------------------------------------------------------------
-      //  If 'toString' is a function name without argument,
-      //  show conversion to that function and return.
-      //---------------------------------------------------------------
-      DefinedFunction func = DefinedFunction.table.get(toString);
-      if (func!=null)
-      {
-        boolean ok = func.convert(fromExpr,fromValue);
+        //-------------------------------------------------------------
+        //  Evaluate 'toString' to Value 'toValue'.
+        //  A failed evaluation prints error message and returns null.
+        //-------------------------------------------------------------
+        Value toValue = Value.fromString(toString);
+        if (toValue==null)
+          return false;
+
+        //-------------------------------------------------------------
+        //  Evaluation successful, show conversion.
+        //-------------------------------------------------------------
+        boolean ok = Value.convert(fromExpr,fromValue,toString,toValue);
         return ok;
       }
-
-      //---------------------------------------------------------------
-      //  Evaluate 'toString' to Value 'toValue'.
-      //  A failed evaluation prints error message and returns null.
-      //---------------------------------------------------------------
-      Value toValue = Value.fromString(toString);
-      if (toValue==null)
-        return false;
-
-      //---------------------------------------------------------------
-      //  Evaluation successful, show conversion.
-      //---------------------------------------------------------------
-      boolean ok = Value.convert(fromExpr,fromValue,toString,toValue);
-      return ok;
+      finally
+      { UnitsEngine.leave(prev); }
     }
 
 }
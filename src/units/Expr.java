@@ -0,0 +1,464 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Added 'lower'.
+//           'lower' in Apply lowers tabular functions.
+//
+//=========================================================================
+
+package units;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class Expr
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Compiled unit expression.
+ *  <p>
+ *  An Expr is a tree constructed by Semantics when parsing in
+ *  compile mode (see 'compile' in Value). The tree can be evaluated
+ *  any number of times, each time with a different Value
+ *  for the parameter.
+ *  <p>
+ *  Subtrees that do not depend on the parameter are evaluated
+ *  when the tree is constructed, and replaced by their Value.
+ *  They are evaluated by the same operations, in the same order,
+ *  as they would be when parsing the expression, so the result
+ *  of evaluation is the same as that of parsing.
+ *  <p>
+ *  An Expr can also be lowered to a Conversion that computes
+ *  the factor of its reduced Value from the factor of the reduced
+ *  parameter, provided the dimension of the parameter is known
+ *  in advance (see Conversion).
+ *  <p>
+ *  Expr objects are immutable and can be shared between threads.
+ */
+
+abstract class Expr
+{
+  //=====================================================================
+  //  eval
+  //=====================================================================
+  /**
+   *  Evaluates this expression.
+   *
+   *  @param  parm Value of the parameter.
+   *  @return new Value of the expression.
+   */
+  abstract Value eval(final Value parm);
+
+
+  //=====================================================================
+  //  lower
+  //=====================================================================
+  /**
+   *  Lowers this expression for a parameter with known dimension.
+   *
+   *  @param  parm the lowered parameter.
+   *  @return the lowered expression, or null if its dimension
+   *          cannot be determined, or its evaluation would fail
+   *          for every value of the parameter.
+   */
+  abstract Conversion.Lowered lower(final Conversion.Lowered parm);
+
+
+  //=====================================================================
+  //  isConst
+  //=====================================================================
+  /**
+   *  Checks if this expression is a constant.
+   *
+   *  @return true if this is a Const.
+   */
+  boolean isConst()
+    { return false; }
+
+
+  //=====================================================================
+  //  fold
+  //=====================================================================
+  /**
+   *  Replaces this expression by Const if all its operands are Const.
+   *
+   *  @param  operands the operands.
+   *  @return Const with the value of this expression, or this.
+   */
+  Expr fold(final Expr... operands)
+    {
+      for (Expr e: operands)
+        if (!e.isConst()) return this;
+      return new Const(eval(null));
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Const
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Constant Value. */
+  static class Const extends Expr
+  {
+    private final Value value;
+
+    Const(final Value value)
+      { this.value = value; }
+
+    @Override
+    Value eval(final Value parm)
+      { return new Value(value); }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Value v = new Value(value);
+        v.completereduce();
+        return new Conversion.Lowered
+                     (v.dimension(),Conversion.constant(v.factor));
+      }
+
+    @Override
+    boolean isConst()
+      { return true; }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Param
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** The parameter. */
+  static class Param extends Expr
+  {
+    @Override
+    Value eval(final Value parm)
+      { return new Value(parm); }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      { return parm; }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Sum
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Sum of terms: term ((PLUS | MINUS) term)*. */
+  static class Sum extends Expr
+  {
+    private final Expr[] terms;
+    private final boolean[] minus;  // Subtract the term?
+
+    Sum(final Expr[] terms, final boolean[] minus)
+      {
+        this.terms = terms;
+        this.minus = minus;
+      }
+
+    @Override
+    Value eval(final Value parm)
+      {
+        Value v = terms[0].eval(parm);
+        for (int i=1;i<terms.length;i++)
+        {
+          Value v1 = terms[i].eval(parm);
+          if (minus[i])
+            v1.factor *= -1;
+          v.add(v1);
+        }
+        return v;
+      }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Conversion.Lowered v = terms[0].lower(parm);
+        if (v==null) return null;
+        Conversion fn = v.fn;
+        for (int i=1;i<terms.length;i++)
+        {
+          Conversion.Lowered v1 = terms[i].lower(parm);
+          if (v1==null || v1.dim!=v.dim) return null;
+          fn = Conversion.plus
+                 (fn,minus[i]? Conversion.negate(v1.fn) : v1.fn);
+        }
+        return new Conversion.Lowered(v.dim,fn);
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Term
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Product or quotient of factors: product ((STAR / SLASH) product)*. */
+  static class Term extends Expr
+  {
+    private final Expr[] factors;
+    private final boolean[] divide; // Divide by the factor?
+
+    Term(final Expr[] factors, final boolean[] divide)
+      {
+        this.factors = factors;
+        this.divide = divide;
+      }
+
+    @Override
+    Value eval(final Value parm)
+      {
+        Value v = factors[0].eval(parm);
+        for (int i=1;i<factors.length;i++)
+        {
+          if (divide[i])
+            v.div(factors[i].eval(parm));
+          else
+            v.mult(factors[i].eval(parm));
+        }
+        return v;
+      }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Conversion.Lowered v = factors[0].lower(parm);
+        if (v==null) return null;
+        Dimension dim = v.dim;
+        Conversion fn = v.fn;
+        for (int i=1;i<factors.length;i++)
+        {
+          Conversion.Lowered v1 = factors[i].lower(parm);
+          if (v1==null) return null;
+          if (divide[i])
+          {
+            dim = dim.times(v1.dim.inverse());
+            fn = Conversion.divide(fn,v1.fn);
+          }
+          else
+          {
+            dim = dim.times(v1.dim);
+            fn = Conversion.times(fn,v1.fn);
+          }
+        }
+        return new Conversion.Lowered(dim,fn);
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Inverse
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Inverse: SLASH product. */
+  static class Inverse extends Expr
+  {
+    private final Expr arg;
+
+    Inverse(final Expr arg)
+      { this.arg = arg; }
+
+    @Override
+    Value eval(final Value parm)
+      {
+        Value v = arg.eval(parm);
+        v.invert();
+        return v;
+      }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Conversion.Lowered v = arg.lower(parm);
+        if (v==null) return null;
+        return new Conversion.Lowered
+                     (v.dim.inverse(),Conversion.invert(v.fn));
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Power
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Power: unary HAT unary. */
+  static class Power extends Expr
+  {
+    private final Expr base;
+    private final Expr exponent;
+
+    Power(final Expr base, final Expr exponent)
+      {
+        this.base = base;
+        this.exponent = exponent;
+      }
+
+    @Override
+    Value eval(final Value parm)
+      {
+        Value v = base.eval(parm);
+        v.power(exponent.eval(parm));
+        return v;
+      }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Conversion.Lowered b = base.lower(parm);
+        Conversion.Lowered e = exponent.lower(parm);
+        if (b==null || e==null || e.dim!=Dimension.ONE) return null;
+
+        //-------------------------------------------------------------
+        //  Exponent depending on the parameter: base must be a number.
+        //-------------------------------------------------------------
+        if (!e.fn.isConstant())
+        {
+          if (b.dim!=Dimension.ONE) return null;
+          return new Conversion.Lowered
+                       (Dimension.ONE,Conversion.power(b.fn,e.fn));
+        }
+
+        //-------------------------------------------------------------
+        //  Constant exponent: proceed as 'power' in Value.
+        //-------------------------------------------------------------
+        double p = e.fn.apply(0);
+        Dimension dim;
+        Conversion fn;
+        if (Math.floor(p)==p)
+        {
+          int n = (int)Math.abs(p);
+          dim = b.dim.power(n);
+          fn = Conversion.power(b.fn,n);
+        }
+        else if (Math.floor(1.0/p)==1.0/p)
+        {
+          int n = (int)Math.abs(1.0/p);
+          dim = b.dim.root(n);
+          if (dim==null) return null;
+          fn = Conversion.root(b.fn,n);
+        }
+        else
+        {
+          if (b.dim!=Dimension.ONE) return null;
+          dim = Dimension.ONE;
+          fn = Conversion.power(b.fn,Math.abs(p));
+        }
+
+        if (p<0)
+        {
+          dim = dim.inverse();
+          fn = Conversion.invert(fn);
+        }
+        return new Conversion.Lowered(dim,fn);
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Negate
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Negation: MINUS primary. */
+  static class Negate extends Expr
+  {
+    private final Expr arg;
+
+    Negate(final Expr arg)
+      { this.arg = arg; }
+
+    @Override
+    Value eval(final Value parm)
+      {
+        Value v = arg.eval(parm);
+        v.factor *= -1;
+        return v;
+      }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Conversion.Lowered v = arg.lower(parm);
+        if (v==null) return null;
+        return new Conversion.Lowered(v.dim,Conversion.negate(v.fn));
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Apply
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Function or its inverse applied to an argument. */
+  static class Apply extends Expr
+  {
+    private final Function func;
+    private final boolean inverse;
+    private final Expr arg;
+
+    Apply(final Function func, boolean inverse, final Expr arg)
+      {
+        this.func = func;
+        this.inverse = inverse;
+        this.arg = arg;
+      }
+
+    @Override
+    Value eval(final Value parm)
+      {
+        Value v = arg.eval(parm);
+        if (inverse)
+          func.applyInverseTo(v);
+        else
+          func.applyTo(v);
+        return v;
+      }
+
+    @Override
+    Conversion.Lowered lower(final Conversion.Lowered parm)
+      {
+        Conversion.Lowered v = arg.lower(parm);
+        if (v==null) return null;
+        if (func instanceof BuiltInFunction)
+          return ((BuiltInFunction)func).lower(v);
+        if (func instanceof DefinedFunction)
+          return ((DefinedFunction)func).lower(v,inverse);
+        return null;
+      }
+  }
+}
@@ -44,10 +44,23 @@
 //    120303 Added check for a valid name to 'split'.
 //           Substantial rewrite of 'showdef'.
 //
+//  Version 1.89.J02
+//    261017 Added 'id' used to identify units in Dimension.
+//           Added 'reduced': memoized reduced form of definition.
+//           Keep the reduced form as immutable Quantity.
+//           'split' uses NameCache or NameTrie when they are built.
+//           Use trie and cache of the current UnitsEngine.
+//           Added 'expressions'.
+//           'reduced' throws EvalError for circular definition.
+//           Added 'reduced' to set the reduced form.
+//           Do not parse definitions that cannot be numbers.
+//           Added constructor with given 'id', and 'reserve'.
+//
 //=========================================================================
 
 package units;
 
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
@@ -62,6 +75,16 @@ package units;
 
 abstract class Factor extends Entity
 {
+  //-------------------------------------------------------------------
+  /**  Ordinal number of this Factor, unique during the run. */
+  //-------------------------------------------------------------------
+  final int id;
+
+  //-------------------------------------------------------------------
+  //  Source of 'id' numbers.
+  //-------------------------------------------------------------------
+  private static final AtomicInteger lastId = new AtomicInteger();
+
   //-------------------------------------------------------------------
   /**  Definition string. */
   //-------------------------------------------------------------------
@@ -82,6 +105,13 @@ abstract class Factor extends Entity
   //-------------------------------------------------------------------
   boolean isNumber = false;
 
+  //-------------------------------------------------------------------
+  //  Completely reduced form of 'def', or null if not yet computed.
+  //  (Computing it twice in concurrent threads gives the same result,
+  //  so it is enough that the reference is volatile.)
+  //-------------------------------------------------------------------
+  private volatile Quantity reduced = null;
+
   //-------------------------------------------------------------------
   /**  Ignore in comparisons? */
   //-------------------------------------------------------------------
@@ -104,9 +134,22 @@ abstract class Factor extends Entity
    *  @param def  definition.
    */
   Factor(final String name, Location loc, final String def)
+    { this(name,loc,def,lastId.incrementAndGet()); }
+
+  /**
+   *  Constructs a Factor object with given 'id',
+   *  obtained from 'reserve'.
+   *
+   *  @param name name of the Factor.
+   *  @param loc  location where defined.
+   *  @param def  definition.
+   *  @param id   the 'id'.
+   */
+  Factor(final String name, Location loc, final String def, int id)
     {
       super(name,loc);
       this.def = def;
+      this.id = id;
 
       if (def.equals("!"))
         isPrimitive = true;
@@ -117,6 +160,14 @@ abstract class Factor extends Entity
         isDimless = true;
       }
 
+      //---------------------------------------------------------------
+      //  Most definitions are not numbers. Recognize them without
+      //  the costly exception from 'valueOf'. (A finite number
+      //  begins with a digit, a sign, or a decimal point.)
+      //---------------------------------------------------------------
+      if (def.isEmpty() || "0123456789+-.".indexOf(def.charAt(0))<0)
+        return;
+
       Double d;
       try
         { d = Double.valueOf(def); }
@@ -129,6 +180,91 @@ abstract class Factor extends Entity
       isNumber = true;
     }
 
+  //=====================================================================
+  //  reduced
+  //=====================================================================
+  /**
+   *  Obtains the completely reduced form of this Factor.
+   *  It is computed from the definition when first needed
+   *  and kept for later use.
+   *
+   *  @return completely reduced form of this Factor.
+   */
+  Quantity reduced()
+    {
+      Quantity q = reduced;
+      if (q!=null) return q;
+
+      if (circular)
+        throw new EvalError("Definition of '" + name + "' is circular.");
+
+      Value r;
+
+      if (isPrimitive)
+      {
+        r = new Value();
+        r.mult(this);
+      }
+      else
+      {
+        try
+        { r = Value.parse(def); }
+
+        catch (EvalError e)
+        {
+          throw new EvalError("Invalid definition of '" + name + "'. "
+                              + e.getMessage());
+        }
+      }
+
+      r.completereduce();
+      q = r.quantity();
+      reduced = q;
+      return q;
+    }
+
+
+  //=====================================================================
+  //  reserve
+  //=====================================================================
+  /**
+   *  Reserves a range of 'id' numbers for Factors that are to be
+   *  constructed later, in any order, but must have 'id' numbers
+   *  in a given order (such as in the order they had in a snapshot).
+   *
+   *  @param  n number of Factors.
+   *  @return first 'id' of the range.
+   */
+  static int reserve(int n)
+    { return lastId.getAndAdd(n)+1; }
+
+
+  //=====================================================================
+  //  reduced (set)
+  //=====================================================================
+  /**
+   *  Sets the completely reduced form of this Factor
+   *  to one computed before, such as read from a Snapshot.
+   *
+   *  @param q completely reduced form of this Factor.
+   */
+  void reduced(final Quantity q)
+    { reduced = q; }
+
+
+  //=====================================================================
+  //  expressions
+  //=====================================================================
+  /**
+   *  Returns the definition of this Factor.
+   *
+   *  @return one-element array with the definition.
+   */
+  @Override
+  String[] expressions()
+    { return new String[]{def}; }
+
+
   //=====================================================================
   //  split
   //=====================================================================
@@ -146,6 +282,18 @@ abstract class Factor extends Entity
    */
   static Factor[] split(final String name)
     {
+      //---------------------------------------------------------------
+      //  Use the cache or trie if tables are complete.
+      //---------------------------------------------------------------
+      UnitsEngine e = UnitsEngine.current();
+      NameCache cache = e.cache;
+      if (cache!=null)
+        return cache.split(name);
+
+      NameTrie trie = e.trie;
+      if (trie!=null)
+        return trie.split(name);
+
       //---------------------------------------------------------------
       //  Return null if 'name' is not a valid name.
       //---------------------------------------------------------------
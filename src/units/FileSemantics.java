@@ -30,10 +30,17 @@
 //  Version 1.89.J01.
 //   120201 Created for this version.
 //
+//  Version 1.89.J02.
+//    261017 Use locale and file list of the current UnitsEngine.
+//           Use options bound to the current thread.
+//           Definitions and messages are saved as actions to be run
+//           in file order; include files are read by UnitsFile.
+//
 //=========================================================================
 
 package units;
 
+import java.util.List;
 
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
@@ -68,6 +75,18 @@ class FileSemantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   boolean inlocale = false;
 
+  //-------------------------------------------------------------------
+  //  Actions for the lines parsed so far: definitions of entities
+  //  and messages, to be run in file order by 'readunits' in UnitsFile.
+  //-------------------------------------------------------------------
+  List<Runnable> actions;
+
+  //-------------------------------------------------------------------
+  //  Files included by the lines parsed so far. They are read
+  //  by 'readunits' in UnitsFile before the actions are run.
+  //-------------------------------------------------------------------
+  List<UnitsFile> includes;
+
 
   //=====================================================================
   //  command = "locale " argument EOL
@@ -79,18 +98,18 @@ class FileSemantics extends units.SemanticsBase
 
       if (inlocale)
       {
-        Env.out.println(loc.where() + ". Nested locales are not allowed.");
+        message(loc.where() + ". Nested locales are not allowed.");
         return;
       }
 
       if (argument.isEmpty())
       {
-        Env.out.println(loc.where() + ". No locale specified.");
+        message(loc.where() + ". No locale specified.");
         return;
       }
 
       inlocale = true;
-      if (!argument.equals(Env.locale))
+      if (!argument.equals(UnitsEngine.current().locale))
       {
         wronglocale = true;
         return;
@@ -104,7 +123,7 @@ class FileSemantics extends units.SemanticsBase
   //=====================================================================
   void badloc()
     {
-      Env.out.println(loc.where() + ". No locale specified.");
+      message(loc.where() + ". No locale specified.");
       return;
     }
 
@@ -115,7 +134,7 @@ class FileSemantics extends units.SemanticsBase
     {
       if (!inlocale)
       {
-        Env.out.println(loc.where() + ". Unmatched !endlocale.");
+        message(loc.where() + ". Unmatched !endlocale.");
         return;
       }
 
@@ -135,20 +154,27 @@ class FileSemantics extends units.SemanticsBase
 
       if (argument.isEmpty())
       {
-        Env.out.println(loc.where() + ". No file name specified.");
+        message(loc.where() + ". No file name specified.");
         return;
       }
 
       if (depth>=Env.MAXINCLUDE)
       {
-        Env.out.println(loc.where() + ". Max include depth of "
+        message(loc.where() + ". Max include depth of "
                         + Env.MAXINCLUDE + " exceeded.");
         return;
       }
 
-      UnitsFile infile = new UnitsFile(argument);
-      boolean ok = infile.readunits(depth+1);
-      if (ok) Env.filenames.add(infile.name);
+      final UnitsFile infile = new UnitsFile(argument);
+      includes.add(infile);
+      emit(new Runnable()
+        {
+          public void run()
+            {
+              if (infile.apply())
+                UnitsEngine.current().filenames.add(infile.name);
+            }
+        });
     }
 
   //=====================================================================
@@ -157,7 +183,7 @@ class FileSemantics extends units.SemanticsBase
   //=====================================================================
   void badincl()
     {
-      Env.out.println(loc.where() + ". No file name specified.");
+      message(loc.where() + ". No file name specified.");
       return;
     }
 
@@ -169,17 +195,20 @@ class FileSemantics extends units.SemanticsBase
     {
       if (wronglocale) return;
 
-      String name = rhs(2).text();
+      final String name = rhs(2).text();
       String argument = rhs(4).text().trim();
 
       if (argument.isEmpty())
       {
-        Env.out.println
+        message
           (loc.where() + ". No unit list specified for '" + name + "'.");
         return;
       }
 
-      Alias.define(name,argument,loc);
+      final String list = argument;
+      final Location where = loc;
+      emit(new Runnable()
+        { public void run() { Alias.define(name,list,where); } });
     }
 
   //=====================================================================
@@ -188,7 +217,7 @@ class FileSemantics extends units.SemanticsBase
   //=====================================================================
   void badlist()
     {
-      Env.out.println
+      message
         (loc.where() + ". No name specified with '!unitlist'.");
     }
 
@@ -198,7 +227,7 @@ class FileSemantics extends units.SemanticsBase
   //=====================================================================
   void badcomm()
     {
-      Env.out.println(loc.where() + ". Unrecognized command '!"
+      message(loc.where() + ". Unrecognized command '!"
                       + rhsText(0,1) + "'.");
     }
 
@@ -210,27 +239,34 @@ class FileSemantics extends units.SemanticsBase
     {
       if (wronglocale) return;
 
-      String name = rhs(0).text();
-      String param = rhs(2).text();
+      final String name = rhs(0).text();
+      final String param = rhs(2).text();
       String fwddim = rhs(6).text().trim();
       String invdim = rhs(8).text().trim();
-      String fwddef = rhs(10).text().trim();
+      final String fwddef = rhs(10).text().trim();
       String invdef = null;
       if (rhsSize()>12) invdef = rhs(12).text().trim();
 
       if (fwddef.isEmpty())
       {
-        Env.out.println
+        message
           (loc.where() + ". Function '" + name +
            "' is ignored. Definition missing.");
         return;
       }
 
-      if (fwddim.isEmpty()) fwddim = null;
-      if (invdim.isEmpty()) invdim = null;
-
-      ComputedFunction.define
-        (name,param,fwddim,invdim,fwddef,invdef,loc);
+      final String fdim = fwddim.isEmpty()? null : fwddim;
+      final String idim = invdim.isEmpty()? null : invdim;
+      final String idef = invdef;
+      final Location where = loc;
+      emit(new Runnable()
+        {
+          public void run()
+            {
+              ComputedFunction.define
+                (name,param,fdim,idim,fwddef,idef,where);
+            }
+        });
     }
 
   //=====================================================================
@@ -241,22 +277,30 @@ class FileSemantics extends units.SemanticsBase
     {
       if (wronglocale) return;
 
-      String name = rhs(0).text();
-      String param = rhs(2).text();
-      String fwddef = rhs(4).text().trim();
+      final String name = rhs(0).text();
+      final String param = rhs(2).text();
+      final String fwddef = rhs(4).text().trim();
       String invdef = null;
       if (rhsSize()>6) invdef = rhs(6).text().trim();
 
       if (fwddef.isEmpty())
       {
-        Env.out.println
+        message
           (loc.where() + ". Function '" + name +
            "' is ignored. Definition missing.");
         return;
       }
 
-      ComputedFunction.define
-        (name,param,null,null,fwddef,invdef,loc);
+      final String idef = invdef;
+      final Location where = loc;
+      emit(new Runnable()
+        {
+          public void run()
+            {
+              ComputedFunction.define
+                (name,param,null,null,fwddef,idef,where);
+            }
+        });
     }
 
   //=====================================================================
@@ -269,7 +313,7 @@ class FileSemantics extends units.SemanticsBase
 
       String name = rhs(0).text();
 
-      Env.out.println
+      message
         (loc.where() + ". Function '" + name +
          "' is ignored. Argument dimensions not found after '['.");
     }
@@ -284,7 +328,7 @@ class FileSemantics extends units.SemanticsBase
 
       String name = rhs(0).text();
 
-      Env.out.println
+      message
         (loc.where() + ". Function '" + name +
          "' is ignored. Parameter not found after '('.");
     }
@@ -297,20 +341,20 @@ class FileSemantics extends units.SemanticsBase
     {
       if (wronglocale) return;
 
-      String name = rhs(0).text();
-      String resUnit = rhs(2).text().trim();
+      final String name = rhs(0).text();
+      final String resUnit = rhs(2).text().trim();
       int npairs = rhsSize()-6;
 
       if (npairs==1)
       {
-        Env.out.println
+        message
         (loc.where() + ". Function '" + name +
          "' is ignored. Only one point is defined.");
         return;
       }
 
-      double x[] = new double[npairs];
-      double y[] = new double[npairs];
+      final double x[] = new double[npairs];
+      final double y[] = new double[npairs];
 
       for (int i=0;i<npairs;i++)
       {
@@ -319,7 +363,12 @@ class FileSemantics extends units.SemanticsBase
         y[i] = pair.y;
       }
 
-      TabularFunction.define(name,resUnit,x,y,loc);
+      final Location where = loc;
+      emit(new Runnable()
+        {
+          public void run()
+            { TabularFunction.define(name,resUnit,x,y,where); }
+        });
     }
 
   //=====================================================================
@@ -332,7 +381,7 @@ class FileSemantics extends units.SemanticsBase
 
       String name = rhs(0).text();
 
-      Env.out.println
+      message
         (loc.where() + ". Function '" + name +
          "' is ignored. Result unit not found after '['.");
     }
@@ -345,12 +394,12 @@ class FileSemantics extends units.SemanticsBase
     {
       if (wronglocale) return;
 
-      String name = rhs(0).text();
-      String def = rhs(2).text().trim();
+      final String name = rhs(0).text();
+      final String def = rhs(2).text().trim();
 
       if (def.isEmpty())
       {
-        Env.out.println
+        message
           (loc.where() + ". Unit '" + name +
            "' is ignored. Definition missing.");
         return;
@@ -359,14 +408,21 @@ class FileSemantics extends units.SemanticsBase
       //---------------------------------------------------------------
       //  If unitname ends with '-', we have a prefix definition.
       //---------------------------------------------------------------
-      if (name.endsWith("-"))
-        Prefix.define(name,def,loc);
-
-      //---------------------------------------------------------------
-      // Otherwise we have a unit definition.
-      //---------------------------------------------------------------
-      else
-        Unit.define(name,def,loc);
+      final Location where = loc;
+      emit(new Runnable()
+        {
+          public void run()
+            {
+              if (name.endsWith("-"))
+                Prefix.define(name,def,where);
+
+              //-------------------------------------------------------
+              // Otherwise we have a unit definition.
+              //-------------------------------------------------------
+              else
+                Unit.define(name,def,where);
+            }
+        });
     }
 
 
@@ -380,12 +436,39 @@ class FileSemantics extends units.SemanticsBase
 
       String name = rhs(0).text();
 
-      Env.out.println
+      message
         (loc.where() + ". Unit '" + name +
          "' is ignored. Definition missing.");
     }
 
 
+  //=====================================================================
+  //  emit
+  //=====================================================================
+  /**
+   *  Adds an action to be run when the actions are run in file order.
+   *
+   *  @param action the action.
+   */
+  private void emit(final Runnable action)
+    { actions.add(action); }
+
+
+  //=====================================================================
+  //  message
+  //=====================================================================
+  /**
+   *  Adds an action that writes a message.
+   *
+   *  @param s the message.
+   */
+  private void message(final String s)
+    {
+      emit(new Runnable()
+        { public void run() { Env.out().println(s); } });
+    }
+
+
   //=====================================================================
   //  pair = number number ("," space)?
   //           0      1      2    3
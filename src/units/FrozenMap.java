@@ -0,0 +1,259 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//
+//=========================================================================
+
+package units;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class FrozenMap
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Immutable map from names to entities, used for the tables
+ *  of a UnitsEngine after they are loaded.
+ *  <p>
+ *  Names and entities are kept in arrays, in the order in which
+ *  they were returned by the map from which the FrozenMap was
+ *  constructed; iteration returns them in that order.
+ *  Names are located by open addressing with linear probing in
+ *  a table of indexes at most half full.
+ *  <p>
+ *  All fields are final and never modified after construction,
+ *  so the map can be read by any number of threads without
+ *  synchronization. Methods that would modify the map throw
+ *  UnsupportedOperationException.
+ */
+
+final class FrozenMap<V> extends AbstractMap<String,V>
+{
+  //-------------------------------------------------------------------
+  //  Names, their hash codes, and entities.
+  //-------------------------------------------------------------------
+  private final String[] keys;
+  private final int[] hashes;
+  private final Object[] vals;
+
+  //-------------------------------------------------------------------
+  //  Hash table: index+1 of the name in 'keys', or 0 if empty.
+  //-------------------------------------------------------------------
+  private final int[] index;
+  private final int mask;
+
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs FrozenMap with the contents of a given map.
+   *
+   *  @param m the map. Must not contain null keys or values.
+   */
+  FrozenMap(final Map<String,V> m)
+    {
+      int n = m.size();
+      keys = new String[n];
+      hashes = new int[n];
+      vals = new Object[n];
+
+      int cap = 2;
+      while (cap<2*n) cap *= 2;
+      index = new int[cap];
+      mask = cap-1;
+
+      int k = 0;
+      for (Map.Entry<String,V> e: m.entrySet())
+      {
+        String key = e.getKey();
+        int h = hash(key);
+        keys[k] = key;
+        hashes[k] = h;
+        vals[k] = e.getValue();
+        int i = h & mask;
+        while (index[i]!=0)
+          i = (i+1) & mask;
+        index[i] = ++k;
+      }
+    }
+
+
+  //=====================================================================
+  //  get
+  //=====================================================================
+  /**
+   *  Obtains entity with given name.
+   *
+   *  @param  key the name.
+   *  @return the entity, or null if there is none.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(final Object key)
+    {
+      if (!(key instanceof String)) return null;
+      int h = hash((String)key);
+      int i = h & mask;
+      int e;
+      while ((e=index[i])!=0)
+      {
+        e--;
+        if (hashes[e]==h && (keys[e]==key || keys[e].equals(key)))
+          return (V)vals[e];
+        i = (i+1) & mask;
+      }
+      return null;
+    }
+
+
+  //=====================================================================
+  //  containsKey / size
+  //=====================================================================
+  @Override
+  public boolean containsKey(final Object key)
+    { return get(key)!=null; }
+
+  @Override
+  public int size()
+    { return keys.length; }
+
+
+  //=====================================================================
+  //  values
+  //=====================================================================
+  /**
+   *  Obtains the entities, in the order of construction.
+   *
+   *  @return read-only Collection of entities.
+   */
+  @Override
+  public Collection<V> values()
+    {
+      return new AbstractCollection<V>()
+        {
+          public int size()
+            { return vals.length; }
+
+          public Iterator<V> iterator()
+            {
+              return new Iter<V>()
+                {
+                  @SuppressWarnings("unchecked")
+                  V element(int i)
+                    { return (V)vals[i]; }
+                };
+            }
+        };
+    }
+
+
+  //=====================================================================
+  //  entrySet
+  //=====================================================================
+  /**
+   *  Obtains the entries, in the order of construction.
+   *
+   *  @return read-only Set of entries.
+   */
+  @Override
+  public Set<Map.Entry<String,V>> entrySet()
+    {
+      return new AbstractSet<Map.Entry<String,V>>()
+        {
+          public int size()
+            { return vals.length; }
+
+          public Iterator<Map.Entry<String,V>> iterator()
+            {
+              return new Iter<Map.Entry<String,V>>()
+                {
+                  @SuppressWarnings("unchecked")
+                  Map.Entry<String,V> element(int i)
+                    {
+                      return new AbstractMap.SimpleImmutableEntry<String,V>
+                                   (keys[i],(V)vals[i]);
+                    }
+                };
+            }
+        };
+    }
+
+
+  //=====================================================================
+  //  hash
+  //=====================================================================
+  /**
+   *  Computes hash code of a name, spreading the bits of
+   *  'hashCode' so that similar names use different slots.
+   */
+  private static int hash(final String key)
+    {
+      int h = key.hashCode();
+      return h ^ (h>>>16);
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Iter
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /** Read-only iterator over positions in the arrays. */
+  private abstract class Iter<T> implements Iterator<T>
+  {
+    private int next = 0;
+
+    abstract T element(int i);
+
+    public boolean hasNext()
+      { return next<vals.length; }
+
+    public T next()
+      {
+        if (next>=vals.length) throw new NoSuchElementException();
+        return element(next++);
+      }
+
+    public void remove()
+      { throw new UnsupportedOperationException(); }
+  }
+}
@@ -33,6 +33,9 @@
 //  Version 1.87.J01.
 //    091025 Replaced 'Parser.Exception' by 'EvalError'.
 //
+//  Version 1.89.J02.
+//    261017 Added 'parameters'.
+//
 //=========================================================================
 
 package units;
@@ -96,4 +99,17 @@ abstract class Function extends Entity
    *  @return formatted definition of this function.
    */
   abstract String showdef();
+
+
+  //=====================================================================
+  //  parameters
+  //=====================================================================
+  /**
+   *  Returns names of parameters used in the definition.
+   *  They are not names of other entities.
+   *
+   *  @return the names. Empty for a function without parameters.
+   */
+  String[] parameters()
+    { return new String[0]; }
 }
\ No newline at end of file
@@ -72,6 +72,9 @@
 //           Removed setting of 'Env.gui' - never used.
 //           Instantiate and use 'Env.guiFont'.
 //
+//  Version 1.89.J02.
+//    261017 Moved the actions to 'perform', invoked with the engine bound by 'pin'.
+//
 //=========================================================================
 
 package units;
@@ -276,7 +279,25 @@ public class GUI extends Container implements ActionListener
   @Override
 public void actionPerformed(ActionEvent e)
     {
-      String arg = e.getActionCommand();
+      UnitsEngine prev = UnitsEngine.pin();
+      try
+      { perform(e.getActionCommand()); }
+      finally
+      { UnitsEngine.leave(prev); }
+    }
+
+
+  //=====================================================================
+  //  perform
+  //=====================================================================
+  /**
+   *  Performs the action of a button,
+   *  using one engine (see 'pin' in UnitsEngine).
+   *
+   *  @param arg action command of the button.
+   */
+  private void perform(final String arg)
+    {
 
       //===============================================================
       //  "Search" pressed
@@ -0,0 +1,550 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Added 'constructAll'.
+//           'constructAll' releases the definition lines.
+//           Redefinition of a function is reported when its line is added.
+//
+//=========================================================================
+
+package units;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class LazyTables
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Tables of units, prefixes, and defined functions of a UnitsEngine
+ *  loaded by 'loadLazily'. The definitions are indexed by name when
+ *  the files are read, and an entity is constructed from its line
+ *  the first time it is obtained from a table.
+ *  <p>
+ *  The index is built by 'add' for each definition line, in file order.
+ *  A unit or prefix line is not parsed: its name and definition are
+ *  found by scanning the characters. Its name is checked and
+ *  redefinition reported as by 'define' in Unit and Prefix, and its
+ *  'id' is reserved, so that the units and prefixes have 'id's in the
+ *  same order as when loaded eagerly. A function line is parsed by
+ *  FileParser when the function is first obtained; if the line turns
+ *  out invalid, the function has the previous definition, if any.
+ *  Redefinition of a function is reported when the line is added,
+ *  and errors in the line when it is parsed.
+ *  Lines that do not look like definitions are parsed immediately,
+ *  to write the same messages as when loaded eagerly.
+ *  <p>
+ *  When an entity is constructed, the entities it uses are also
+ *  constructed, and those among them that depend on each other
+ *  are marked circular (see 'circular' in UnitsEngine).
+ *  The new entities become visible to other threads after that.
+ */
+
+class LazyTables
+{
+  //-------------------------------------------------------------------
+  //  Kinds of tables.
+  //-------------------------------------------------------------------
+  private static final int UNIT     = 0;
+  private static final int PREFIX   = 1;
+  private static final int FUNCTION = 2;
+
+  //-------------------------------------------------------------------
+  /** The tables. */
+  //-------------------------------------------------------------------
+  final Table<Unit> units = new Table<Unit>(UNIT);
+  final Table<Prefix> prefixes = new Table<Prefix>(PREFIX);
+  final Table<DefinedFunction> functions = new Table<DefinedFunction>(FUNCTION);
+
+  //-------------------------------------------------------------------
+  //  The engine.
+  //-------------------------------------------------------------------
+  private final UnitsEngine engine;
+
+  //-------------------------------------------------------------------
+  //  Entities checked for circular definitions.
+  //-------------------------------------------------------------------
+  private final Set<Entity> checked
+    = Collections.newSetFromMap(new IdentityHashMap<Entity,Boolean>());
+
+  //-------------------------------------------------------------------
+  //  Depth of nested constructions.
+  //-------------------------------------------------------------------
+  private int depth = 0;
+
+  //-------------------------------------------------------------------
+  //  Replaces in the index definitions of constructed entities,
+  //  so that the lines, and the file contents, are not kept.
+  //-------------------------------------------------------------------
+  private static final Definition BUILT = new Definition(null,null,0,0,null);
+
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs empty tables for given engine.
+   *
+   *  @param engine the engine.
+   */
+  LazyTables(final UnitsEngine engine)
+    { this.engine = engine; }
+
+
+  //=====================================================================
+  //  add
+  //=====================================================================
+  /**
+   *  Adds definition line to the index.
+   *  Must be invoked with the engine bound to the current thread,
+   *  for lines in file order.
+   *
+   *  @param line the line, without comment.
+   *  @param loc  its location.
+   */
+  void add(final Source line, final Location loc)
+    {
+      //---------------------------------------------------------------
+      //  Find the name: see 'line' and 'name' in FileParser.
+      //---------------------------------------------------------------
+      int n = line.end();
+      int begin = 0;
+      while (begin<n && isBlank(line.at(begin))) begin++;
+      int end = begin;
+      while (end<n && "[( \t".indexOf(line.at(end))<0) end++;
+
+      if (end==begin)
+      {
+        if (begin<n) parse(line,loc);
+        return;
+      }
+
+      //---------------------------------------------------------------
+      //  Function definition.
+      //---------------------------------------------------------------
+      if (end<n && !isBlank(line.at(end)))
+      {
+        String name = line.at(begin,end);
+        Definition old = functions.index.put
+          (name,new Definition(line,loc,end,0,functions.index.get(name)));
+        if (old!=null) DefinedFunction.redefined(name,old.loc,loc);
+        return;
+      }
+
+      //---------------------------------------------------------------
+      //  Unit or prefix definition. Parse it now if the definition
+      //  is missing or contains ';', to write the message.
+      //---------------------------------------------------------------
+      boolean empty = true;
+      for (int i=end;i<n;i++)
+      {
+        char c = line.at(i);
+        if (c==';')
+        {
+          parse(line,loc);
+          return;
+        }
+        if (!isBlank(c)) empty = false;
+      }
+
+      if (empty)
+      {
+        parse(line,loc);
+        return;
+      }
+
+      String name = line.at(begin,end);
+      if (name.endsWith("-"))
+      {
+        name = name.substring(0,name.length()-1);
+        if (!Prefix.accepts(name,loc)) return;
+        Definition old = prefixes.index.put
+          (name,new Definition(line,loc,end,Factor.reserve(1),null));
+        if (old!=null) Prefix.redefined(name,old.loc,loc);
+      }
+      else
+      {
+        if (!Unit.accepts(name,loc)) return;
+        Definition old = units.index.put
+          (name,new Definition(line,loc,end,Factor.reserve(1),null));
+        if (old!=null) Unit.redefined(name,old.loc,loc);
+      }
+    }
+
+
+  //=====================================================================
+  //  constructAll
+  //=====================================================================
+  /**
+   *  Constructs all entities not yet constructed,
+   *  and releases their definition lines.
+   *  Must be invoked with the engine bound to the current thread,
+   *  after the files were read.
+   */
+  void constructAll()
+    {
+      units.constructAll();
+      prefixes.constructAll();
+      functions.constructAll();
+    }
+
+
+  //=====================================================================
+  //  obtain
+  //=====================================================================
+  /**
+   *  Obtains entity from a table, constructing it if needed,
+   *  and checks the entities constructed with it.
+   *
+   *  @param  t   the table.
+   *  @param  key the name.
+   *  @return the entity, or null if not defined.
+   */
+  private synchronized <V extends Entity> V obtain
+    (final Table<V> t, final String key)
+    {
+      V x = t.made.get(key);
+      if (x==null) x = t.pending.get(key);
+      if (x!=null) return x;
+
+      Definition d = t.index.get(key);
+      if (d==null || d==BUILT) return null;
+
+      UnitsEngine prev = engine.enter();
+      depth++;
+      try
+      {
+        x = t.make(key,d);
+        if (x==null || depth>1) return x;
+
+        //-------------------------------------------------------------
+        //  Construct the entities used by the new one, directly
+        //  or indirectly, and find circular definitions among them.
+        //-------------------------------------------------------------
+        List<Entity> nodes = new ArrayList<Entity>();
+        nodes.add(x);
+        DependencyGraph g = new DependencyGraph(nodes,checked);
+        engine.circular(g,nodes);
+        checked.addAll(nodes);
+        return x;
+      }
+      finally
+      {
+        //-------------------------------------------------------------
+        //  Make the new entities visible to other threads.
+        //-------------------------------------------------------------
+        depth--;
+        if (depth==0)
+        {
+          units.publish();
+          prefixes.publish();
+          functions.publish();
+        }
+        UnitsEngine.leave(prev);
+      }
+    }
+
+
+  //=====================================================================
+  //  parse
+  //=====================================================================
+  /**
+   *  Parses a line and runs the resulting actions
+   *  (see 'prepare' in UnitsFile).
+   *
+   *  @param line the line.
+   *  @param loc  its location.
+   */
+  private static void parse(final Source line, final Location loc)
+    {
+      FileParser parser = new FileParser();
+      FileSemantics sem = parser.semantics();
+      parser.setMemo(1);
+      sem.actions = new ArrayList<Runnable>();
+      sem.loc = loc;
+      parser.parse(line);
+      for (Runnable action: sem.actions)
+        action.run();
+    }
+
+
+  //=====================================================================
+  //  isBlank
+  //=====================================================================
+  private static boolean isBlank(char c)
+    { return c==' ' || c=='\t'; }
+
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Definition
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Indexed definition line.
+   */
+  private static class Definition
+  {
+    final Source line;       // The line
+    final Location loc;      // Its location
+    final int end;           // End of the name in the line
+    final int id;            // Reserved 'id' of unit or prefix
+    final Definition prev;   // Previous definition of function, or null
+
+    Definition
+      (final Source line, final Location loc, int end, int id,
+       final Definition prev)
+      {
+        this.line = line;
+        this.loc = loc;
+        this.end = end;
+        this.id = id;
+        this.prev = prev;
+      }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Table
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  One of the tables. Iterates over the names in the same order
+   *  as a table loaded eagerly, constructing the entities.
+   *  The number of entries is the number of names defined,
+   *  including functions whose definitions turn out invalid.
+   *  Accepts 'put' only from 'define' of a function being constructed.
+   */
+  class Table<V extends Entity> extends AbstractMap<String,V>
+  {
+    //-----------------------------------------------------------------
+    //  Kind of the table.
+    //-----------------------------------------------------------------
+    private final int kind;
+
+    //-----------------------------------------------------------------
+    //  Last definition of each name, in order of first definition.
+    //  It is filled while reading the files. Afterwards, definitions
+    //  are only replaced by BUILT (see 'constructAll').
+    //-----------------------------------------------------------------
+    private final Hashtable<String,Definition> index
+      = new Hashtable<String,Definition>();
+
+    //-----------------------------------------------------------------
+    //  Entities visible to all threads.
+    //-----------------------------------------------------------------
+    private final ConcurrentHashMap<String,V> made
+      = new ConcurrentHashMap<String,V>();
+
+    //-----------------------------------------------------------------
+    //  Entities constructed and not yet visible.
+    //-----------------------------------------------------------------
+    private final Map<String,V> pending = new HashMap<String,V>();
+
+    //-----------------------------------------------------------------
+    //  Constructor.
+    //-----------------------------------------------------------------
+    Table(int kind)
+      { this.kind = kind; }
+
+    //-----------------------------------------------------------------
+    //  get
+    //-----------------------------------------------------------------
+    @Override
+    public V get(final Object key)
+      {
+        if (!(key instanceof String)) return null;
+        V x = made.get(key);
+        return x!=null? x : obtain(this,(String)key);
+      }
+
+    //-----------------------------------------------------------------
+    //  containsKey
+    //-----------------------------------------------------------------
+    @Override
+    public boolean containsKey(final Object key)
+      {
+        if (kind!=FUNCTION) return index.containsKey(key);
+        return get(key)!=null;
+      }
+
+    //-----------------------------------------------------------------
+    //  put
+    //-----------------------------------------------------------------
+    @Override
+    public V put(final String key, final V value)
+      {
+        if (kind!=FUNCTION || depth==0)
+          throw new UnsupportedOperationException();
+        pending.put(key,value);
+        return null;
+      }
+
+    //-----------------------------------------------------------------
+    //  size
+    //-----------------------------------------------------------------
+    @Override
+    public int size()
+      { return index.size(); }
+
+    //-----------------------------------------------------------------
+    //  keySet
+    //-----------------------------------------------------------------
+    @Override
+    public Set<String> keySet()
+      { return Collections.unmodifiableSet(index.keySet()); }
+
+    //-----------------------------------------------------------------
+    //  entrySet
+    //-----------------------------------------------------------------
+    @Override
+    public Set<Map.Entry<String,V>> entrySet()
+      {
+        return new AbstractSet<Map.Entry<String,V>>()
+          {
+            public int size()
+              { return index.size(); }
+
+            public Iterator<Map.Entry<String,V>> iterator()
+              {
+                final Iterator<String> keys = index.keySet().iterator();
+                return new Iterator<Map.Entry<String,V>>()
+                  {
+                    private V next = advance();
+
+                    private V advance()
+                      {
+                        while (keys.hasNext())
+                        {
+                          V x = get(keys.next());
+                          if (x!=null) return x;
+                        }
+                        return null;
+                      }
+
+                    public boolean hasNext()
+                      { return next!=null; }
+
+                    public Map.Entry<String,V> next()
+                      {
+                        if (next==null) throw new NoSuchElementException();
+                        V x = next;
+                        next = advance();
+                        return new AbstractMap.SimpleImmutableEntry<String,V>
+                                     (x.name,x);
+                      }
+
+                    public void remove()
+                      { throw new UnsupportedOperationException(); }
+                  };
+              }
+          };
+      }
+
+    //-----------------------------------------------------------------
+    //  make
+    //-----------------------------------------------------------------
+    /**
+     *  Constructs entity from its definition.
+     *  Must be invoked by 'obtain'.
+     *
+     *  @param  key the name.
+     *  @param  d   its last definition.
+     *  @return the entity, or null if no definition is valid.
+     */
+    @SuppressWarnings("unchecked")
+    private V make(final String key, Definition d)
+      {
+        if (kind!=FUNCTION)
+        {
+          String def = d.line.at(d.end+1,d.line.end()).trim();
+          V x = (V)(kind==UNIT? new Unit(key,d.loc,def,d.id)
+                              : new Prefix(key,d.loc,def,d.id));
+          pending.put(key,x);
+          return x;
+        }
+
+        for (;d!=null;d=d.prev)
+        {
+          parse(d.line,d.loc);
+          V x = pending.get(key);
+          if (x!=null) return x;
+        }
+        return null;
+      }
+
+    //-----------------------------------------------------------------
+    //  constructAll
+    //-----------------------------------------------------------------
+    /**
+     *  Constructs all entities of this table and replaces their
+     *  definitions by BUILT. (Replacing a value in a Hashtable
+     *  does not disturb iterations over it.)
+     */
+    private void constructAll()
+      {
+        for (String key: index.keySet())
+        {
+          get(key);
+          index.put(key,BUILT);
+        }
+      }
+
+    //-----------------------------------------------------------------
+    //  publish
+    //-----------------------------------------------------------------
+    /**
+     *  Makes the pending entities visible.
+     *  Must be invoked by 'obtain'.
+     */
+    private void publish()
+      {
+        made.putAll(pending);
+        pending.clear();
+      }
+  }
+}
@@ -0,0 +1,829 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Write empty text for a file that cannot be read.
+//
+//=========================================================================
+
+
+package units;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class MappedSnapshot
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Snapshot of a loaded UnitsEngine in a read-only layout
+ *  that is mapped into memory and used in place.
+ *  Processes that map the same snapshot share its pages.
+ *  <p>
+ *  The snapshot starts with the header written by 'writeHeader'
+ *  in Snapshot, followed by these sections:
+ *  <ul>
+ *  <li>Records of entities: units and prefixes in order of creation,
+ *      then functions and unit lists. Each record is RECORD ints
+ *      giving kind, hash and position of the name, location,
+ *      position of the definition, and the reduced form.
+ *  <li>Pool of characters, holding the names and the texts of files.
+ *  <li>Definitions, as written by 'write' in Entity.
+ *  <li>Dimensions of the reduced forms: pairs of record number
+ *      and exponent.
+ *  <li>Files: positions of the name and text in the pool.
+ *  <li>For each of the four tables: record numbers in order
+ *      of iteration, and an open-addressing hash index
+ *      of the names holding record numbers plus 1.
+ *  <li>Directory giving positions of the above.
+ *  </ul>
+ *  It ends with the position of the directory and a CRC32
+ *  checksum of everything before it.
+ *  <p>
+ *  The tables of an engine opened from the snapshot look up names
+ *  directly in the mapped index, and construct an Entity from its
+ *  record only when it is first obtained. The engine does not have
+ *  trie and cache for resolving names (see 'split' in Factor).
+ */
+
+class MappedSnapshot
+{
+  //-------------------------------------------------------------------
+  /** Version of the format. */
+  //-------------------------------------------------------------------
+  static final int FORMAT = 1;
+
+  //-------------------------------------------------------------------
+  //  First four bytes of a mapped snapshot: "UNMS".
+  //-------------------------------------------------------------------
+  private static final int MAGIC = 0x554E4D53;
+
+  //-------------------------------------------------------------------
+  //  Kinds of records, and flags added to them.
+  //-------------------------------------------------------------------
+  private static final int UNIT     = 0;
+  private static final int PREFIX   = 1;
+  private static final int COMPUTED = 2;
+  private static final int TABULAR  = 3;
+  private static final int ALIAS    = 4;
+  private static final int KIND     = 0xff;
+  private static final int CIRCULAR = 0x100;
+  private static final int REDUCED  = 0x200;
+
+  //-------------------------------------------------------------------
+  //  Fields of a record.
+  //-------------------------------------------------------------------
+  private static final int FLAGS   = 0;
+  private static final int HASH    = 1;
+  private static final int NAME    = 2;   // Offset in pool
+  private static final int NAMELEN = 3;
+  private static final int FILE    = 4;
+  private static final int LINE    = 5;
+  private static final int BEGIN   = 6;
+  private static final int END     = 7;
+  private static final int DEF     = 8;   // Offset in definitions
+  private static final int DEFLEN  = 9;
+  private static final int DIM     = 10;  // Index in dimensions
+  private static final int DIMLEN  = 11;
+  private static final int FACTOR  = 12;  // Two ints: bits of double
+  private static final int RECORD  = 14;
+
+  //-------------------------------------------------------------------
+  //  Fields of the directory.
+  //-------------------------------------------------------------------
+  private static final int NRECS     = 0;
+  private static final int RECS      = 1;
+  private static final int POOL      = 2;
+  private static final int DEFS      = 3;
+  private static final int DIMS      = 4;
+  private static final int NFILES    = 5;
+  private static final int FILES     = 6;
+  private static final int TABLES    = 7;  // Four ints for each table:
+  private static final int COUNT     = 0;  //   number of entries,
+  private static final int ORDER     = 1;  //   position of the order,
+  private static final int CAPACITY  = 2;  //   capacity of the index,
+  private static final int INDEX     = 3;  //   position of the index.
+  private static final int DIRECTORY = TABLES + 4*4;
+
+  //-------------------------------------------------------------------
+  //  Numbers of the tables.
+  //-------------------------------------------------------------------
+  private static final int UNITS     = 0;
+  private static final int PREFIXES  = 1;
+  private static final int FUNCTIONS = 2;
+  private static final int ALIASES   = 3;
+
+  //-------------------------------------------------------------------
+  //  Size of buffer for computing checksum.
+  //-------------------------------------------------------------------
+  private static final int BUFSIZE = 65536;
+
+  //-------------------------------------------------------------------
+  //  The mapped snapshot.
+  //-------------------------------------------------------------------
+  private final ByteBuffer buf;
+
+  //-------------------------------------------------------------------
+  //  The directory.
+  //-------------------------------------------------------------------
+  private final int[] dir;
+
+  //-------------------------------------------------------------------
+  //  The engine whose tables are in this snapshot.
+  //-------------------------------------------------------------------
+  private final UnitsEngine engine;
+
+  //-------------------------------------------------------------------
+  //  The files.
+  //-------------------------------------------------------------------
+  private final UnitsFile[] files;
+
+  //-------------------------------------------------------------------
+  //  Entities constructed from the records, or null if not yet.
+  //-------------------------------------------------------------------
+  private final AtomicReferenceArray<Entity> made;
+
+  //-------------------------------------------------------------------
+  //  The 'id' of the first unit or prefix (see 'reserve' in Factor).
+  //-------------------------------------------------------------------
+  private final int firstId;
+
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs MappedSnapshot for a mapped buffer.
+   *
+   *  @param buf    the buffer.
+   *  @param dir    the directory.
+   *  @param engine the engine.
+   */
+  private MappedSnapshot
+    (final ByteBuffer buf, final int[] dir, final UnitsEngine engine)
+    {
+      this.buf = buf;
+      this.dir = dir;
+      this.engine = engine;
+
+      files = new UnitsFile[dir[NFILES]];
+      for (int i=0;i<files.length;i++)
+      {
+        int f = dir[FILES] + 16*i;
+        files[i] = new UnitsFile(string(buf.getInt(f),buf.getInt(f+4)));
+        ByteBuffer text = buf.duplicate();
+        text.position(dir[POOL] + 2*buf.getInt(f+8));
+        text.limit(dir[POOL] + 2*(buf.getInt(f+8)+buf.getInt(f+12)));
+        files[i].text = text.slice().asCharBuffer();
+      }
+
+      made = new AtomicReferenceArray<Entity>(dir[NRECS]);
+      firstId = Factor.reserve
+        (dir[TABLES+4*UNITS+COUNT] + dir[TABLES+4*PREFIXES+COUNT]);
+    }
+
+
+  //=====================================================================
+  //  open
+  //=====================================================================
+  /**
+   *  Obtains engine from mapped snapshot, if it exists and was built
+   *  by this version from the current contents of given files.
+   *
+   *  @param  filename  the snapshot file.
+   *  @param  filenames unit definition files.
+   *  @param  locale    locale for the definition files.
+   *  @return the engine, or null if the snapshot cannot be used.
+   */
+  static UnitsEngine open
+    (final String filename, final Vector<String> filenames, final String locale)
+    {
+      File file = new File(filename);
+      if (!file.isFile()) return null;
+
+      try
+      {
+        ByteBuffer buf;
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try
+        {
+          buf = raf.getChannel().map
+                  (FileChannel.MapMode.READ_ONLY,0,raf.length());
+        }
+        finally
+        { raf.close(); }
+
+        //-------------------------------------------------------------
+        //  Check the checksum before using anything.
+        //-------------------------------------------------------------
+        int n = buf.capacity()-8;
+        if (n<4) return Snapshot.outdated(filename,"is damaged");
+        CRC32 crc = new CRC32();
+        byte[] b = new byte[BUFSIZE];
+        ByteBuffer d = buf.duplicate();
+        for (int i=0;i<n;i+=BUFSIZE)
+        {
+          int k = Math.min(BUFSIZE,n-i);
+          d.get(b,0,k);
+          crc.update(b,0,k);
+        }
+        if (buf.getLong(n)!=crc.getValue())
+          return Snapshot.outdated(filename,"is damaged");
+
+        //-------------------------------------------------------------
+        //  Read the header and the directory.
+        //-------------------------------------------------------------
+        final ByteBuffer h = buf.duplicate();
+        InputStream is = new InputStream()
+          {
+            public int read()
+              { return h.hasRemaining()? h.get() & 0xff : -1; }
+          };
+        UnitsEngine e = Snapshot.readHeader
+          (new DataInputStream(is),MAGIC,FORMAT,
+           filename,filenames,locale,false);
+        if (e==null) return null;
+
+        int[] dir = new int[DIRECTORY];
+        int pos = buf.getInt(n-4);
+        for (int i=0;i<DIRECTORY;i++)
+          dir[i] = buf.getInt(pos+4*i);
+
+        //-------------------------------------------------------------
+        //  Install the tables. Fill and freeze the table
+        //  of built-in functions as 'complete' in UnitsEngine does.
+        //-------------------------------------------------------------
+        MappedSnapshot m = new MappedSnapshot(buf,dir,e);
+        e.units     = m.new Table<Unit>(UNITS);
+        e.prefixes  = m.new Table<Prefix>(PREFIXES);
+        e.functions = m.new Table<DefinedFunction>(FUNCTIONS);
+        e.aliases   = m.new Table<Alias>(ALIASES);
+
+        UnitsEngine prev = e.enter();
+        try
+        {
+          BuiltInFunction.makeTable();
+          e.builtins = new FrozenMap<BuiltInFunction>(e.builtins);
+        }
+        finally
+        { UnitsEngine.leave(prev); }
+        return e;
+      }
+      catch (IOException x)
+      { return Snapshot.outdated(filename,"cannot be read: " + x.getMessage()); }
+      catch (RuntimeException x)
+      { return Snapshot.outdated(filename,"is damaged"); }
+    }
+
+
+  //=====================================================================
+  //  write
+  //=====================================================================
+  /**
+   *  Writes mapped snapshot of a loaded engine, with the reduced
+   *  forms of units and prefixes (see 'save' in Snapshot).
+   *  Writes a message if the snapshot cannot be written.
+   *
+   *  @param  e        the engine.
+   *  @param  filename the snapshot file.
+   *  @return true if success, false otherwise.
+   */
+  static boolean write(final UnitsEngine e, final String filename)
+    {
+      e.reduce(null);
+
+      UnitsEngine prev = e.enter();
+      try
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFSIZE);
+        writeTables(e,new DataOutputStream(bytes));
+        Snapshot.save(bytes,filename);
+        return true;
+      }
+      catch (IOException x)
+      {
+        Env.out().println
+          ("Snapshot '" + filename + "' was not written: " + x.getMessage());
+        return false;
+      }
+      finally
+      { UnitsEngine.leave(prev); }
+    }
+
+
+  //=====================================================================
+  //  writeTables
+  //=====================================================================
+  /**
+   *  Writes the snapshot contents.
+   *  Must be invoked with the engine bound to the current thread.
+   *
+   *  @param  e   the engine.
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  private static void writeTables
+    (final UnitsEngine e, final DataOutputStream out)
+    throws IOException
+    {
+      Snapshot.writeHeader(e,out,MAGIC,FORMAT);
+
+      //---------------------------------------------------------------
+      //  Entities in order of records.
+      //---------------------------------------------------------------
+      List<Entity> all = new ArrayList<Entity>();
+      all.addAll(Snapshot.factors(e));
+      all.addAll(e.functions.values());
+      all.addAll(e.aliases.values());
+
+      Map<Entity,Integer> index = new IdentityHashMap<Entity,Integer>();
+      for (Entity x: all)
+        index.put(x,index.size());
+
+      //---------------------------------------------------------------
+      //  Fill the pool, definitions, and dimensions,
+      //  and construct the records.
+      //---------------------------------------------------------------
+      StringBuilder pool = new StringBuilder();
+      ByteArrayOutputStream defs = new ByteArrayOutputStream(BUFSIZE);
+      DataOutputStream defOut = new DataOutputStream(defs);
+      List<Integer> dims = new ArrayList<Integer>();
+      Map<UnitsFile,Integer> fileIndex = new IdentityHashMap<UnitsFile,Integer>();
+      List<UnitsFile> files = new ArrayList<UnitsFile>();
+
+      int[] recs = new int[RECORD*all.size()];
+      for (int r=0;r<all.size();r++)
+      {
+        Entity x = all.get(r);
+        int p = RECORD*r;
+
+        int kind = x instanceof Unit? UNIT
+                 : x instanceof Prefix? PREFIX
+                 : x instanceof TabularFunction? TABULAR
+                 : x instanceof Alias? ALIAS : COMPUTED;
+        if (x.circular) kind |= CIRCULAR;
+
+        Integer f = fileIndex.get(x.location.file);
+        if (f==null)
+        {
+          f = files.size();
+          fileIndex.put(x.location.file,f);
+          files.add(x.location.file);
+        }
+
+        recs[p+HASH] = hash(x.name);
+        recs[p+NAME] = pool.length();
+        recs[p+NAMELEN] = x.name.length();
+        pool.append(x.name);
+        recs[p+FILE] = f;
+        recs[p+LINE] = x.location.lineNum;
+        recs[p+BEGIN] = x.location.beginChar;
+        recs[p+END] = x.location.endChar;
+        recs[p+DEF] = defs.size();
+        x.write(defOut);
+        defOut.flush();
+        recs[p+DEFLEN] = defs.size()-recs[p+DEF];
+
+        //-------------------------------------------------------------
+        //  Reduced form, if it can be computed and its Dimension
+        //  contains only units in the tables.
+        //-------------------------------------------------------------
+        Quantity q = null;
+        if (x instanceof Factor && !x.circular)
+        {
+          try
+          { q = ((Factor)x).reduced(); }
+          catch (EvalError ex)
+          { q = null; }
+        }
+
+        if (q!=null)
+        {
+          for (Factor u: q.dim.units)
+            if (index.get(u)==null) q = null;
+        }
+
+        if (q!=null)
+        {
+          kind |= REDUCED;
+          long bits = Double.doubleToLongBits(q.factor);
+          recs[p+FACTOR] = (int)(bits>>>32);
+          recs[p+FACTOR+1] = (int)bits;
+          recs[p+DIM] = dims.size()/2;
+          recs[p+DIMLEN] = q.dim.units.length;
+          for (int i=0;i<q.dim.units.length;i++)
+          {
+            dims.add(index.get(q.dim.units[i]));
+            dims.add(q.dim.exps[i]);
+          }
+        }
+
+        recs[p+FLAGS] = kind;
+      }
+
+      int[] fileRecs = new int[4*files.size()];
+      for (int i=0;i<files.size();i++)
+      {
+        UnitsFile f = files.get(i);
+        String text = f.contents();
+        if (text==null) text = "";
+        fileRecs[4*i]   = pool.length();
+        fileRecs[4*i+1] = f.name.length();
+        pool.append(f.name);
+        fileRecs[4*i+2] = pool.length();
+        fileRecs[4*i+3] = text.length();
+        pool.append(text);
+      }
+
+      //---------------------------------------------------------------
+      //  Write the sections, noting their positions in the directory.
+      //---------------------------------------------------------------
+      int[] dir = new int[DIRECTORY];
+      dir[NRECS] = all.size();
+      dir[RECS] = out.size();
+      for (int v: recs)
+        out.writeInt(v);
+
+      dir[POOL] = out.size();
+      out.writeChars(pool.toString());
+
+      dir[DEFS] = out.size();
+      defs.writeTo(out);
+
+      dir[DIMS] = out.size();
+      for (int v: dims)
+        out.writeInt(v);
+
+      dir[NFILES] = files.size();
+      dir[FILES] = out.size();
+      for (int v: fileRecs)
+        out.writeInt(v);
+
+      writeTable(UNITS,e.units.values(),index,recs,dir,out);
+      writeTable(PREFIXES,e.prefixes.values(),index,recs,dir,out);
+      writeTable(FUNCTIONS,e.functions.values(),index,recs,dir,out);
+      writeTable(ALIASES,e.aliases.values(),index,recs,dir,out);
+
+      int pos = out.size();
+      for (int v: dir)
+        out.writeInt(v);
+      out.writeInt(pos);
+      out.flush();
+    }
+
+
+  //=====================================================================
+  //  writeTable
+  //=====================================================================
+  /**
+   *  Writes the order and index of one table.
+   *
+   *  @param  t      number of the table.
+   *  @param  values the entities of the table.
+   *  @param  index  record numbers of the entities.
+   *  @param  recs   the records.
+   *  @param  dir    the directory.
+   *  @param  out    the output.
+   *  @throws IOException if writing failed.
+   */
+  private static void writeTable
+    (int t, final Iterable<? extends Entity> values,
+     final Map<Entity,Integer> index, final int[] recs,
+     final int[] dir, final DataOutputStream out)
+    throws IOException
+    {
+      List<Integer> order = new ArrayList<Integer>();
+      for (Entity x: values)
+        order.add(index.get(x));
+
+      int cap = 16;
+      while (cap<2*order.size()) cap *= 2;
+      int[] slots = new int[cap];
+      for (int r: order)
+      {
+        int i = recs[RECORD*r+HASH] & (cap-1);
+        while (slots[i]!=0) i = (i+1) & (cap-1);
+        slots[i] = r+1;
+      }
+
+      dir[TABLES+4*t+COUNT] = order.size();
+      dir[TABLES+4*t+ORDER] = out.size();
+      for (int r: order)
+        out.writeInt(r);
+      dir[TABLES+4*t+CAPACITY] = cap;
+      dir[TABLES+4*t+INDEX] = out.size();
+      for (int v: slots)
+        out.writeInt(v);
+    }
+
+
+  //=====================================================================
+  //  find
+  //=====================================================================
+  /**
+   *  Looks up a name in the index of a table.
+   *
+   *  @param  t    number of the table.
+   *  @param  name the name.
+   *  @return record number, or -1 if not found.
+   */
+  private int find(int t, final String name)
+    {
+      int cap = dir[TABLES+4*t+CAPACITY];
+      int index = dir[TABLES+4*t+INDEX];
+      int h = hash(name);
+      int i = h & (cap-1);
+      while (true)
+      {
+        int v = buf.getInt(index+4*i);
+        if (v==0) return -1;
+        int r = v-1;
+        if (field(r,HASH)==h && nameIs(r,name)) return r;
+        i = (i+1) & (cap-1);
+      }
+    }
+
+
+  //=====================================================================
+  //  entity
+  //=====================================================================
+  /**
+   *  Obtains Entity for a record, constructing it if not yet done.
+   *
+   *  @param  r record number.
+   *  @return the Entity.
+   */
+  private Entity entity(int r)
+    {
+      Entity x = made.get(r);
+      if (x!=null) return x;
+
+      UnitsEngine prev = engine.enter();
+      try
+      {
+        int flags = field(r,FLAGS);
+        String name = string(field(r,NAME),field(r,NAMELEN));
+        Location loc = new Location
+          (files[field(r,FILE)],field(r,LINE),field(r,BEGIN),field(r,END));
+
+        byte[] b = new byte[field(r,DEFLEN)];
+        ByteBuffer d = buf.duplicate();
+        d.position(dir[DEFS] + field(r,DEF));
+        d.get(b);
+        DataInputStream in
+          = new DataInputStream(new ByteArrayInputStream(b));
+
+        switch(flags & KIND)
+        {
+          case UNIT:     x = Unit.read(name,loc,firstId+r,in); break;
+          case PREFIX:   x = Prefix.read(name,loc,firstId+r,in); break;
+          case TABULAR:  x = TabularFunction.read(name,loc,in); break;
+          case COMPUTED: x = ComputedFunction.read(name,loc,in); break;
+          case ALIAS:    x = Alias.read(name,loc,in); break;
+          default:
+            throw new Error("Program Error; record kind " + flags);
+        }
+        x.circular = (flags & CIRCULAR)!=0;
+
+        //-------------------------------------------------------------
+        //  Publish the Entity before setting the reduced form,
+        //  which may refer to the Entity itself.
+        //-------------------------------------------------------------
+        if (!made.compareAndSet(r,null,x)) return made.get(r);
+
+        if ((flags & REDUCED)!=0)
+        {
+          long bits = ((long)field(r,FACTOR)<<32)
+                      | (field(r,FACTOR+1) & 0xffffffffL);
+          int k = field(r,DIMLEN);
+          int p = dir[DIMS] + 8*field(r,DIM);
+          Factor[] u = new Factor[k];
+          int[] exps = new int[k];
+          for (int i=0;i<k;i++)
+          {
+            u[i] = (Factor)entity(buf.getInt(p+8*i));
+            exps[i] = buf.getInt(p+8*i+4);
+          }
+          ((Factor)x).reduced
+            (new Quantity(Double.longBitsToDouble(bits),
+                          Dimension.intern(u,exps,k)));
+        }
+        return x;
+      }
+      catch (IOException ex)
+      { throw new Error("Program Error; snapshot record " + r + ": " + ex); }
+      finally
+      { UnitsEngine.leave(prev); }
+    }
+
+
+  //=====================================================================
+  //  field
+  //=====================================================================
+  /**
+   *  Obtains field of a record.
+   *
+   *  @param  r record number.
+   *  @param  f the field.
+   *  @return value of the field.
+   */
+  private int field(int r, int f)
+    { return buf.getInt(dir[RECS] + 4*(RECORD*r+f)); }
+
+
+  //=====================================================================
+  //  nameIs
+  //=====================================================================
+  /**
+   *  Compares name of a record with given name, in place.
+   *
+   *  @param  r    record number.
+   *  @param  name the name.
+   *  @return true if the names are equal.
+   */
+  private boolean nameIs(int r, final String name)
+    {
+      int lg = name.length();
+      if (field(r,NAMELEN)!=lg) return false;
+      int p = dir[POOL] + 2*field(r,NAME);
+      for (int i=0;i<lg;i++)
+        if (buf.getChar(p+2*i)!=name.charAt(i)) return false;
+      return true;
+    }
+
+
+  //=====================================================================
+  //  string
+  //=====================================================================
+  /**
+   *  Obtains string from the pool.
+   *
+   *  @param  off offset in the pool.
+   *  @param  lg  length.
+   *  @return the string.
+   */
+  private String string(int off, int lg)
+    {
+      char[] c = new char[lg];
+      int p = dir[POOL] + 2*off;
+      for (int i=0;i<lg;i++)
+        c[i] = buf.getChar(p+2*i);
+      return new String(c);
+    }
+
+
+  //=====================================================================
+  //  hash
+  //=====================================================================
+  /**
+   *  Computes hash of a name. It must not depend on the process,
+   *  as the snapshot is used by other processes.
+   *
+   *  @param  name the name.
+   *  @return the hash.
+   */
+  private static int hash(final String name)
+    {
+      int h = name.hashCode() * 0x9E3779B9;
+      return h ^ (h>>>15);
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Table
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Read-only view of one table in the snapshot.
+   *  Looks up names in the mapped index; constructs entities
+   *  only when they are obtained. Iterates in the order of the
+   *  table that was saved.
+   */
+  private class Table<V extends Entity> extends AbstractMap<String,V>
+  {
+    //-----------------------------------------------------------------
+    //  Number of the table.
+    //-----------------------------------------------------------------
+    private final int t;
+
+    //-----------------------------------------------------------------
+    //  Constructor.
+    //-----------------------------------------------------------------
+    Table(int t)
+      { this.t = t; }
+
+    //-----------------------------------------------------------------
+    //  get
+    //-----------------------------------------------------------------
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(final Object key)
+      {
+        if (!(key instanceof String)) return null;
+        int r = find(t,(String)key);
+        return r<0? null : (V)entity(r);
+      }
+
+    //-----------------------------------------------------------------
+    //  containsKey
+    //-----------------------------------------------------------------
+    @Override
+    public boolean containsKey(final Object key)
+      { return key instanceof String && find(t,(String)key)>=0; }
+
+    //-----------------------------------------------------------------
+    //  size
+    //-----------------------------------------------------------------
+    @Override
+    public int size()
+      { return dir[TABLES+4*t+COUNT]; }
+
+    //-----------------------------------------------------------------
+    //  entrySet
+    //-----------------------------------------------------------------
+    @Override
+    public Set<Map.Entry<String,V>> entrySet()
+      {
+        return new AbstractSet<Map.Entry<String,V>>()
+          {
+            public int size()
+              { return Table.this.size(); }
+
+            public Iterator<Map.Entry<String,V>> iterator()
+              {
+                return new Iterator<Map.Entry<String,V>>()
+                  {
+                    private int i = 0;
+
+                    public boolean hasNext()
+                      { return i<size(); }
+
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<String,V> next()
+                      {
+                        if (i>=size()) throw new NoSuchElementException();
+                        int r = buf.getInt(dir[TABLES+4*t+ORDER] + 4*i++);
+                        V x = (V)entity(r);
+                        return new AbstractMap.SimpleImmutableEntry<String,V>
+                                     (x.name,x);
+                      }
+
+                    public void remove()
+                      { throw new UnsupportedOperationException(); }
+                  };
+              }
+          };
+      }
+  }
+}
@@ -0,0 +1,267 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           The cache is kept in UnitsEngine.
+//           Iterate over table values instead of using Enumeration.
+//
+//=========================================================================
+
+package units;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class NameCache
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Cache of resolved names: maps a name to the result of 'split'
+ *  in NameTrie, including names that were not recognized.
+ *  <p>
+ *  The cache is fronted by a Bloom filter of name endings.
+ *  Every recognized name ends with the singular or plural form
+ *  of a unit name, or with a prefix name. The filter contains
+ *  the last three characters of each such form, or the whole form
+ *  if it is shorter. A name whose last one, two, or three characters
+ *  are not in the filter cannot be recognized, and is rejected
+ *  without consulting the cache or the trie.
+ *  <p>
+ *  The cache is built by 'build' in Tables together with NameTrie,
+ *  and discarded when tables change. It can be used by concurrent
+ *  threads. When it reaches its maximum size, it is cleared.
+ */
+
+class NameCache
+{
+  //-------------------------------------------------------------------
+  /** Maximum number of cached names. */
+  //-------------------------------------------------------------------
+  static final int MAXSIZE = 10000;
+
+  //-------------------------------------------------------------------
+  //  Cached result for a name that was not recognized.
+  //-------------------------------------------------------------------
+  private static final Factor[] MISS = new Factor[0];
+
+  //-------------------------------------------------------------------
+  //  The trie used to resolve names not in cache.
+  //-------------------------------------------------------------------
+  private final NameTrie trie;
+
+  //-------------------------------------------------------------------
+  //  Cached results.
+  //-------------------------------------------------------------------
+  private final ConcurrentHashMap<String,Factor[]> map
+    = new ConcurrentHashMap<String,Factor[]>();
+
+  //-------------------------------------------------------------------
+  //  Bloom filter: bit array and its size minus 1 (a power of 2).
+  //-------------------------------------------------------------------
+  private final long[] bits;
+  private final int mask;
+
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs cache for given trie, with Bloom filter
+   *  for the current tables.
+   *
+   *  @param trie the trie.
+   */
+  private NameCache(final NameTrie trie)
+    {
+      this.trie = trie;
+
+      //---------------------------------------------------------------
+      //  About 16 bits for each of up to 4 forms of each name.
+      //---------------------------------------------------------------
+      int n = 64*(Unit.table().size()+Prefix.table().size());
+      int size = 64;
+      while (size<n) size *= 2;
+      bits = new long[size/64];
+      mask = size-1;
+
+      for (Unit u: Unit.table().values())
+      {
+        String name = u.name;
+        int lg = name.length();
+        add(name);
+        add(name + "s");
+        add(name + "es");
+        if (lg>0 && name.charAt(lg-1)=='y')
+          add(name.substring(0,lg-1) + "ies");
+      }
+
+      for (Prefix p: Prefix.table().values())
+        add(p.name);
+    }
+
+
+  //=====================================================================
+  //  build
+  //=====================================================================
+  /**
+   *  Builds cache for the trie of the current UnitsEngine,
+   *  and installs it in the engine.
+   */
+  static void build()
+    {
+      UnitsEngine e = UnitsEngine.current();
+      NameTrie trie = e.trie;
+      e.cache = (trie==null)? null : new NameCache(trie);
+    }
+
+
+  //=====================================================================
+  //  split
+  //=====================================================================
+  /**
+   *  Obtains result of 'split' in NameTrie for given name.
+   *  The result is shared and must not be modified.
+   *
+   *  @param  name string to be investigated.
+   *  @return two-element array where first element is the Prefix
+   *          (or null if none) and second is the Unit (or null if none).
+   *          <br>
+   *          Null if the name is not recognized.
+   */
+  Factor[] split(final String name)
+    {
+      if (!mayBeName(name)) return null;
+
+      Factor[] pu = map.get(name);
+      if (pu==null)
+      {
+        pu = trie.split(name);
+        if (pu==null) pu = MISS;
+        if (map.size()>=MAXSIZE) map.clear();
+        map.put(name,pu);
+      }
+      return pu==MISS? null : pu;
+    }
+
+
+  //=====================================================================
+  //  mayBeName
+  //=====================================================================
+  /**
+   *  Checks the Bloom filter for given name.
+   *
+   *  @param  name the name.
+   *  @return false if 'name' is certainly not recognized,
+   *          true if it may be.
+   */
+  private boolean mayBeName(final String name)
+    {
+      int lg = name.length();
+      for (int k=1;k<=3 && k<=lg;k++)
+        if (contains(hash(name,lg-k,lg))) return true;
+      return false;
+    }
+
+
+  //=====================================================================
+  //  add
+  //=====================================================================
+  /**
+   *  Adds ending of a recognized name to the Bloom filter.
+   *
+   *  @param  form the name.
+   */
+  private void add(final String form)
+    {
+      int lg = form.length();
+      if (lg==0) return;
+      int h = hash(form,Math.max(0,lg-3),lg);
+      set(h);
+      set(h>>>16 | h<<16);
+    }
+
+
+  //=====================================================================
+  //  contains
+  //=====================================================================
+  /**
+   *  Checks if both bits for given hash are set.
+   *
+   *  @param  h the hash.
+   *  @return true if both bits are set.
+   */
+  private boolean contains(int h)
+    { return isSet(h) && isSet(h>>>16 | h<<16); }
+
+
+  //=====================================================================
+  //  set / isSet
+  //=====================================================================
+  /**
+   *  Sets or checks the filter bit selected by given hash.
+   *
+   *  @param  h the hash.
+   */
+  private void set(int h)
+    {
+      int i = h & mask;
+      bits[i>>>6] |= 1L<<(i & 63);
+    }
+
+  /** @return true if the bit is set. */
+  private boolean isSet(int h)
+    {
+      int i = h & mask;
+      return (bits[i>>>6] & (1L<<(i & 63)))!=0;
+    }
+
+
+  //=====================================================================
+  //  hash
+  //=====================================================================
+  /**
+   *  Computes hash of a part of string.
+   *
+   *  @param  s     the string.
+   *  @param  start start of the part.
+   *  @param  end   end of the part (exclusive).
+   *  @return the hash.
+   */
+  private static int hash(final String s, int start, int end)
+    {
+      int h = end-start;
+      for (int i=start;i<end;i++)
+        h = 31*h + s.charAt(i);
+      h *= 0x9E3779B9;
+      return h ^ (h>>>15);
+    }
+}
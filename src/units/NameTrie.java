@@ -0,0 +1,341 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           The trie is kept in UnitsEngine.
+//           Iterate over table values instead of using Enumeration.
+//
+//=========================================================================
+
+package units;
+
+import java.util.Arrays;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class NameTrie
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Trie of unit and prefix names, used to resolve a name
+ *  into prefix and unit as done by 'split' in Factor.
+ *  <p>
+ *  The trie is built by 'build' in Tables after all unit definitions
+ *  have been read, and is not modified afterwards.
+ *  Resolution walks the trie along the name, finding on the way
+ *  the longest prefix and the nodes needed to apply plural rules.
+ *  It allocates no objects other than the result.
+ */
+
+class NameTrie
+{
+  //-------------------------------------------------------------------
+  //  Root node: represents the empty name.
+  //-------------------------------------------------------------------
+  private final Node root = new Node();
+
+
+  //=====================================================================
+  //  build
+  //=====================================================================
+  /**
+   *  Builds the trie from tables of units and prefixes
+   *  of the current UnitsEngine, and installs it in the engine.
+   */
+  static void build()
+    {
+      NameTrie t = new NameTrie();
+
+      for (Unit u: Unit.table().values())
+      {
+        t.node(u.name).unit = u;
+      }
+
+      for (Prefix p: Prefix.table().values())
+      {
+        t.node(p.name).prefix = p;
+      }
+
+      UnitsEngine.current().trie = t;
+    }
+
+
+  //=====================================================================
+  //  split
+  //=====================================================================
+  /**
+   *  Finds out if given string is the name of a unit or prefix,
+   *  or is a prefixed unit name. The unit name given as 'name'
+   *  or its part may be in plural.
+   *  Gives the same result as 'split' in Factor.
+   *
+   *  @param  name string to be investigated.
+   *  @return two-element array where first element is the Prefix
+   *          (or null if none) and second is the Unit (or null if none).
+   *          <br>
+   *          Null if the name is not recognized.
+   */
+  Factor[] split(final CharSequence name)
+    {
+      int lg = name.length();
+      if (lg==0) return null;
+
+      //---------------------------------------------------------------
+      //  Return null if 'name' is not a valid name.
+      //  (Same checks as in 'checkName' of Entity.)
+      //---------------------------------------------------------------
+      char c = name.charAt(0);
+      if ("0123456789_.,~".indexOf(c)>=0) return null;
+      if (".,_".indexOf(name.charAt(lg-1))>=0) return null;
+
+      //---------------------------------------------------------------
+      //  Walk the trie along 'name', checking remaining characters.
+      //  Note the longest prefix found on the way, and the nodes
+      //  for 'name' without its last one, two and three characters.
+      //---------------------------------------------------------------
+      Node node = root;
+      Node n1 = null;
+      Node n2 = null;
+      Node n3 = null;
+      Prefix pref = null;
+      int preflg = 0;
+
+      for (int i=0;i<lg;i++)
+      {
+        c = name.charAt(i);
+        if (i>0 && "+-*/|^();#".indexOf(c)>=0) return null;
+        if (node==null) continue;
+
+        if (i==lg-3) n3 = node;
+        else if (i==lg-2) n2 = node;
+        else if (i==lg-1) n1 = node;
+
+        node = node.child(c);
+        if (node!=null && node.prefix!=null)
+        {
+          pref = node.prefix;
+          preflg = i+1;
+        }
+      }
+
+      //---------------------------------------------------------------
+      //  If 'name' is a unit name, possibly in plural form,
+      //  return its Unit object.
+      //---------------------------------------------------------------
+      Unit u = plural(name,0,node,n1,n2,n3);
+      if (u!=null)
+        return new Factor[]{null,u};
+
+      //---------------------------------------------------------------
+      //  Return null if not a prefix or prefixed unit name.
+      //---------------------------------------------------------------
+      if (pref==null)
+        return null;
+
+      //---------------------------------------------------------------
+      //  If the prefix is all of 'name', return its Prefix object.
+      //---------------------------------------------------------------
+      if (preflg==lg)
+        return new Factor[]{pref,null};
+
+      //---------------------------------------------------------------
+      //  If the rest of 'name' (or its singular form) is a unit name,
+      //  return the Prefix and Unit objects.
+      //---------------------------------------------------------------
+      u = unit(name,preflg);
+      if (u!=null)
+        return new Factor[]{pref,u};
+
+      return null;
+    }
+
+
+  //=====================================================================
+  //  unit
+  //=====================================================================
+  /**
+   *  Finds Unit named by the part of a string that starts at given
+   *  position. The name may be in plural.
+   *
+   *  @param  s     the string.
+   *  @param  start starting position of the name in 's'.
+   *  @return the Unit, or null if not found.
+   */
+  private Unit unit(final CharSequence s, int start)
+    {
+      int lg = s.length();
+      Node node = root;
+      Node n1 = null;
+      Node n2 = null;
+      Node n3 = null;
+
+      for (int i=start;i<lg && node!=null;i++)
+      {
+        if (i==lg-3) n3 = node;
+        else if (i==lg-2) n2 = node;
+        else if (i==lg-1) n1 = node;
+        node = node.child(s.charAt(i));
+      }
+
+      return plural(s,start,node,n1,n2,n3);
+    }
+
+
+  //=====================================================================
+  //  plural
+  //=====================================================================
+  /**
+   *  Applies plural rules as done by 'find' in Unit.
+   *  <br>
+   *  Plural rules for English:
+   *  add -s;
+   *  after x, sh, ch, ss add -es;
+   *  -y becomes -ies except after a vowel when you just add -s.
+   *
+   *  @param  s     string containing the name.
+   *  @param  start starting position of the name in 's'.
+   *  @param  n0    node for the whole name, or null.
+   *  @param  n1    node for the name without last character, or null.
+   *  @param  n2    node for the name without two last characters, or null.
+   *  @param  n3    node for the name without three last characters, or null.
+   *  @return the Unit, or null if not found.
+   */
+  private static Unit plural
+    (final CharSequence s, int start, Node n0, Node n1, Node n2, Node n3)
+    {
+      if (n0!=null && n0.unit!=null)
+        return n0.unit;
+
+      int end = s.length();
+      int ulg = end-start;
+      if (ulg>2 && s.charAt(end-1)=='s')
+      {
+        if (n1!=null && n1.unit!=null)
+          return n1.unit;
+
+        if (ulg>3 && s.charAt(end-2)=='e')
+        {
+          if (n2!=null && n2.unit!=null)
+            return n2.unit;
+
+          if (ulg>4 && s.charAt(end-3)=='i' && n3!=null)
+          {
+            Node y = n3.child('y');
+            if (y!=null && y.unit!=null)
+              return y.unit;
+          }
+        }
+      }
+
+      return null;
+    }
+
+
+  //=====================================================================
+  //  node
+  //=====================================================================
+  /**
+   *  Obtains node for given name, creating nodes as needed.
+   *
+   *  @param  name the name.
+   *  @return node for 'name'.
+   */
+  private Node node(final String name)
+    {
+      Node node = root;
+      for (int i=0;i<name.length();i++)
+        node = node.add(name.charAt(i));
+      return node;
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Inner class Node
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Node of the trie. Represents the name spelled by the path
+   *  from the root.
+   */
+  private static class Node
+  {
+    char[] keys = new char[0];   // Characters leading to children, sorted
+    Node[] kids = new Node[0];   // Children
+    Unit unit = null;            // Unit with this name, if any
+    Prefix prefix = null;        // Prefix with this name, if any
+
+    //===================================================================
+    //  child
+    //===================================================================
+    /**
+     *  Obtains child reached by given character.
+     *
+     *  @param  c the character.
+     *  @return the child, or null if none.
+     */
+    Node child(char c)
+      {
+        int i = Arrays.binarySearch(keys,c);
+        return i<0? null : kids[i];
+      }
+
+    //===================================================================
+    //  add
+    //===================================================================
+    /**
+     *  Obtains child reached by given character,
+     *  creating it if it does not exist.
+     *
+     *  @param  c the character.
+     *  @return the child.
+     */
+    Node add(char c)
+      {
+        int i = Arrays.binarySearch(keys,c);
+        if (i>=0) return kids[i];
+
+        i = -i-1;
+        int n = keys.length;
+        char[] k = new char[n+1];
+        Node[] d = new Node[n+1];
+        System.arraycopy(keys,0,k,0,i);
+        System.arraycopy(kids,0,d,0,i);
+        System.arraycopy(keys,i,k,i+1,n-i);
+        System.arraycopy(kids,i,d,i+1,n-i);
+        k[i] = c;
+        d[i] = new Node();
+        keys = k;
+        kids = d;
+        return d[i];
+      }
+  }
+}
@@ -54,12 +54,26 @@
 //           instead of ignoring re-definition.
 //    120405 Used method 'startsWith' in 'find'.
 //
+//  Version 1.89.J02
+//    261017 'define' invalidates structures for name resolution.
+//           Table is kept in UnitsEngine.
+//           Use options bound to the current thread.
+//           Table is a Map: a FrozenMap after loading.
+//           In 'find': iterate over table values.
+//           Added 'copy'.
+//           Added 'write' and 'read' for Snapshot.
+//           Added constructor with given 'id'; 'read' takes the 'id'.
+//           Added 'accepts' and 'redefined', used also by LazyTables.
+//           In 'find': iterate over table keys, to construct only the result.
+//
 //=========================================================================
 
 package units;
 
-import java.util.Hashtable;
-import java.util.Enumeration;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
 
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
@@ -74,9 +88,10 @@ import java.util.Enumeration;
 class Prefix extends Factor
 {
   //-------------------------------------------------------------------
-  //  Table of Prefixes
+  /**  Table of Prefixes in the current UnitsEngine. */
   //-------------------------------------------------------------------
-  static Hashtable<String,Prefix> table = null;
+  static Map<String,Prefix> table()
+    { return UnitsEngine.current().prefixes; }
 
   //-------------------------------------------------------------------
   //  Uned in conformability checks
@@ -97,6 +112,17 @@ class Prefix extends Factor
   Prefix(final String name, Location loc, final String def)
     { super(name,loc,def); }
 
+  /**
+   *  Constructs a Prefix object with given 'id' (see 'reserve' in Factor).
+   *
+   *  @param name the prefix.
+   *  @param loc  location where defined.
+   *  @param def  definition.
+   *  @param id   the 'id'.
+   */
+  Prefix(final String name, final Location loc, final String def, int id)
+    { super(name,loc,def,id); }
+
 
   //=====================================================================
   //  define
@@ -118,7 +144,34 @@ class Prefix extends Factor
       //  Get name without suffix '-'.
       //---------------------------------------------------------------
       String prefname = name.substring(0,name.length()-1);
+      if (!accepts(prefname,loc)) return;
+
+      //---------------------------------------------------------------
+      //  Install the prefix in table.
+      //---------------------------------------------------------------
+      Prefix old = table().put(prefname, new Prefix(prefname,loc,def));
+      Tables.namesChanged();
+
+      //---------------------------------------------------------------
+      //  Write a message if an earlier definition was replaced.
+      //---------------------------------------------------------------
+      if (old!=null) redefined(prefname,old.location,loc);
+    }
 
+
+  //=====================================================================
+  //  accepts
+  //=====================================================================
+  /**
+   *  Checks name of a prefix to be defined.
+   *  Writes a message if the prefix is ignored.
+   *
+   *  @param  prefname the prefix, without suffix '-'.
+   *  @param  loc      location of the definition.
+   *  @return true if the name is acceptable.
+   */
+  static boolean accepts(final String prefname, final Location loc)
+    {
       //---------------------------------------------------------------
       //  Prefix with incorrect syntax can never be accessed.
       //---------------------------------------------------------------
@@ -126,26 +179,32 @@ class Prefix extends Factor
 
       if (diag!=null)
       {
-         Env.out.println
+         Env.out().println
            (loc.where() + ". Prefix '" + prefname
             + "' is ignored. It " + diag + ".");
-         return;
+         return false;
       }
 
-      //---------------------------------------------------------------
-      //  Install the prefix in table.
-      //---------------------------------------------------------------
-      Prefix old = table.put(prefname, new Prefix(prefname,loc,def));
+      return true;
+    }
 
-      //---------------------------------------------------------------
-      //  Write a message if an earlier definition was replaced.
-      //---------------------------------------------------------------
-      if (old!=null)
-      {
-        Env.out.println
-          ("Prefix '" + name + "' defined in " + old.location.where() +
-           ", is redefined in " + loc.where() + ".");
-      }
+
+  //=====================================================================
+  //  redefined
+  //=====================================================================
+  /**
+   *  Writes message about a prefix being redefined.
+   *
+   *  @param prefname the prefix, without suffix '-'.
+   *  @param old      location of the earlier definition.
+   *  @param loc      location of the new definition.
+   */
+  static void redefined
+    (final String prefname, final Location old, final Location loc)
+    {
+      Env.out().println
+        ("Prefix '" + prefname + "-' defined in " + old.where() +
+         ", is redefined in " + loc.where() + ".");
     }
 
 
@@ -160,8 +219,8 @@ class Prefix extends Factor
   @Override
 void check()
     {
-      if (Env.verbose==2)
-        Env.out.println(location.where() + ". Doing '" + name + "'");
+      if (Env.verbose()==2)
+        Env.out().println(location.where() + ". Doing '" + name + "'");
 
       //---------------------------------------------------------------
       // check for bad '/' character in prefix
@@ -174,7 +233,7 @@ void check()
         else if (ch=='(') plevel++;
         else if (plevel==0 && ch=='/')
         {
-          Env.out.println
+          Env.out().println
            (location.where() + ". Prefix '" + name + "-' defined as '"
              + def + "' contains bad '/'");
           return;
@@ -186,7 +245,7 @@ void check()
       //---------------------------------------------------------------
       Value v = Value.fromString(name);
       if (v==null || !v.isCompatibleWith(one,Ignore.PRIMITIVE))
-        Env.out.println
+        Env.out().println
           (location.where() + ". Prefix '" + name + "' defined as '"
            + def + "' is irreducible");
     }
@@ -205,18 +264,17 @@ void check()
   static Prefix find(final String name)
     {
       int maxlg = 0;
-      Prefix maxp = null;
-      for (Enumeration<Prefix> enu=Prefix.table.elements();enu.hasMoreElements();)
+      String maxp = null;
+      for (String p: Prefix.table().keySet())
       {
-        Prefix p = enu.nextElement();
-        int plg = p.name.length();
-        if (plg>maxlg && name.startsWith(p.name))
+        int plg = p.length();
+        if (plg>maxlg && name.startsWith(p))
         {
           maxp = p;
           maxlg = plg;
         }
       }
-      return maxp;
+      return maxp==null? null : Prefix.table().get(maxp);
     }
 
 
@@ -246,4 +304,46 @@ boolean conformsTo(final Value v)
   @Override
 String desc()
     { return ("<prefix> " + def); }
+
+
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this Prefix without its reduced form.
+   *
+   *  @return the copy.
+   */
+  @Override
+Prefix copy()
+    { return new Prefix(name,location,def); }
+
+
+  //=====================================================================
+  //  write / read
+  //=====================================================================
+  /**
+   *  Writes the definition of this Prefix to a Snapshot.
+   *
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  @Override
+void write(final DataOutput out) throws IOException
+    { out.writeUTF(def); }
+
+  /**
+   *  Constructs Prefix from definition written by 'write'.
+   *
+   *  @param  name the prefix.
+   *  @param  loc  location where defined.
+   *  @param  id   the 'id' (see 'reserve' in Factor).
+   *  @param  in   the input.
+   *  @return the Prefix.
+   *  @throws IOException if reading failed.
+   */
+  static Prefix read
+    (final String name, final Location loc, int id, final DataInput in)
+    throws IOException
+    { return new Prefix(name,loc,in.readUTF(),id); }
 }
@@ -47,11 +47,18 @@
 //    120209 Method 'isCompatibleWith' renamed to 'hasSameFactorsAs'
 //           to avoid confusion with method defined in Value.
 //
+//  Version 1.89.J02.
+//    261017 Reimplemented as sorted arrays of distinct factors
+//           and their exponents, ordered by 'id' of the factors.
+//           Added 'exponent', 'isEmpty', 'power', and 'cancel'.
+//           Removed 'delete'.
+//
 //=========================================================================
 
 package units;
 
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.Comparator;
 
 
 
@@ -64,17 +71,38 @@ import java.util.Vector;
  *  A product of units and/or prefixes.
  *  <br>
  *  It may be empty, representing dimensionless number 1.
+ *  <p>
+ *  The Product is kept as two arrays: distinct factors, sorted
+ *  in increasing order of their 'id', and their positive exponents.
+ *  Multiplication, power, root, and cancellation are thus merges
+ *  of, or simple loops over, short arrays.
  */
 
 class Product
 {
   //-------------------------------------------------------------------
-  /** The factors in a Product are represented as element of this Vector.
-   *  The factors are Factor objects (units or prefixes).
-   *  They are sorted in increasing ALPHABETIC ORDER of their names.
-   *  Duplicates are allowed (mean a power>1 of the unit). */
+  /** The distinct factors of this Product: Factor objects
+   *  (units or prefixes), sorted in increasing order of 'id'.
+   *  Only the first 'n' elements are used. */
+  //-------------------------------------------------------------------
+  private Factor[] factors;
+
+  //-------------------------------------------------------------------
+  /** Exponents of the factors. All positive. */
   //-------------------------------------------------------------------
-  private Vector<Factor> factors = new Vector<Factor>();
+  private int[] exps;
+
+  //-------------------------------------------------------------------
+  /** Number of distinct factors. */
+  //-------------------------------------------------------------------
+  private int n = 0;
+
+  //-------------------------------------------------------------------
+  //  Shared empty arrays.
+  //-------------------------------------------------------------------
+  private static final Factor[] NOFACTORS = new Factor[0];
+  private static final int[] NOEXPS = new int[0];
+
 
   //=====================================================================
   //  Default constructor.
@@ -83,7 +111,10 @@ class Product
    *  Constructs empty Product.
    */
   Product()
-    {}
+    {
+      factors = NOFACTORS;
+      exps = NOEXPS;
+    }
 
 
   //=====================================================================
@@ -96,8 +127,9 @@ class Product
    */
   Product(final Product p)
     {
-      for (Factor f: p.factors)
-        factors.add(f);
+      n = p.n;
+      factors = (n==0)? NOFACTORS : Arrays.copyOf(p.factors,n);
+      exps = (n==0)? NOEXPS : Arrays.copyOf(p.exps,n);
     }
 
 
@@ -111,15 +143,41 @@ class Product
    *  @param  f Factor to be added.
    *  @return the modified Product.
    */
-  Product add (final Factor f)
+  Product add(final Factor f)
+    { return add(f,1); }
+
+
+  //=====================================================================
+  //  add power of Factor
+  //=====================================================================
+  /**
+   *  Adds given power of a Factor to this Product.
+   *
+   *  @param  f Factor to be added.
+   *  @param  e positive exponent.
+   *  @return the modified Product.
+   */
+  Product add(final Factor f, int e)
     {
-      for (int i=0;i<factors.size();i++)
-        if (f.compareTo(factors.elementAt(i))<=0)
-        {
-          factors.add(i,f);
-          return this;
-        }
-      factors.add(f);
+      int i = find(f);
+      if (i>=0)
+      {
+        exps[i] += e;
+        return this;
+      }
+
+      i = -i-1;
+      if (n==factors.length)
+      {
+        int len = (n==0)? 4 : 2*n;
+        factors = Arrays.copyOf(factors,len);
+        exps = Arrays.copyOf(exps,len);
+      }
+      System.arraycopy(factors,i,factors,i+1,n-i);
+      System.arraycopy(exps,i,exps,i+1,n-i);
+      factors[i] = f;
+      exps[i] = e;
+      n++;
       return this;
     }
 
@@ -136,8 +194,57 @@ class Product
    */
   Product add(final Product p)
     {
-      for (int i=0;i<p.size();i++)
-        add(p.factor(i));
+      if (p.n==0) return this;
+      if (n==0)
+      {
+        n = p.n;
+        factors = Arrays.copyOf(p.factors,n);
+        exps = Arrays.copyOf(p.exps,n);
+        return this;
+      }
+
+      //---------------------------------------------------------------
+      //  Merge the two sorted arrays into new arrays.
+      //---------------------------------------------------------------
+      Factor[] f = new Factor[n+p.n];
+      int[] e = new int[n+p.n];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i<n && j<p.n)
+      {
+        int a = factors[i].id;
+        int b = p.factors[j].id;
+        if (a<b)
+        {
+          f[k] = factors[i];
+          e[k++] = exps[i++];
+        }
+        else if (a>b)
+        {
+          f[k] = p.factors[j];
+          e[k++] = p.exps[j++];
+        }
+        else
+        {
+          f[k] = factors[i];
+          e[k++] = exps[i++] + p.exps[j++];
+        }
+      }
+      while (i<n)
+      {
+        f[k] = factors[i];
+        e[k++] = exps[i++];
+      }
+      while (j<p.n)
+      {
+        f[k] = p.factors[j];
+        e[k++] = p.exps[j++];
+      }
+
+      factors = f;
+      exps = e;
+      n = k;
       return this;
     }
 
@@ -146,37 +253,50 @@ class Product
   // size
   //=====================================================================
   /**
-   *  Obtains number of factors in this Product.
+   *  Obtains number of distinct factors in this Product.
    *
-   *  @return number of factors.
+   *  @return number of distinct factors.
    */
   int size()
-    { return factors.size(); }
+    { return n; }
+
+
+  //=====================================================================
+  // isEmpty
+  //=====================================================================
+  /**
+   *  Checks if this Product is empty.
+   *
+   *  @return true if this Product has no factors, false otherwise.
+   */
+  boolean isEmpty()
+    { return n==0; }
 
 
   //=====================================================================
   //  factor
   //=====================================================================
   /**
-   *  Obtains a Factor of this Product with given index.
+   *  Obtains a distinct Factor of this Product with given index.
    *
    *  @param  i the index
-   *  @return the i-th Factor of this Product.
+   *  @return the i-th distinct Factor of this Product.
    */
   Factor factor(int i)
-    { return factors.elementAt(i); }
+    { return factors[i]; }
 
 
   //=====================================================================
-  //  delete
+  //  exponent
   //=====================================================================
   /**
-   *  Removes a Factor of this Product with given index.
+   *  Obtains exponent of the Factor with given index.
    *
    *  @param  i the index
+   *  @return exponent of the i-th distinct Factor of this Product.
    */
-  void delete(int i)
-    { factors.removeElementAt(i); }
+  int exponent(int i)
+    { return exps[i]; }
 
 
   //=====================================================================
@@ -199,14 +319,14 @@ class Product
 
       while(true)
       {
-        while(i<size() && factor(i).ignoredIf(ignore)) i++;
-        while(j<p.size() && p.factor(j).ignoredIf(ignore)) j++;
-        if (i==size() || j==p.size()) break;
-        if (factor(i)!=p.factor(j)) return false;
+        while(i<n && factors[i].ignoredIf(ignore)) i++;
+        while(j<p.n && p.factors[j].ignoredIf(ignore)) j++;
+        if (i==n || j==p.n) break;
+        if (factors[i]!=p.factors[j] || exps[i]!=p.exps[j]) return false;
         i++;
         j++;
       }
-      if (i==size() && j==p.size()) return true;
+      if (i==n && j==p.n) return true;
       return false;
     }
 
@@ -216,43 +336,56 @@ class Product
   //=====================================================================
   /**
    *  Represents this Product as a String.
+   *  The factors are listed in alphabetic order of their names.
    *
    *  @return printable representation of this Product.
    */
   String asString()
     {
-      StringBuffer sb = new StringBuffer();
-      int counter = 1;
+      Integer[] order = new Integer[n];
+      for (int i=0;i<n;i++)
+        order[i] = i;
+      Arrays.sort(order,new Comparator<Integer>()
+        {
+          public int compare(Integer i, Integer j)
+            { return factors[i].compareTo(factors[j]); }
+        });
 
-      for (int i=0;i<size();i++)
+      StringBuffer sb = new StringBuffer();
+      for (int i=0;i<n;i++)
       {
-        Factor f = factor(i);
-
-        //-------------------------------------------------------------
-        // If s is the same as preceding, increment counter.
-        //-------------------------------------------------------------
-        if (i>0 && f==factor(i-1))
-          counter++;
-
-        //-------------------------------------------------------------
-        // If s is first or distinct from preceding:
-        //-------------------------------------------------------------
-        else
-        {
-          if (counter>1)
-            sb.append("^" + counter);
-          sb.append(" " + f.name);
-          counter = 1;
-        }
+        int k = order[i];
+        sb.append(" " + factors[k].name);
+        if (exps[k]>1)
+          sb.append("^" + exps[k]);
       }
 
-      if (counter>1)
-        sb.append("^" + counter);
-
       return sb.toString();
     }
 
 
+  //=====================================================================
+  //  power
+  //=====================================================================
+  /**
+   *  Computes a power of this Product.
+   *
+   *  @param  k non-negative integer.
+   *  @return new Product: k-th power of this Product.
+   */
+  Product power(int k)
+    {
+      Product p = new Product();
+      if (k==0) return p;
+      p.n = n;
+      p.factors = (n==0)? NOFACTORS : Arrays.copyOf(factors,n);
+      p.exps = new int[n];
+      for (int i=0;i<n;i++)
+        p.exps[i] = k*exps[i];
+      return p;
+    }
+
+
   //=====================================================================
   //  root
   //=====================================================================
@@ -260,30 +393,106 @@ class Product
    *  Computes a root of this Product.
    *  (Originally 'subunitroot').
    *
-   *  @param  n positive integer.
-   *  @return n-th root of this Product, or null if this Product
-   *          is not an n-th power.
+   *  @param  k positive integer.
+   *  @return k-th root of this Product, or null if this Product
+   *          is not a k-th power.
    */
-  Product root(int n)
+  Product root(int k)
     {
-      Product p = new Product();
+      Product p = new Product(this);
+      for (int i=0;i<n;i++)
+      {
+        if (exps[i]%k!=0) return null; // Not k-th root.
+        p.exps[i] = exps[i]/k;
+      }
+      return p;
+    }
+
+
+  //=====================================================================
+  //  cancel
+  //=====================================================================
+  /**
+   *  Removes factors that appear in both of two Products.
+   *
+   *  @param  num the numerator.
+   *  @param  den the denominator.
+   *  @return true if anything was removed, false otherwise.
+   */
+  static boolean cancel(Product num, Product den)
+    {
+      if (num.n==0 || den.n==0) return false;
+
+      boolean changed = false;
       int i = 0;
-      while (i<size())
+      int j = 0;
+      while (i<num.n && j<den.n)
       {
-        Factor f = factor(i);
-        int j = 1;
-        i++;
-        while (i<size() && f==factor(i))
+        int a = num.factors[i].id;
+        int b = den.factors[j].id;
+        if (a<b) i++;
+        else if (a>b) j++;
+        else
         {
-          i++;
-          j++;
+          int e = Math.min(num.exps[i],den.exps[j]);
+          num.exps[i++] -= e;
+          den.exps[j++] -= e;
+          changed = true;
         }
-        if (j%n!=0) return null; // Not n-th root.
+      }
 
-        for (int k=0;k<(j/n);k++)
-          p.add(f);
+      if (changed)
+      {
+        num.compact();
+        den.compact();
       }
+      return changed;
+    }
 
-      return p;
+
+  //=====================================================================
+  //  find
+  //=====================================================================
+  /**
+   *  Finds given Factor in this Product.
+   *
+   *  @param  f the Factor.
+   *  @return index of 'f' if present, otherwise (-(insertion point)-1).
+   */
+  private int find(final Factor f)
+    {
+      int lo = 0;
+      int hi = n-1;
+      while (lo<=hi)
+      {
+        int mid = (lo+hi)>>>1;
+        int id = factors[mid].id;
+        if (id<f.id) lo = mid+1;
+        else if (id>f.id) hi = mid-1;
+        else return mid;
+      }
+      return -(lo+1);
+    }
+
+
+  //=====================================================================
+  //  compact
+  //=====================================================================
+  /**
+   *  Removes factors with zero exponent.
+   */
+  private void compact()
+    {
+      int k = 0;
+      for (int i=0;i<n;i++)
+      {
+        if (exps[i]==0) continue;
+        factors[k] = factors[i];
+        exps[k] = exps[i];
+        k++;
+      }
+      for (int i=k;i<n;i++)
+        factors[i] = null;
+      n = k;
     }
 }
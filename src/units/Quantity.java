@@ -0,0 +1,199 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//
+//=========================================================================
+
+package units;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class Quantity
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Immutable completely reduced quantity: a number times
+ *  an interned Dimension.
+ *  <p>
+ *  Arithmetic on Quantities returns new objects and never
+ *  changes its operands, so Quantities can be freely shared
+ *  and need no defensive copies. A Quantity that does not
+ *  escape its method can be replaced by its two fields.
+ *  Class Value can be constructed from a Quantity and converted
+ *  to Quantity when it is completely reduced.
+ */
+
+final class Quantity
+{
+  //-------------------------------------------------------------------
+  /** Numeric factor. */
+  //-------------------------------------------------------------------
+  final double factor;
+
+  //-------------------------------------------------------------------
+  /** Dimension. */
+  //-------------------------------------------------------------------
+  final Dimension dim;
+
+  //-------------------------------------------------------------------
+  /** Number 1. */
+  //-------------------------------------------------------------------
+  static final Quantity ONE = new Quantity(1.0,Dimension.ONE);
+
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs Quantity with given factor and Dimension.
+   *
+   *  @param factor the numeric factor.
+   *  @param dim    interned Dimension.
+   */
+  Quantity(double factor, final Dimension dim)
+    {
+      this.factor = factor;
+      this.dim = dim;
+    }
+
+
+  //=====================================================================
+  //  times
+  //=====================================================================
+  /**
+   *  Multiplies this Quantity by another Quantity.
+   *
+   *  @param  q the multiplier.
+   *  @return the product.
+   */
+  Quantity times(final Quantity q)
+    { return new Quantity(factor*q.factor,dim.times(q.dim)); }
+
+
+  //=====================================================================
+  //  times number
+  //=====================================================================
+  /**
+   *  Multiplies this Quantity by a number.
+   *
+   *  @param  x the multiplier.
+   *  @return the product.
+   */
+  Quantity times(double x)
+    { return new Quantity(factor*x,dim); }
+
+
+  //=====================================================================
+  //  over
+  //=====================================================================
+  /**
+   *  Divides this Quantity by another Quantity.
+   *
+   *  @param  q the divisor.
+   *  @return the quotient.
+   */
+  Quantity over(final Quantity q)
+    { return new Quantity(factor/q.factor,dim.times(q.dim.inverse())); }
+
+
+  //=====================================================================
+  //  inverse
+  //=====================================================================
+  /**
+   *  Obtains the inverse of this Quantity.
+   *
+   *  @return 1 divided by this Quantity.
+   */
+  Quantity inverse()
+    { return new Quantity(1/factor,dim.inverse()); }
+
+
+  //=====================================================================
+  //  power
+  //=====================================================================
+  /**
+   *  Raises this Quantity to integer power n>=0.
+   *  The factor is computed as in 'power' of Value.
+   *
+   *  @param  n the exponent.
+   *  @return the power.
+   */
+  Quantity power(int n)
+    {
+      if (n<0)
+        throw new EvalError("Program error: exponent " + n + ".");
+
+      double fac = 1.0;
+      for (int i=0;i<n;i++)
+        fac *= factor;
+      return new Quantity(fac,dim.power(n));
+    }
+
+
+  //=====================================================================
+  //  isNumber
+  //=====================================================================
+  /**
+   *  Checks if this Quantity is a number.
+   *
+   *  @return true if this Quantity is dimensionless.
+   */
+  boolean isNumber()
+    { return dim==Dimension.ONE; }
+
+
+  //=====================================================================
+  //  conformsTo
+  //=====================================================================
+  /**
+   *  Checks if this Quantity has the same Dimension as another,
+   *  except for units to be ignored.
+   *
+   *  @param  q the Quantity to compare with.
+   *  @param  ignore indicates which units should be ignored.
+   *  @return true if the Dimensions are the same, false otherwise.
+   */
+  boolean conformsTo(final Quantity q, Ignore ignore)
+    { return dim.conformsTo(q.dim,ignore); }
+
+
+  //=====================================================================
+  //  asString
+  //=====================================================================
+  /**
+   *  Constructs printable string representing this Quantity.
+   *
+   *  @return this Quantity as printable string.
+   */
+  String asString()
+    { return new Value(this).asString(); }
+}
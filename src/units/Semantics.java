@@ -33,6 +33,11 @@
 //  Version 1.89.J01.
 //    120202 In 'unitname': extract exponent only if not part of subscript.
 //
+//  Version 1.89.J02.
+//    261017 Added 'reset' for reuse of the Parser.
+//           Added compile mode that constructs Expr trees.
+//           Use tables of the current UnitsEngine.
+//
 //=========================================================================
 
 package units;
@@ -53,6 +58,26 @@ class Semantics extends units.SemanticsBase
   Value parmValue;
   Value result;
 
+  //-------------------------------------------------------------------
+  //  Compile mode: construct Expr tree 'compiled' instead of 'result'.
+  //  In this mode, 'parm' is compiled as Expr.Param.
+  //-------------------------------------------------------------------
+  boolean compile = false;
+  Expr compiled;
+
+  //-------------------------------------------------------------------
+  //  Forget parameter and result after parsing,
+  //  so that the Parser can be reused.
+  //-------------------------------------------------------------------
+  void reset()
+    {
+      parm = null;
+      parmValue = null;
+      result = null;
+      compile = false;
+      compiled = null;
+    }
+
   //=====================================================================
   //
   //  Semantic values
@@ -63,6 +88,7 @@ class Semantics extends units.SemanticsBase
     double   number;
     Value    value;
     Function func;
+    Expr     expr;    // In compile mode
   }
 
   SV lhSem()
@@ -91,6 +117,12 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void unitexpr()
     {
+      if (compile)
+      {
+        compiled = (rhsSize()==3)? rhSem(1).expr : new Expr.Const(new Value());
+        return;
+      }
+
       if (rhsSize()==3)
         result = rhSem(1).value;
       else
@@ -109,6 +141,20 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void expr()
     {
+      if (compile)
+      {
+        int n = (rhsSize()+1)/2;
+        Expr[] terms = new Expr[n];
+        boolean[] minus = new boolean[n];
+        for (int i=0;i<n;i++)
+        {
+          terms[i] = rhSem(2*i).expr;
+          minus[i] = i>0 && rhs(2*i-1).isA("MINUS");
+        }
+        lhSem().expr = (n==1)? terms[0] : new Expr.Sum(terms,minus).fold(terms);
+        return;
+      }
+
       Value v = rhSem(0).value;
       for (int i=2;i<rhsSize();i+=2)
       {
@@ -126,6 +172,13 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void inverse()
     {
+      if (compile)
+      {
+        Expr e = rhSem(1).expr;
+        lhSem().expr = new Expr.Inverse(e).fold(e);
+        return;
+      }
+
       Value v = rhSem(1).value;
       v.invert();
       lhSem().value = v;
@@ -137,6 +190,20 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void term()
     {
+      if (compile)
+      {
+        int n = (rhsSize()+1)/2;
+        Expr[] factors = new Expr[n];
+        boolean[] divide = new boolean[n];
+        for (int i=0;i<n;i++)
+        {
+          factors[i] = rhSem(2*i).expr;
+          divide[i] = i>0 && !rhs(2*i-1).isA("STAR");
+        }
+        lhSem().expr = (n==1)? factors[0] : new Expr.Term(factors,divide).fold(factors);
+        return;
+      }
+
       Value v = rhSem(0).value;
       for (int i=2;i<rhsSize();i+=2)
       {
@@ -154,6 +221,16 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void product()
     {
+      if (compile)
+      {
+        int n = rhsSize();
+        Expr[] factors = new Expr[n];
+        for (int i=0;i<n;i++)
+          factors[i] = rhSem(i).expr;
+        lhSem().expr = (n==1)? factors[0] : new Expr.Term(factors,new boolean[n]).fold(factors);
+        return;
+      }
+
       Value v = rhSem(0).value;
       for (int i=1;i<rhsSize();i++)
         v.mult(rhSem(i).value);
@@ -166,6 +243,18 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void factor()
     {
+      if (compile)
+      {
+        Expr e = rhSem(rhsSize()-1).expr;
+        for (int i=rhsSize()-3;i>=0;i-=2)
+        {
+          Expr b = rhSem(i).expr;
+          e = new Expr.Power(b,e).fold(b,e);
+        }
+        lhSem().expr = e;
+        return;
+      }
+
       for (int i=rhsSize()-3;i>=0;i-=2)
         rhSem(i).value.power(rhSem(i+2).value);
 
@@ -178,6 +267,13 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void unary()
     {
+      if (compile)
+      {
+        Expr e = rhSem(rhsSize()-1).expr;
+        lhSem().expr = rhs(0).isA("MINUS")? new Expr.Negate(e).fold(e) : e;
+        return;
+      }
+
       Value v = rhSem(rhsSize()-1).value;
       if (rhs(0).isA("MINUS"))
         v.factor *= -1;
@@ -192,7 +288,10 @@ class Semantics extends units.SemanticsBase
     {
       Value v = new Value();
       v.factor = rhSem(0).number;
-      lhSem().value = v;
+      if (compile)
+        lhSem().expr = new Expr.Const(v);
+      else
+        lhSem().value = v;
     }
 
   //-------------------------------------------------------------------
@@ -200,14 +299,20 @@ class Semantics extends units.SemanticsBase
   //               0    1    2
   //-------------------------------------------------------------------
   void pass2()
-    { lhSem().value = rhSem(1).value; }
+    {
+      lhSem().value = rhSem(1).value;
+      lhSem().expr = rhSem(1).expr;
+    }
 
   //-------------------------------------------------------------------
   //  primary = unitname
   //               0
   //-------------------------------------------------------------------
   void pass()
-    { lhSem().value = rhSem(0).value; }
+    {
+      lhSem().value = rhSem(0).value;
+      lhSem().expr = rhSem(0).expr;
+    }
 
   //-------------------------------------------------------------------
   //  primary = bfunc LPAR expr RPAR
@@ -215,6 +320,13 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void evalBfunc()
     {
+      if (compile)
+      {
+        Expr e = rhSem(2).expr;
+        lhSem().expr = new Expr.Apply(rhSem(0).func,false,e).fold(e);
+        return;
+      }
+
       lhSem().value = rhSem(2).value;
       rhSem(0).func.applyTo(lhSem().value);
     }
@@ -225,6 +337,13 @@ class Semantics extends units.SemanticsBase
   //-------------------------------------------------------------------
   void evalUfunc()
     {
+      if (compile)
+      {
+        Expr e = rhSem(3).expr;
+        lhSem().expr = new Expr.Apply(rhSem(1).func,!rhs(0).isEmpty(),e).fold(e);
+        return;
+      }
+
       lhSem().value = rhSem(3).value;
       if (rhs(0).isEmpty())
         rhSem(1).func.applyTo(lhSem().value);
@@ -264,15 +383,18 @@ class Semantics extends units.SemanticsBase
       String word = rhs(0).text();
       if (word.equals("per")) return false;
 
-      if (BuiltInFunction.table.containsKey(word)) return false;
+      if (BuiltInFunction.table().containsKey(word)) return false;
 
       if (word.equals(parm))
       {
-        lhSem().value = new Value(parmValue);
+        if (compile)
+          lhSem().expr = new Expr.Param();
+        else
+          lhSem().value = new Value(parmValue);
         return true;
       }
 
-      if (DefinedFunction.table.containsKey(word)) return false;
+      if (DefinedFunction.table().containsKey(word)) return false;
 
       // Extract concatenated exponent if present -
       // - only if 'word' does not have subscript.
@@ -288,7 +410,10 @@ class Semantics extends units.SemanticsBase
 
       if (exp>1) v.power(exp);
 
-      lhSem().value = v;
+      if (compile)
+        lhSem().expr = new Expr.Const(v);
+      else
+        lhSem().value = v;
 
       return true;
     }
@@ -301,7 +426,7 @@ class Semantics extends units.SemanticsBase
     {
       String word = rhs(0).text();
       if (word.equals("per")) return false;
-      Function func = BuiltInFunction.table.get(word);
+      Function func = BuiltInFunction.table().get(word);
       if (func==null) return false;
       lhSem().func = func;
       return true;
@@ -316,7 +441,7 @@ class Semantics extends units.SemanticsBase
       String word = rhs(0).text();
       if (word.equals("per")) return false;
       if (word.equals(parm)) return false;
-      Function func = DefinedFunction.table.get(word);
+      Function func = DefinedFunction.table().get(word);
       if (func==null) return false;
       lhSem().func = func;
       return true;
@@ -0,0 +1,764 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Header, 'save', and 'factors' made available to MappedSnapshot.
+//           Added 'read' from a stream; 'outdated' does not promise rebuilding.
+//           Format 2: save stamps of the files instead of their text.
+//           Reading from a stream can be quiet about not using the snapshot.
+//
+//=========================================================================
+
+
+package units;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class Snapshot
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Binary snapshot of a loaded UnitsEngine, used to start
+ *  without reading and parsing the definition files.
+ *  Contains static methods only; is never instantiated.
+ *  <p>
+ *  The snapshot holds the tables of units, prefixes, functions,
+ *  and unit lists, with the locations of the definitions,
+ *  and optionally the reduced forms of units and prefixes.
+ *  The text of the files is not saved: it is read from the files
+ *  when needed (see 'contents' in UnitsFile). It also holds the CRC32 checksum and length
+ *  of each definition file, and is not used if any of them changed.
+ *  The snapshot itself ends with a CRC32 checksum of its contents.
+ *  <p>
+ *  Units and prefixes are saved in the order of their creation,
+ *  and are created in the same order when the snapshot is read,
+ *  so that the primitive units in Dimensions come in the same order.
+ *  The tables are restored with the same order of iteration.
+ *  <p>
+ *  Messages written while loading the files are not saved:
+ *  they are written only when the snapshot is built.
+ */
+
+class Snapshot
+{
+  //-------------------------------------------------------------------
+  /** Version of the format. */
+  //-------------------------------------------------------------------
+  static final int FORMAT = 2;
+
+  //-------------------------------------------------------------------
+  //  First four bytes of a snapshot: "UNSN".
+  //-------------------------------------------------------------------
+  private static final int MAGIC = 0x554E534E;
+
+  //-------------------------------------------------------------------
+  //  Size of buffers.
+  //-------------------------------------------------------------------
+  private static final int BUFSIZE = 65536;
+
+
+  //=====================================================================
+  //  write
+  //=====================================================================
+  /**
+   *  Writes snapshot of a loaded engine (see 'save').
+   *  Writes a message if the snapshot cannot be written.
+   *
+   *  @param  e        the engine.
+   *  @param  filename the snapshot file.
+   *  @param  reduced  if true, save the reduced forms
+   *                   of units and prefixes.
+   *  @return true if success, false otherwise.
+   */
+  static boolean write
+    (final UnitsEngine e, final String filename, boolean reduced)
+    {
+      if (reduced) e.reduce(null);
+
+      UnitsEngine prev = e.enter();
+      try
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFSIZE);
+        writeTables(e,new DataOutputStream(bytes),reduced);
+        save(bytes,filename);
+        return true;
+      }
+      catch (IOException x)
+      {
+        Env.out().println
+          ("Snapshot '" + filename + "' was not written: " + x.getMessage());
+        return false;
+      }
+      finally
+      { UnitsEngine.leave(prev); }
+    }
+
+
+  //=====================================================================
+  //  save
+  //=====================================================================
+  /**
+   *  Appends CRC32 checksum to snapshot contents and writes them
+   *  to a temporary file that then replaces the snapshot file,
+   *  so that processes reading the snapshot never see a partial one.
+   *
+   *  @param  bytes    the contents.
+   *  @param  filename the snapshot file.
+   *  @throws IOException if writing failed.
+   */
+  static void save(final ByteArrayOutputStream bytes, final String filename)
+    throws IOException
+    {
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      new DataOutputStream(bytes).writeLong(crc.getValue());
+
+      File file = new File(filename).getAbsoluteFile();
+      File temp = File.createTempFile("units",".tmp",file.getParentFile());
+      try
+      {
+        FileOutputStream os = new FileOutputStream(temp);
+        try
+        { bytes.writeTo(os); }
+        finally
+        { os.close(); }
+
+        if (!temp.renameTo(file))
+        {
+          file.delete();
+          if (!temp.renameTo(file))
+            throw new IOException("cannot rename '" + temp + "'");
+        }
+      }
+      finally
+      { temp.delete(); }
+    }
+
+
+  //=====================================================================
+  //  read
+  //=====================================================================
+  /**
+   *  Obtains engine from snapshot, if it exists and was built
+   *  by this version from the current contents of given files.
+   *
+   *  @param  filename  the snapshot file.
+   *  @param  filenames unit definition files.
+   *  @param  locale    locale for the definition files.
+   *  @return the engine, or null if the snapshot cannot be used.
+   */
+  static UnitsEngine read
+    (final String filename, final Vector<String> filenames, final String locale)
+    {
+      File file = new File(filename);
+      if (!file.isFile()) return null;
+
+      try
+      { return read(new FileInputStream(file),filename,filenames,locale,false); }
+      catch (IOException x)
+      { return outdated(filename,"cannot be read: " + x.getMessage()); }
+    }
+
+  /**
+   *  Obtains engine from snapshot read from a stream, if it was built
+   *  by this version from the current contents of given files.
+   *
+   *  @param  is        the stream. It is closed.
+   *  @param  filename  name of the snapshot, for messages.
+   *  @param  filenames unit definition files.
+   *  @param  locale    locale for the definition files.
+   *  @param  quiet     if true, the reason for not using the snapshot
+   *                    is not written in verbose mode.
+   *  @return the engine, or null if the snapshot cannot be used.
+   */
+  static UnitsEngine read
+    (final InputStream is, final String filename,
+     final Vector<String> filenames, final String locale,
+     boolean quiet)
+    {
+      try
+      {
+        //-------------------------------------------------------------
+        //  Read the whole snapshot and check its checksum
+        //  before building anything.
+        //-------------------------------------------------------------
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFSIZE);
+        try
+        {
+          byte[] buf = new byte[BUFSIZE];
+          int k;
+          while ((k=is.read(buf))>0)
+            bytes.write(buf,0,k);
+        }
+        finally
+        { is.close(); }
+        byte[] b = bytes.toByteArray();
+
+        int n = b.length-8;
+        if (n<0) return outdated(filename,quiet,"is damaged");
+        CRC32 crc = new CRC32();
+        crc.update(b,0,n);
+        long sum = new DataInputStream(new ByteArrayInputStream(b,n,8)).readLong();
+        if (sum!=crc.getValue())
+          return outdated(filename,quiet,"is damaged");
+
+        return readTables
+          (new DataInputStream(new ByteArrayInputStream(b,0,n)),
+           filename,filenames,locale,quiet);
+      }
+      catch (IOException x)
+      { return outdated(filename,quiet,"cannot be read: " + x.getMessage()); }
+      catch (RuntimeException x)
+      { return outdated(filename,quiet,"is damaged"); }
+    }
+
+
+  //=====================================================================
+  //  writeTables
+  //=====================================================================
+  /**
+   *  Writes the snapshot contents.
+   *  Must be invoked with the engine bound to the current thread.
+   *
+   *  @param  e       the engine.
+   *  @param  out     the output.
+   *  @param  reduced if true, write the reduced forms.
+   *  @throws IOException if writing failed.
+   */
+  private static void writeTables
+    (final UnitsEngine e, final DataOutputStream out, boolean reduced)
+    throws IOException
+    {
+      writeHeader(e,out,MAGIC,FORMAT);
+
+      //---------------------------------------------------------------
+      //  Names and stamps of the files, in order of first appearance
+      //  in the locations of definitions.
+      //---------------------------------------------------------------
+      List<Entity> all = new ArrayList<Entity>();
+      all.addAll(e.units.values());
+      all.addAll(e.prefixes.values());
+      all.addAll(e.functions.values());
+      all.addAll(e.aliases.values());
+
+      Map<UnitsFile,Integer> texts = new IdentityHashMap<UnitsFile,Integer>();
+      List<UnitsFile> files = new ArrayList<UnitsFile>();
+      for (Entity x: all)
+      {
+        if (texts.containsKey(x.location.file)) continue;
+        texts.put(x.location.file,files.size());
+        files.add(x.location.file);
+      }
+
+      out.writeInt(files.size());
+      for (UnitsFile f: files)
+      {
+        out.writeUTF(f.name);
+        out.writeLong(f.stamp());
+      }
+
+      //---------------------------------------------------------------
+      //  Units and prefixes in order of creation,
+      //  then the order of each table.
+      //---------------------------------------------------------------
+      List<Factor> factors = factors(e);
+      Map<Factor,Integer> index = new IdentityHashMap<Factor,Integer>();
+      out.writeInt(factors.size());
+      for (Factor f: factors)
+      {
+        index.put(f,index.size());
+        out.writeBoolean(f instanceof Prefix);
+        writeEntity(f,texts,out);
+      }
+
+      out.writeInt(e.units.size());
+      for (Unit u: e.units.values())
+        out.writeInt(index.get(u));
+
+      out.writeInt(e.prefixes.size());
+      for (Prefix p: e.prefixes.values())
+        out.writeInt(index.get(p));
+
+      //---------------------------------------------------------------
+      //  Functions and unit lists.
+      //---------------------------------------------------------------
+      out.writeInt(e.functions.size());
+      for (DefinedFunction f: e.functions.values())
+      {
+        out.writeBoolean(f instanceof TabularFunction);
+        writeEntity(f,texts,out);
+      }
+
+      out.writeInt(e.aliases.size());
+      for (Alias a: e.aliases.values())
+        writeEntity(a,texts,out);
+
+      //---------------------------------------------------------------
+      //  Reduced forms. A form is not saved if it cannot be computed,
+      //  or its Dimension contains a unit that is not in the tables.
+      //---------------------------------------------------------------
+      out.writeBoolean(reduced);
+      if (!reduced) return;
+
+      for (Factor f: factors)
+      {
+        Quantity q = null;
+        if (!f.circular)
+        {
+          try
+          { q = f.reduced(); }
+          catch (EvalError x)
+          { q = null; }
+        }
+
+        if (q!=null)
+        {
+          for (Factor u: q.dim.units)
+            if (index.get(u)==null) q = null;
+        }
+
+        out.writeBoolean(q!=null);
+        if (q==null) continue;
+
+        out.writeDouble(q.factor);
+        out.writeInt(q.dim.units.length);
+        for (int i=0;i<q.dim.units.length;i++)
+        {
+          out.writeInt(index.get(q.dim.units[i]));
+          out.writeInt(q.dim.exps[i]);
+        }
+      }
+    }
+
+
+  //=====================================================================
+  //  readTables
+  //=====================================================================
+  /**
+   *  Reads the snapshot contents written by 'writeTables'
+   *  and builds engine from them.
+   *
+   *  @param  in        the input.
+   *  @param  filename  the snapshot file.
+   *  @param  filenames unit definition files.
+   *  @param  locale    locale for the definition files.
+   *  @param  quiet     if true, do not write the reason for not using it.
+   *  @return the engine, or null if the snapshot is out of date.
+   *  @throws IOException if reading failed.
+   */
+  private static UnitsEngine readTables
+    (final DataInputStream in, final String filename,
+     final Vector<String> filenames, final String locale, boolean quiet)
+    throws IOException
+    {
+      UnitsEngine e = readHeader
+        (in,MAGIC,FORMAT,filename,filenames,locale,quiet);
+      if (e==null) return null;
+      int n;
+
+      //---------------------------------------------------------------
+      //  Files of the definitions.
+      //---------------------------------------------------------------
+      UnitsFile[] files = new UnitsFile[in.readInt()];
+      for (int i=0;i<files.length;i++)
+      {
+        files[i] = new UnitsFile(in.readUTF(),in.readLong());
+      }
+
+      UnitsEngine prev = e.enter();
+      try
+      {
+        //-------------------------------------------------------------
+        //  Units and prefixes, and their tables.
+        //-------------------------------------------------------------
+        Factor[] factors = new Factor[in.readInt()];
+        int id = Factor.reserve(factors.length);
+        for (int i=0;i<factors.length;i++)
+        {
+          boolean prefix = in.readBoolean();
+          String name = in.readUTF();
+          Location loc = readLocation(files,in);
+          boolean circular = in.readBoolean();
+          factors[i] = prefix? Prefix.read(name,loc,id+i,in)
+                             : Unit.read(name,loc,id+i,in);
+          factors[i].circular = circular;
+        }
+
+        Map<String,Unit> units = new LinkedHashMap<String,Unit>();
+        n = in.readInt();
+        for (int i=0;i<n;i++)
+        {
+          Unit u = (Unit)factors[in.readInt()];
+          units.put(u.name,u);
+        }
+
+        Map<String,Prefix> prefixes = new LinkedHashMap<String,Prefix>();
+        n = in.readInt();
+        for (int i=0;i<n;i++)
+        {
+          Prefix p = (Prefix)factors[in.readInt()];
+          prefixes.put(p.name,p);
+        }
+
+        //-------------------------------------------------------------
+        //  Functions and unit lists.
+        //-------------------------------------------------------------
+        Map<String,DefinedFunction> functions
+          = new LinkedHashMap<String,DefinedFunction>();
+        n = in.readInt();
+        for (int i=0;i<n;i++)
+        {
+          boolean tabular = in.readBoolean();
+          String name = in.readUTF();
+          Location loc = readLocation(files,in);
+          boolean circular = in.readBoolean();
+          DefinedFunction f = tabular? TabularFunction.read(name,loc,in)
+                                     : ComputedFunction.read(name,loc,in);
+          f.circular = circular;
+          functions.put(name,f);
+        }
+
+        Map<String,Alias> aliases = new LinkedHashMap<String,Alias>();
+        n = in.readInt();
+        for (int i=0;i<n;i++)
+        {
+          String name = in.readUTF();
+          Location loc = readLocation(files,in);
+          boolean circular = in.readBoolean();
+          Alias a = Alias.read(name,loc,in);
+          a.circular = circular;
+          aliases.put(name,a);
+        }
+
+        //-------------------------------------------------------------
+        //  Reduced forms.
+        //-------------------------------------------------------------
+        if (in.readBoolean())
+        {
+          for (Factor f: factors)
+          {
+            if (!in.readBoolean()) continue;
+            double factor = in.readDouble();
+            int k = in.readInt();
+            Factor[] u = new Factor[k];
+            int[] exps = new int[k];
+            for (int i=0;i<k;i++)
+            {
+              u[i] = factors[in.readInt()];
+              exps[i] = in.readInt();
+            }
+            f.reduced(new Quantity(factor,Dimension.intern(u,exps,k)));
+          }
+        }
+
+        //-------------------------------------------------------------
+        //  Install the tables and complete them as 'load' does.
+        //-------------------------------------------------------------
+        e.units = units;
+        e.prefixes = prefixes;
+        e.functions = functions;
+        e.aliases = aliases;
+        e.complete();
+        return e;
+      }
+      finally
+      { UnitsEngine.leave(prev); }
+    }
+
+
+  //=====================================================================
+  //  factors
+  //=====================================================================
+  /**
+   *  Obtains units and prefixes of an engine in order of creation.
+   *
+   *  @param  e the engine.
+   *  @return list of the units and prefixes.
+   */
+  static List<Factor> factors(final UnitsEngine e)
+    {
+      List<Factor> factors = new ArrayList<Factor>();
+      factors.addAll(e.units.values());
+      factors.addAll(e.prefixes.values());
+      Collections.sort(factors,new Comparator<Factor>()
+        {
+          public int compare(Factor a, Factor b)
+            { return a.id<b.id? -1 : a.id==b.id? 0 : 1; }
+        });
+      return factors;
+    }
+
+
+  //=====================================================================
+  //  writeHeader
+  //=====================================================================
+  /**
+   *  Writes header identifying the format, the program version,
+   *  the locale, and the definition files with their checksums.
+   *
+   *  @param  e      the engine.
+   *  @param  out    the output.
+   *  @param  magic  first four bytes of the snapshot.
+   *  @param  format version of the format.
+   *  @throws IOException if writing failed.
+   */
+  static void writeHeader
+    (final UnitsEngine e, final DataOutput out, int magic, int format)
+    throws IOException
+    {
+      out.writeInt(magic);
+      out.writeInt(format);
+      out.writeUTF(Env.VERSION);
+      out.writeUTF(e.locale);
+
+      out.writeInt(e.sources.size());
+      for (String name: e.sources)
+        out.writeUTF(name);
+
+      out.writeInt(e.filenames.size());
+      for (String name: e.filenames)
+      {
+        long[] sum = checksum(name);
+        if (sum==null)
+          throw new IOException("cannot read '" + name + "'");
+        out.writeUTF(name);
+        out.writeLong(sum[0]);
+        out.writeLong(sum[1]);
+      }
+    }
+
+
+  //=====================================================================
+  //  readHeader
+  //=====================================================================
+  /**
+   *  Reads header written by 'writeHeader' and checks that
+   *  the snapshot can be used for given files and locale.
+   *
+   *  @param  in        the input.
+   *  @param  magic     expected first four bytes.
+   *  @param  format    expected version of the format.
+   *  @param  filename  the snapshot file.
+   *  @param  filenames unit definition files.
+   *  @param  locale    locale for the definition files.
+   *  @param  quiet     if true, do not write the reason for not using it.
+   *  @return new engine with empty tables and the files of the
+   *          snapshot, or null if the snapshot cannot be used.
+   *  @throws IOException if reading failed.
+   */
+  static UnitsEngine readHeader
+    (final DataInput in, int magic, int format, final String filename,
+     final Vector<String> filenames, final String locale, boolean quiet)
+    throws IOException
+    {
+      if (in.readInt()!=magic)
+        return outdated(filename,quiet,"is not a snapshot");
+      if (in.readInt()!=format || !in.readUTF().equals(Env.VERSION))
+        return outdated(filename,quiet,"was built by another version");
+      if (!in.readUTF().equals(locale))
+        return outdated(filename,quiet,"was built for another locale");
+
+      Vector<String> sources = new Vector<String>();
+      int n = in.readInt();
+      for (int i=0;i<n;i++)
+        sources.add(in.readUTF());
+      if (!sources.equals(filenames))
+        return outdated(filename,quiet,"was built from other files");
+
+      UnitsEngine e = new UnitsEngine(new Vector<String>(sources),locale);
+      n = in.readInt();
+      for (int i=0;i<n;i++)
+      {
+        String name = in.readUTF();
+        long[] sum = { in.readLong(), in.readLong() };
+        if (!Arrays.equals(sum,checksum(name)))
+          return outdated(filename,quiet,"is older than '" + name + "'");
+        if (i>=sources.size()) e.filenames.add(name);
+      }
+      return e;
+    }
+
+
+  //=====================================================================
+  //  writeEntity
+  //=====================================================================
+  /**
+   *  Writes name, location, and definition of an Entity.
+   *
+   *  @param  x     the Entity.
+   *  @param  texts indexes of files in the snapshot.
+   *  @param  out   the output.
+   *  @throws IOException if writing failed.
+   */
+  private static void writeEntity
+    (final Entity x, final Map<UnitsFile,Integer> texts,
+     final DataOutputStream out)
+    throws IOException
+    {
+      out.writeUTF(x.name);
+      out.writeInt(texts.get(x.location.file));
+      out.writeInt(x.location.lineNum);
+      out.writeInt(x.location.beginChar);
+      out.writeInt(x.location.endChar);
+      out.writeBoolean(x.circular);
+      x.write(out);
+    }
+
+
+  //=====================================================================
+  //  readLocation
+  //=====================================================================
+  /**
+   *  Reads location written by 'writeEntity'.
+   *
+   *  @param  files the files of the snapshot.
+   *  @param  in    the input.
+   *  @return the Location.
+   *  @throws IOException if reading failed.
+   */
+  private static Location readLocation
+    (final UnitsFile[] files, final DataInputStream in)
+    throws IOException
+    {
+      UnitsFile file = files[in.readInt()];
+      int line = in.readInt();
+      int begin = in.readInt();
+      int end = in.readInt();
+      return new Location(file,line,begin,end);
+    }
+
+
+  //=====================================================================
+  //  checksum
+  //=====================================================================
+  /**
+   *  Computes CRC32 checksum and length of a definition file.
+   *
+   *  @param  name file name, or empty string for the default file.
+   *  @return two-element array with the checksum and the length,
+   *          or null if the file cannot be read.
+   */
+  private static long[] checksum(final String name)
+    {
+      //---------------------------------------------------------------
+      //  Do not write "not found" messages: they are written
+      //  when the files are loaded.
+      //---------------------------------------------------------------
+      Env.Options opts = new Env.Options();
+      opts.out = new Env.Writer()
+        {
+          void print(final String s) {}
+          void println(final String s) {}
+        };
+
+      Env.Options prev = Env.enter(opts);
+      try
+      {
+        InputStream is = UnitsFile.fileAcc.open
+          (name.length()==0? Env.UNITSFILE : name);
+        if (is==null) return null;
+
+        CRC32 crc = new CRC32();
+        long length = 0;
+        byte[] buf = new byte[BUFSIZE];
+        try
+        {
+          int k;
+          while ((k=is.read(buf))>0)
+          {
+            crc.update(buf,0,k);
+            length += k;
+          }
+        }
+        finally
+        { is.close(); }
+        return new long[]{crc.getValue(),length};
+      }
+      catch (IOException x)
+      { return null; }
+      finally
+      { Env.leave(prev); }
+    }
+
+
+  //=====================================================================
+  //  outdated
+  //=====================================================================
+  /**
+   *  Writes in verbose mode the reason for not using a snapshot.
+   *
+   *  @param  filename the snapshot file.
+   *  @param  why      the reason.
+   *  @return null.
+   */
+  static UnitsEngine outdated(final String filename, final String why)
+    { return outdated(filename,false,why); }
+
+  /**
+   *  Writes in verbose mode the reason for not using a snapshot,
+   *  unless 'quiet' is true.
+   *
+   *  @param  filename the snapshot file.
+   *  @param  quiet    if true, write nothing.
+   *  @param  why      the reason.
+   *  @return null.
+   */
+  static UnitsEngine outdated
+    (final String filename, boolean quiet, final String why)
+    {
+      if (!quiet && Env.verbose()==2)
+        Env.out().println
+          ("Snapshot '" + filename + "' " + why + "; it is not used.");
+      return null;
+    }
+}
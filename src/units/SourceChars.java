@@ -0,0 +1,175 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//
+//=========================================================================
+
+
+package units;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class SourceChars
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Wrapper for parser input that is a line of a definition file,
+ *  held as a part of the character array with the whole file.
+ *  The characters are not copied.
+ *  <p>
+ *  A line with continuation lines consists of several parts:
+ *  each part but the last one ends with the backslash
+ *  that is seen by the parser as a blank.
+ */
+
+class SourceChars implements Source
+{
+  //-------------------------------------------------------------------
+  //  Characters of the file.
+  //-------------------------------------------------------------------
+  private final char[] chars;
+
+  //-------------------------------------------------------------------
+  //  Start of each part in 'chars', and position after each part
+  //  in the line. The arrays are null if there is one part.
+  //-------------------------------------------------------------------
+  private final int[] starts;
+  private final int[] ends;
+
+  //-------------------------------------------------------------------
+  //  Start of the only part in 'chars', or 0.
+  //-------------------------------------------------------------------
+  private final int start;
+
+  //-------------------------------------------------------------------
+  //  Length of the line.
+  //-------------------------------------------------------------------
+  private final int end;
+
+
+  //=====================================================================
+  //  Constructors
+  //=====================================================================
+  /**
+   *  Wraps characters 'start' through 'end'-1 of an array.
+   *
+   *  @param chars the array.
+   *  @param start start of the line.
+   *  @param end   end of the line.
+   */
+  SourceChars(final char[] chars, int start, int end)
+    {
+      this.chars = chars;
+      this.start = start;
+      this.end = end-start;
+      starts = null;
+      ends = null;
+    }
+
+  /**
+   *  Wraps several parts of an array.
+   *
+   *  @param chars  the array.
+   *  @param starts start of each part in 'chars'.
+   *  @param ends   position after each part in the line.
+   */
+  SourceChars(final char[] chars, final int[] starts, final int[] ends)
+    {
+      this.chars = chars;
+      this.starts = starts;
+      this.ends = ends;
+      start = 0;
+      end = ends[ends.length-1];
+    }
+
+
+  //=====================================================================
+  //  created
+  //=====================================================================
+  public boolean created()
+    { return true; }
+
+
+  //=====================================================================
+  //  end
+  //=====================================================================
+  public int end()
+    { return end; }
+
+
+  //=====================================================================
+  //  at
+  //=====================================================================
+  /**
+   *  Returns character at position p.
+   */
+  public char at(int p)
+    {
+      if (starts==null) return chars[start+p];
+
+      int k = 0;
+      while (p>=ends[k]) k++;
+      if (k<ends.length-1 && p==ends[k]-1) return ' ';
+      return chars[starts[k] + p - (k==0? 0 : ends[k-1])];
+    }
+
+  /**
+   *  Returns characters at positions p through q-1.
+   */
+  public String at(int p, int q)
+    {
+      if (starts==null) return new String(chars,start+p,q-p);
+
+      StringBuilder sb = new StringBuilder(q-p);
+      for (int i=p;i<q;i++)
+        sb.append(at(i));
+      return sb.toString();
+    }
+
+
+  //=====================================================================
+  //  where
+  //=====================================================================
+  /**
+   *  Describes position p in terms of preceding text,
+   *  as 'where' in SourceString.
+   */
+  public String where(int p)
+    {
+      if (p>15)
+        return "After '... " + at(p-15,p) + "'";
+      else if (p>0)
+        return "After '" + at(0,p) + "'";
+      else
+        return "At start";
+    }
+}
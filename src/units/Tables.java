@@ -67,12 +67,29 @@
 //    120318 Removed check for multiple invocations.
 //           It was superfluous: each invocation has own static variables.
 //
+//  Version 1.89.J02.
+//    261017 Forget interned Dimensions in 'build'.
+//           Build NameTrie and NameCache at the end of 'build'.
+//           Added 'namesChanged'.
+//           Tables are now kept in UnitsEngine: 'build' creates
+//           the standard engine and delegates to its 'load'.
+//           Install the new engine only after it has been loaded.
+//           Iterate over table values instead of using Enumeration.
+//           Added 'showDependents'.
+//           Use snapshot file in 'build' if specified.
+//           Use mapped snapshot file in 'build' if specified.
+//           Load lazily in 'build' if so specified.
+//           Use snapshot built with the program in 'build' (see DefaultSnapshot).
+//           In 'build': complete lazily loaded engine in background.
+//           'showSource' reports a file changed since loading.
+//           'build' does not load lazily if checking is requested.
+//           'check' skips entities with circular definitions.
+//
 //=========================================================================
 
 package units;
 
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
@@ -93,52 +110,87 @@ class Tables
   //  build
   //=====================================================================
   /**
-   *  Build tables from given definition files.
+   *  Build tables from given definition files
+   *  as the standard UnitsEngine. The engine replaces
+   *  the standard one after it has been loaded.
+   *  If a snapshot file is specified, the engine is read from it
+   *  if it is up to date, otherwise the snapshot is written
+   *  after loading the definition files (see Snapshot).
+   *  The same applies to a mapped snapshot file (see MappedSnapshot).
+   *  Without snapshot files, the engine is loaded lazily if so
+   *  specified, and completed in the background while in use
+   *  (see 'loadLazily' and 'completeLater' in UnitsEngine);
+   *  but not if checking is requested, so that circular definitions
+   *  are all reported at load, before the checking.
+   *  Otherwise it is read from the snapshot built with the program,
+   *  if that can be used (see DefaultSnapshot).
    *
    *  @return true if success, false otherwise.
    */
   static boolean build()
     {
-      //---------------------------------------------------------------
-      //  Check number of files.
-      //---------------------------------------------------------------
-      if (Env.filenames.size()>=Env.MAXFILES)
+      if (Env.mapped!=null)
       {
-        Env.out.println
-          ("At most " + Env.MAXFILES + " unit definition files are allowed.");
-        return false;
+        UnitsEngine m = MappedSnapshot.open(Env.mapped,Env.filenames,Env.locale);
+        if (m!=null)
+        {
+          UnitsEngine.setStandard(m);
+          return true;
+        }
       }
 
-      //---------------------------------------------------------------
-      //  Initialize all tables.
-      //---------------------------------------------------------------
-      Unit.table            = new Hashtable<String,Unit>();
-      Prefix.table          = new Hashtable<String,Prefix>();
-      BuiltInFunction.table = new Hashtable<String,BuiltInFunction>();
-      DefinedFunction.table = new Hashtable<String,DefinedFunction>();
-      Alias.table           = new Hashtable<String,Alias>();
+      if (Env.snapshot!=null)
+      {
+        UnitsEngine s = Snapshot.read(Env.snapshot,Env.filenames,Env.locale);
+        if (s!=null)
+        {
+          UnitsEngine.setStandard(s);
+          return true;
+        }
+      }
 
-      //---------------------------------------------------------------
-      //  Read unit definitions.
-      //  Note that 'Env.filenames' may be extended with include files
-      //  by 'file.readunits'; we do not want to process them.
-      //---------------------------------------------------------------
-      int nfiles = Env.filenames.size();
-      for (int i=0; i<nfiles; i++)
+      if (Env.snapshot==null && Env.mapped==null && !Env.lazy)
       {
-        String filename = Env.filenames.elementAt(i);
-        if (filename.length()==0) filename = Env.UNITSFILE;
-        UnitsFile file = new UnitsFile(filename);
-        boolean ok = file.readunits(0);
-        if (!ok) return false;
+        UnitsEngine d = DefaultSnapshot.read(Env.filenames,Env.locale);
+        if (d!=null)
+        {
+          UnitsEngine.setStandard(d);
+          return true;
+        }
       }
 
-      //---------------------------------------------------------------
-      //  Fill table of built-in functions.
-      //---------------------------------------------------------------
-      BuiltInFunction.makeTable();
+      UnitsEngine e = new UnitsEngine(Env.filenames,Env.locale);
+      if (Env.lazy && !Env.unitcheck && Env.snapshot==null && Env.mapped==null)
+      {
+        boolean ok = e.loadLazily(null);
+        UnitsEngine.setStandard(e);
+        if (ok) e.completeLater(null);
+        return ok;
+      }
 
-      return true;
+      boolean ok = e.load(null);
+      UnitsEngine.setStandard(e);
+      if (ok && Env.snapshot!=null)
+        Snapshot.write(e,Env.snapshot,true);
+      if (ok && Env.mapped!=null)
+        MappedSnapshot.write(e,Env.mapped);
+      return ok;
+    }
+
+
+  //=====================================================================
+  //  namesChanged
+  //=====================================================================
+  /**
+   *  Discards the trie and cache for resolving unit and prefix names.
+   *  Called when a unit or prefix is defined. Names are then resolved
+   *  directly from the tables until 'build' constructs them again.
+   */
+  static void namesChanged()
+    {
+      UnitsEngine e = UnitsEngine.current();
+      e.trie = null;
+      e.cache = null;
     }
 
   //=====================================================================
@@ -149,11 +201,7 @@ class Tables
    */
   static void clean()
     {
-      Unit.table = null;
-      Prefix.table = null;
-      BuiltInFunction.table = null;
-      DefinedFunction.table = null;
-      Alias.table = null;
+      UnitsEngine.setStandard(new UnitsEngine());
     }
 
   //=====================================================================
@@ -164,9 +212,9 @@ class Tables
    */
    static String stat()
    {
-     return Unit.table.size() + " units, " + Prefix.table.size() + " prefixes, "
-            + DefinedFunction.table.size() + " nonlinear units, "
-            + Alias.table.size() + " unit lists." ;
+     return Unit.table().size() + " units, " + Prefix.table().size() + " prefixes, "
+            + DefinedFunction.table().size() + " nonlinear units, "
+            + Alias.table().size() + " unit lists." ;
    }
 
   //=====================================================================
@@ -182,24 +230,33 @@ class Tables
     {
       Location loc;
 
-      Alias a = Alias.table.get(name);
-      Function f = DefinedFunction.table.get(name);
-      Unit u = Unit.table.get(name);
-      Prefix p = Prefix.table.get(name);
+      Alias a = Alias.table().get(name);
+      Function f = DefinedFunction.table().get(name);
+      Unit u = Unit.table().get(name);
+      Prefix p = Prefix.table().get(name);
       if (a!=null)      loc = a.location;
       else if (f!=null) loc = f.location;
       else if (u!=null) loc = u.location;
       else if (p!=null) loc = p.location;
       else
       {
-        Env.out.println
+        Env.out().println
             ("'" + name +
              "' is not the name of a unit, function, or unit list.");
         return;
       }
 
+      String text = loc.file.contents();
+      if (text==null)
+      {
+        Env.out().println
+            ("File '" + loc.file.name + "' was changed after '" + name +
+             "' was defined in it.");
+        return;
+      }
+
       Browser.show(loc.file.name,
-                   loc.file.contents,
+                   text,
                    loc.beginChar,
                    loc.endChar,
                    true);
@@ -219,27 +276,23 @@ class Tables
     {
       Vector<Entity> list = new Vector<Entity>();
 
-      for (Enumeration<Alias> enu=Alias.table.elements();enu.hasMoreElements();)
+      for (Entity e: Alias.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.conformsTo(have)) list.add(e);
       }
 
-      for(Enumeration<DefinedFunction> enu=DefinedFunction.table.elements();enu.hasMoreElements();)
+      for (Entity e: DefinedFunction.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.conformsTo(have)) list.add(e);
       }
 
-      for (Enumeration<Unit> enu=Unit.table.elements();enu.hasMoreElements();)
+      for (Entity e: Unit.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.conformsTo(have)) list.add(e);
       }
 
-      for (Enumeration<Prefix> enu=Prefix.table.elements();enu.hasMoreElements();)
+      for (Entity e: Prefix.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.conformsTo(have)) list.add(e);
       }
 
@@ -260,27 +313,23 @@ class Tables
     {
       Vector<Entity> list = new Vector<Entity>();
 
-      for (Enumeration<Alias> enu=Alias.table.elements();enu.hasMoreElements();)
+      for (Entity e: Alias.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.name.contains(havestr)) list.add(e);
       }
 
-      for(Enumeration<DefinedFunction> enu=DefinedFunction.table.elements();enu.hasMoreElements();)
+      for (Entity e: DefinedFunction.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.name.contains(havestr)) list.add(e);
       }
 
-      for (Enumeration<Unit> enu=Unit.table.elements();enu.hasMoreElements();)
+      for (Entity e: Unit.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.name.contains(havestr)) list.add(e);
       }
 
-      for (Enumeration<Prefix> enu=Prefix.table.elements();enu.hasMoreElements();)
+      for (Entity e: Prefix.table().values())
       {
-        Entity e = enu.nextElement();
         if (e.name.contains(havestr)) list.add(e);
       }
 
@@ -288,6 +337,46 @@ class Tables
     }
 
 
+  //=====================================================================
+  //  showDependents
+  //=====================================================================
+  /**
+   *  Shows units, prefixes, functions, and aliases that depend
+   *  on the entity with a given name: those whose definitions use it,
+   *  those whose definitions use them, and so on.
+   *
+   *  @param  name name of the entity
+   */
+  static void showDependents(final String name)
+    {
+      Vector<Entity> roots = new Vector<Entity>();
+      Entity[] named = { Alias.table().get(name),
+                         DefinedFunction.table().get(name),
+                         BuiltInFunction.table().get(name),
+                         Unit.table().get(name),
+                         Prefix.table().get(name) };
+      for (Entity e: named)
+        if (e!=null) roots.add(e);
+
+      if (roots.isEmpty())
+      {
+        Env.out().println
+            ("'" + name +
+             "' is not the name of a unit, prefix, function, or unit list.");
+        return;
+      }
+
+      Vector<Entity> list = new Vector<Entity>();
+      for (Entity e: UnitsEngine.current().graph().dependents(roots))
+      {
+        if (!roots.contains(e) && !(e instanceof BuiltInFunction))
+          list.add(e);
+      }
+
+      showListed(list,"Depending on " + name);
+    }
+
+
   //=====================================================================
   //  showListed
   //=====================================================================
@@ -323,32 +412,34 @@ class Tables
    *  Cycles through all functions, units, prefixes, and aliases
    *  applying their 'check' methods to check for correctnes.
    *  Prints messages about any error found.
+   *  Entities with circular definitions are skipped: they were
+   *  reported, with the reason, when the tables were loaded.
    */
   static void check()
     {
       //---------------------------------------------------------------
       //  Check aliases.
       //---------------------------------------------------------------
-      for (Enumeration<Alias> e=Alias.table.elements();e.hasMoreElements();)
-        (e.nextElement()).check();
+      for (Alias e: Alias.table().values())
+        if (!e.circular) e.check();
 
       //---------------------------------------------------------------
       //  Check functions.
       //---------------------------------------------------------------
-      for(Enumeration<DefinedFunction> e=DefinedFunction.table.elements();e.hasMoreElements();)
-        (e.nextElement()).check();
+      for (DefinedFunction e: DefinedFunction.table().values())
+        if (!e.circular) e.check();
 
       //---------------------------------------------------------------
       //  Check prefixes.
       //---------------------------------------------------------------
-      for (Enumeration<Prefix> e=Prefix.table.elements();e.hasMoreElements();)
-        (e.nextElement()).check();
+      for (Prefix e: Prefix.table().values())
+        if (!e.circular) e.check();
 
       //---------------------------------------------------------------
       //  Check units.
       //---------------------------------------------------------------
-      for (Enumeration<Unit> e=Unit.table.elements();e.hasMoreElements();)
-        (e.nextElement()).check();
+      for (Unit e: Unit.table().values())
+        if (!e.circular) e.check();
     }
 
 
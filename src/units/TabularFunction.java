@@ -61,10 +61,26 @@
 //    120318 In 'check': check name conflict using 'checkHiding'.
 //    120404 In 'check': added checking of result unit.
 //
+//  Version 1.89.J02
+//    261017 Keep parsed result unit instead of parsing it
+//           on each application.
+//           Use binary search in 'interpolate' for monotonic tables.
+//           Added 'interpolate' for arrays of arguments.
+//           Use options bound to the current thread.
+//           Added 'expressions' and 'copy'.
+//           Circular function is not applied.
+//           Added 'write' and 'read' for Snapshot.
+//           Added 'prepare'.
+//           Added 'lower', 'parameter' and 'result'.
+//           Message about redefinition written by 'redefined' in DefinedFunction.
+//
 //=========================================================================
 
 package units;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 
 //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
@@ -84,11 +100,24 @@ class TabularFunction extends DefinedFunction
   private final double[] x; // Argument values
   private final double[] y; // Corresponding values in units 'resUnit'.
 
+  //-------------------------------------------------------------------
+  //  Direction of 'x' and 'y': +1 if strictly increasing,
+  //  -1 if strictly decreasing, 0 otherwise.
+  //-------------------------------------------------------------------
+  private final int xdir;
+  private final int ydir;
+
   //-------------------------------------------------------------------
   //  Result unit
   //-------------------------------------------------------------------
   private final String resUnit;
 
+  //-------------------------------------------------------------------
+  //  Parsed 'resUnit', or null if not yet parsed.
+  //  Never modified: applications use its copies.
+  //-------------------------------------------------------------------
+  private volatile Value resValue = null;
+
 
   //=====================================================================
   //  Constructor
@@ -110,6 +139,8 @@ class TabularFunction extends DefinedFunction
       this.resUnit = resUnit;
       this.x = x;
       this.y = y;
+      xdir = direction(x);
+      ydir = direction(y);
     }
 
 
@@ -140,7 +171,7 @@ class TabularFunction extends DefinedFunction
 
       if (diag!=null)
       {
-         Env.out.println
+         Env.out().println
            (loc.where() + ". Function '" + name
             + "' is ignored. Its name " + diag + ".");
          return;
@@ -149,17 +180,12 @@ class TabularFunction extends DefinedFunction
       //---------------------------------------------------------------
       //  Install the function in table.
       //---------------------------------------------------------------
-      Function old = table.put(name, new TabularFunction(name,loc,resUnit,x,y));
+      Function old = table().put(name, new TabularFunction(name,loc,resUnit,x,y));
 
       //---------------------------------------------------------------
       //  Write a message if an earlier definition replaced.
       //---------------------------------------------------------------
-      if (old!=null)
-      {
-        Env.out.println
-          ("Function '" + name + "' defined in " + old.location.where() +
-           ", is redefined in " + loc.where() + ".");
-      }
+      if (old!=null) redefined(name,old.location,loc);
     }
 
 
@@ -176,11 +202,11 @@ class TabularFunction extends DefinedFunction
 void applyTo(Value v)
     {
       //---------------------------------------------------------------
-      //  Parse resUnit to obtain a Value, 'dim'.
+      //  Obtain Value of resUnit, 'dim'.
       //---------------------------------------------------------------
       Value dim = null;
       try
-      { dim = Value.parse(resUnit); }
+      { dim = resValue(); }
 
       catch (EvalError e)
       {
@@ -198,7 +224,7 @@ void applyTo(Value v)
       //---------------------------------------------------------------
       //  Find y-value corresponding to argument 'x'.
       //---------------------------------------------------------------
-       double result = interpolate(v.factor,x,y,v,"");
+       double result = interpolate(v.factor,x,xdir,y,v,"");
 
       //---------------------------------------------------------------
       //  Return result in result units.
@@ -221,11 +247,11 @@ void applyTo(Value v)
 void applyInverseTo(Value v)
     {
       //---------------------------------------------------------------
-      //  Parse resUnit to obtain a Value, 'dim'.
+      //  Obtain Value of resUnit, 'dim'.
       //---------------------------------------------------------------
       Value dim = null;
       try
-      { dim = Value.parse(resUnit); }
+      { dim = resValue(); }
 
       catch (EvalError e)
       {
@@ -250,7 +276,7 @@ void applyInverseTo(Value v)
       //---------------------------------------------------------------
       //  Find x-value corresponding to y-value 'n'.
       //---------------------------------------------------------------
-      double result = interpolate(n.factor,y,x,v,"~");
+      double result = interpolate(n.factor,y,ydir,x,v,"~");
 
       //---------------------------------------------------------------
       //  Return result as Value.
@@ -276,7 +302,7 @@ String showdef()
       StringBuilder sb = new StringBuilder("Interpolated table with points:");
 
       for(int i=0;i<x.length;i++)
-        sb.append((Env.verbose>0? "\n\t\t    " : "\n ") + name
+        sb.append((Env.verbose()>0? "\n\t\t    " : "\n ") + name
                      + "(" + x[i]+ ") = " + y[i] + pref + resUnit);
       return sb.toString();
     }
@@ -293,8 +319,8 @@ String showdef()
   @Override
 void check()
     {
-      if (Env.verbose==2)
-        Env.out.println(location.where() + ". Doing function " + name);
+      if (Env.verbose()==2)
+        Env.out().println(location.where() + ". Doing function " + name);
 
       //---------------------------------------------------------------
       //  Function name must be different from that of alias, unit,
@@ -311,7 +337,7 @@ void check()
 
       catch (EvalError e)
       {
-        Env.out.println
+        Env.out().println
           (location.where() + ". Invalid result unit, '" + resUnit +
            "', of '" + name + "'. " + e.getMessage());
       }
@@ -321,7 +347,7 @@ void check()
       //---------------------------------------------------------------
       if (x.length<=1)
       {
-        Env.out.println
+        Env.out().println
           (location.where() + ". Table '" + name +
            "' has only one data point.");
         return;
@@ -334,7 +360,7 @@ void check()
       for(int i=2;i<x.length;i++)
         if (direction==0 || signum(y[i]-y[i-1]) != direction)
         {
-          Env.out.println
+          Env.out().println
             (location.where() + ". Table '" + name +
              "' lacks unique inverse around entry " +
              Util.shownumber(x[i-1]) + ".");
@@ -381,6 +407,204 @@ String desc()
     { return "<function>"; }
 
 
+  //=====================================================================
+  //  expressions
+  //=====================================================================
+  /**
+   *  Returns the result unit of this function.
+   *
+   *  @return one-element array with the result unit.
+   */
+  @Override
+String[] expressions()
+    { return new String[]{resUnit}; }
+
+
+  //=====================================================================
+  //  prepare
+  //=====================================================================
+  /**
+   *  Parses the result unit.
+   */
+  @Override
+void prepare()
+    {
+      if (circular) return;
+      try
+      { resValue(); }
+      catch (EvalError e)
+      { /* Reported when applied. */ }
+    }
+
+
+  //=====================================================================
+  //  lower
+  //=====================================================================
+  /**
+   *  Lowers application of this function or its inverse
+   *  to a lowered argument (see 'lower' in Expr).
+   *  The lowered function interpolates arrays of arguments
+   *  by 'interpolate' for arrays.
+   *
+   *  @param  arg the lowered argument.
+   *  @param  inv true for the inverse function.
+   *  @return the lowered result, or null if the dimension
+   *          of 'arg' is not accepted by this function.
+   */
+  @Override
+Conversion.Lowered lower(final Conversion.Lowered arg, boolean inv)
+    {
+      Quantity res = result();
+      if (res==null) return null;
+      Conversion unit = Conversion.constant(res.factor);
+
+      if (inv)
+      {
+        if (arg.dim!=res.dim) return null;
+        return new Conversion.Lowered(Dimension.ONE,
+          Conversion.apply(this,Conversion.divide(arg.fn,unit),true));
+      }
+
+      if (arg.dim!=Dimension.ONE) return null;
+      return new Conversion.Lowered(res.dim,
+        Conversion.times(Conversion.apply(this,arg.fn,false),unit));
+    }
+
+
+  //=====================================================================
+  //  parameter
+  //=====================================================================
+  /**
+   *  Obtains reduced dimension of the parameter
+   *  of this function or its inverse.
+   *
+   *  @param  inv true for the inverse function.
+   *  @return the dimension as Quantity: that of a number
+   *          for this function and that of 'resUnit' for the inverse,
+   *          or null if 'resUnit' is not valid.
+   */
+  @Override
+Quantity parameter(boolean inv)
+    { return inv? result() : Quantity.ONE; }
+
+
+  //=====================================================================
+  //  result
+  //=====================================================================
+  /**
+   *  Obtains reduced 'resUnit'.
+   *
+   *  @return the reduced unit as Quantity, or null if not valid.
+   */
+  private Quantity result()
+    {
+      try
+      {
+        Value res = resValue();
+        res.completereduce();
+        return res.quantity();
+      }
+      catch (EvalError e)
+      { return null; }
+    }
+
+
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this function without the parsed result unit.
+   *  The copy shares the tables of values, which are never modified.
+   *
+   *  @return the copy.
+   */
+  @Override
+TabularFunction copy()
+    { return new TabularFunction(name,location,resUnit,x,y); }
+
+
+  //=====================================================================
+  //  write / read
+  //=====================================================================
+  /**
+   *  Writes the result unit and table of this function to a Snapshot.
+   *
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  @Override
+void write(final DataOutput out) throws IOException
+    {
+      out.writeUTF(resUnit);
+      out.writeInt(x.length);
+      for (int i=0;i<x.length;i++)
+      {
+        out.writeDouble(x[i]);
+        out.writeDouble(y[i]);
+      }
+    }
+
+  /**
+   *  Constructs TabularFunction from definition written by 'write'.
+   *
+   *  @param  name function name.
+   *  @param  loc  location where defined.
+   *  @param  in   the input.
+   *  @return the TabularFunction.
+   *  @throws IOException if reading failed.
+   */
+  static TabularFunction read
+    (final String name, final Location loc, final DataInput in)
+    throws IOException
+    {
+      String resUnit = in.readUTF();
+      int n = in.readInt();
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i=0;i<n;i++)
+      {
+        x[i] = in.readDouble();
+        y[i] = in.readDouble();
+      }
+      return new TabularFunction(name,loc,resUnit,x,y);
+    }
+
+
+  //=====================================================================
+  //  interpolate
+  //=====================================================================
+  /**
+   *  Applies this function or its inverse to an array of numbers.
+   *  Arguments of the inverse, and results of the function,
+   *  are numbers of 'resUnit'.
+   *  Arguments sorted in the direction of the table are processed
+   *  by moving through the table once.
+   *
+   *  @param args    the arguments.
+   *  @param results array to receive the results.
+   *                 May be the same as 'args'.
+   *  @param inverse true to apply the inverse.
+   */
+  void interpolate(final double[] args, final double[] results, boolean inverse)
+    {
+      double[] in  = inverse? y : x;
+      double[] out = inverse? x : y;
+      int dir = inverse? ydir : xdir;
+      String inv = inverse? "~" : "";
+
+      int i = 0;
+      for (int k=0;k<args.length;k++)
+      {
+        double inval = args[k];
+        i = segment(inval,in,dir,i);
+        if (i<0)
+          throw new EvalError("Argument " + Util.shownumber(inval) +
+                         " is outside the domain of '" + inv + name + "'.");
+        results[k] = out[i] + (inval-in[i])*(out[i+1]-out[i])/(in[i+1]-in[i]);
+      }
+    }
+
+
   //=====================================================================
   //  interpolate
   //=====================================================================
@@ -391,21 +615,126 @@ String desc()
    *
    *  @param inval numeric input value.
    *  @param in    table of input values.
+   *  @param dir   direction of 'in'.
    *  @param out   table of output values.
    *  @param v     input value with units, for diagnostics.
    *  @param inv   empty string or '~', for disagnostics.
    */
-  private double interpolate(double inval, double[] in, double[] out, Value v, String inv)
+  private double interpolate
+    (double inval, double[] in, int dir, double[] out, Value v, String inv)
     {
-      for(int i=0;i<in.length-1;i++)
-        if ((in[i]<=inval && inval<=in[i+1]) || (in[i]>=inval && inval>=in[i+1]))
-          return out[i] + (inval-in[i])*(out[i+1]-out[i])/(in[i+1]-in[i]);
+      int i = segment(inval,in,dir,-1);
+      if (i>=0)
+        return out[i] + (inval-in[i])*(out[i+1]-out[i])/(in[i+1]-in[i]);
 
       throw new EvalError("Argument " + v.asString() +
                      " is outside the domain of '" + inv + name + "'.");
     }
 
 
+  //=====================================================================
+  //  segment
+  //=====================================================================
+  /**
+   *  Finds the first segment of table 'in' that contains 'inval'.
+   *  Monotonic table is searched forward from segment 'from'
+   *  if 'inval' lies beyond the start of that segment,
+   *  and by binary search otherwise.
+   *
+   *  @param  inval numeric input value.
+   *  @param  in    table of input values.
+   *  @param  dir   direction of 'in'.
+   *  @param  from  segment where to start the search,
+   *                or -1 for binary search.
+   *  @return smallest 'i' such that 'inval' is between 'in[i]'
+   *          and 'in[i+1]', or -1 if there is none.
+   */
+  private static int segment(double inval, double[] in, int dir, int from)
+    {
+      int last = in.length-1;
+
+      //---------------------------------------------------------------
+      //  Table not monotonic: linear search.
+      //---------------------------------------------------------------
+      if (dir==0)
+      {
+        for(int i=0;i<last;i++)
+          if ((in[i]<=inval && inval<=in[i+1]) || (in[i]>=inval && inval>=in[i+1]))
+            return i;
+        return -1;
+      }
+
+      //---------------------------------------------------------------
+      //  Monotonic table. Compare 'dir*value', so that
+      //  the table is increasing.
+      //---------------------------------------------------------------
+      double val = dir*inval;
+      if (!(dir*in[0]<=val && val<=dir*in[last])) return -1;  // Also NaN
+
+      int i;
+      if (from>=0 && from<last && (from==0 || dir*in[from]<val))
+      {
+        i = from;
+        while (dir*in[i+1]<val) i++;
+      }
+      else
+      {
+        int lo = 0;      // Segments before 'lo' end before 'val'
+        int hi = last-1; // Segment 'hi' ends at or after 'val'
+        while (lo<hi)
+        {
+          int mid = (lo+hi)>>>1;
+          if (dir*in[mid+1]<val) lo = mid+1;
+          else hi = mid;
+        }
+        i = lo;
+      }
+      return i;
+    }
+
+
+  //=====================================================================
+  //  resValue
+  //=====================================================================
+  /**
+   *  Obtains Value of 'resUnit', parsing it if needed.
+   *
+   *  @return copy of the Value.
+   */
+  private Value resValue()
+    {
+      if (circular)
+        throw new EvalError("Definition of '" + name + "' is circular.");
+      Value res = resValue;
+      if (res==null)
+      {
+        res = Value.parse(resUnit);
+        resValue = res;
+      }
+      return new Value(res);
+    }
+
+
+  //=====================================================================
+  //  direction
+  //=====================================================================
+  /**
+   *  Finds direction of a table.
+   *
+   *  @param  t the table.
+   *  @return +1 if 't' is strictly increasing, -1 if strictly
+   *          decreasing, 0 otherwise.
+   */
+  private static int direction(final double[] t)
+    {
+      if (t.length<2) return 0;
+      int dir = signum(t[1]-t[0]);
+      for(int i=2;i<t.length;i++)
+        if (signum(t[i]-t[i-1])!=dir) return 0;
+      return dir;
+    }
+
+
   //=====================================================================
   //  signum
   //=====================================================================
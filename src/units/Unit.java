@@ -56,11 +56,24 @@
 //           instead of ignoring re-definition.
 //    120318 In 'check': removed check for name conflict.
 //
+//  Version 1.89.J02
+//    261017 'define' invalidates structures for name resolution.
+//           Table is kept in UnitsEngine.
+//           Use options bound to the current thread.
+//           Table is a Map: a FrozenMap after loading.
+//           Added 'copy'.
+//           Added 'write' and 'read' for Snapshot.
+//           Added constructor with given 'id'; 'read' takes the 'id'.
+//           Added 'accepts' and 'redefined', used also by LazyTables.
+//
 //=========================================================================
 
 package units;
 
-import java.util.Hashtable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
 
 
 
@@ -76,9 +89,10 @@ import java.util.Hashtable;
 class Unit extends Factor
 {
   //-------------------------------------------------------------------
-  /**  Table of Units */
+  /**  Table of Units in the current UnitsEngine. */
   //-------------------------------------------------------------------
-  static Hashtable<String,Unit> table = null;
+  static Map<String,Unit> table()
+    { return UnitsEngine.current().units; }
 
 
   //=====================================================================
@@ -94,6 +108,17 @@ class Unit extends Factor
   Unit(final String name, final Location loc, final String def)
     { super(name,loc,def); }
 
+  /**
+   *  Constructs a Unit object with given 'id' (see 'reserve' in Factor).
+   *
+   *  @param name unit name.
+   *  @param loc  location where defined.
+   *  @param def  definition.
+   *  @param id   the 'id'.
+   */
+  Unit(final String name, final Location loc, final String def, int id)
+    { super(name,loc,def,id); }
+
 
   //=====================================================================
   //  define
@@ -111,6 +136,34 @@ class Unit extends Factor
    */
   static void define
     (final String name, final String def, final Location loc)
+    {
+      if (!accepts(name,loc)) return;
+
+      //---------------------------------------------------------------
+      //  Install the unit in table.
+      //---------------------------------------------------------------
+      Unit old = table().put(name, new Unit(name,loc,def));
+      Tables.namesChanged();
+
+      //---------------------------------------------------------------
+      //  Write a message if an earlier definition was replaced.
+      //---------------------------------------------------------------
+      if (old!=null) redefined(name,old.location,loc);
+    }
+
+
+  //=====================================================================
+  //  accepts
+  //=====================================================================
+  /**
+   *  Checks name of a unit to be defined.
+   *  Writes a message if the unit is ignored.
+   *
+   *  @param  name unit name.
+   *  @param  loc  location of the definition.
+   *  @return true if the name is acceptable.
+   */
+  static boolean accepts(final String name, final Location loc)
     {
       //---------------------------------------------------------------
       // Units with incorrect syntax can never be accessed.
@@ -119,10 +172,10 @@ class Unit extends Factor
 
       if (diag!=null)
       {
-         Env.out.println
+         Env.out().println
            (loc.where() + ". Unit '" + name
             + "' is ignored. Its name " + diag + ".");
-         return;
+         return false;
       }
 
       //---------------------------------------------------------------
@@ -131,26 +184,32 @@ class Unit extends Factor
       if (!hasSubscript(name)
           && "23456789".indexOf(name.charAt(name.length()-1))>=0)
       {
-         Env.out.println
+         Env.out().println
            (loc.where() + ". Unit '" + name
             + "' is ignored. Its name ends with a digit 2-9 without '_'.");
-         return;
+         return false;
       }
 
-      //---------------------------------------------------------------
-      //  Install the unit in table.
-      //---------------------------------------------------------------
-      Unit old = table.put(name, new Unit(name,loc,def));
+      return true;
+    }
 
-      //---------------------------------------------------------------
-      //  Write a message if an earlier definition was replaced.
-      //---------------------------------------------------------------
-      if (old!=null)
-      {
-        Env.out.println
-          ("Unit '" + name + "' defined in " + old.location.where() +
-           ", is redefined in " + loc.where() + ".");
-      }
+
+  //=====================================================================
+  //  redefined
+  //=====================================================================
+  /**
+   *  Writes message about a unit being redefined.
+   *
+   *  @param name unit name.
+   *  @param old  location of the earlier definition.
+   *  @param loc  location of the new definition.
+   */
+  static void redefined
+    (final String name, final Location old, final Location loc)
+    {
+      Env.out().println
+        ("Unit '" + name + "' defined in " + old.where() +
+         ", is redefined in " + loc.where() + ".");
     }
 
 
@@ -167,8 +226,8 @@ class Unit extends Factor
   @Override
 void check()
     {
-      if (Env.verbose==2)
-        Env.out.println(location.where() + ". Doing '" + name + "'");
+      if (Env.verbose()==2)
+        Env.out().println(location.where() + ". Doing '" + name + "'");
 
       //---------------------------------------------------------------
       // check if can be reduced
@@ -181,12 +240,12 @@ void check()
       }
       catch (EvalError e)
       {
-        Env.out.println(location.where() + ". " + e.getMessage());
+        Env.out().println(location.where() + ". " + e.getMessage());
         return;
       }
 
       if (!v.isCompatibleWith(one,Ignore.PRIMITIVE))
-        Env.out.println
+        Env.out().println
           (location.where() + ". Unit '" + name + "' defined as '"
            + def + "' is irreducible.");
     }
@@ -230,6 +289,48 @@ String desc()
     { return (isPrimitive? "<primitive unit>" : "= " + def); }
 
 
+  //=====================================================================
+  //  copy
+  //=====================================================================
+  /**
+   *  Returns a copy of this unit without its reduced form.
+   *
+   *  @return the copy.
+   */
+  @Override
+Unit copy()
+    { return new Unit(name,location,def); }
+
+
+  //=====================================================================
+  //  write / read
+  //=====================================================================
+  /**
+   *  Writes the definition of this Unit to a Snapshot.
+   *
+   *  @param  out the output.
+   *  @throws IOException if writing failed.
+   */
+  @Override
+void write(final DataOutput out) throws IOException
+    { out.writeUTF(def); }
+
+  /**
+   *  Constructs Unit from definition written by 'write'.
+   *
+   *  @param  name unit name.
+   *  @param  loc  location where defined.
+   *  @param  id   the 'id' (see 'reserve' in Factor).
+   *  @param  in   the input.
+   *  @return the Unit.
+   *  @throws IOException if reading failed.
+   */
+  static Unit read
+    (final String name, final Location loc, int id, final DataInput in)
+    throws IOException
+    { return new Unit(name,loc,in.readUTF(),id); }
+
+
   //=====================================================================
   //  find
   //=====================================================================
@@ -248,8 +349,8 @@ String desc()
       //  If 'name' appears as unit name in table,
       //  return object from the table.
       //---------------------------------------------------------------
-      if (Unit.table.containsKey(name))
-        return Unit.table.get(name);
+      if (Unit.table().containsKey(name))
+        return Unit.table().get(name);
 
       //---------------------------------------------------------------
       //  Plural rules for English:
@@ -264,8 +365,8 @@ String desc()
         //  Try removing 's'.
         //-------------------------------------------------------------
         String temp = name.substring(0,ulg-1);
-        if (Unit.table.containsKey(temp))
-          return Unit.table.get(temp);
+        if (Unit.table().containsKey(temp))
+          return Unit.table().get(temp);
 
         //-------------------------------------------------------------
         //  Removing the suffix 's' did not help. It could still be
@@ -274,8 +375,8 @@ String desc()
         if (ulg>3 && name.charAt(ulg-2)=='e')
         {
           temp = name.substring(0,ulg-2);
-          if (Unit.table.containsKey(temp))
-            return Unit.table.get(temp);
+          if (Unit.table().containsKey(temp))
+            return Unit.table().get(temp);
 
           //-----------------------------------------------------------
           //  Removing the suffix 'es' did not help. It could still be
@@ -284,8 +385,8 @@ String desc()
           if (ulg>4 && name.charAt(ulg-3)=='i')
           {
             temp = name.substring(0,ulg-3) + "y";
-            if (Unit.table.containsKey(temp))
-              return Unit.table.get(temp);
+            if (Unit.table().containsKey(temp))
+              return Unit.table().get(temp);
           }
         }
       }
@@ -30,6 +30,11 @@
 //  Version 1.89.J01.
 //    120208 Created.
 //
+//  Version 1.89.J02.
+//    261017 Keep evaluated expressions as Quantities.
+//           Added 'conformsTo'.
+//           Use options bound to the current thread.
+//
 //=========================================================================
 
 package units;
@@ -66,7 +71,7 @@ class UnitList
   //-------------------------------------------------------------------
   /** Evaluated and reduced expressions, checked for compatibility. */
   //-------------------------------------------------------------------
-  Value[] value;
+  Quantity[] value;
 
   //-------------------------------------------------------------------
   /** Indicates handling of the last expression:
@@ -110,7 +115,7 @@ class UnitList
         lg --;
       }
 
-      if (Env.round) round = 0; // Option '-r' overrides ';'
+      if (Env.round()) round = 0; // Option '-r' overrides ';'
 
 
       //---------------------------------------------------------------
@@ -134,20 +139,21 @@ class UnitList
       //---------------------------------------------------------------
       //  Evaluate the expressions.
       //---------------------------------------------------------------
-      value = new Value[n];
+      value = new Quantity[n];
 
       for (i=0;i<n;i++)
       {
         if (unit[i].isEmpty())
            throw new EvalError("Element " + (i+1) + " is empty.");
 
-        value[i] = null;
+        Value v;
         try
-          { value[i] = Value.parse(unit[i]); }
+          { v = Value.parse(unit[i]); }
         catch (EvalError e)
           { throw new EvalError("Element " + (i+1) +
                    " is not valid. " + e.getMessage()); }
-        value[i].completereduce();
+        v.completereduce();
+        value[i] = v.quantity();
       }
 
       //---------------------------------------------------------------
@@ -155,13 +161,30 @@ class UnitList
       //---------------------------------------------------------------
       for (i=1;i<n;i++)
       {
-        if (!value[i-1].isCompatibleWith(value[i],Ignore.DIMLESS))
+        if (!value[i-1].conformsTo(value[i],Ignore.DIMLESS))
           throw new EvalError("Conformability error:" +
                  "\n\t" + unit[i-1] + " = " + value[i-1].asString() +
                  "\n\t" + unit[i] + " = " + value[i].asString());
       }
     }
 
+  //=====================================================================
+  //  conformsTo
+  //=====================================================================
+  /**
+   *  Checks if this unit list conforms to given Value.
+   *
+   *  @param  v the Value to be checked against.
+   *  @return true if this unit list conforms to 'v', false otherwise.
+   */
+  boolean conformsTo(final Value v)
+    {
+      Dimension d = v.dimension();
+      if (d==null) return false;   // 'v' is not reduced
+      return value[0].dim.conformsTo(d,Ignore.DIMLESS);
+    }
+
+
   //=====================================================================
   //  isUnitList
   //=====================================================================
@@ -174,7 +197,7 @@ class UnitList
    */
   static String isUnitList(final String s)
     {
-      Alias alias = Alias.table.get(s);
+      Alias alias = Alias.table().get(s);
       if (alias!=null)
         return alias.unitList;
 
@@ -202,11 +225,11 @@ class UnitList
       //---------------------------------------------------------------
       //  Check compatibility with the list.
       //---------------------------------------------------------------
-      if (!fromValue.isCompatibleWith(value[0],Ignore.DIMLESS))
+      if (!conformsTo(fromValue))
       {
-        Env.out.println("Conformability error");
-        Env.out.println("\t" + fromExpr + " = " + fromValue.asString());
-        Env.out.println("\t" + unit[0] + " = " + value[0].asString());
+        Env.out().println("Conformability error");
+        Env.out().println("\t" + fromExpr + " = " + fromValue.asString());
+        Env.out().println("\t" + unit[0] + " = " + value[0].asString());
         return false;
       }
 
@@ -271,14 +294,14 @@ class UnitList
       //---------------------------------------------------------------
       StringBuilder sb = new StringBuilder();
 
-      if (Env.verbose>0)
+      if (Env.verbose()>0)
       {
         //-------------------------------------------------------------
         //  Standard or verbose
         //-------------------------------------------------------------
         sb.append("\t");
 
-        if (Env.verbose==2) sb.append(fromExpr + " = ");
+        if (Env.verbose()==2) sb.append(fromExpr + " = ");
 
         String sep = "";
         for (int i=0;i<n;i++)
@@ -321,7 +344,7 @@ class UnitList
           sb.append(";+");
       }
 
-      Env.out.println(sb.toString());
+      Env.out().println(sb.toString());
       return true;
     }
 
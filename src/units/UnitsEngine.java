@@ -0,0 +1,1111 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Freeze the tables after loading.
+//           Keep standard engine in AtomicReference. Added 'reload'.
+//           Added overlay files: 'overlay' and 'update'.
+//           Build DependencyGraph in 'load'; 'overlay' uses it to find
+//           stale entities and derives the graph of the new engine.
+//           Mark circular definitions in 'load' and 'overlay'.
+//           Added 'reduce'; used by 'reload' and for entities added by 'overlay'.
+//           Prepare the definition files concurrently in 'read'.
+//           Moved the end of 'load' to 'complete', also used by Snapshot.
+//           Added 'lazy' and 'loadLazily'; 'circular' is package-private.
+//           Added 'completeLater'.
+//           Added 'conversion'.
+//           Added 'watch' and 'pin'.
+//           Documented sharing of 'dimensions' by overlays.
+//           'stale' looks up names by 'candidates'.
+//           'circular' writes messages in order of definitions.
+//           'dimensions' holds Dimensions weakly, so it does not grow
+//           without bound.
+//           Added 'repin'.
+//
+//=========================================================================
+
+package units;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class UnitsEngine
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  A units database: tables of units, prefixes, functions,
+ *  and unit lists built from a set of definition files,
+ *  together with everything derived from them.
+ *  <p>
+ *  The tables are accessed through static methods such as
+ *  'table' in Unit. These methods use the engine bound
+ *  to the current thread by 'enter', or the standard engine
+ *  if none is bound. The standard engine is the one built by 'build'
+ *  in Tables; the program invoked from command line or GUI
+ *  uses only that engine.
+ *  <p>
+ *  When loading is complete, the tables become read-only
+ *  (see FrozenMap) and can be read by many threads without locking.
+ *  <p>
+ *  A loaded engine is never modified. To reload the definition
+ *  files, 'reload' builds a new engine and then replaces the standard
+ *  engine by one atomic operation. Conversions that started
+ *  with the old engine finish with it: 'convert', the command line,
+ *  and the GUI bind the engine by 'pin' for each conversion.
+ *  A UnitsWatcher, started by 'watch' or option -W, invokes
+ *  'reload' when the files change.
+ *  <p>
+ *  Definitions that change often, such as currency rates, can be
+ *  kept in overlay files. The method 'update' builds a new engine
+ *  from the standard one and an overlay file, and replaces
+ *  the standard engine by it in the same way as 'reload'.
+ *  The new engine shares with the old one all entities whose
+ *  definitions do not depend on the redefined ones, together with
+ *  their reduced forms, so the tables need not be built again.
+ *  <p>
+ *  Other engines can be built by 'load' and used by 'convert'
+ *  or between 'enter' and 'leave'. Each engine is independent
+ *  of others; entities of one engine must only be used while
+ *  that engine is bound. A loaded engine can be used by several
+ *  threads at the same time, each with its own Env.Options.
+ */
+
+class UnitsEngine
+{
+  //-------------------------------------------------------------------
+  //  Tables. They are Hashtables while being loaded, and are replaced
+  //  by FrozenMaps when loading is complete.
+  //-------------------------------------------------------------------
+  volatile Map<String,Unit> units
+    = new Hashtable<String,Unit>();
+  volatile Map<String,Prefix> prefixes
+    = new Hashtable<String,Prefix>();
+  volatile Map<String,BuiltInFunction> builtins
+    = new Hashtable<String,BuiltInFunction>();
+  volatile Map<String,DefinedFunction> functions
+    = new Hashtable<String,DefinedFunction>();
+  volatile Map<String,Alias> aliases
+    = new Hashtable<String,Alias>();
+
+  //-------------------------------------------------------------------
+  /** Trie for resolving unit and prefix names, or null if not built. */
+  //-------------------------------------------------------------------
+  volatile NameTrie trie = null;
+
+  //-------------------------------------------------------------------
+  /** Cache for resolving unit and prefix names, or null if not built. */
+  //-------------------------------------------------------------------
+  volatile NameCache cache = null;
+
+  //-------------------------------------------------------------------
+  /** Definitions not yet constructed, or null if loaded eagerly. */
+  //-------------------------------------------------------------------
+  volatile LazyTables lazy = null;
+
+  //-------------------------------------------------------------------
+  /** Dependencies between entities, or null if not built. */
+  //-------------------------------------------------------------------
+  volatile DependencyGraph graph = null;
+
+  //-------------------------------------------------------------------
+  /** Interned Dimensions (see Dimension). Shared by an engine
+      and all engines built from it by 'overlay'. */
+  //-------------------------------------------------------------------
+  final Dimension.Table dimensions;
+
+  //-------------------------------------------------------------------
+  /** Unit definition files. Extended with include files by 'load'. */
+  //-------------------------------------------------------------------
+  final Vector<String> filenames;
+
+  //-------------------------------------------------------------------
+  /** Unit definition files as specified, without include files. */
+  //-------------------------------------------------------------------
+  final Vector<String> sources;
+
+  //-------------------------------------------------------------------
+  /** Overlay files applied after 'sources', in order of application. */
+  //-------------------------------------------------------------------
+  final Vector<String> overlays;
+
+  //-------------------------------------------------------------------
+  /** Locale for the definition files. */
+  //-------------------------------------------------------------------
+  final String locale;
+
+  //-------------------------------------------------------------------
+  //  The standard engine, and engines bound to threads.
+  //-------------------------------------------------------------------
+  private static final AtomicReference<UnitsEngine> standard
+    = new AtomicReference<UnitsEngine>(new UnitsEngine());
+
+  private static final ThreadLocal<UnitsEngine> bound
+    = new ThreadLocal<UnitsEngine>();
+
+
+  //=====================================================================
+  //  Constructors
+  //=====================================================================
+  /**
+   *  Constructs engine with empty tables,
+   *  to be filled by 'load'.
+   *
+   *  @param filenames unit definition files.
+   *  @param locale    locale for the definition files.
+   */
+  UnitsEngine(final Vector<String> filenames, final String locale)
+    {
+      this.filenames = filenames;
+      this.sources = new Vector<String>(filenames);
+      this.overlays = new Vector<String>();
+      this.locale = locale;
+      this.dimensions = new Dimension.Table();
+    }
+
+  /**
+   *  Constructs engine with empty tables, to be filled by 'overlay'.
+   *  It has the files of a given engine, followed by an overlay file.
+   *  It shares the interned Dimensions with the given engine,
+   *  so that the shared entities and their reduced forms
+   *  can be used in both.
+   *  <p>
+   *  The table of Dimensions thus receives the Dimensions of all
+   *  engines in a sequence of updates. A table of its own for each
+   *  engine would not work: a shared entity may reduce its definition,
+   *  and a shared Dimension may compute its inverse, when first
+   *  needed, and the resulting Dimension must be identical
+   *  in all engines that share the entity. The table does not grow
+   *  without bound: it holds Dimensions weakly, so it keeps only
+   *  those still used, by the entities of live engines
+   *  or by computations in progress.
+   *
+   *  @param base    the engine.
+   *  @param overlay name of the overlay file.
+   *  @param files   the overlay file and its include files.
+   */
+  private UnitsEngine
+    (final UnitsEngine base, final String overlay, final Vector<String> files)
+    {
+      filenames = new Vector<String>(base.filenames);
+      for (String f: files)
+        if (!filenames.contains(f)) filenames.add(f);
+      sources = base.sources;
+      overlays = new Vector<String>(base.overlays);
+      overlays.remove(overlay);
+      overlays.add(overlay);
+      locale = base.locale;
+      dimensions = base.dimensions;
+    }
+
+  /**
+   *  Constructs engine with empty tables and no files.
+   *  Used as standard engine until tables are built.
+   */
+  UnitsEngine()
+    { this(new Vector<String>(),Env.LOCALE); }
+
+
+  //=====================================================================
+  //  current
+  //=====================================================================
+  /**
+   *  Obtains the engine in effect for the current thread.
+   *
+   *  @return engine bound to this thread, or the standard engine.
+   */
+  static UnitsEngine current()
+    {
+      UnitsEngine e = bound.get();
+      return e!=null? e : standard.get();
+    }
+
+
+  //=====================================================================
+  //  standard
+  //=====================================================================
+  /**
+   *  Obtains the standard engine.
+   *
+   *  @return the standard engine.
+   */
+  static UnitsEngine standard()
+    { return standard.get(); }
+
+
+  //=====================================================================
+  //  setStandard
+  //=====================================================================
+  /**
+   *  Makes given engine the standard engine.
+   *
+   *  @param e the engine.
+   */
+  static void setStandard(final UnitsEngine e)
+    { standard.set(e); }
+
+
+  //=====================================================================
+  //  reload
+  //=====================================================================
+  /**
+   *  Builds a new engine from the definition files of the standard
+   *  engine, applies to it the overlay files of the standard engine,
+   *  reduces all its units and prefixes (see 'reduce'),
+   *  and, if successful, makes it the standard engine.
+   *  The standard engine remains in use while the new one is built.
+   *  If loading fails, or another thread replaced the standard
+   *  engine in the meantime, the new engine is discarded.
+   *
+   *  @param  opts options for messages about the definitions,
+   *          or null to use the defaults in Env.
+   *  @return the new standard engine, or null if not replaced.
+   */
+  static UnitsEngine reload(final Env.Options opts)
+    {
+      UnitsEngine old = standard.get();
+      UnitsEngine e = new UnitsEngine(new Vector<String>(old.sources),old.locale);
+      if (!e.load(opts)) return null;
+      for (String overlay: old.overlays)
+      {
+        e = e.overlay(overlay,opts);
+        if (e==null) return null;
+      }
+      e.reduce(opts);
+      return standard.compareAndSet(old,e)? e : null;
+    }
+
+
+  //=====================================================================
+  //  update
+  //=====================================================================
+  /**
+   *  Builds a new engine from the standard engine and an overlay file
+   *  (see 'overlay') and, if successful, makes it the standard engine.
+   *  The standard engine remains in use while the new one is built.
+   *  If reading the file fails, or another thread replaced
+   *  the standard engine in the meantime, the new engine is discarded.
+   *  <p>
+   *  The file is remembered and applied again by 'reload'.
+   *
+   *  @param  filename the overlay file.
+   *  @param  opts options for messages about the definitions,
+   *          or null to use the defaults in Env.
+   *  @return the new standard engine, or null if not replaced.
+   */
+  static UnitsEngine update(final String filename, final Env.Options opts)
+    {
+      UnitsEngine old = standard.get();
+      UnitsEngine e = old.overlay(filename,opts);
+      if (e==null) return null;
+      return standard.compareAndSet(old,e)? e : null;
+    }
+
+
+  //=====================================================================
+  //  watch
+  //=====================================================================
+  /**
+   *  Starts a UnitsWatcher that reloads the definition files
+   *  of the standard engine when they change.
+   *
+   *  @param  interval polling interval in milliseconds.
+   *  @param  opts     options for messages from reloading,
+   *                   or null to use the defaults in Env.
+   *  @return the started UnitsWatcher, to be stopped by 'stop'.
+   */
+  static UnitsWatcher watch(long interval, final Env.Options opts)
+    {
+      UnitsWatcher w = new UnitsWatcher(interval,opts);
+      w.start();
+      return w;
+    }
+
+
+  //=====================================================================
+  //  enter / leave
+  //=====================================================================
+  /**
+   *  Binds this engine to the current thread.
+   *  Must be followed by 'leave', normally in a 'finally' clause.
+   *
+   *  @return engine bound before, to be passed to 'leave'.
+   */
+  UnitsEngine enter()
+    {
+      UnitsEngine prev = bound.get();
+      bound.set(this);
+      return prev;
+    }
+
+  /**
+   *  Restores the binding that was in effect before 'enter'.
+   *
+   *  @param prev the result of 'enter'.
+   */
+  static void leave(final UnitsEngine prev)
+    {
+      if (prev==null) bound.remove();
+      else bound.set(prev);
+    }
+
+  /**
+   *  Binds the current engine to the current thread, so that
+   *  a conversion uses one engine from start to end even if
+   *  'reload' or 'update' replaces the standard engine meanwhile.
+   *  Must be followed by 'leave', normally in a 'finally' clause.
+   *
+   *  @return engine bound before, to be passed to 'leave'.
+   */
+  static UnitsEngine pin()
+    { return current().enter(); }
+
+  /**
+   *  Binds the standard engine to the current thread in place of
+   *  the one bound by 'pin', for the next conversion by a thread
+   *  that does several. The binding is still ended by 'leave'
+   *  with the result of 'pin'.
+   */
+  static void repin()
+    { bound.set(standard()); }
+
+
+  //=====================================================================
+  //  load
+  //=====================================================================
+  /**
+   *  Fills the tables from definition files.
+   *
+   *  @param  opts options for messages about the definitions,
+   *          or null to use the defaults in Env.
+   *  @return true if success, false otherwise.
+   */
+  boolean load(final Env.Options opts)
+    {
+      UnitsEngine prev = enter();
+      Env.Options prevOpts = Env.enter(opts);
+      try
+      {
+        //-------------------------------------------------------------
+        //  Read unit definitions.
+        //-------------------------------------------------------------
+        if (!read()) return false;
+
+        //-------------------------------------------------------------
+        //  Add built-in functions, freeze the tables, and build
+        //  the graph of dependencies.
+        //-------------------------------------------------------------
+        complete();
+        DependencyGraph.build();
+
+        //-------------------------------------------------------------
+        //  Find and mark circular definitions.
+        //-------------------------------------------------------------
+        circular(graph(),DependencyGraph.entities(this));
+
+        return true;
+      }
+      finally
+      {
+        Env.leave(prevOpts);
+        leave(prev);
+      }
+    }
+
+
+  //=====================================================================
+  //  loadLazily
+  //=====================================================================
+  /**
+   *  Loads definitions from the files as 'load' does, but does not
+   *  construct units, prefixes, and defined functions: they are
+   *  constructed when first obtained from the tables (see LazyTables).
+   *  Messages about definitions of functions are written only then.
+   *  There is no trie and cache for resolving names
+   *  until they are built by 'completeLater'.
+   *
+   *  @param  opts options for messages about the definitions,
+   *          or null to use the defaults in Env.
+   *  @return true if success, false otherwise.
+   */
+  boolean loadLazily(final Env.Options opts)
+    {
+      UnitsEngine prev = enter();
+      Env.Options prevOpts = Env.enter(opts);
+      try
+      {
+        //-------------------------------------------------------------
+        //  Read the files, building the index of definitions.
+        //-------------------------------------------------------------
+        lazy = new LazyTables(this);
+        units = lazy.units;
+        prefixes = lazy.prefixes;
+        functions = lazy.functions;
+        if (!read()) return false;
+
+        //-------------------------------------------------------------
+        //  Add built-in functions and freeze the other tables.
+        //-------------------------------------------------------------
+        BuiltInFunction.makeTable();
+        builtins = new FrozenMap<BuiltInFunction>(builtins);
+        aliases = new FrozenMap<Alias>(aliases);
+        return true;
+      }
+      finally
+      {
+        Env.leave(prevOpts);
+        leave(prev);
+      }
+    }
+
+
+  //=====================================================================
+  //  completeLater
+  //=====================================================================
+  /**
+   *  Completes in the background an engine loaded by 'loadLazily',
+   *  while it is being used (see 'background' in Workers).
+   *  The engine serves conversions all the time, and becomes faster
+   *  as each step is done:
+   *  <ul>
+   *  <li>constructs all entities;
+   *  <li>builds trie and cache for resolving unit and prefix names;
+   *  <li>reduces all units and prefixes (see 'reduce');
+   *  <li>prepares the defined functions for applications
+   *      (see 'prepare' in DefinedFunction).
+   *  </ul>
+   *  The steps only fill what the engine would otherwise
+   *  compute when needed, so the results do not change.
+   *
+   *  @param opts options for messages about the definitions,
+   *              or null to use the defaults in Env.
+   */
+  void completeLater(final Env.Options opts)
+    {
+      Workers.background(new Runnable()
+        {
+          public void run()
+            {
+              UnitsEngine prev = enter();
+              Env.Options prevOpts = Env.enter(opts);
+              try
+              {
+                lazy.constructAll();
+
+                //-----------------------------------------------------
+                //  Names are resolved by the tables until the cache
+                //  is installed.
+                //-----------------------------------------------------
+                NameTrie.build();
+                NameCache.build();
+
+                reduce(opts);
+
+                for (DefinedFunction f: functions.values())
+                  f.prepare();
+              }
+              finally
+              {
+                Env.leave(prevOpts);
+                leave(prev);
+              }
+            }
+        });
+    }
+
+
+  //=====================================================================
+  //  complete
+  //=====================================================================
+  /**
+   *  Completes the tables filled by 'read' or by Snapshot:
+   *  fills the table of built-in functions, freezes the tables,
+   *  and builds trie and cache for resolving unit and prefix names.
+   *  Must be invoked with this engine bound to the current thread.
+   */
+  void complete()
+    {
+      //---------------------------------------------------------------
+      //  Fill table of built-in functions.
+      //---------------------------------------------------------------
+      BuiltInFunction.makeTable();
+
+      //---------------------------------------------------------------
+      //  Freeze the tables.
+      //---------------------------------------------------------------
+      freeze();
+
+      //---------------------------------------------------------------
+      //  Build trie and cache for resolving unit and prefix names.
+      //---------------------------------------------------------------
+      NameTrie.build();
+      NameCache.build();
+    }
+
+
+  //=====================================================================
+  //  read
+  //=====================================================================
+  /**
+   *  Reads the definition files into the tables.
+   *  Must be invoked with this engine bound to the current thread.
+   *
+   *  @return true if success, false otherwise.
+   */
+  private boolean read()
+    {
+      //---------------------------------------------------------------
+      //  Check number of files.
+      //---------------------------------------------------------------
+      if (filenames.size()>=Env.MAXFILES)
+      {
+        Env.out().println
+          ("At most " + Env.MAXFILES + " unit definition files are allowed.");
+        return false;
+      }
+
+      //---------------------------------------------------------------
+      //  Read and parse the files concurrently, then define
+      //  their entities in file order.
+      //  Note that 'filenames' may be extended with include files
+      //  by 'file.apply'; we do not want to process them.
+      //---------------------------------------------------------------
+      List<UnitsFile> files = new ArrayList<UnitsFile>();
+      for (String filename: filenames)
+        files.add(new UnitsFile(filename.length()==0? Env.UNITSFILE : filename));
+      UnitsFile.prepare(files,0);
+
+      for (UnitsFile file: files)
+      {
+        boolean ok = file.apply();
+        if (!ok) return false;
+      }
+      return true;
+    }
+
+
+  //=====================================================================
+  //  overlay
+  //=====================================================================
+  /**
+   *  Builds a new engine that has the definitions of this engine,
+   *  replaced or extended by definitions from an overlay file.
+   *  The file has the same syntax as other definition files.
+   *  This engine is not modified.
+   *  <p>
+   *  The new engine shares with this engine every entity
+   *  whose definition uses only names that resolve to the same
+   *  shared entities in both engines. Other entities are replaced
+   *  by their copies (see 'copy' in Entity), so that their reduced
+   *  forms and compiled definitions are computed again from
+   *  the new definitions when needed.
+   *
+   *  @param  filename the overlay file.
+   *  @param  opts options for messages about the definitions,
+   *          or null to use the defaults in Env.
+   *  @return the new engine, or null if the file could not be read.
+   */
+  UnitsEngine overlay(final String filename, final Env.Options opts)
+    {
+      //---------------------------------------------------------------
+      //  Read the overlay file into tables of its own.
+      //---------------------------------------------------------------
+      Vector<String> files = new Vector<String>();
+      files.add(filename);
+      UnitsEngine over = new UnitsEngine(files,locale);
+
+      UnitsEngine prev = over.enter();
+      Env.Options prevOpts = Env.enter(opts);
+      try
+      {
+        if (!over.read()) return null;
+      }
+      finally
+      {
+        Env.leave(prevOpts);
+        leave(prev);
+      }
+
+      //---------------------------------------------------------------
+      //  Construct tables of the new engine: those of this engine
+      //  with entities from the overlay replacing or added to them.
+      //---------------------------------------------------------------
+      UnitsEngine e = new UnitsEngine(this,filename,over.filenames);
+      e.units     = merge(units,over.units);
+      e.prefixes  = merge(prefixes,over.prefixes);
+      e.builtins  = merge(builtins,over.builtins);
+      e.functions = merge(functions,over.functions);
+      e.aliases   = merge(aliases,over.aliases);
+
+      prev = e.enter();
+      prevOpts = Env.enter(opts);
+      try
+      {
+        //-------------------------------------------------------------
+        //  Replace entities that depend on the overlay by their copies.
+        //  The trie is needed to resolve names in the new engine.
+        //-------------------------------------------------------------
+        NameTrie.build();
+        List<Entity> added = DependencyGraph.entities(over);
+        Set<Entity> stale = stale(e,added);
+        renew(e.units,stale,added);
+        renew(e.prefixes,stale,added);
+        renew(e.builtins,stale,added);
+        renew(e.functions,stale,added);
+        renew(e.aliases,stale,added);
+
+        //-------------------------------------------------------------
+        //  Freeze the tables and build trie and cache
+        //  with the final entities. Derive the dependency graph
+        //  from that of this engine.
+        //-------------------------------------------------------------
+        e.freeze();
+        NameTrie.build();
+        NameCache.build();
+        e.graph = new DependencyGraph(graph(),stale,added);
+
+        //-------------------------------------------------------------
+        //  Find and mark circular definitions among the new entities,
+        //  and reduce the new units and prefixes.
+        //  (A cycle through a shared entity would make it stale.)
+        //-------------------------------------------------------------
+        e.circular(e.graph(),added);
+        e.reduce(added,opts);
+        return e;
+      }
+      finally
+      {
+        Env.leave(prevOpts);
+        leave(prev);
+      }
+    }
+
+
+  //=====================================================================
+  //  circular
+  //=====================================================================
+  /**
+   *  Finds groups of entities whose definitions depend on each other,
+   *  marks them as circular, and writes a message for each of them.
+   *  The messages are written in the order of definitions
+   *  (see 'byLocation').
+   *  Reducing or applying a circular entity throws EvalError.
+   *  Must be invoked with this engine bound to the current thread.
+   *
+   *  @param g     graph containing the entities.
+   *  @param nodes entities to be checked.
+   */
+  void circular(final DependencyGraph g, final List<Entity> nodes)
+    {
+      Comparator<Entity> order = byLocation();
+      List<Entity> found = new ArrayList<Entity>();
+      Map<Entity,String> reason = new IdentityHashMap<Entity,String>();
+
+      for (List<Entity> cycle: g.cycles(nodes))
+      {
+        Collections.sort(cycle,order);
+        String why = "it depends on itself";
+        if (cycle.size()>1)
+        {
+          StringBuilder names = new StringBuilder();
+          for (Entity x: cycle)
+            names.append(names.length()==0? "'" : ", '").append(x.name).append("'");
+          why = names + " depend on each other";
+        }
+
+        for (Entity x: cycle)
+        {
+          x.circular = true;
+          found.add(x);
+          reason.put(x,why);
+        }
+      }
+
+      Collections.sort(found,order);
+      for (Entity x: found)
+        Env.out().println
+          (x.location.where() + ". Definition of '" + x.name
+           + "' is circular: " + reason.get(x) + ".");
+    }
+
+
+  //=====================================================================
+  //  byLocation
+  //=====================================================================
+  /**
+   *  Obtains Comparator that orders entities of this engine
+   *  by the locations of their definitions: by file,
+   *  in the order of 'filenames', then by position in the file.
+   *
+   *  @return the Comparator.
+   */
+  private Comparator<Entity> byLocation()
+    {
+      final Map<String,Integer> rank = new HashMap<String,Integer>();
+      for (String name: filenames)
+        if (!rank.containsKey(name)) rank.put(name,rank.size());
+
+      return new Comparator<Entity>()
+        {
+          public int compare(Entity x, Entity y)
+            {
+              int c = rank(x) - rank(y);
+              if (c!=0) return c;
+              return position(x) - position(y);
+            }
+
+          private int rank(Entity x)
+            {
+              if (x.location==null || x.location.file==null) return -1;
+              Integer r = rank.get(x.location.file.name);
+              return r==null? rank.size() : r;
+            }
+
+          private int position(Entity x)
+            { return x.location==null? -1 : x.location.beginChar; }
+        };
+    }
+
+
+  //=====================================================================
+  //  reduce
+  //=====================================================================
+  /**
+   *  Computes reduced forms of all units and prefixes
+   *  (see 'reduced' in Factor), so that they are ready for use.
+   *  The entities are reduced in levels obtained from the dependency
+   *  graph, each level after those it depends on. Entities of a level
+   *  are reduced in parallel by Workers. Definitions that cannot
+   *  be reduced are skipped; they cause errors when used.
+   *
+   *  @param opts options for the reduction,
+   *              or null to use the defaults in Env.
+   */
+  void reduce(final Env.Options opts)
+    { reduce(DependencyGraph.entities(this),opts); }
+
+  /**
+   *  Computes reduced forms of given units and prefixes.
+   *
+   *  @param nodes the entities. Other entities are ignored.
+   *  @param opts  options for the reduction,
+   *               or null to use the defaults in Env.
+   */
+  private void reduce(final List<Entity> nodes, final Env.Options opts)
+    {
+      for (List<Entity> level: graph().levels(nodes))
+      {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final List<Entity> part: Workers.split(level,64))
+        {
+          tasks.add(new Runnable()
+            {
+              public void run()
+                {
+                  UnitsEngine prev = enter();
+                  Env.Options prevOpts = Env.enter(opts);
+                  try
+                  {
+                    for (Entity x: part)
+                    {
+                      if (!(x instanceof Factor)) continue;
+                      try
+                      { ((Factor)x).reduced(); }
+                      catch (EvalError e)
+                      { /* Reported by 'check' and when used. */ }
+                    }
+                  }
+                  finally
+                  {
+                    Env.leave(prevOpts);
+                    leave(prev);
+                  }
+                }
+            });
+        }
+        Workers.run(tasks);
+      }
+    }
+
+
+  //=====================================================================
+  //  merge
+  //=====================================================================
+  /**
+   *  Constructs a table with entries of 'base' followed by those
+   *  of 'over'. An entry of 'over' replaces the entry of 'base'
+   *  with the same name, keeping its position.
+   */
+  private static <V> Map<String,V> merge
+    (final Map<String,V> base, final Map<String,V> over)
+    {
+      Map<String,V> m = new LinkedHashMap<String,V>(base);
+      m.putAll(over);
+      return m;
+    }
+
+
+  //=====================================================================
+  //  stale
+  //=====================================================================
+  /**
+   *  Finds entities of this engine that depend on entities defined
+   *  by an overlay: the entities replaced by them, and entities
+   *  with names in their definitions that resolve differently
+   *  in the new engine, together with all their dependents
+   *  (see 'dependents' in DependencyGraph).
+   *  A name can resolve differently only if it may stand for
+   *  an entity that the overlay added (see 'candidates');
+   *  such names are looked up in the sorted names of the graph
+   *  (see 'startingWith' and 'endingWith' in DependencyGraph),
+   *  so the time does not grow with the number of other names.
+   *
+   *  @param  e       the new engine, bound to the current thread,
+   *                  with tables not frozen and trie built.
+   *  @param  defined entities defined by the overlay.
+   *  @return the entities.
+   */
+  private Set<Entity> stale(final UnitsEngine e, final List<Entity> defined)
+    {
+      DependencyGraph g = graph();
+      Set<Entity> roots = new HashSet<Entity>();
+
+      for (Entity x: defined)
+      {
+        Entity old = tableOf(x).get(x.name);
+        if (old!=null)
+        {
+          roots.add(old);
+          continue;
+        }
+
+        for (String name: candidates(g,x))
+        {
+          Entity[] theirs = DependencyGraph.resolve(name);
+          Entity[] mine;
+          UnitsEngine prev = enter();
+          try
+          { mine = DependencyGraph.resolve(name); }
+          finally
+          { leave(prev); }
+          for (int i=0;i<mine.length;i++)
+            if (mine[i]!=theirs[i]) roots.addAll(g.mentioning(name));
+        }
+      }
+
+      return g.dependents(roots);
+    }
+
+
+  //=====================================================================
+  //  candidates
+  //=====================================================================
+  /**
+   *  Finds names in definitions that may stand for a given entity
+   *  (see 'resolve' in DependencyGraph): for a prefix, names that
+   *  begin with its name; for a unit, names that end with its name
+   *  or its plural form (see 'find' in Unit); for other entities,
+   *  their name.
+   *
+   *  @param  g the dependency graph.
+   *  @param  x the entity.
+   *  @return the names.
+   */
+  private static Set<String> candidates
+    (final DependencyGraph g, final Entity x)
+    {
+      Set<String> c = new HashSet<String>();
+      String name = x.name;
+      if (x instanceof Prefix)
+        c.addAll(g.startingWith(name));
+      else if (x instanceof Unit)
+      {
+        c.addAll(g.endingWith(name));
+        c.addAll(g.endingWith(name + "s"));
+        c.addAll(g.endingWith(name + "es"));
+        if (name.endsWith("y"))
+          c.addAll(g.endingWith(name.substring(0,name.length()-1) + "ies"));
+      }
+      else if (!g.mentioning(name).isEmpty())
+        c.add(name);
+      return c;
+    }
+
+
+  //=====================================================================
+  //  tableOf
+  //=====================================================================
+  /**
+   *  Obtains the table of this engine for entities of the same kind
+   *  as a given entity.
+   */
+  private Map<String,? extends Entity> tableOf(final Entity x)
+    {
+      if (x instanceof Unit) return units;
+      if (x instanceof Prefix) return prefixes;
+      if (x instanceof BuiltInFunction) return builtins;
+      if (x instanceof DefinedFunction) return functions;
+      return aliases;
+    }
+
+
+  //=====================================================================
+  //  graph
+  //=====================================================================
+  /**
+   *  Obtains the dependency graph of this engine.
+   *  It is built by 'load', or here if the engine was not loaded.
+   *
+   *  @return the graph.
+   */
+  DependencyGraph graph()
+    {
+      DependencyGraph g = graph;
+      if (g!=null) return g;
+      UnitsEngine prev = enter();
+      try
+      { g = new DependencyGraph(); }
+      finally
+      { leave(prev); }
+      graph = g;
+      return g;
+    }
+
+
+  //=====================================================================
+  //  renew
+  //=====================================================================
+  /**
+   *  Replaces given entities in a table by their copies,
+   *  and adds the copies to a list.
+   */
+  @SuppressWarnings("unchecked")
+  private static <V extends Entity> void renew
+    (final Map<String,V> table, final Set<Entity> stale,
+     final List<Entity> copies)
+    {
+      for (Map.Entry<String,V> entry: table.entrySet())
+      {
+        if (!stale.contains(entry.getValue())) continue;
+        V x = (V)entry.getValue().copy();
+        entry.setValue(x);
+        copies.add(x);
+      }
+    }
+
+
+  //=====================================================================
+  //  freeze
+  //=====================================================================
+  /**
+   *  Replaces the tables by their read-only copies,
+   *  that can be read without synchronization.
+   */
+  private void freeze()
+    {
+      units     = new FrozenMap<Unit>(units);
+      prefixes  = new FrozenMap<Prefix>(prefixes);
+      builtins  = new FrozenMap<BuiltInFunction>(builtins);
+      functions = new FrozenMap<DefinedFunction>(functions);
+      aliases   = new FrozenMap<Alias>(aliases);
+    }
+
+
+  //=====================================================================
+  //  convert
+  //=====================================================================
+  /**
+   *  Performs a conversion using this engine and given options,
+   *  as it would be performed by 'convert' invoked with arguments
+   *  'havestr' and 'wantstr'. The result and error messages
+   *  are written to the 'out' of options.
+   *
+   *  @param  havestr expression specifying the value to be converted.
+   *  @param  wantstr string specifying the desired result.
+   *  @param  opts    options, or null to use the defaults in Env.
+   *  @return true if conversion was successful, false otherwise.
+   */
+  boolean convert
+    (final String havestr, final String wantstr, final Env.Options opts)
+    {
+      UnitsEngine prev = enter();
+      Env.Options prevOpts = Env.enter(opts);
+      try
+      {
+        Value have = Value.fromString(havestr.trim());
+        if (have==null) return false;
+        return Env.convert(havestr.trim(),have,wantstr.trim());
+      }
+      finally
+      {
+        Env.leave(prevOpts);
+        leave(prev);
+      }
+    }
+
+
+  //=====================================================================
+  //  conversion
+  //=====================================================================
+  /**
+   *  Constructs numeric conversion between two units or functions
+   *  of this engine (see 'of' in Conversion), for converting
+   *  many numbers the same way. The names are resolved and
+   *  the dimensions checked here, once; the Conversion does not
+   *  use the engine afterwards.
+   *
+   *  @param  from unit expression or function name to convert from.
+   *  @param  to   unit expression or function name to convert to.
+   *  @return the Conversion.
+   *  @throws EvalError if the two are not conformable,
+   *          or the conversion cannot be compiled.
+   */
+  Conversion conversion(final String from, final String to)
+    {
+      UnitsEngine prev = enter();
+      try
+      { return Conversion.of(from,to); }
+      finally
+      { leave(prev); }
+    }
+}
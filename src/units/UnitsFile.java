@@ -43,18 +43,42 @@
 //    120201 Restructured to use File Parser.
 //    120326 'FileAcc' moved from Env to UntisFile.
 //
+//  Version 1.89.J02.
+//    261017 Use options bound to the current thread.
+//           Split 'readunits' into 'prepare' and 'apply'. Definition lines
+//           are parsed in parallel chunks and included files prepared
+//           concurrently; the definitions are applied in file order.
+//           Added 'text' and 'contents()' for files of a mapped snapshot.
+//           'prepare' maps or reads the file and decodes it at once; lines
+//           are passed to the parser as SourceChars, without copying them.
+//           Index definition lines instead of parsing them when loading lazily.
+//           Contents are not kept: 'contents' reads them again when needed,
+//           checking length and hash code saved by 'prepare'. Added 'stamp'.
+//           'prepare' drops blank, comment and wrong-locale lines
+//           while scanning, and parses commands as found.
+//           'prepare' scans all files, with included files, before parsing
+//           the chunks of all of them by one set of parallel tasks.
+//           Error in reading reports the line reached, as before.
+//
 //=========================================================================
 
 package units;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 
 
@@ -80,16 +104,58 @@ class UnitsFile
   String name;
 
   //-------------------------------------------------------------------
-  //  String-mapped contents of the file.
-  //  It is used to show source in browser window.
+  //  Contents of the file in a mapped snapshot, or null if none
+  //  (see MappedSnapshot).
+  //-------------------------------------------------------------------
+  CharSequence text;
+
+  //-------------------------------------------------------------------
+  //  Length and hash code of the contents when the file was read,
+  //  or length -1 if not known. Used to check that the contents
+  //  are the same when read again.
   //-------------------------------------------------------------------
-  String contents;
+  private int length = -1;
+  private int hash;
+
+  //-------------------------------------------------------------------
+  //  Contents obtained by 'contents', kept until memory is needed.
+  //-------------------------------------------------------------------
+  private SoftReference<String> contents = null;
 
   //-------------------------------------------------------------------
   //  Character encoding assumed for the file.
   //-------------------------------------------------------------------
   private static final Charset cs = Charset.forName("UTF-8");
 
+  //-------------------------------------------------------------------
+  //  Minimum number of definition lines parsed by one task.
+  //-------------------------------------------------------------------
+  private static final int CHUNK = 256;
+
+  //-------------------------------------------------------------------
+  //  Size of buffer for reading a file that is not mapped.
+  //-------------------------------------------------------------------
+  private static final int BUFSIZE = 65536;
+
+  //-------------------------------------------------------------------
+  //  Actions saved by 'prepare' to be run by 'apply'.
+  //-------------------------------------------------------------------
+  private List<Runnable> actions;
+
+  //-------------------------------------------------------------------
+  //  Was the file read without errors? Set by 'prepare'.
+  //-------------------------------------------------------------------
+  private boolean ok;
+
+  //-------------------------------------------------------------------
+  //  Saved by 'scan' until the chunks are parsed: lists of actions
+  //  of the command lines and chunks, messages to be written after
+  //  them, and the included files. Used and cleared by 'finish'.
+  //-------------------------------------------------------------------
+  private List<List<Runnable>> parts;
+  private List<String> notes;
+  private List<UnitsFile> includes;
+
 
   //=====================================================================
   //  Constructor
@@ -103,6 +169,81 @@ class UnitsFile
   UnitsFile(final String name)
     { this.name = name; }
 
+  /**
+   *  Constructs UnitsFile object for file with specified name
+   *  and known contents (see 'stamp').
+   *
+   *  @param  name  file name
+   *  @param  stamp stamp of the contents.
+   */
+  UnitsFile(final String name, long stamp)
+    {
+      this.name = name;
+      length = (int)(stamp>>>32);
+      hash = (int)stamp;
+    }
+
+
+  //=====================================================================
+  //  contents
+  //=====================================================================
+  /**
+   *  Obtains String-mapped contents of the file, to show source
+   *  of definitions. The contents are not kept after the file is
+   *  loaded: they are read again from the file when needed, or taken
+   *  from 'text'. They are then kept only until memory is needed.
+   *
+   *  @return the contents, or null if the file cannot be read
+   *          or is not the same as when loaded.
+   */
+  synchronized String contents()
+    {
+      String s = contents==null? null : contents.get();
+      if (s!=null) return s;
+
+      if (text!=null)
+        s = text.toString();
+      else
+      {
+        InputStream is = fileAcc.open(name);
+        if (is==null) return null;
+        try
+        {
+          char[] chars = read(is);
+          if (chars.length!=length || hash(chars)!=hash) return null;
+          s = new String(chars);
+        }
+        catch (IOException e)
+        { return null; }
+      }
+
+      contents = new SoftReference<String>(s);
+      return s;
+    }
+
+
+  //=====================================================================
+  //  stamp
+  //=====================================================================
+  /**
+   *  Obtains length and hash code of the contents,
+   *  to be saved in a Snapshot together with the name.
+   *
+   *  @return length in the high and hash code in the low 32 bits,
+   *          or -1 if the contents are not known.
+   */
+  synchronized long stamp()
+    {
+      if (length<0)
+      {
+        String s = contents();
+        if (s==null) return -1;
+        length = s.length();
+        hash = s.hashCode();
+      }
+      return (long)length<<32 | hash & 0xFFFFFFFFL;
+    }
+
 
   //=====================================================================
   //  readunits
@@ -110,7 +251,6 @@ class UnitsFile
   /**
    *  Reads definitions from the file.
    *  Creates objects for the Entities thus defined.
-   *  Saves String-mapped copy of the file in 'contents'.
    *  Returns 'false' if the file was not found
    *  or reading error occurred.
    *
@@ -119,6 +259,98 @@ class UnitsFile
    */
   boolean readunits(int depth)
     {
+      prepare(depth);
+      return apply();
+    }
+
+
+  //=====================================================================
+  //  prepare
+  //=====================================================================
+  /**
+   *  Reads the file and parses its lines, without defining anything.
+   *  Saves the definitions and messages as actions to be run
+   *  by 'apply'. Saves length and hash code of the contents,
+   *  to check them if they are read again (see 'contents').
+   *  <p>
+   *  The lines are first scanned, and classified by their
+   *  first significant character. Blank and comment lines are dropped.
+   *  The '!' command lines are parsed as found, in file order,
+   *  to know the locale in effect for each definition line.
+   *  Definition lines for the wrong locale are dropped. Those left
+   *  are then parsed in chunks by parallel tasks, each with its
+   *  own parser. The actions are kept in file order, so that 'apply'
+   *  defines the entities in the same order as reading line by line.
+   *
+   *  @param  depth include depth.
+   */
+  void prepare(int depth)
+    { prepare(Collections.singletonList(this),depth); }
+
+
+  //=====================================================================
+  //  prepare (several files)
+  //=====================================================================
+  /**
+   *  Prepares several files (see 'prepare' above).
+   *  The files are scanned by parallel tasks, each file with
+   *  the files it includes. The chunks of all the files are then
+   *  parsed by one set of parallel tasks, so that no task waits
+   *  for others, and chunks of all files share the threads.
+   *  Messages about opening the files are saved as actions,
+   *  to be written by 'apply' in the right order.
+   *
+   *  @param  files the files.
+   *  @param  depth include depth.
+   */
+  static void prepare(final List<UnitsFile> files, int depth)
+    {
+      //---------------------------------------------------------------
+      //  Scan the files, collecting tasks to parse their chunks.
+      //---------------------------------------------------------------
+      List<List<Runnable>> found = new ArrayList<List<Runnable>>();
+      List<Runnable> scans = new ArrayList<Runnable>();
+      for (UnitsFile file: files)
+      {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        found.add(tasks);
+        scans.add(scanning(file,depth,tasks));
+      }
+      Workers.run(scans);
+
+      //---------------------------------------------------------------
+      //  Parse the chunks, and put the actions in file order.
+      //---------------------------------------------------------------
+      List<Runnable> tasks = new ArrayList<Runnable>();
+      for (List<Runnable> t: found)
+        tasks.addAll(t);
+      Workers.run(tasks);
+
+      for (UnitsFile file: files)
+        file.finish();
+    }
+
+
+  //=====================================================================
+  //  scan
+  //=====================================================================
+  /**
+   *  Reads the file, parses its command lines, and collects
+   *  its definition lines into chunks (see 'prepare').
+   *  Scans the included files in the same way.
+   *
+   *  @param  depth include depth.
+   *  @param  tasks list to receive tasks that parse the chunks
+   *                of this file and the included files.
+   */
+  private void scan(int depth, final List<Runnable> tasks)
+    {
+      actions = new ArrayList<Runnable>();
+      parts = new ArrayList<List<Runnable>>();
+      notes = new ArrayList<String>();
+      includes = new ArrayList<UnitsFile>();
+      ok = false;
+
       //---------------------------------------------------------------
       //  Current line number. Line numbers start with 1.
       //---------------------------------------------------------------
@@ -138,136 +370,598 @@ class UnitsFile
       int startpos = 0;   // Starting position of current line
 
       //---------------------------------------------------------------
-      //  Buffer to accumulate the contents.
+      //  Definition lines, without comments, and their locations,
+      //  saved for the chunk being collected.
       //---------------------------------------------------------------
-      StringBuilder fileBuf = new StringBuilder();
+      final List<Source> lines = new ArrayList<Source>();
+      final List<Location> locs = new ArrayList<Location>();
 
       //---------------------------------------------------------------
-      //  Open the file.
+      //  Open the file and get its characters.
       //---------------------------------------------------------------
       InputStream is = fileAcc.open(name);
-      if (is==null) return false;
-      InputStreamReader isr = new InputStreamReader(is,cs);
-      BufferedReader reader = new BufferedReader(isr);
+      if (is==null) return;
+
+      char[] chars;
+      try
+        { chars = read(is); }
+      catch (IOException e)
+        {
+          int line = e instanceof ReadError? ((ReadError)e).line : 0;
+          notes.add(line>0?
+             "Error in reading line " + line + " from file '" + name +"': "
+               + e.getMessage()
+           : "Error in reading from file '" + name +"', line unknown: "
+               + e.getMessage());
+          chars = null;
+        }
+
+      int length = chars==null? 0 : chars.length;
 
       //---------------------------------------------------------------
-      //  Instantiate parser with memoization = 1.
+      //  Parser for the command lines. They are parsed as soon
+      //  as found, in file order, to know the locale in effect
+      //  for each definition line.
       //---------------------------------------------------------------
       FileParser parser = new FileParser();
       FileSemantics sem = parser.semantics();
       parser.setMemo(1);
+      sem.depth = depth;
+      sem.includes = new ArrayList<UnitsFile>();
+      LazyTables lazy = UnitsEngine.current().lazy;
 
       //---------------------------------------------------------------
-      //  Process definitions.
+      //  The actions of each command line and each chunk
+      //  of definition lines are kept in 'parts', in file order.
+      //  A chunk has at most 'size' lines.
       //---------------------------------------------------------------
-      processLoop:
-      while(true)
-      {
-        //-------------------------------------------------------------
-        //  Get one complete definition line into 'lineBuf'.
-        //  It may include continuation lines.
-        //-------------------------------------------------------------
-        StringBuilder lineBuf = new StringBuilder();
+      int n = 0;
+      for (int p=0;p<length;p++)
+        if (chars[p]=='\n') n++;
+      int size = Math.max(CHUNK,(n+Workers.THREADS-1)/Workers.THREADS);
 
+      //---------------------------------------------------------------
+      //  Find the lines. Each line, including the last,
+      //  ends with '\n'. Start and end of each part of a line
+      //  with continuation lines are collected in 'bounds'.
+      //---------------------------------------------------------------
+      int[] bounds = new int[16];
+
+      while (pos<length)
+      {
         linestart = linenum; // Note starting line number
         startpos = pos;      // ..and position in file.
+        int k = 0;
 
-        boolean continued = false;
-
-        lineLoop:
+        //-------------------------------------------------------------
+        //  Find end of the complete definition line.
+        //  It may include continuation lines.
+        //-------------------------------------------------------------
+        int eol;
         while (true)
         {
-          String line;
+          if (k+3>bounds.length) bounds = Arrays.copyOf(bounds,2*k);
+          bounds[k++] = pos;
+          eol = pos;
+          while (chars[eol]!='\n') eol++;
+          pos = eol+1;  // Current position is after '\n'.
+          linenum++;    // Next line number.
 
           //-----------------------------------------------------------
-          //  Get line from file, exit 'readline' on error.
+          //  Exit unless the line ends with '\'.
           //-----------------------------------------------------------
-          try
-            { line = reader.readLine(); }
-          catch (IOException e)
-            {
-              Env.out.println
-                ("Error in reading line " + linenum +
-                 " from file '" + name +"': " + e.getMessage());
-              return false;
-            }
+          if (eol==bounds[k-1] || chars[eol-1]!='\\')
+            break;
 
           //-----------------------------------------------------------
-          //  End of file reached. Exit 'processLoop'.
+          //  Continuation is expected. It is missing at end of file.
           //-----------------------------------------------------------
-          if (line==null)
+          bounds[k++] = eol;
+          if (pos>=length)
           {
-            if (continued) // If continuation was expected
-              Env.out.println
-                ("The last line of '" + name +
-                 "' is missing its continuation and is ignored.");
-            break processLoop;
+            notes.add("The last line of '" + name +
+                      "' is missing its continuation and is ignored.");
+            eol = -1;
+            break;
           }
+        }
+        if (eol<0) break;
+        bounds[k++] = eol;
 
-          //-----------------------------------------------------------
-          //  We have a line. Append it to 'fileBuf' with '\n' added.
-          //-----------------------------------------------------------
-          fileBuf.append(line).append("\n");
-          pos += (line.length()+1); // Current position is after '\n'.
-          linenum++;                // Next line number.
-
-          //-----------------------------------------------------------
-          //  Append the line to 'lineBuf'.
-          //-----------------------------------------------------------
-          lineBuf.append(line);
+        //-------------------------------------------------------------
+        //  'bounds' contains now start and end of each part.
+        //  Lines that are blank or only a comment, and definition
+        //  lines for the wrong locale, do not define anything.
+        //  They are dropped here, without constructing anything.
+        //-------------------------------------------------------------
+        if (isBlank(chars,bounds,k)) continue;
 
-          //-----------------------------------------------------------
-          //  If the line ends with '\', replace '\' with a blank
-          //  in 'lineBuf' and note that continuation is expected.
-          //-----------------------------------------------------------
-          if (line.endsWith("\\"))
-          {
-            lineBuf.setCharAt(lineBuf.length()-1,' ');
-            continued = true;
-          }
-          //-----------------------------------------------------------
-          //  Otherwise exit lineLoop.
-          //-----------------------------------------------------------
-          else
-            break lineLoop;
+        if (chars[startpos]=='!')
+        {
+          flush(lines,locs,depth,lazy,parts,tasks);
+          sem.actions = new ArrayList<Runnable>();
+          parts.add(sem.actions);
+          sem.loc = new Location(this,linestart,startpos,pos-1);
+          parser.parse(line(chars,bounds,k));
+          continue;
+        }
 
-        } // end lineLoop
+        if (sem.wronglocale) continue;
 
         //-------------------------------------------------------------
-        //  StringBuilder 'lineBuf' contains now a complete line.
-        //  Get rid of the comment, if any.
+        //  Get rid of the comment, if any, and save the line.
+        //  Pass a full chunk to be parsed.
         //-------------------------------------------------------------
-        int i = lineBuf.indexOf("#");
-        if (i>=0) lineBuf.delete(i,lineBuf.length());
-        String line = lineBuf.toString();
+        lines.add(line(chars,bounds,k));
+        locs.add(new Location(this,linestart,startpos,pos-1));
+        if (lines.size()>=size)
+          flush(lines,locs,depth,lazy,parts,tasks);
+      }
 
-        //-------------------------------------------------------------
-        //  Process the line.
-        //-------------------------------------------------------------
-        SourceString src = new SourceString(line);
-        sem.loc = new Location(this,linestart,startpos,pos-1);
-        sem.depth = depth;
-        parser.parse(src);
+      flush(lines,locs,depth,lazy,parts,tasks);
 
-      } // end processLoop
+      //---------------------------------------------------------------
+      //  Scan the included files.
+      //---------------------------------------------------------------
+      for (UnitsFile infile: sem.includes)
+      {
+        includes.add(infile);
+        scanning(infile,depth+1,tasks).run();
+      }
 
       //---------------------------------------------------------------
-      //  Close the file.
+      //  Save length and hash code of the contents.
       //---------------------------------------------------------------
+      if (chars==null) return;
+      this.length = chars.length;
+      hash = hash(chars);
+      ok = true;
+    }
+
+
+  //=====================================================================
+  //  finish
+  //=====================================================================
+  /**
+   *  Completes 'prepare' after the chunks of this file and of
+   *  the included files are parsed: puts their actions in file order.
+   */
+  private void finish()
+    {
+      for (List<Runnable> part: parts)
+        actions.addAll(part);
+
+      for (String note: notes)
+        actions.add(message(note));
+
+      for (UnitsFile infile: includes)
+        infile.finish();
+
+      parts = null;
+      notes = null;
+      includes = null;
+    }
+
+
+  //=====================================================================
+  //  apply
+  //=====================================================================
+  /**
+   *  Runs the actions saved by 'prepare': creates objects
+   *  for the Entities defined in the file and writes messages.
+   *  Returns 'false' if the file was not found
+   *  or reading error occurred.
+   *
+   *  @return true if file successfully processed; false otherwise.
+   */
+  boolean apply()
+    {
+      for (Runnable action: actions)
+        action.run();
+      actions = null;
+      return ok;
+    }
+
+
+  //=====================================================================
+  //  read
+  //=====================================================================
+  /**
+   *  Reads the file from given stream and decodes it.
+   *  A file in the file system is mapped into memory instead
+   *  of being read. Line terminators are converted to '\n',
+   *  and '\n' is added at the end if missing, so that positions
+   *  in the result are those in 'contents'.
+   *
+   *  @param  is the stream. It is closed.
+   *  @return characters of the file.
+   *  @throws IOException if reading failed, a ReadError
+   *          if the file could not be read or mapped.
+   */
+  private static char[] read(final InputStream is)
+    throws IOException
+    {
+      ByteBuffer bytes;
       try
-        { reader.close(); }
-      catch (IOException e)
-        { Env.out.println(e.getMessage()); }
+      {
+        if (is instanceof FileInputStream)
+        {
+          //-----------------------------------------------------------
+          //  A failed mapping gives no position in the file.
+          //-----------------------------------------------------------
+          FileChannel ch = ((FileInputStream)is).getChannel();
+          try
+            { bytes = ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size()); }
+          catch (IOException e)
+            { throw new ReadError(e,0); }
+        }
+        else
+        {
+          //-----------------------------------------------------------
+          //  Count the lines read, to report where reading failed.
+          //-----------------------------------------------------------
+          ByteArrayOutputStream b = new ByteArrayOutputStream(BUFSIZE);
+          byte[] buf = new byte[BUFSIZE];
+          int line = 1;
+          int k;
+          try
+          {
+            while ((k=is.read(buf))>0)
+            {
+              b.write(buf,0,k);
+              for (int i=0;i<k;i++)
+                if (buf[i]=='\n') line++;
+            }
+          }
+          catch (IOException e)
+            { throw new ReadError(e,line); }
+          bytes = ByteBuffer.wrap(b.toByteArray());
+        }
+      }
+      finally
+      { is.close(); }
+
+      //---------------------------------------------------------------
+      //  Decode, replacing malformed input as InputStreamReader does.
+      //---------------------------------------------------------------
+      CharBuffer cb = cs.decode(bytes);
+      char[] c = cb.array();
+      int n = cb.limit();
 
       //---------------------------------------------------------------
-      //  Save file contents.
+      //  Return the decoded characters if no conversion is needed.
+      //---------------------------------------------------------------
+      boolean cr = false;
+      for (int i=0;i<n && !cr;i++)
+        cr = c[i]=='\r';
+      if (!cr && (n==0 || c[n-1]=='\n'))
+        return n==c.length? c : Arrays.copyOf(c,n);
+
       //---------------------------------------------------------------
-      contents = fileBuf.toString();
+      //  Convert "\r\n" and "\r" to "\n" and add the final '\n'.
+      //---------------------------------------------------------------
+      StringBuilder sb = new StringBuilder(n+1);
+      for (int i=0;i<n;i++)
+      {
+        if (c[i]!='\r')
+          sb.append(c[i]);
+        else
+        {
+          sb.append('\n');
+          if (i+1<n && c[i+1]=='\n') i++;
+        }
+      }
+      if (sb.length()>0 && sb.charAt(sb.length()-1)!='\n')
+        sb.append('\n');
+
+      char[] result = new char[sb.length()];
+      sb.getChars(0,result.length,result,0);
+      return result;
+    }
+
+
+  //=====================================================================
+  //  flush
+  //=====================================================================
+  /**
+   *  Sets up a task to parse the saved definition lines,
+   *  or, if the engine is loaded lazily, an action to index them.
+   *  Then clears the saved lines.
+   *
+   *  @param lines the saved lines.
+   *  @param locs  their locations.
+   *  @param depth include depth.
+   *  @param lazy  lazy tables of the engine, or null.
+   *  @param parts list to receive list of the actions.
+   *  @param tasks list to receive the task.
+   */
+  private static void flush
+    (final List<Source> lines, final List<Location> locs, int depth,
+     final LazyTables lazy,
+     final List<List<Runnable>> parts, final List<Runnable> tasks)
+    {
+      if (lines.isEmpty()) return;
 
+      List<Source> chunk = new ArrayList<Source>(lines);
+      List<Location> chunkLocs = new ArrayList<Location>(locs);
+      lines.clear();
+      locs.clear();
+
+      if (lazy!=null)
+        parts.add(Collections.singletonList(indexing(chunk,chunkLocs,lazy)));
+      else
+      {
+        List<Runnable> part = new ArrayList<Runnable>();
+        parts.add(part);
+        tasks.add(parsing(chunk,chunkLocs,depth,part));
+      }
+    }
+
+
+  //=====================================================================
+  //  isBlank
+  //=====================================================================
+  /**
+   *  Checks if a line has nothing but spaces and tabs
+   *  before its comment, if any. The '\' that ends a part
+   *  followed by continuation counts as a space.
+   *
+   *  @param  chars characters of the file.
+   *  @param  parts start and end of each part of the line:
+   *                the line and its continuation lines.
+   *  @param  n     number of elements of 'parts' in use.
+   *  @return true if the line is blank.
+   */
+  private static boolean isBlank(final char[] chars, final int[] parts, int n)
+    {
+      for (int i=0;i<n;i+=2)
+      {
+        for (int p=parts[i];p<parts[i+1];p++)
+        {
+          char c = chars[p];
+          if (c=='#') return true;
+          if (c==' ' || c=='\t') continue;
+          if (c=='\\' && p==parts[i+1]-1 && i+2<n) continue;
+          return false;
+        }
+      }
       return true;
     }
 
 
+  //=====================================================================
+  //  line
+  //=====================================================================
+  /**
+   *  Constructs parser input for a line without its comment.
+   *
+   *  @param  chars characters of the file.
+   *  @param  parts start and end of each part of the line:
+   *                the line and its continuation lines.
+   *  @param  n     number of elements of 'parts' in use.
+   *  @return the parser input.
+   */
+  private static Source line(final char[] chars, final int[] parts, int n)
+    {
+      //---------------------------------------------------------------
+      //  Find the comment, if any.
+      //  Cut the line at the part that contains it.
+      //---------------------------------------------------------------
+      int k = n/2;
+      int cut = -1;
+      for (int i=0;i<k && cut<0;i++)
+      {
+        for (int p=parts[2*i];p<parts[2*i+1];p++)
+        {
+          if (chars[p]!='#') continue;
+          cut = p;
+          k = i+1;
+          break;
+        }
+      }
+
+      if (k==1)
+        return new SourceChars
+          (chars,parts[0],cut<0? parts[1] : cut);
+
+      int[] starts = new int[k];
+      int[] ends = new int[k];
+      int lg = 0;
+      for (int i=0;i<k;i++)
+      {
+        starts[i] = parts[2*i];
+        int end = (i==k-1 && cut>=0)? cut : parts[2*i+1];
+        lg += end-starts[i];
+        ends[i] = lg;
+      }
+      return new SourceChars(chars,starts,ends);
+    }
+
+
+  //=====================================================================
+  //  hash
+  //=====================================================================
+  /**
+   *  Computes hash code of characters, equal to that
+   *  of a String with the same characters.
+   */
+  private static int hash(final char[] chars)
+    {
+      int h = 0;
+      for (char c: chars)
+        h = 31*h + c;
+      return h;
+    }
+
+
+  //=====================================================================
+  //  parsing
+  //=====================================================================
+  /**
+   *  Creates task to parse definition lines.
+   *
+   *  @param  lines the lines.
+   *  @param  locs  their locations.
+   *  @param  depth include depth.
+   *  @param  part  list to receive the actions.
+   *  @return the task.
+   */
+  private static Runnable parsing
+    (final List<Source> lines, final List<Location> locs,
+     final int depth, final List<Runnable> part)
+    {
+      return new Runnable()
+        {
+          public void run()
+            {
+              FileParser parser = new FileParser();
+              FileSemantics sem = parser.semantics();
+              parser.setMemo(1);
+              sem.depth = depth;
+              sem.actions = part;
+              for (int i=0;i<lines.size();i++)
+              {
+                sem.loc = locs.get(i);
+                parser.parse(lines.get(i));
+              }
+            }
+        };
+    }
+
+
+  //=====================================================================
+  //  indexing
+  //=====================================================================
+  /**
+   *  Creates action to add definition lines to lazy tables.
+   *
+   *  @param  lines the lines.
+   *  @param  locs  their locations.
+   *  @param  lazy  the tables.
+   *  @return the action.
+   */
+  private static Runnable indexing
+    (final List<Source> lines, final List<Location> locs,
+     final LazyTables lazy)
+    {
+      return new Runnable()
+        {
+          public void run()
+            {
+              for (int i=0;i<lines.size();i++)
+                lazy.add(lines.get(i),locs.get(i));
+            }
+        };
+    }
+
+
+  //=====================================================================
+  //  scanning
+  //=====================================================================
+  /**
+   *  Creates task to scan a file (see 'scan'). The task runs with
+   *  the current UnitsEngine, and writes messages
+   *  into actions placed before those of the file.
+   *
+   *  @param  file  the file.
+   *  @param  depth include depth.
+   *  @param  tasks list to receive tasks that parse the chunks.
+   *  @return the task.
+   */
+  private static Runnable scanning
+    (final UnitsFile file, final int depth, final List<Runnable> tasks)
+    {
+      final UnitsEngine engine = UnitsEngine.current();
+      final Messages messages = new Messages();
+      final Env.Options opts = new Env.Options();
+      opts.verbose = Env.verbose();
+      opts.oneline = Env.oneline();
+      opts.strict  = Env.strict();
+      opts.round   = Env.round();
+      opts.out     = messages;
+
+      return new Runnable()
+        {
+          public void run()
+            {
+              UnitsEngine prev = engine.enter();
+              Env.Options prevOpts = Env.enter(opts);
+              try
+              { file.scan(depth,tasks); }
+              finally
+              {
+                Env.leave(prevOpts);
+                UnitsEngine.leave(prev);
+              }
+              file.actions.addAll(0,messages.actions);
+            }
+        };
+    }
+
+
+  //=====================================================================
+  //  message
+  //=====================================================================
+  /**
+   *  Creates action that writes a message.
+   *
+   *  @param  s the message.
+   *  @return the action.
+   */
+  private static Runnable message(final String s)
+    {
+      return new Runnable()
+        { public void run() { Env.out().println(s); } };
+    }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Class Messages
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Writer that saves the output as actions writing it
+   *  to the Writer in effect when they are run.
+   */
+  private static class Messages extends Env.Writer
+  {
+    final List<Runnable> actions = new ArrayList<Runnable>();
+
+    @Override
+    void print(final String s)
+      {
+        actions.add(new Runnable()
+          { public void run() { Env.out().print(s); } });
+      }
+
+    @Override
+    void println(final String s)
+      { actions.add(message(s)); }
+  }
+
+
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Class ReadError
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Failure to read a file, with the number of the line
+   *  being read, or 0 if it is not known.
+   */
+  private static class ReadError extends IOException
+  {
+    final int line;
+
+    ReadError(final IOException cause, int line)
+      {
+        super(cause.getMessage(),cause);
+        this.line = line;
+      }
+  }
+
+
   //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
   //
   //  Class FileAcc
@@ -327,7 +1021,7 @@ class UnitsFile
         }
         catch (FileNotFoundException e)
         {
-          Env.out.println("File '" + name + "' was not found");
+          Env.out().println("File '" + name + "' was not found");
           return null;
         }
       }
@@ -365,7 +1059,7 @@ class UnitsFile
         }
         catch (IOException e)
         {
-          Env.out.println("Error in file '" + name + "': " + e.getMessage());
+          Env.out().println("Error in file '" + name + "': " + e.getMessage());
           return null;
         }
       }
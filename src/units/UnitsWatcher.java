@@ -0,0 +1,240 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Apply changed overlay files by 'update'.
+//           Added 'INTERVAL'.
+//           Changes made while refreshing are not missed.
+//
+//=========================================================================
+
+package units;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class UnitsWatcher
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Watches the definition files of the standard UnitsEngine
+ *  and reloads them when they change (see 'reload' in UnitsEngine).
+ *  If only overlay files changed, they are applied again
+ *  by 'update' in UnitsEngine instead of reloading everything.
+ *  (Definitions removed from an overlay file remain in effect
+ *  until everything is reloaded.)
+ *  <p>
+ *  The files are polled at a fixed interval by a daemon thread.
+ *  A file is considered changed when its modification time or length
+ *  changes. Files that are not in the file system, such as
+ *  the default 'units.dat' read from the JAR, are not watched.
+ *  If reloading fails, the standard engine is kept and the files
+ *  are tried again after they change again.
+ */
+
+class UnitsWatcher implements Runnable
+{
+  //-------------------------------------------------------------------
+  //  Polling interval in milliseconds used for option -W.
+  //-------------------------------------------------------------------
+  static final long INTERVAL = 2000;
+
+  //-------------------------------------------------------------------
+  //  Polling interval in milliseconds.
+  //-------------------------------------------------------------------
+  private final long interval;
+
+  //-------------------------------------------------------------------
+  //  Options for messages from reloading, or null for defaults.
+  //-------------------------------------------------------------------
+  private final Env.Options opts;
+
+  //-------------------------------------------------------------------
+  //  The polling thread, or null if not started.
+  //-------------------------------------------------------------------
+  private volatile Thread thread = null;
+
+
+  //=====================================================================
+  //  Constructor
+  //=====================================================================
+  /**
+   *  Constructs UnitsWatcher.
+   *
+   *  @param interval polling interval in milliseconds.
+   *  @param opts     options for messages from reloading,
+   *                  or null to use the defaults in Env.
+   */
+  UnitsWatcher(long interval, final Env.Options opts)
+    {
+      this.interval = interval;
+      this.opts = opts;
+    }
+
+
+  //=====================================================================
+  //  start / stop
+  //=====================================================================
+  /**
+   *  Starts watching.
+   */
+  synchronized void start()
+    {
+      if (thread!=null) return;
+      thread = new Thread(this,"UnitsWatcher");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+  /**
+   *  Stops watching.
+   */
+  synchronized void stop()
+    {
+      Thread t = thread;
+      thread = null;
+      if (t!=null) t.interrupt();
+    }
+
+
+  //=====================================================================
+  //  run
+  //=====================================================================
+  /**
+   *  Polls the files until stopped.
+   */
+  public void run()
+    {
+      UnitsEngine engine = UnitsEngine.standard();
+      Map<String,String> stamp = stamp(engine);
+
+      while (thread==Thread.currentThread())
+      {
+        try
+        { Thread.sleep(interval); }
+        catch (InterruptedException e)
+        { return; }
+
+        //-------------------------------------------------------------
+        //  If the standard engine was replaced by someone else,
+        //  watch the files of the new one.
+        //-------------------------------------------------------------
+        if (UnitsEngine.standard()!=engine)
+        {
+          engine = UnitsEngine.standard();
+          stamp = stamp(engine);
+          continue;
+        }
+
+        Map<String,String> now = stamp(engine);
+        if (now.equals(stamp)) continue;
+
+        UnitsEngine e = refresh(engine,stamp,now);
+        stamp = now;
+        if (e!=null)
+        {
+          //-----------------------------------------------------------
+          //  Watch also the files added by the new engine. For the
+          //  others, keep the state seen before refreshing, so that
+          //  changes made while refreshing are not missed.
+          //-----------------------------------------------------------
+          engine = e;
+          stamp = stamp(e);
+          for (String name: stamp.keySet())
+            if (now.containsKey(name)) stamp.put(name,now.get(name));
+        }
+      }
+    }
+
+
+  //=====================================================================
+  //  refresh
+  //=====================================================================
+  /**
+   *  Applies again the changed overlay files of the standard engine
+   *  if no other files changed, or reloads everything otherwise.
+   *
+   *  @param  engine the standard engine.
+   *  @param  before state of its files when last checked.
+   *  @param  now    current state of its files.
+   *  @return the new standard engine, or null if not replaced.
+   */
+  private UnitsEngine refresh
+    (final UnitsEngine engine,
+     final Map<String,String> before, final Map<String,String> now)
+    {
+      for (String name: engine.filenames)
+      {
+        String s = now.get(name);
+        if (s==null? before.get(name)!=null : !s.equals(before.get(name)))
+          if (!engine.overlays.contains(name))
+            return UnitsEngine.reload(opts);
+      }
+
+      UnitsEngine e = null;
+      for (String name: engine.overlays)
+      {
+        String s = now.get(name);
+        if (s==null? before.get(name)==null : s.equals(before.get(name)))
+          continue;
+        e = UnitsEngine.update(name,opts);
+        if (e==null) return null;
+      }
+      return e;
+    }
+
+
+  //=====================================================================
+  //  stamp
+  //=====================================================================
+  /**
+   *  Constructs a map identifying the state of the files
+   *  of an engine, including its include files.
+   *
+   *  @param  e the engine.
+   *  @return map from name to modification time and length
+   *          of each existing file.
+   */
+  private static Map<String,String> stamp(final UnitsEngine e)
+    {
+      Map<String,String> m = new HashMap<String,String>();
+      for (String name: e.filenames)
+      {
+        File f = new File(name);
+        if (!f.isFile()) continue;
+        m.put(name,f.lastModified() + " " + f.length());
+      }
+      return m;
+    }
+}
@@ -54,12 +54,17 @@
 //    120326 Rewritten setting of options.
 //           'FileAcc' moved from Env to UntisFile.
 //
+//  Version 1.89.J02.
+//    261017 Import 'java.awt.Dimension' explicitly: the package
+//           has now its own class 'Dimension'.
+//
 //=========================================================================
 
 package units;
 
 import java.util.Vector;
 import java.awt.*;
+import java.awt.Dimension;
 import java.awt.event.*;
 import javax.swing.*;
 
@@ -53,6 +53,22 @@
 //    120302 Do not show factor 1 in 'as String'.
 //    120312 Moved method 'convert to Function' to DefinedFunction.
 //
+//  Version 1.89.J02.
+//    261017 Added Dimension of reduced Value; used it in 'isCompatibleWith',
+//           'cancel', and for reciprocal conversion in 'convert'.
+//           Added 'mult' and 'div' by a Factor.
+//           'reduceproduct' uses reduced forms memoized in Factors,
+//           so 'completereduce' needs only one pass.
+//           'power' and 'cancel' use new methods of Product.
+//           Added conversion to and from immutable Quantity,
+//           and 'mult' and 'div' by a Quantity.
+//           'parse' reuses Parser objects kept for each thread.
+//           Added 'compile'.
+//           Use options bound to the current thread.
+//           'reduceproduct' raises the reduced form to the exponent at once.
+//           'asString' shows number 1 without units as '1'.
+//           'fromString' binds the engine by 'pin'.
+//
 //=========================================================================
 
 package units;
@@ -83,6 +99,14 @@ package units;
  *  A Value represents a number if its numerator and denominator
  *  are both empty.
  *  <p>
+ *  The numerator and denominator of a reduced Value are summarized
+ *  by its interned Dimension, so that conformability of reduced
+ *  Values is checked by comparing Dimension objects.
+ *  <p>
+ *  A Value is mutable: arithmetic operations change it in place.
+ *  Code that needs a reduced result to share or keep should convert
+ *  it to the immutable Quantity.
+ *  <p>
  *  The class has methods for arithmetic operations on Values,
  *  reduction to primitive units, copying, and printing out Values.
  *  In addition to constructors, there are static methods to construct
@@ -99,6 +123,24 @@ class Value
   Product numerator;
   Product denominator;
 
+  //-------------------------------------------------------------------
+  //  Dimension of 'numerator / denominator', or null if not known.
+  //  Set by 'completereduce' and cleared by methods that change
+  //  the numerator or denominator.
+  //-------------------------------------------------------------------
+  Dimension dim = null;
+
+  //-------------------------------------------------------------------
+  //  Parsers used by 'parse', kept for each thread.
+  //-------------------------------------------------------------------
+  private static final ThreadLocal<Parsers> parsers
+    = new ThreadLocal<Parsers>()
+      {
+        @Override
+        protected Parsers initialValue()
+          { return new Parsers(); }
+      };
+
   //=====================================================================
   //  Constructor
   //=====================================================================
@@ -127,6 +169,24 @@ class Value
       factor = v.factor;
       numerator   = new Product(v.numerator);
       denominator = new Product(v.denominator);
+      dim = v.dim;
+    }
+
+
+  //=====================================================================
+  //  Constructor from Quantity
+  //=====================================================================
+  /**
+   *  Constructs a completely reduced Value equal to given Quantity.
+   *
+   *  @param q the Quantity.
+   */
+  Value(final Quantity q)
+    {
+      factor = q.factor;
+      numerator   = q.dim.numerator();
+      denominator = q.dim.denominator();
+      dim = q.dim;
     }
 
 
@@ -144,6 +204,7 @@ class Value
       factor = v.factor;
       numerator   = new Product(v.numerator);
       denominator = new Product(v.denominator);
+      dim = v.dim;
       return this;
     }
 
@@ -165,13 +226,7 @@ class Value
    *  @return Value represented by the expression.
    */
   static Value parse(final String s)
-    {
-      Parser parser = new Parser();           // Instantiate Parser + Semantics
-      Semantics sem = parser.semantics();     // Access Semantics
-      SourceString src = new SourceString(s); // Wrap 's' for parser
-      parser.parse(src);                      // Parse 's' - EvalError on failure
-      return sem.result;                      // Obtain result from Semantics
-    }
+    { return parse(s,null,null); }
 
 
  //=====================================================================
@@ -199,16 +254,113 @@ class Value
    */
   static Value parse(final String s, final String parm, final Value parmValue)
     {
-      Parser parser = new Parser();           // Instantiate Parser + Semantics
+      Parsers ps = parsers.get();
+      Parser parser = ps.acquire();           // Parser for this nesting level
       Semantics sem = parser.semantics();     // Access Semantics
-      sem.parm = parm;                        // Identify parameter to replace
-      sem.parmValue = parmValue;              // Supply parameter value
-      SourceString src = new SourceString(s); // Wrap 's' for parser
-      parser.parse(src);                      // Parse 's' - EvalError on failure
-      return sem.result;                      // Obtain result from Semantics
+      try
+      {
+        sem.parm = parm;                      // Identify parameter to replace
+        sem.parmValue = parmValue;            // Supply parameter value
+        SourceString src = new SourceString(s); // Wrap 's' for parser
+        parser.parse(src);                    // Parse 's' - EvalError on failure
+        return sem.result;                    // Obtain result from Semantics
+      }
+      finally
+      {
+        sem.reset();                          // Forget parameter and result
+        ps.release();
+      }
+    }
+
+
+  //=====================================================================
+  //  compile
+  //=====================================================================
+  /**
+   *  Compiles unit expression with a parameter into Expr tree;
+   *  throws exception on error.
+   *  <br>
+   *  Evaluating the tree with a Value for the parameter gives the same
+   *  result as 'parse' with that Value. Parts of the expression that
+   *  do not contain the parameter are evaluated during compilation;
+   *  EvalError is thrown if they cannot be evaluated.
+   *
+   *  @param  s a unit expression.
+   *  @param  parm parameter name.
+   *  @return the compiled expression.
+   */
+  static Expr compile(final String s, final String parm)
+    {
+      Parsers ps = parsers.get();
+      Parser parser = ps.acquire();
+      Semantics sem = parser.semantics();
+      try
+      {
+        sem.parm = parm;
+        sem.compile = true;
+        parser.parse(new SourceString(s));
+        return sem.compiled;
+      }
+      finally
+      {
+        sem.reset();
+        ps.release();
+      }
     }
 
 
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  //
+  //  Inner class Parsers
+  //
+  //HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+  /**
+   *  Parsers of one thread, one for each level of nested calls
+   *  to 'parse'. Parsing is re-entered when semantic actions
+   *  reduce units or apply functions; each level uses its own Parser,
+   *  so the Parser of an outer level is not disturbed.
+   */
+  private static class Parsers
+  {
+    Parser[] parser = new Parser[4]; // Parser for each level
+    int depth = 0;                   // Number of levels in use
+
+    //===================================================================
+    //  acquire
+    //===================================================================
+    /**
+     *  Obtains Parser for the next level, creating it if needed.
+     *
+     *  @return the Parser.
+     */
+    Parser acquire()
+      {
+        if (depth==parser.length)
+        {
+          Parser[] p = new Parser[2*depth];
+          System.arraycopy(parser,0,p,0,depth);
+          parser = p;
+        }
+        if (parser[depth]==null)
+          parser[depth] = new Parser();
+        return parser[depth++];
+      }
+
+    //===================================================================
+    //  release
+    //===================================================================
+    /**
+     *  Releases Parser of the current level.
+     */
+    void release()
+      {
+        depth--;
+        parser[depth].current = null;  // Drop the parse tree..
+        parser[depth].source = null;   // ..and the source
+      }
+  }
+
+
   //=====================================================================
   //  fromString
   //=====================================================================
@@ -226,6 +378,7 @@ class Value
    */
   static Value fromString(final String s)
     {
+      UnitsEngine prev = UnitsEngine.pin();
       try
       {
         Value v = parse(s);
@@ -234,9 +387,11 @@ class Value
       }
       catch (EvalError e)
       {
-        Env.out.println(e.getMessage());
+        Env.out().println(e.getMessage());
         return null;
       }
+      finally
+      { UnitsEngine.leave(prev); }
     }
 
 
@@ -261,10 +416,10 @@ class Value
       Value v = new Value();
 
       if (pu[0]!=null)
-        v.numerator.add(pu[0]);
+        v.mult(pu[0]);
 
       if (pu[1]!=null)
-        v.numerator.add(pu[1]);
+        v.mult(pu[1]);
 
       return v;
     }
@@ -288,9 +443,12 @@ class Value
         sb.append(numerator.asString());
       }
 
-      else // skip factor and initial blank
+      else if (numerator.size()>0) // skip factor and initial blank
         sb.append(numerator.asString().substring(1));
 
+      else
+        sb.append("1");
+
       if (denominator.size()>0)
         sb.append(" /").append(denominator.asString());
 
@@ -306,7 +464,7 @@ class Value
    *  <br>(Originally 'showunit'.)
    */
   void show()
-    { Env.out.println(asString()); }
+    { Env.out().println(asString()); }
 
 
   //=====================================================================
@@ -324,11 +482,50 @@ class Value
    */
   boolean isCompatibleWith(final Value v, Ignore ignore)
     {
+      Dimension d = dimension();
+      Dimension vd = v.dimension();
+      if (d!=null && vd!=null)
+        return d.conformsTo(vd,ignore);
+
       return numerator.hasSameFactorsAs(v.numerator,ignore)
            && denominator.hasSameFactorsAs(v.denominator,ignore);
     }
 
 
+  //=====================================================================
+  //  dimension
+  //=====================================================================
+  /**
+   *  Obtains Dimension of this Value.
+   *
+   *  @return Dimension of this Value, or null if the Value
+   *          contains units that are not primitive.
+   */
+  Dimension dimension()
+    {
+      if (dim==null)
+        dim = Dimension.of(numerator,denominator);
+      return dim;
+    }
+
+
+  //=====================================================================
+  //  quantity
+  //=====================================================================
+  /**
+   *  Obtains this completely reduced Value as Quantity.
+   *
+   *  @return Quantity equal to this Value.
+   */
+  Quantity quantity()
+    {
+      Dimension d = dimension();
+      if (d==null)
+        throw new EvalError("Program error: " + asString() + " is not reduced.");
+      return new Quantity(factor,d);
+    }
+
+
   //=====================================================================
   //  isNumber
   //=====================================================================
@@ -381,6 +578,88 @@ class Value
       factor *= v.factor;
       numerator.add(v.numerator);
       denominator.add(v.denominator);
+      dim = null;
+    }
+
+
+  //=====================================================================
+  //  mult by Factor
+  //=====================================================================
+  /**
+   *  Multiplies this Value by a unit or prefix.
+   *
+   *  @param  f Factor to multiply by.
+   */
+  void mult(final Factor f)
+    {
+      numerator.add(f);
+      dim = null;
+    }
+
+
+  //=====================================================================
+  //  mult by Quantity
+  //=====================================================================
+  /**
+   *  Multiplies this Value by a Quantity.
+   *
+   *  @param  q Quantity to multiply by.
+   */
+  void mult(final Quantity q)
+    {
+      factor *= q.factor;
+      add(q.dim,numerator,denominator);
+    }
+
+
+  //=====================================================================
+  //  div by Quantity
+  //=====================================================================
+  /**
+   *  Divides this Value by a Quantity.
+   *
+   *  @param  q Quantity to divide by.
+   */
+  void div(final Quantity q)
+    {
+      factor /= q.factor;
+      add(q.dim,denominator,numerator);
+    }
+
+
+  //=====================================================================
+  //  add Dimension
+  //=====================================================================
+  /**
+   *  Adds units of a Dimension to Products.
+   *
+   *  @param  d   the Dimension.
+   *  @param  pos Product to receive units with positive exponents.
+   *  @param  neg Product to receive units with negative exponents.
+   */
+  private void add(final Dimension d, Product pos, Product neg)
+    {
+      for (int i=0;i<d.units.length;i++)
+      {
+        if (d.exps[i]>0) pos.add(d.units[i],d.exps[i]);
+        else neg.add(d.units[i],-d.exps[i]);
+      }
+      dim = null;
+    }
+
+
+  //=====================================================================
+  //  div by Factor
+  //=====================================================================
+  /**
+   *  Divides this Value by a unit or prefix.
+   *
+   *  @param  f Factor to divide by.
+   */
+  void div(final Factor f)
+    {
+      denominator.add(f);
+      dim = null;
     }
 
 
@@ -401,6 +680,7 @@ class Value
       factor /= v.factor;
       denominator.add(v.numerator);
       numerator.add(v.denominator);
+      dim = null;
     }
 
 
@@ -419,6 +699,7 @@ class Value
       Product num = numerator;
       numerator = denominator;
       denominator = num;
+      if (dim!=null) dim = dim.inverse();
     }
 
 
@@ -493,20 +774,14 @@ class Value
       if (n<0)
         throw new EvalError("Program error: exponent " + n + ".");
 
-      Product num = new Product();
-      Product den = new Product();
       double fac = 1.0;
-
       for (int i=0;i<n;i++)
-      {
         fac *= factor;
-        num.add(numerator);
-        den.add(denominator);
-      }
 
       factor = fac;
-      numerator = num;
-      denominator = den;
+      numerator = numerator.power(n);
+      denominator = denominator.power(n);
+      dim = null;
     }
 
 
@@ -537,6 +812,7 @@ class Value
 
       numerator = num;
       denominator = den;
+      dim = null;
 
       // Math.pow does not work for negative base and non-integer exponent,
       // so negative 'factor' must be treated separately.
@@ -553,28 +829,13 @@ class Value
   //=====================================================================
   /**
    *  Removes factors that appear in both the numerator and denominator.
+   *  Obtains Dimension of the result if it is reduced.
    *  <br>(Originally 'cancelunit'.)
    */
   void cancel()
     {
-      int den = 0;
-      int num = 0;
-
-      while (num<numerator.size() && den<denominator.size())
-      {
-        int comp = (denominator.factor(den).name).
-                compareTo(numerator.factor(num).name);
-        if (comp==0)
-        {                    // units match, so cancel them.
-          denominator.delete(den);
-          numerator.delete(num);
-        }
-        else if (comp < 0)   // Move up whichever index is alphabetically..
-          den++;             // ..behind to look for future matches.
-        else
-          num++;
-      }
-
+      Product.cancel(numerator,denominator);
+      dim = Dimension.of(numerator,denominator);
     }
 
 
@@ -583,12 +844,14 @@ class Value
   //=====================================================================
   /**
    *  Reduces numerator or denominator of this Value to primitive units.
+   *  Each non-primitive Factor is replaced by its reduced form,
+   *  obtained from the Factor; the result contains only primitive units.
    *
    *  @param  flip indicates whether to reduce the numerator
    *          (<code>flip = false</code>) or denominator
    *          (<code>flip = true</code>).
    *  @return <code>true</code> if reduction was performed, or
-   *          <code>false</code> if there is nothing more to reduce.
+   *          <code>false</code> if there was nothing to reduce.
    */
   boolean reduceproduct(boolean flip)
     {
@@ -606,26 +869,16 @@ class Value
       for (int f=0;f<prod.size();f++)
       {
         Factor fact = prod.factor(f);
-        String toadd = fact.name;
-        if (toadd==null)                                   // Is this possible?
-          throw new EvalError("Unit '" + toadd + "' is unknown.");
+        int exp = prod.exponent(f);
 
         if (fact.isPrimitive)
         {
-          newprod.add(fact);
+          newprod.add(fact,exp);
           continue;
         }
 
-        Value newval;
-
-        try
-        { newval = parse(fact.def); }
-
-        catch (EvalError e)
-        {
-          throw new EvalError("Invalid definition of '" + toadd + "'. "
-                            + e.getMessage());
-        }
+        Quantity newval = fact.reduced(); // EvalError if invalid definition
+        if (exp>1) newval = newval.power(exp);
 
         if (flip) div(newval);
         else mult(newval);
@@ -641,16 +894,15 @@ class Value
   //=====================================================================
   //  completereduce
   //=====================================================================
-  /** Reduces this Value as much as possible. */
+  /**
+   *  Reduces this Value as much as possible.
+   *  As reduced forms of Factors contain only primitive units,
+   *  one pass over the numerator and denominator is sufficient.
+   */
   void completereduce()
     {
-      /* Keep calling reduceproduct until it doesn't do anything */
-      while (true)
-      {
-        boolean topchanged = reduceproduct(false);
-        boolean botchanged = reduceproduct(true);
-        if (!topchanged && !botchanged) break;
-      }
+      reduceproduct(false);
+      reduceproduct(true);
       cancel();
     }
 
@@ -691,17 +943,19 @@ class Value
         invfrom.factor = 1/fromValue.factor;
         invfrom.numerator = fromValue.denominator;
         invfrom.denominator = fromValue.numerator;
+        Dimension d = fromValue.dimension();
+        invfrom.dim = (d==null)? null : d.inverse();
 
         //-------------------------------------------------------------
         //  If reciprocal conversion not wanted, or inverse of 'fromValue'
         //  is not compatible with 'toValue', we have conformability error.
         //-------------------------------------------------------------
-        if (Env.strict || !toValue.isCompatibleWith(invfrom,Ignore.DIMLESS))
+        if (Env.strict() || !toValue.isCompatibleWith(invfrom,Ignore.DIMLESS))
         {
-          Env.out.println("Conformability error");
-          Env.out.print(Env.verbose==2? "\t" + fromExpr + " = " : Env.verbose==1? "\t" : "");
+          Env.out().println("Conformability error");
+          Env.out().print(Env.verbose()==2? "\t" + fromExpr + " = " : Env.verbose()==1? "\t" : "");
           fromValue.show();
-          Env.out.print(Env.verbose==2? "\t" + toExpr   + " = " : Env.verbose==1? "\t" : "");
+          Env.out().print(Env.verbose()==2? "\t" + toExpr   + " = " : Env.verbose()==1? "\t" : "");
           toValue.show();
           return false;
         }
@@ -709,7 +963,7 @@ class Value
         //-------------------------------------------------------------
         //  We arrive here to do a reciprocal conversion.
         //-------------------------------------------------------------
-        Env.out.println("\treciprocal conversion");
+        Env.out().println("\treciprocal conversion");
         fromValue = invfrom;
         doingrec = true;
       }
@@ -724,7 +978,7 @@ class Value
       String right = "";
       String left = "";
 
-      if (Env.verbose==2)
+      if (Env.verbose()==2)
       {
         if ("0123456789".indexOf(toExpr.charAt(0))>=0)
           sep=" *";
@@ -743,35 +997,35 @@ class Value
       //---------------------------------------------------------------
       //  Print the first line of output.
       //---------------------------------------------------------------
-      if (Env.verbose==2)
-        Env.out.print("\t" + left + fromExpr + right + " = ");
-      else if (Env.verbose==1)
-        Env.out.print("\t* ");
+      if (Env.verbose()==2)
+        Env.out().print("\t" + left + fromExpr + right + " = ");
+      else if (Env.verbose()==1)
+        Env.out().print("\t* ");
 
-      Env.out.print(Util.shownumber(fromValue.factor / toValue.factor));
+      Env.out().print(Util.shownumber(fromValue.factor / toValue.factor));
 
-      if (Env.verbose==2)
-        Env.out.print(sep + " " + toExpr);
+      if (Env.verbose()==2)
+        Env.out().print(sep + " " + toExpr);
 
 
       //---------------------------------------------------------------
       //  Print the second line of output.
       //---------------------------------------------------------------
-      if (!Env.oneline)
+      if (!Env.oneline())
       {
-        if (Env.verbose==2)
-          Env.out.print("\n\t" + left + fromExpr + right + " = (1 / ");
-        else if (Env.verbose==1)
-          Env.out.print("\n\t/ ");
+        if (Env.verbose()==2)
+          Env.out().print("\n\t" + left + fromExpr + right + " = (1 / ");
+        else if (Env.verbose()==1)
+          Env.out().print("\n\t/ ");
         else
-          Env.out.print("\n");
+          Env.out().print("\n");
 
-        Env.out.print(Util.shownumber(toValue.factor / fromValue.factor));
+        Env.out().print(Util.shownumber(toValue.factor / fromValue.factor));
 
-        if (Env.verbose==2)
-          Env.out.print(")" + sep + " " + toExpr);
+        if (Env.verbose()==2)
+          Env.out().print(")" + sep + " " + toExpr);
       }
-      Env.out.println("");
+      Env.out().println("");
       return true;
     }
 }
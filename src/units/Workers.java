@@ -0,0 +1,254 @@
+//=========================================================================
+//
+//  Part of units package -- a Java version of GNU Units program.
+//
+//  Units is a program for unit conversion originally written in C
+//  by Adrian Mariano (adrian@cam.cornell.edu.).
+//  Copyright (C) 1996, 1997, 1999, 2000, 2001, 2002, 2003, 2004,
+//  2005, 2006, 2007, 2009, 2011 by Free Software Foundation, Inc.
+//
+//  Java version Copyright (C) 2003, 2004, 2005, 2006, 2007, 2008,
+//  2009, 2011, 2012 by Roman R Redziejowski (www.romanredz.se).
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program. If not, see <http://www.gnu.org/licenses/>.
+//
+//-------------------------------------------------------------------------
+//
+//  Change log
+//
+//  Version 1.89.J02.
+//    261017 Created.
+//           Added 'background'.
+//
+//=========================================================================
+
+package units;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+//
+//  class Workers
+//
+//HHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHHH
+/**
+ *  Pool of daemon threads for work done in parallel while loading
+ *  a UnitsEngine. Contains static methods only; is never instantiated.
+ *  <p>
+ *  The pool has one thread per available processor, and is created
+ *  when first needed. With one processor, or when invoked from
+ *  a pool thread, the tasks are run by the invoking thread.
+ *  The tasks must bind themselves the UnitsEngine and Env.Options
+ *  they need (see 'enter' in UnitsEngine and Env).
+ *  <p>
+ *  Work that nobody waits for is done by 'background' in a single
+ *  daemon thread of minimum priority, that runs the tasks one by one.
+ *  Tasks it invokes by 'run' are run by the same thread.
+ */
+
+class Workers
+{
+  //-------------------------------------------------------------------
+  //  Number of threads.
+  //-------------------------------------------------------------------
+  static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  //-------------------------------------------------------------------
+  //  The pool, or null if not yet created.
+  //-------------------------------------------------------------------
+  private static ExecutorService pool = null;
+
+  //-------------------------------------------------------------------
+  //  The background thread, or null if not yet created.
+  //-------------------------------------------------------------------
+  private static ExecutorService background = null;
+
+  //-------------------------------------------------------------------
+  //  Is the current thread a pool thread?
+  //-------------------------------------------------------------------
+  private static final ThreadLocal<Boolean> inPool
+    = new ThreadLocal<Boolean>();
+
+
+  //=====================================================================
+  //  run
+  //=====================================================================
+  /**
+   *  Runs given tasks and waits until all are finished.
+   *  An exception or error thrown by a task is thrown again
+   *  after all tasks are finished.
+   *
+   *  @param tasks the tasks.
+   */
+  static void run(final List<Runnable> tasks)
+    {
+      if (THREADS<2 || tasks.size()<2 || inPool.get()!=null)
+      {
+        for (Runnable t: tasks)
+          t.run();
+        return;
+      }
+
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      for (Runnable t: tasks)
+        results.add(pool().submit(t));
+
+      Throwable failure = null;
+      for (Future<?> f: results)
+      {
+        try
+        { getUninterruptibly(f); }
+        catch (ExecutionException e)
+        { if (failure==null) failure = e.getCause(); }
+      }
+
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException)failure;
+      if (failure instanceof Error)
+        throw (Error)failure;
+      if (failure!=null)
+        throw new Error("Program Error; " + failure);
+    }
+
+
+  //=====================================================================
+  //  background
+  //=====================================================================
+  /**
+   *  Runs given task in the background thread, after the tasks
+   *  given earlier, and returns without waiting.
+   *  An exception or error thrown by the task is ignored.
+   *
+   *  @param task the task.
+   */
+  static synchronized void background(final Runnable task)
+    {
+      if (background==null)
+      {
+        background = Executors.newSingleThreadExecutor(new ThreadFactory()
+          {
+            public Thread newThread(final Runnable r)
+              {
+                Thread t = new Thread("UnitsBackground")
+                  {
+                    @Override
+                    public void run()
+                      {
+                        inPool.set(Boolean.TRUE);
+                        r.run();
+                      }
+                  };
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+              }
+          });
+      }
+      background.submit(task);
+    }
+
+
+  //=====================================================================
+  //  split
+  //=====================================================================
+  /**
+   *  Splits a list into about as many parts as there are threads,
+   *  but not smaller than a given size.
+   *
+   *  @param  list the list.
+   *  @param  min  minimum size of a part.
+   *  @return list of the parts, that are views of 'list'.
+   */
+  static <T> List<List<T>> split(final List<T> list, int min)
+    {
+      int n = list.size();
+      int size = Math.max(min,(n+THREADS-1)/THREADS);
+      List<List<T>> parts = new ArrayList<List<T>>();
+      for (int i=0;i<n;i+=size)
+        parts.add(list.subList(i,Math.min(n,i+size)));
+      return parts;
+    }
+
+
+  //=====================================================================
+  //  pool
+  //=====================================================================
+  /**
+   *  Obtains the pool, creating it if needed.
+   */
+  private static synchronized ExecutorService pool()
+    {
+      if (pool==null)
+      {
+        pool = Executors.newFixedThreadPool(THREADS,new ThreadFactory()
+          {
+            private int n = 0;
+
+            public synchronized Thread newThread(final Runnable r)
+              {
+                Thread t = new Thread("UnitsWorker-" + (++n))
+                  {
+                    @Override
+                    public void run()
+                      {
+                        inPool.set(Boolean.TRUE);
+                        r.run();
+                      }
+                  };
+                t.setDaemon(true);
+                return t;
+              }
+          });
+      }
+      return pool;
+    }
+
+
+  //=====================================================================
+  //  getUninterruptibly
+  //=====================================================================
+  /**
+   *  Waits for a task to finish, ignoring interrupts
+   *  but restoring the interrupt status afterwards.
+   */
+  private static void getUninterruptibly(final Future<?> f)
+    throws ExecutionException
+    {
+      boolean interrupted = false;
+      try
+      {
+        while (true)
+        {
+          try
+          {
+            f.get();
+            return;
+          }
+          catch (InterruptedException e)
+          { interrupted = true; }
+        }
+      }
+      finally
+      {
+        if (interrupted) Thread.currentThread().interrupt();
+      }
+    }
+}
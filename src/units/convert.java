@@ -79,6 +79,17 @@
 //           Use encoding from 'Env.encoding' for System.in and out.
 //           'FileAcc' moved from Env to UntisFile.
 //
+//  Version 1.89.J02.
+//    261017 Added 'depends unit' request.
+//           Added option '-S'.
+//           Added option '-M'.
+//           Added option -L.
+//           Option -L completes the definitions in background.
+//           Option -W starts UnitsWatcher.
+//           Bind the engine by 'pin' for the conversions, and by 'repin'
+//           for each interactive conversion.
+//           Option -L is ignored with -C.
+//
 //=========================================================================
 
 package units;
@@ -118,15 +129,19 @@ public class convert
      + "  -g  specify font for browser window\n"
      + "  -h  print this help and exit\n"
      + "  -i  use interactively from command prompt\n"
+     + "  -L  start at once, completing definitions in background (not with -S, -M or -C)\n"
      + "  -l  specify locale\n"
      + "  -q  suppress prompting\n"
      + "  -r  round last element of unit list output to an integer\n"
      + "  -s  suppress reciprocal unit conversion (e.g. Hz<->s)\n"
+     + "  -M  specify a mapped snapshot file, shared by processes (like -S)\n"
+     + "  -S  specify a snapshot file for fast start (rebuilt when out of date)\n"
      + "  -t  terse output (-c -q -s -1)\n"
      + "  -v  print slightly more verbose output\n"
      + "  -1  suppress the second line of output\n"
      + "  -C  check that all units reduce to primitive units\n"
-     + "  -V  describe this version of Units and exit\n\n"
+     + "  -V  describe this version of Units and exit\n"
+     + "  -W  reload definition files when they change (with -i)\n\n"
      + "After starting the program, type 'help' at a prompt\n"
      + "or click on 'Help' button for more help.";
 
@@ -140,7 +155,8 @@ public class convert
      + " At either prompt you can type:\n"
      + "  'help' to see this message, or\n"
      + "  'help unit' to explore units database around the definition of 'unit', or\n"
-     + "  'search text' to see the units whose name contains 'text'.\n\n"
+     + "  'search text' to see the units whose name contains 'text', or\n"
+     + "  'depends unit' to see the units whose definitions depend on 'unit'.\n\n"
      + " Type 'quit' at either prompt to quit.\n\n"
      + " Examples of conversions:\n\n"
      + " EXAMPLE 1. What is 6 feet 7 inches in meters?\n\n"
@@ -227,6 +243,10 @@ public class convert
       Env.strict = false;           // Allow reciprocal conversion
       Env.unitcheck = false;        // No unit checking
       Env.round = false;            // Round last item of unit list
+      Env.snapshot = null;          // No snapshot file
+      Env.mapped = null;            // No mapped snapshot file
+      Env.lazy = false;             // Construct all entities at start
+      Env.watch = false;            // Do not watch definition files
 
       //---------------------------------------------------------------
       //  Get option values from properties file (if any).
@@ -242,7 +262,7 @@ public class convert
       //  Parse command argument vector 'argv'.
       //  Write usage message and return if error detected.
       //---------------------------------------------------------------
-      CommandArgs cmd = new CommandArgs(argv,"chiqrstv1CV","efgl",0,2);
+      CommandArgs cmd = new CommandArgs(argv,"chiqrstv1CLVW","efglMS",0,2);
       if (cmd.nErrors()>0)
       {
         Env.out.println(USAGE);
@@ -302,16 +322,43 @@ public class convert
         System.exit(0);
       }
 
+      //---------------------------------------------------------------
+      //  If requested, reload definition files when they change.
+      //---------------------------------------------------------------
+      if (Env.watch)
+        UnitsEngine.watch(UnitsWatcher.INTERVAL,null);
+
       //---------------------------------------------------------------
       //  Proceed to do conversions.
       //---------------------------------------------------------------
-      if (cmd.nArgs()>0) noninteractive(cmd);
-      else interactive();
+      conversions(cmd);
 
      // System.exit(0);
     }
 
 
+  //=====================================================================
+  //  conversions
+  //=====================================================================
+  /**
+   *  Does the conversions with the current engine bound to the thread
+   *  (see 'pin' in UnitsEngine), so that a reload meanwhile does not
+   *  mix two engines in one conversion. In interactive use, the engine
+   *  is bound anew when each conversion starts (see 'repin').
+   */
+  private static void conversions(CommandArgs cmd)
+    {
+      UnitsEngine prev = UnitsEngine.pin();
+      try
+      {
+        if (cmd.nArgs()>0) noninteractive(cmd);
+        else interactive();
+      }
+      finally
+      { UnitsEngine.leave(prev); }
+    }
+
+
   //=====================================================================
   //  noninteractive
   //=====================================================================
@@ -432,6 +479,11 @@ public class convert
           if (havestr==null || havestr.equals("quit"))
             break mainloop;
 
+          //-----------------------------------------------------------
+          //  Use for this conversion the engine that is current now.
+          //-----------------------------------------------------------
+          UnitsEngine.repin();
+
           //-----------------------------------------------------------
           //  If the user entered "help" or "search",
           //  provide the requested information and keep prompting.
@@ -556,6 +608,8 @@ public class convert
       if (cmd.opt('f')) Env.filenames = cmd.optArgs('f');
       if (cmd.opt('g')) Env.font = cmd.optArg('g');
       if (cmd.opt('l')) Env.locale = cmd.optArg('l');
+      if (cmd.opt('S')) Env.snapshot = cmd.optArg('S');
+      if (cmd.opt('M')) Env.mapped = cmd.optArg('M');
 
       if (cmd.opt('v')) Env.verbose = 2;
       if (cmd.opt('c')) Env.verbose = 0;
@@ -564,6 +618,8 @@ public class convert
       if (cmd.opt('r')) Env.round = true;
       if (cmd.opt('s')) Env.strict = true;
       if (cmd.opt('C')) Env.unitcheck = true;
+      if (cmd.opt('L')) Env.lazy = true;
+      if (cmd.opt('W')) Env.watch = true;
       if (cmd.opt('t'))
       {
         Env.verbose = 0;
@@ -587,6 +643,8 @@ public class convert
    *  definition file for that unit and returns true.
    *  If 's' is 'search' followed by some text, shows a list
    *  of unit names containing that text as substring.
+   *  If 's' is 'depends' followed by a unit name, shows a list
+   *  of entities depending on that unit.
    *  Otherwise returns false.
    *
    *  @param  s string to be checked for being request for help.
@@ -639,6 +697,17 @@ public class convert
         return true;
       }
 
+      //---------------------------------------------------------------
+      //  Request for dependents? ('depends unit')
+      //---------------------------------------------------------------
+      if (str.startsWith("depends ") ||
+          str.startsWith("depends\t"))
+      {
+        str = str.substring("depends ".length(),str.length()).trim();
+        Tables.showDependents(str);
+        return true;
+      }
+
       return false;
     }
 
@@ -6,14 +6,50 @@ import org.junit.runners.Suite;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import units.CircularTest;
+import units.ConversionTest;
+import units.DefaultSnapshotTest;
+import units.DimensionTest;
 import units.ErrorTest;
+import units.ExprTest;
+import units.FactorTest;
+import units.FrozenMapTest;
 import units.FunctionTest;
+import units.LazyTablesTest;
+import units.MappedSnapshotTest;
+import units.NameResolutionTest;
+import units.ParseTest;
+import units.ProductTest;
+import units.QuantityTest;
+import units.SnapshotTest;
+import units.TabularFunctionTest;
+import units.TwoEnginesTest;
+import units.UnitsEngineTest;
+import units.UnitsFileTest;
 import units.convertTest;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 	convertTest.class,
 	FunctionTest.class,
-	ErrorTest.class
+	ErrorTest.class,
+	UnitsFileTest.class,
+	ConversionTest.class,
+	TabularFunctionTest.class,
+	UnitsEngineTest.class,
+	CircularTest.class,
+	SnapshotTest.class,
+	MappedSnapshotTest.class,
+	DefaultSnapshotTest.class,
+	LazyTablesTest.class,
+	DimensionTest.class,
+	FactorTest.class,
+	ProductTest.class,
+	QuantityTest.class,
+	NameResolutionTest.class,
+	ParseTest.class,
+	ExprTest.class,
+	TwoEnginesTest.class,
+	FrozenMapTest.class
 })
 public class TestSuite {
 
@@ -0,0 +1,148 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircularTest {
+
+	static final String CYCLES = "m !\n" + "d 4 m\n"
+			+ "fff(x) [1;1] ggg(x) ; ~ggg(fff)\n"
+			+ "ggg(x) [1;1] fff(x) ; ~fff(ggg)\n" + "b 3 a\n" + "c 2 c\n"
+			+ "a 2 b\n";
+
+	UnitsEngine saved;
+	Env.Writer savedOut;
+	Vector<String> savedFiles;
+	String savedLocale;
+	boolean savedLazy;
+	boolean savedCheck;
+
+	@Before
+	public void save() {
+		saved = UnitsEngine.standard();
+		savedOut = Env.out;
+		savedFiles = Env.filenames;
+		savedLocale = Env.locale;
+		savedLazy = Env.lazy;
+		savedCheck = Env.unitcheck;
+	}
+
+	@After
+	public void restore() {
+		UnitsEngine.setStandard(saved);
+		Env.out = savedOut;
+		Env.filenames = savedFiles;
+		Env.locale = savedLocale;
+		Env.lazy = savedLazy;
+		Env.unitcheck = savedCheck;
+	}
+
+	/** Messages about circular definitions, in order of the file. */
+	static String expected(File f) {
+		String w = "'" + f.getPath() + "', line ";
+		return w + "3. Definition of 'fff' is circular: "
+				+ "'fff', 'ggg' depend on each other.\n" + w
+				+ "4. Definition of 'ggg' is circular: "
+				+ "'fff', 'ggg' depend on each other.\n" + w
+				+ "5. Definition of 'b' is circular: "
+				+ "'b', 'a' depend on each other.\n" + w
+				+ "6. Definition of 'c' is circular: it depends on itself.\n"
+				+ w + "7. Definition of 'a' is circular: "
+				+ "'b', 'a' depend on each other.\n";
+	}
+
+	@Test
+	public void eager_test() throws Exception {
+		File f = Engines.write(CYCLES);
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = Engines.load(out, f.getPath());
+		assertEquals(expected(f), out.toString());
+
+		assertTrue(e.units.get("a").circular);
+		assertTrue(e.units.get("b").circular);
+		assertTrue(e.units.get("c").circular);
+		assertFalse(e.units.get("d").circular);
+		assertTrue(e.functions.get("fff").circular);
+		assertTrue(e.functions.get("ggg").circular);
+
+		assertEquals("Definition of 'a' is circular.\n",
+				Engines.convert(e, "a", "m"));
+		assertEquals("Definition of 'c' is circular.\n",
+				Engines.convert(e, "c", "m"));
+		assertEquals("Definition of 'fff' is circular.\n",
+				Engines.convert(e, "fff(2)", "m"));
+		assertEquals("4\n", Engines.convert(e, "d", "m"));
+	}
+
+	/** The order of messages does not depend on the names. */
+	@Test
+	public void order_test() throws Exception {
+		File f = Engines.write("m !\nzz 2 yy\nyy 3 zz\nxx 2 xx\n");
+		Engines.Out out = new Engines.Out();
+		Engines.load(out, f.getPath());
+		String w = "'" + f.getPath() + "', line ";
+		String[] lines = out.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0], lines[0].startsWith(w + "2. Definition of 'zz'"));
+		assertTrue(lines[1], lines[1].startsWith(w + "3. Definition of 'yy'"));
+		assertTrue(lines[2], lines[2].startsWith(w + "4. Definition of 'xx'"));
+	}
+
+	/** Loaded lazily, a cycle is reported when one of its units is used. */
+	@Test
+	public void lazy_test() throws Exception {
+		File f = Engines.write(CYCLES);
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = Engines.engine("en_US", f.getPath());
+		assertTrue(e.loadLazily(Engines.options(out)));
+		assertEquals("", out.toString());
+		assertEquals("4\n", Engines.convert(e, "d", "m"));
+		String w = "'" + f.getPath() + "', line ";
+		assertEquals(w + "5. Definition of 'b' is circular: "
+				+ "'b', 'a' depend on each other.\n" + w
+				+ "7. Definition of 'a' is circular: "
+				+ "'b', 'a' depend on each other.\n"
+				+ "Definition of 'a' is circular.\n",
+				Engines.convert(e, "a", "m"));
+	}
+
+	/** With checking requested, -L does not defer the cycle check. */
+	@Test
+	public void lazy_with_check_test() throws Exception {
+		File f = Engines.write(CYCLES);
+		Engines.Out out = new Engines.Out();
+		Env.out = out;
+		Env.filenames = new Vector<String>();
+		Env.filenames.add(f.getPath());
+		Env.locale = "en_US";
+		Env.lazy = true;
+		Env.unitcheck = true;
+		assertTrue(Tables.build());
+		assertEquals(expected(f), out.toString());
+		assertNull(UnitsEngine.standard().lazy);
+	}
+
+	/** Checking does not report again the cycles reported at load. */
+	@Test
+	public void check_test() throws Exception {
+		File f = Engines.write(CYCLES + "e 2 a\n");
+		Engines.Out out = new Engines.Out();
+		Env.out = out;
+		Env.filenames = new Vector<String>();
+		Env.filenames.add(f.getPath());
+		Env.locale = "en_US";
+		Env.lazy = false;
+		Env.unitcheck = true;
+		assertTrue(Tables.build());
+		Tables.check();
+		assertEquals(expected(f) + "'" + f.getPath()
+				+ "', line 8. Definition of 'a' is circular.\n",
+				out.toString());
+	}
+}
@@ -0,0 +1,199 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConversionTest extends Engines.Default {
+
+	static final double[] POINTS = { -300, -10, -1, -0.5, 0, 1e-3, 0.5, 1,
+			2, 7, 40, 1000 };
+
+	/** Checks that two results agree up to reassociation. */
+	static void assertClose(String what, double expected, double actual) {
+		double tol = 1e-13 * Math.max(Math.abs(expected), Math.abs(actual))
+				+ 1e-12;
+		if (Math.abs(expected - actual) > tol)
+			fail(what + ": expected " + expected + " but was " + actual);
+	}
+
+	/** Factor of a reduced unit expression. */
+	static double factor(String unit) {
+		Value v = Value.parse(unit);
+		v.completereduce();
+		return v.factor;
+	}
+
+	/** Function from the table of the engine. */
+	static ComputedFunction function(String name) {
+		return (ComputedFunction) DefinedFunction.table().get(name);
+	}
+
+	/** Function or its inverse applied to x in base units by Value. */
+	static Value apply(ComputedFunction f, boolean inv, double x) {
+		Quantity q = f.parameter(inv);
+		Value v = new Value(new Quantity(x, q == null ? Dimension.ONE : q.dim));
+		if (inv)
+			f.applyInverseTo(v);
+		else
+			f.applyTo(v);
+		v.completereduce();
+		return v;
+	}
+
+	@Test
+	public void unit_to_unit_test() {
+		String[][] pairs = { { "ft", "m" }, { "mph", "km/hr" },
+				{ "gallon", "liter" }, { "acre ft", "m^3" }, { "psi", "atm" } };
+		for (String[] p : pairs) {
+			Conversion c = engine.conversion(p[0], p[1]);
+			double r = factor(p[0]) / factor(p[1]);
+			for (double x : POINTS)
+				assertClose(p[0] + " -> " + p[1], x * r, c.apply(x));
+		}
+		assertClose("ft -> m", 0.3048, engine.conversion("ft", "m").apply(1));
+	}
+
+	@Test
+	public void affine_test() {
+		Conversion c = engine.conversion("tempF", "tempC");
+		assertClose("tempF(212)", 100, c.apply(212));
+		assertClose("tempF(32)", 0, c.apply(32));
+		assertClose("tempF(-40)", -40, c.apply(-40));
+		Conversion k = engine.conversion("tempC", "K");
+		assertClose("tempC(25)", 298.15, k.apply(25));
+		Conversion i = engine.conversion("K", "tempC");
+		assertClose("~tempC(273.15 K)", 0, i.apply(273.15));
+	}
+
+	@Test
+	public void nonlinear_test() {
+		ComputedFunction pH = function("pH");
+		Conversion c = engine.conversion("pH", "mol/liter");
+		double mol = factor("mol/liter");
+		for (double x : new double[] { 0, 1, 3.5, 7, 14 })
+			assertClose("pH(" + x + ")", apply(pH, false, x).factor / mol,
+					c.apply(x));
+		assertClose("pH(7)", 1e-7, c.apply(7));
+
+		ComputedFunction dB = function("dB");
+		Conversion d = engine.conversion("dB", "1");
+		for (double x : new double[] { -20, 0, 3, 10, 60 })
+			assertClose("dB(" + x + ")", apply(dB, false, x).factor,
+					d.apply(x));
+		assertClose("dB(10)", 10, d.apply(10));
+	}
+
+	@Test
+	public void inverse_test() {
+		ComputedFunction tempF = function("tempF");
+		ComputedFunction tempC = function("tempC");
+		Conversion c = engine.conversion("tempC", "tempF");
+		for (double x : POINTS) {
+			Value v = apply(tempC, false, x);
+			tempF.applyInverseTo(v);
+			v.completereduce();
+			assertClose("tempC -> tempF", v.factor, c.apply(x));
+		}
+		assertClose("tempC(100) -> tempF", 212, c.apply(100));
+
+		ComputedFunction pH = function("pH");
+		Conversion p = engine.conversion("mol/liter", "pH");
+		Conversion q = engine.conversion("~pH", "1");
+		double mol = factor("mol/liter");
+		for (double x : new double[] { 1, 1e-7, 3e-3 }) {
+			double expected = apply(pH, true, x * mol).factor;
+			assertClose("~pH(" + x + ")", expected, p.apply(x));
+			assertClose("~pH(" + x + ")", expected, q.apply(x * mol));
+		}
+
+		double[] y = new double[] { 1, 1e-7, 3e-3 };
+		p.apply(y, y);
+		assertClose("~pH(1e-7)", 7, y[1]);
+	}
+
+	@Test
+	public void domain_error_test() {
+		ComputedFunction pH = function("pH");
+		Conversion p = engine.conversion("mol/liter", "pH");
+		for (double x : new double[] { 0, -1 }) {
+			try {
+				apply(pH, true, x);
+				fail("Value ~pH(" + x + ")");
+			} catch (EvalError e) {
+			}
+			try {
+				p.apply(x);
+				fail("Conversion ~pH(" + x + ")");
+			} catch (EvalError e) {
+			}
+		}
+	}
+
+	@Test
+	public void not_conformable_test() {
+		try {
+			engine.conversion("ft", "kg");
+			fail("ft -> kg");
+		} catch (EvalError e) {
+			assertEquals("Units 'ft' and 'kg' are not conformable.",
+					e.getMessage());
+		}
+		try {
+			engine.conversion("tempC", "m");
+			fail("tempC -> m");
+		} catch (EvalError e) {
+		}
+	}
+
+	/**
+	 * Every definition of a computed function that lowers gives the same
+	 * results as the Value path, and the same domain errors.
+	 */
+	@Test
+	public void all_functions_test() {
+		int definitions = 0;
+		int lowered = 0;
+		int points = 0;
+		for (Map.Entry<String, DefinedFunction> en : DefinedFunction.table()
+				.entrySet()) {
+			if (!(en.getValue() instanceof ComputedFunction))
+				continue;
+			ComputedFunction f = (ComputedFunction) en.getValue();
+			for (int i = 0; i < 2; i++) {
+				boolean inv = i == 1;
+				definitions++;
+				Quantity q = f.parameter(inv);
+				Dimension d = q == null ? Dimension.ONE : q.dim;
+				Conversion.Lowered l = f.lower(new Conversion.Lowered(d,
+						Conversion.IDENTITY), inv);
+				if (l == null)
+					continue;
+				lowered++;
+				String name = (inv ? "~" : "") + en.getKey();
+				for (double x : POINTS) {
+					Value v;
+					try {
+						v = apply(f, inv, x);
+					} catch (EvalError e) {
+						try {
+							double r = l.fn.apply(x);
+							fail(name + "(" + x + "): " + e.getMessage()
+									+ " but Conversion gave " + r);
+						} catch (EvalError expected) {
+						}
+						continue;
+					}
+					points++;
+					assertSame(name, v.dimension(), l.dim);
+					assertClose(name + "(" + x + ")", v.factor, l.fn.apply(x));
+				}
+			}
+		}
+		assertTrue(definitions > 90);
+		assertTrue(lowered + " of " + definitions, lowered >= definitions - 5);
+		assertTrue(points > 300);
+	}
+}
@@ -0,0 +1,156 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DefaultSnapshotTest {
+
+	File resource;
+	byte[] savedResource;
+	UnitsEngine saved;
+	Env.Writer savedOut;
+	Vector<String> savedFiles;
+	String savedLocale;
+	boolean savedLazy;
+	int savedVerbose;
+
+	static byte[] read(File f) throws Exception {
+		byte[] b = new byte[(int) f.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			in.readFully(b);
+		} finally {
+			in.close();
+		}
+		return b;
+	}
+
+	static void write(File f, byte[] b) throws Exception {
+		FileOutputStream os = new FileOutputStream(f);
+		try {
+			os.write(b);
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Builds the snapshot as the build does, next to the classes,
+	 * keeping one that is already there.
+	 */
+	@Before
+	public void build() throws Exception {
+		saved = UnitsEngine.standard();
+		savedOut = Env.out;
+		savedFiles = Env.filenames;
+		savedLocale = Env.locale;
+		savedLazy = Env.lazy;
+		savedVerbose = Env.verbose;
+
+		File classes = new File(DefaultSnapshot.class.getResource(
+				"DefaultSnapshot.class").toURI()).getParentFile();
+		resource = new File(classes, DefaultSnapshot.RESOURCE);
+		if (resource.exists())
+			savedResource = read(resource);
+		DefaultSnapshot.main(new String[] { resource.getPath() });
+		Env.out = savedOut;
+	}
+
+	@After
+	public void restore() throws Exception {
+		if (savedResource != null)
+			write(resource, savedResource);
+		else
+			resource.delete();
+		UnitsEngine.setStandard(saved);
+		Env.out = savedOut;
+		Env.filenames = savedFiles;
+		Env.locale = savedLocale;
+		Env.lazy = savedLazy;
+		Env.verbose = savedVerbose;
+	}
+
+	/** Builds the standard engine as the program does without options. */
+	static UnitsEngine start(Engines.Out out) {
+		Env.out = out;
+		Env.filenames = new Vector<String>();
+		Env.filenames.add(Env.UNITSFILE);
+		Env.locale = Env.LOCALE;
+		Env.lazy = false;
+		Env.verbose = 2;
+		assertTrue(Tables.build());
+		return UnitsEngine.standard();
+	}
+
+	/**
+	 * Only the default file in the default locale uses the snapshot. It is
+	 * not used silently, also in verbose mode.
+	 */
+	@Test
+	public void used_test() throws Exception {
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = start(out);
+		assertEquals("", out.toString());
+		assertNull("read from the snapshot", e.graph);
+		SnapshotTest.assertSameEngine(Engines.load(Env.UNITSFILE), e);
+
+		Vector<String> files = new Vector<String>();
+		files.add(Env.UNITSFILE);
+		assertNotNull(DefaultSnapshot.read(files, Env.LOCALE));
+		out = new Engines.Out();
+		Env.Options opts = Engines.options(out);
+		opts.verbose = 2;
+		Env.Options prev = Env.enter(opts);
+		try {
+			assertNull(DefaultSnapshot.read(files, "en_GB"));
+			files.add(Engines.write("foo 2 m\n").getPath());
+			assertNull(DefaultSnapshot.read(files, Env.LOCALE));
+		} finally {
+			Env.leave(prev);
+		}
+		assertEquals("", out.toString());
+	}
+
+	/**
+	 * A snapshot whose checksum of 'units.dat' differs from the file,
+	 * as when the file was changed after the build, is not used:
+	 * the file is loaded instead, without a message.
+	 */
+	@Test
+	public void changed_units_file_test() throws Exception {
+		byte[] b = read(resource);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+		in.readInt(); // magic
+		in.readInt(); // format
+		in.readUTF(); // version
+		in.readUTF(); // locale
+		for (int n = in.readInt(); n > 0; n--)
+			in.readUTF(); // sources
+		assertEquals(1, in.readInt());
+		assertEquals(Env.UNITSFILE, in.readUTF());
+		b[b.length - in.available() + 7] ^= 1; // checksum of the file
+		CRC32 crc = new CRC32();
+		crc.update(b, 0, b.length - 8);
+		long sum = crc.getValue();
+		for (int i = 0; i < 8; i++)
+			b[b.length - 1 - i] = (byte) (sum >>> (8 * i));
+		write(resource, b);
+
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = start(out);
+		assertEquals("", out.toString());
+		assertNotNull("loaded from the file", e.graph);
+		assertEquals("0.3048\n", Engines.convert(e, "ft", "m"));
+	}
+}
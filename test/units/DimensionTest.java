@@ -0,0 +1,130 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DimensionTest extends Engines.Default {
+
+	static Dimension dim(String expr) {
+		Value v = Value.fromString(expr);
+		assertNotNull(expr, v);
+		return v.dimension();
+	}
+
+	/** Conformable expressions have the same Dimension object. */
+	@Test
+	public void interned_test() {
+		Dimension speed = dim("m/s");
+		assertSame(speed, dim("ft/hr"));
+		assertSame(speed, dim("knot"));
+		assertSame(speed, dim("furlongs/fortnight"));
+		assertSame(speed, dim("m s / s^2"));
+		assertSame(dim("J"), dim("kg m^2 / s^2"));
+		assertSame(dim("J"), dim("N m"));
+		assertSame(Dimension.ONE, dim("17"));
+		assertSame(Dimension.ONE, dim("m/ft"));
+		assertNotSame(speed, dim("m/s^2"));
+		assertNotSame(dim("J"), dim("W"));
+	}
+
+	/** Primitive units in order of 'id', each with a nonzero exponent. */
+	@Test
+	public void canonical_test() {
+		Dimension d = dim("kg m^2 / A^2 s^3 m");
+		assertEquals(d.units.length, d.exps.length);
+		for (int i = 0; i < d.units.length; i++) {
+			assertTrue(d.units[i].name, d.units[i] instanceof Unit);
+			assertTrue(d.units[i].name, ((Unit) d.units[i]).isPrimitive);
+			assertTrue(d.units[i].name, d.exps[i] != 0);
+			if (i > 0)
+				assertTrue(d.units[i - 1].id < d.units[i].id);
+		}
+		assertSame(d, dim("kg m / A^2 s^3"));
+	}
+
+	/** Operations on Dimensions give the interned results. */
+	@Test
+	public void operations_test() {
+		Dimension m = dim("m");
+		Dimension s = dim("s");
+		assertSame(dim("m/s"), m.times(s.inverse()));
+		assertSame(dim("m^2"), m.power(2));
+		assertSame(m, dim("m^2").root(2));
+		assertNull(dim("m^3").root(2));
+		assertSame(Dimension.ONE, m.times(m.inverse()));
+		assertSame(m, m.times(Dimension.ONE));
+
+		// The inverse is computed once.
+		Dimension inv = dim("ohm").inverse();
+		assertSame(inv, dim("ohm").inverse());
+		assertSame(dim("siemens"), inv);
+		assertSame(dim("ohm"), inv.inverse());
+
+		// Dimensionless primitive units are dropped by 'dimfree'.
+		assertNotSame(dim("1/s"), dim("radian/s"));
+		assertSame(dim("1/s"), dim("radian/s").dimfree());
+		assertTrue(dim("radian/s").conformsTo(dim("Hz"), Ignore.DIMLESS));
+		assertFalse(dim("radian/s").conformsTo(dim("Hz"), Ignore.NONE));
+	}
+
+	/** Conformability by Dimension, including the reciprocal check. */
+	@Test
+	public void conversion_test() {
+		Value a = Value.fromString("mph");
+		Value b = Value.fromString("km/hr");
+		assertTrue(a.isCompatibleWith(b, Ignore.NONE));
+		assertFalse(a.isCompatibleWith(Value.fromString("kg"), Ignore.NONE));
+
+		assertEquals("\treciprocal conversion\n1\n",
+				Engines.convert(engine, "ohm", "siemens"));
+		assertEquals("Conformability error\nkg m^2 / A^2 s^3\nA\n",
+				Engines.convert(engine, "ohm", "A"));
+		assertEquals("1.609344\n", Engines.convert(engine, "mph", "km/hr"));
+	}
+
+	/**
+	 * Dimensions computed only for requests are forgotten when no longer
+	 * used; those of the tables and those in use are kept.
+	 */
+	@Test
+	public void forgotten_test() {
+		Dimension speed = dim("m/s");
+		int before = engine.dimensions.size();
+		List<Dimension> used = new ArrayList<Dimension>();
+		for (int n = 2; n < 5002; n++)
+			used.add(dim("m^" + n));
+		assertTrue(engine.dimensions.size() >= before + 4990);
+		used.clear();
+		for (int i = 0; i < 100 && engine.dimensions.size() > before + 100; i++)
+			System.gc();
+		assertTrue(engine.dimensions.size() + " of " + before,
+				engine.dimensions.size() <= before + 100);
+		assertSame(speed, dim("knot"));
+		assertSame(dim("J"), dim("N m"));
+		assertEquals(7, dim("m^7").exps[0]);
+	}
+
+	/** Equal Dimensions conform also if they are not the same object. */
+	@Test
+	public void conforms_test() {
+		Dimension d = dim("m^3/s");
+		Factor[] u = d.units.clone();
+		int[] e = d.exps.clone();
+		UnitsEngine other = Engines.load("units.dat");
+		UnitsEngine p = other.enter();
+		Dimension o;
+		try {
+			o = Dimension.intern(u, e, u.length);
+		} finally {
+			UnitsEngine.leave(p);
+		}
+		assertNotSame(d, o);
+		assertTrue(d.conformsTo(o, Ignore.NONE));
+		assertTrue(d.conformsTo(o, Ignore.DIMLESS));
+		assertFalse(d.conformsTo(dim("m^3"), Ignore.NONE));
+	}
+}
@@ -0,0 +1,189 @@
+package units;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Helpers for tests that build UnitsEngines directly:
+ * loading, dumping the tables, and writing units files.
+ */
+class Engines {
+
+	static {
+		if (UnitsFile.fileAcc == null)
+			UnitsFile.fileAcc = new UnitsFile.StandAcc();
+	}
+
+	/** Writer that collects the output. */
+	static class Out extends Env.Writer {
+		final StringBuffer text = new StringBuffer();
+
+		@Override
+		void print(String s) {
+			text.append(s);
+		}
+
+		@Override
+		void println(String s) {
+			text.append(s).append('\n');
+		}
+
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+	}
+
+	/** Options writing to a given Out. */
+	static Env.Options options(Out out) {
+		Env.Options opts = new Env.Options();
+		opts.verbose = 1;
+		opts.oneline = false;
+		opts.strict = false;
+		opts.round = false;
+		opts.out = out;
+		return opts;
+	}
+
+	/** Engine for given files, not yet loaded. */
+	static UnitsEngine engine(String locale, String... files) {
+		return new UnitsEngine(new Vector<String>(Arrays.asList(files)), locale);
+	}
+
+	/** Engine for given files, loaded eagerly; messages go to 'out'. */
+	static UnitsEngine load(Out out, String... files) {
+		UnitsEngine e = engine("en_US", files);
+		if (!e.load(options(out)))
+			throw new AssertionError("not loaded: " + out);
+		return e;
+	}
+
+	/** Engine for given files, loaded eagerly; messages are dropped. */
+	static UnitsEngine load(String... files) {
+		return load(new Out(), files);
+	}
+
+	/** Engine for units.dat, loaded when first needed and then shared. */
+	static UnitsEngine defaultEngine() {
+		return Shared.ENGINE;
+	}
+
+	private static class Shared {
+		static final UnitsEngine ENGINE = load("units.dat");
+	}
+
+	/**
+	 * Base of test classes that use the engine for units.dat. The engine
+	 * is shared by all of them, and bound to the thread running each test.
+	 */
+	public abstract static class Default {
+
+		static final UnitsEngine engine = defaultEngine();
+
+		private UnitsEngine prev;
+
+		@Before
+		public void enter() {
+			prev = engine.enter();
+		}
+
+		@After
+		public void leave() {
+			UnitsEngine.leave(prev);
+		}
+	}
+
+	/** Engine loaded by the background thread, where all work is sequential. */
+	static UnitsEngine loadSequentially(final Out out, final String... files)
+			throws InterruptedException {
+		final UnitsEngine e = engine("en_US", files);
+		final boolean[] ok = new boolean[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		Workers.background(new Runnable() {
+			public void run() {
+				try {
+					ok[0] = e.load(options(out));
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		done.await();
+		if (!ok[0])
+			throw new AssertionError("not loaded: " + out);
+		return e;
+	}
+
+	/**
+	 * Lines describing the tables of an engine, in table order:
+	 * kind, name, definition, location and circular flag.
+	 */
+	static List<String> dump(UnitsEngine e) {
+		List<String> d = new ArrayList<String>();
+		UnitsEngine prev = e.enter();
+		try {
+			dump(d, "unit", e.units);
+			dump(d, "prefix", e.prefixes);
+			dump(d, "function", e.functions);
+			dump(d, "alias", e.aliases);
+			dump(d, "builtin", e.builtins);
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+		d.add("files " + e.filenames);
+		return d;
+	}
+
+	private static void dump(List<String> d, String kind,
+			Map<String, ? extends Entity> table) {
+		for (Map.Entry<String, ? extends Entity> en : table.entrySet()) {
+			Entity x = en.getValue();
+			String where = x.location == null || x.location.file == null ? ""
+					: x.location.where() + " " + x.location.beginChar + "-"
+							+ x.location.endChar;
+			d.add(kind + " " + en.getKey() + " "
+					+ Arrays.toString(x.expressions()) + " " + where
+					+ (x.circular ? " circular" : ""));
+		}
+	}
+
+	/** Result of a conversion by an engine, as written to the output. */
+	static String convert(UnitsEngine e, String have, String want) {
+		Out out = new Out();
+		Env.Options opts = options(out);
+		opts.verbose = 0;
+		opts.oneline = true;
+		e.convert(have, want, opts);
+		return out.toString();
+	}
+
+	/** Writes a units file in the temporary directory. */
+	static File write(String text) throws IOException {
+		File f = File.createTempFile("units", ".units");
+		f.deleteOnExit();
+		rewrite(f, text);
+		return f;
+	}
+
+	/** Replaces the contents of a file. */
+	static void rewrite(File f, String text) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		try {
+			w.write(text);
+		} finally {
+			w.close();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ExprTest extends Engines.Default {
+
+	static final double[] POINTS = { -10, -1, 0, 1e-3, 0.5, 1, 2, 7, 40,
+			1000 };
+
+	/** Result of parsing, or the error message. */
+	static String parsed(String def, String param, Value arg) {
+		try {
+			Value v = Value.parse(def, param, new Value(arg));
+			v.completereduce();
+			return show(v);
+		} catch (EvalError e) {
+			return "error";
+		}
+	}
+
+	/** Result of evaluating compiled expression, or the error message. */
+	static String evaluated(Expr expr, Value arg) {
+		try {
+			Value v = expr.eval(new Value(arg));
+			v.completereduce();
+			return show(v);
+		} catch (EvalError e) {
+			return "error";
+		}
+	}
+
+	/** Exact bits of the factor, and the Dimension. */
+	static String show(Value v) {
+		return Long.toHexString(Double.doubleToRawLongBits(v.factor)) + " "
+				+ System.identityHashCode(v.dimension());
+	}
+
+	/**
+	 * Every computed function of units.dat compiled gives bit-identical
+	 * results to parsing with the parameter substituted.
+	 */
+	@Test
+	public void same_as_parse_test() {
+		int cases = 0;
+		int compiled = 0;
+		int definitions = 0;
+		for (Map.Entry<String, DefinedFunction> en : DefinedFunction.table()
+				.entrySet()) {
+			if (!(en.getValue() instanceof ComputedFunction))
+				continue;
+			ComputedFunction f = (ComputedFunction) en.getValue();
+			for (int i = 0; i < 2; i++) {
+				boolean inv = i == 1;
+				String def = f.expressions()[inv ? 2 : 0];
+				String param = f.parameters()[i];
+				if (def == null)
+					continue;
+				definitions++;
+				Expr expr;
+				try {
+					expr = Value.compile(def, param);
+				} catch (EvalError e) {
+					continue;
+				}
+				compiled++;
+				Quantity q = f.parameter(inv);
+				Dimension d = q == null ? Dimension.ONE : q.dim;
+				for (double x : POINTS) {
+					Value arg = new Value(new Quantity(x, d));
+					String name = (inv ? "~" : "") + en.getKey() + "(" + x
+							+ ")";
+					assertEquals(name, parsed(def, param, arg),
+							evaluated(expr, arg));
+					cases++;
+				}
+			}
+		}
+		assertTrue(definitions > 90);
+		assertTrue(compiled + " of " + definitions,
+				compiled >= definitions - 5);
+		assertTrue(cases > 900);
+	}
+
+	/** Parts without the parameter are folded into constants. */
+	@Test
+	public void folding_test() {
+		assertTrue(Value.compile("3 ft + 2 inch", "x").isConst());
+		assertFalse(Value.compile("3 ft + x", "x").isConst());
+		assertTrue(Value.compile("x", "x") instanceof Expr.Param);
+
+		Value arg = Value.parse("2 m");
+		Value v = Value.compile("3 ft + x", "x").eval(arg);
+		v.completereduce();
+		assertEquals(3 * 0.3048 + 2, v.factor, 1e-15);
+		try {
+			Value.compile("3 ft + nosuchunit x", "x");
+			fail("nosuchunit");
+		} catch (EvalError e) {
+		}
+	}
+}
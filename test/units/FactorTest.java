@@ -0,0 +1,81 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class FactorTest {
+
+	static final UnitsEngine engine = Engines.defaultEngine();
+
+	/** The reduced form is computed once and kept. */
+	@Test
+	public void memoized_test() {
+		UnitsEngine prev = engine.enter();
+		try {
+			Unit ft = engine.units.get("ft");
+			Quantity q = ft.reduced();
+			assertSame(q, ft.reduced());
+			assertEquals(0.3048, q.factor, 0);
+			assertSame(Value.fromString("m").dimension(), q.dim);
+
+			Prefix kilo = engine.prefixes.get("kilo");
+			assertSame(kilo.reduced(), kilo.reduced());
+			assertEquals(1000, kilo.reduced().factor, 0);
+			assertSame(Dimension.ONE, kilo.reduced().dim);
+
+			// Raised to an exponent at once.
+			Value v = Value.parse("ft^3");
+			v.completereduce();
+			assertEquals(q.power(3).factor, v.factor, 0);
+			assertSame(q.power(3).dim, v.dimension());
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+	}
+
+	/** Reduced forms of a chain contain only primitive units. */
+	@Test
+	public void chain_test() throws Exception {
+		File f = Engines.write("m !\ns !\na 2 m\nb 3 a/s\nc 5 b^2 s\n"
+				+ "x 2 y\ny 3 x\nbad 2 nosuchunit\n");
+		UnitsEngine e = Engines.load(f.getPath());
+		UnitsEngine prev = e.enter();
+		try {
+			Quantity c = e.units.get("c").reduced();
+			assertEquals(180, c.factor, 0);
+			assertSame(Value.fromString("m^2/s").dimension(), c.dim);
+			for (Factor u : c.dim.units)
+				assertTrue(u.isPrimitive);
+			assertSame(c, e.units.get("c").reduced());
+
+			try {
+				e.units.get("x").reduced();
+				fail("x");
+			} catch (EvalError x) {
+				assertEquals("Definition of 'x' is circular.", x.getMessage());
+			}
+			try {
+				e.units.get("bad").reduced();
+				fail("bad");
+			} catch (EvalError x) {
+				assertTrue(x.getMessage(), x.getMessage().startsWith(
+						"Invalid definition of 'bad'. "));
+			}
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+		assertEquals("180\n", Engines.convert(e, "c", "m^2/s"));
+	}
+
+	/** With memoized forms, 'pH(7)' is the exact reciprocal of 1e7. */
+	@Test
+	public void reciprocal_test() {
+		Engines.Out out = new Engines.Out();
+		Env.Options opts = Engines.options(out);
+		engine.convert("pH(7)", "mol/l", opts);
+		assertEquals("\t* 1e-7\n\t/ 10000000\n", out.toString());
+	}
+}
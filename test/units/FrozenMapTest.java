@@ -0,0 +1,185 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FrozenMapTest {
+
+	/** Keys of the entries, in order of iteration. */
+	static List<String> keys(Map<String, ?> m) {
+		List<String> keys = new ArrayList<String>();
+		for (Map.Entry<String, ?> e : m.entrySet())
+			keys.add(e.getKey());
+		return keys;
+	}
+
+	static List<Object> values(Map<String, ?> m) {
+		return new ArrayList<Object>(m.values());
+	}
+
+	/**
+	 * 2^n different Strings with the same hash code, as "Aa" and "BB" have
+	 * the same.
+	 */
+	static List<String> colliding(int n) {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 1 << n; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int b = 0; b < n; b++)
+				sb.append((i >> b & 1) == 0 ? "Aa" : "BB");
+			keys.add(sb.toString());
+		}
+		return keys;
+	}
+
+	/** Every key is found, and names not in the map are not. */
+	@Test
+	public void lookup_test() {
+		Hashtable<String, Integer> m = new Hashtable<String, Integer>();
+		for (int i = 0; i < 5000; i++)
+			m.put("u" + i, i);
+		FrozenMap<Integer> f = new FrozenMap<Integer>(m);
+		assertEquals(m.size(), f.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(Integer.valueOf(i), f.get("u" + i));
+			assertTrue(f.containsKey("u" + i));
+			assertNull(f.get("v" + i));
+			assertFalse(f.containsKey("v" + i));
+		}
+		assertNull(f.get(""));
+		assertNull(f.get(null));
+		assertNull(f.get(Integer.valueOf(1)));
+		assertEquals(m, f);
+		assertEquals(f, m);
+
+		FrozenMap<Integer> empty = new FrozenMap<Integer>(
+				new Hashtable<String, Integer>());
+		assertEquals(0, empty.size());
+		assertTrue(empty.isEmpty());
+		assertNull(empty.get("u1"));
+		assertFalse(empty.entrySet().iterator().hasNext());
+	}
+
+	static void assertSameOrder(Map<String, Integer> m) {
+		FrozenMap<Integer> f = new FrozenMap<Integer>(m);
+		assertEquals(keys(m), keys(f));
+		assertEquals(values(m), values(f));
+		assertEquals(m.keySet(), f.keySet());
+	}
+
+	/** Iteration returns the entries in the order of the source map. */
+	@Test
+	public void order_test() {
+		Hashtable<String, Integer> h = new Hashtable<String, Integer>();
+		LinkedHashMap<String, Integer> l = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < 1000; i++) {
+			h.put("n" + (i * 7919 % 1000), i);
+			l.put("n" + (i * 7919 % 1000), i);
+		}
+		assertSameOrder(h);
+		assertSameOrder(l);
+
+		// The tables of a loaded engine are frozen.
+		UnitsEngine e = Engines.defaultEngine();
+		assertTrue(e.units instanceof FrozenMap);
+		assertTrue(e.prefixes instanceof FrozenMap);
+	}
+
+	/** Methods that would modify the map throw. */
+	@Test
+	public void read_only_test() {
+		Hashtable<String, Integer> m = new Hashtable<String, Integer>();
+		m.put("a", 1);
+		m.put("b", 2);
+		FrozenMap<Integer> f = new FrozenMap<Integer>(m);
+		try {
+			f.put("c", 3);
+			fail("put");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			f.remove("a");
+			fail("remove");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			f.clear();
+			fail("clear");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			f.putAll(m);
+			fail("putAll");
+		} catch (UnsupportedOperationException e) {
+		}
+		Iterator<Integer> v = f.values().iterator();
+		v.next();
+		try {
+			v.remove();
+			fail("values remove");
+		} catch (UnsupportedOperationException e) {
+		}
+		Iterator<Map.Entry<String, Integer>> en = f.entrySet().iterator();
+		try {
+			en.next().setValue(5);
+			fail("setValue");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			en.remove();
+			fail("entrySet remove");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			f.keySet().remove("a");
+			fail("keySet remove");
+		} catch (UnsupportedOperationException e) {
+		}
+		assertEquals(m, f);
+	}
+
+	/** Keys with the same hash code are all found by probing. */
+	@Test
+	public void collisions_test() {
+		List<String> keys = colliding(10);
+		assertEquals(keys.get(0).hashCode(), keys.get(keys.size() - 1)
+				.hashCode());
+		LinkedHashMap<String, Integer> m = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < keys.size(); i += 2)
+			m.put(keys.get(i), i);
+		FrozenMap<Integer> f = new FrozenMap<Integer>(m);
+		for (int i = 0; i < keys.size(); i++)
+			if (i % 2 == 0)
+				assertEquals(Integer.valueOf(i), f.get(keys.get(i)));
+			else
+				assertNull(f.get(keys.get(i)));
+		assertEquals(keys(m), keys(f));
+	}
+
+	/**
+	 * A key is found by an equal String that is not the same object, and
+	 * the identical String finds its own entry.
+	 */
+	@Test
+	public void equal_keys_test() {
+		Hashtable<String, String> m = new Hashtable<String, String>();
+		for (int i = 0; i < 100; i++)
+			m.put("k" + i, "v" + i);
+		FrozenMap<String> f = new FrozenMap<String>(m);
+		for (String k : m.keySet()) {
+			String copy = new String(k);
+			assertNotSame(k, copy);
+			assertSame(m.get(k), f.get(copy));
+			assertSame(m.get(k), f.get(k));
+			assertSame(m.get(k), f.get(new StringBuilder(k).toString()));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class LazyTablesTest {
+
+	/** Sample of units, prefixes, and functions, with a target each. */
+	static final String[][] SAMPLE = { { "ft", "m" }, { "feet", "m" },
+			{ "kft", "mile" }, { "lightyears", "parsec" }, { "euro", "US$" },
+			{ "\u20ac", "US$" }, { "furlongs/fortnight", "m/s" },
+			{ "Btu", "J" }, { "gallon", "liter" }, { "hbar", "J s" },
+			{ "mph", "km/hr" }, { "acre ft", "m^3" }, { "kilo", "1" },
+			{ "micro", "1" }, { "Ki", "1" }, { "megaparsec", "ly" },
+			{ "\u00b5m", "m" }, { "tempF(212)", "tempC" },
+			{ "tempC(25)", "K" }, { "300 K", "tempF" },
+			{ "pH(7)", "mol/liter" }, { "zincgauge(10)", "mm" },
+			{ "1e-7 mol/liter", "pH" }, { "dB(10)", "1" },
+			{ "ft", "kg" }, { "nosuchunit", "m" } };
+
+	/** Definition lines with redefinitions and locales. */
+	static final String DEFS = "m !\ns !\n" + "a 2 m\n" + "b 3 a\n"
+			+ "!locale en_GB\n" + "a 5 m\n" + "gb 7 a\n" + "!endlocale\n"
+			+ "!locale en_US\n" + "us 11 a\n" + "!endlocale\n"
+			+ "a 13 m\n" + "k- 1000\n" + "k- 1024\n"
+			+ "f(x) [m;m] 2 x ; f/2\n" + "f(x) [m;m] 3 x ; f/3\n"
+			+ "g(x) [m;m] x bad ; g\n" + "c 2 b\n";
+
+	static UnitsEngine lazy(Engines.Out out, String locale, String... files) {
+		UnitsEngine e = Engines.engine(locale, files);
+		assertTrue(out.toString(), e.loadLazily(Engines.options(out)));
+		return e;
+	}
+
+	static UnitsEngine eager(Engines.Out out, String locale, String... files) {
+		UnitsEngine e = Engines.engine(locale, files);
+		assertTrue(out.toString(), e.load(Engines.options(out)));
+		return e;
+	}
+
+	/** Description of an entity, as in 'dump' of Engines. */
+	static String describe(Entity x) {
+		if (x == null)
+			return "null";
+		return x.name + " " + Arrays.toString(x.expressions()) + " "
+				+ x.location.where() + " " + x.location.beginChar + "-"
+				+ x.location.endChar + (x.circular ? " circular" : "");
+	}
+
+	static void assertSameConversions(UnitsEngine expected,
+			UnitsEngine actual) {
+		for (String[] c : SAMPLE)
+			assertEquals(c[0] + " -> " + c[1],
+					Engines.convert(expected, c[0], c[1]),
+					Engines.convert(actual, c[0], c[1]));
+	}
+
+	static void assertSameTables(UnitsEngine expected, UnitsEngine actual) {
+		List<String> a = Engines.dump(expected);
+		List<String> b = Engines.dump(actual);
+		assertEquals(a.size(), b.size());
+		for (int i = 0; i < a.size(); i++)
+			assertEquals(a.get(i), b.get(i));
+	}
+
+	/**
+	 * Entities constructed when first used are the same as loaded
+	 * eagerly, and so are the conversions.
+	 */
+	@Test
+	public void sample_test() throws Exception {
+		UnitsEngine eager = Engines.defaultEngine();
+		UnitsEngine lazy = lazy(new Engines.Out(), "en_US", "units.dat");
+		assertSameConversions(eager, lazy);
+
+		String[] units = { "ft", "foot", "mile", "lightyear", "euro",
+				"\u20ac", "US$", "btu", "hbar", "gallon", "nosuchunit" };
+		String[] prefixes = { "kilo", "k", "micro", "\u00b5", "Ki", "mega",
+				"nosuchprefix" };
+		String[] functions = { "tempF", "tempC", "pH", "dB", "zincgauge",
+				"nosuchfunction" };
+		UnitsEngine fresh = lazy(new Engines.Out(), "en_US", "units.dat");
+		for (String u : units)
+			assertEquals(describe(eager.units.get(u)),
+					describe(fresh.units.get(u)));
+		for (String p : prefixes)
+			assertEquals(describe(eager.prefixes.get(p)),
+					describe(fresh.prefixes.get(p)));
+		for (String f : functions)
+			assertEquals(describe(eager.functions.get(f)),
+					describe(fresh.functions.get(f)));
+
+		assertEquals(eager.units.size(), fresh.units.size());
+		assertEquals(eager.prefixes.keySet(), fresh.prefixes.keySet());
+		assertSameTables(eager, lazy);
+	}
+
+	/**
+	 * Locales and redefinitions give the same tables and messages
+	 * as loading eagerly.
+	 */
+	@Test
+	public void redefinitions_test() throws Exception {
+		File f = Engines.write(DEFS);
+		for (String locale : new String[] { "en_US", "en_GB" }) {
+			Engines.Out eagerOut = new Engines.Out();
+			UnitsEngine eager = eager(eagerOut, locale, f.getPath());
+			Engines.Out lazyOut = new Engines.Out();
+			UnitsEngine lazy = lazy(lazyOut, locale, f.getPath());
+
+			for (String u : new String[] { "a", "b", "c", "gb", "us",
+					"ka", "f(2 m)", "~f(6 m)", "g(1 m)" })
+				assertEquals(locale + " " + u, Engines.convert(eager, u, "m"),
+						Engines.convert(lazy, u, "m"));
+			assertSameTables(eager, lazy);
+			assertEquals(eagerOut.toString(), lazyOut.toString());
+		}
+		assertEquals("39\n", Engines.convert(
+				eager(new Engines.Out(), "en_US", f.getPath()), "b", "m"));
+		assertEquals("13312\n", Engines.convert(
+				lazy(new Engines.Out(), "en_US", f.getPath()), "ka", "m"));
+	}
+
+	/** Waits until the background tasks given so far are done. */
+	static void awaitBackground() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		Workers.background(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		});
+		done.await();
+	}
+
+	/**
+	 * An engine serves conversions while it is completed in the
+	 * background, and ends with the same tables as loaded eagerly.
+	 */
+	@Test
+	public void completed_in_background_test() throws Exception {
+		UnitsEngine eager = Engines.defaultEngine();
+		Engines.Out out = new Engines.Out();
+		UnitsEngine lazy = lazy(out, "en_US", "units.dat");
+		assertNull(lazy.trie);
+		lazy.completeLater(Engines.options(out));
+		assertSameConversions(eager, lazy);
+		awaitBackground();
+
+		assertEquals("", out.toString());
+		assertNotNull(lazy.trie);
+		assertNotNull(lazy.cache);
+		assertSameConversions(eager, lazy);
+		assertSameTables(eager, lazy);
+	}
+}
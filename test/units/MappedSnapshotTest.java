@@ -0,0 +1,122 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+public class MappedSnapshotTest {
+
+	static final String EXTRA = "uu 3 ft\nuf(x) [1;m] 2 x m ; uf / 2 m\n"
+			+ "cc 2 cc\n";
+
+	/** Opens a snapshot with messages of verbose mode going to 'out'. */
+	static UnitsEngine open(File snap, Vector<String> files, String locale,
+			Engines.Out out) {
+		Env.Options opts = Engines.options(out);
+		opts.verbose = 2;
+		Env.Options prev = Env.enter(opts);
+		try {
+			return MappedSnapshot.open(snap.getPath(), files, locale);
+		} finally {
+			Env.leave(prev);
+		}
+	}
+
+	static File write(UnitsEngine e) throws Exception {
+		File snap = File.createTempFile("units", ".msnap");
+		snap.deleteOnExit();
+		assertTrue(MappedSnapshot.write(e, snap.getPath()));
+		return snap;
+	}
+
+	/**
+	 * Replaces bytes of a snapshot at given position and, if 'seal',
+	 * updates the checksum at its end.
+	 */
+	static void patch(File snap, int pos, byte[] bytes, boolean seal)
+			throws Exception {
+		RandomAccessFile f = new RandomAccessFile(snap, "rw");
+		try {
+			byte[] all = new byte[(int) f.length()];
+			f.readFully(all);
+			System.arraycopy(bytes, 0, all, pos, bytes.length);
+			f.seek(0);
+			f.write(all, 0, all.length - 8);
+			if (seal) {
+				CRC32 crc = new CRC32();
+				crc.update(all, 0, all.length - 8);
+				f.writeLong(crc.getValue());
+			}
+		} finally {
+			f.close();
+		}
+	}
+
+	/** A mapped snapshot gives the same tables as an eager load. */
+	@Test
+	public void same_as_eager_test() throws Exception {
+		File extra = Engines.write(EXTRA);
+		Vector<String> files = SnapshotTest.files("units.dat", extra.getPath());
+		File snap = write(Engines.load("units.dat", extra.getPath()));
+
+		Engines.Out out = new Engines.Out();
+		UnitsEngine m = open(snap, files, "en_US", out);
+		assertNotNull(out.toString(), m);
+		assertEquals("", out.toString());
+		UnitsEngine eager = Engines.load("units.dat", extra.getPath());
+		SnapshotTest.assertSameEngine(eager, m);
+		assertEquals("6\n", Engines.convert(m, "uf(3)", "m"));
+		assertEquals("Definition of 'cc' is circular.\n",
+				Engines.convert(m, "cc", "m"));
+
+		// Names looked up in the mapped index, without the tables
+		// being iterated first.
+		UnitsEngine m2 = open(snap, files, "en_US", new Engines.Out());
+		for (String u : new String[] { "kilofeet", "megaparsecs", "lbf",
+				"\u20ac" })
+			assertEquals(u, Engines.convert(eager, u, "m kg s"),
+					Engines.convert(m2, u, "m kg s"));
+		assertNull(m2.units.get("nosuchunit"));
+		assertSame(m2.units.get("ft"), m2.units.get("ft"));
+	}
+
+	/** A mapped snapshot is not used for another locale or version. */
+	@Test
+	public void rejected_test() throws Exception {
+		File f = Engines.write("m !\nfoo 2 m\n");
+		Vector<String> files = SnapshotTest.files(f.getPath());
+		File snap = write(Engines.load(f.getPath()));
+		String name = "Snapshot '" + snap.getPath() + "' ";
+
+		Engines.Out out = new Engines.Out();
+		assertNull(open(snap, files, "en_GB", out));
+		assertEquals(name + "was built for another locale; it is not used.\n",
+				out.toString());
+
+		// The version follows magic, format, and length of the string.
+		String other = Env.VERSION.substring(0, Env.VERSION.length() - 1)
+				+ "?";
+		patch(snap, 10, other.getBytes("UTF-8"), true);
+		out = new Engines.Out();
+		assertNull(open(snap, files, "en_US", out));
+		assertEquals(name + "was built by another version; it is not used.\n",
+				out.toString());
+
+		// Changed without updating the checksum.
+		patch(snap, 10, Env.VERSION.getBytes("UTF-8"), false);
+		out = new Engines.Out();
+		assertNull(open(snap, files, "en_US", out));
+		assertEquals(name + "is damaged; it is not used.\n", out.toString());
+
+		// Restored.
+		patch(snap, 10, Env.VERSION.getBytes("UTF-8"), true);
+		UnitsEngine m = open(snap, files, "en_US", new Engines.Out());
+		assertNotNull(m);
+		assertEquals("2\n", Engines.convert(m, "foo", "m"));
+	}
+}
@@ -0,0 +1,173 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NameResolutionTest {
+
+	UnitsEngine engine;
+	UnitsEngine prev;
+
+	@Before
+	public void enter() {
+		engine = Engines.load("units.dat");
+		prev = engine.enter();
+	}
+
+	@After
+	public void leave() {
+		UnitsEngine.leave(prev);
+	}
+
+	/** Names to resolve: units, plurals, prefixed units, and others. */
+	static List<String> names(UnitsEngine e) {
+		List<String> units = new ArrayList<String>(e.units.keySet());
+		List<String> prefixes = new ArrayList<String>(e.prefixes.keySet());
+		List<String> names = new ArrayList<String>();
+		for (String u : units) {
+			names.add(u);
+			names.add(u + "s");
+			names.add(u + "es");
+			if (u.endsWith("y"))
+				names.add(u.substring(0, u.length() - 1) + "ies");
+			names.add(u + "x");
+			if (u.length() > 1)
+				names.add(u.substring(0, u.length() - 1));
+		}
+		for (String p : prefixes) {
+			names.add(p);
+			names.add(p + "s");
+			for (int i = p.length() % 11; i < units.size(); i += 11) {
+				names.add(p + units.get(i));
+				names.add(p + units.get(i) + "s");
+			}
+		}
+		Random r = new Random(1);
+		String chars = "abcdefghijklmnopqrstuvwxyzAEKMGT0123456789_.-'\u00b5";
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int k = 1 + r.nextInt(8); k > 0; k--)
+				sb.append(chars.charAt(r.nextInt(chars.length())));
+			names.add(sb.toString());
+		}
+		return names;
+	}
+
+	/** Result of 'split' in Factor with given trie and cache. */
+	Factor[] split(String name, NameTrie trie, NameCache cache) {
+		NameTrie t = engine.trie;
+		NameCache c = engine.cache;
+		engine.trie = trie;
+		engine.cache = cache;
+		try {
+			return Factor.split(name);
+		} finally {
+			engine.trie = t;
+			engine.cache = c;
+		}
+	}
+
+	static String show(Factor[] pu) {
+		if (pu == null)
+			return "null";
+		return (pu[0] == null ? "-" : pu[0].name) + "|"
+				+ (pu[1] == null ? "-" : pu[1].name);
+	}
+
+	static void assertSameSplit(String name, Factor[] expected,
+			Factor[] actual) {
+		assertEquals(name, show(expected), show(actual));
+		if (expected != null) {
+			assertSame(name, expected[0], actual[0]);
+			assertSame(name, expected[1], actual[1]);
+		}
+	}
+
+	/** The trie resolves names as the tables do. */
+	@Test
+	public void trie_same_as_tables_test() {
+		NameTrie trie = engine.trie;
+		assertNotNull(trie);
+		int recognized = 0;
+		List<String> names = names(engine);
+		for (String n : names) {
+			Factor[] expected = split(n, null, null);
+			assertSameSplit(n, expected, split(n, trie, null));
+			assertSameSplit(n, expected, trie.split(new StringBuilder(n)));
+			if (expected != null)
+				recognized++;
+		}
+		assertTrue(names.size() > 30000);
+		assertTrue(recognized > 10000);
+		assertEquals("-|ft", show(split("fts", trie, null)));
+		assertEquals("k|ft", show(split("kft", trie, null)));
+		assertEquals("kilo|-", show(split("kilo", trie, null)));
+		assertEquals("null", show(split("2ft", trie, null)));
+	}
+
+	/**
+	 * The cache gives the results of the trie, also when it is cleared
+	 * for being full, and when used by several threads.
+	 */
+	@Test
+	public void cache_same_as_trie_test() throws Exception {
+		final NameTrie trie = engine.trie;
+		final NameCache cache = engine.cache;
+		assertNotNull(cache);
+		final List<String> names = names(engine);
+		assertTrue(names.size() > 3 * NameCache.MAXSIZE);
+		for (int pass = 0; pass < 2; pass++)
+			for (String n : names)
+				assertSameSplit(n, trie.split(n), split(n, trie, cache));
+		assertNull(split("qqqzzz", trie, cache));
+		assertNull(split("2ft", trie, cache));
+
+		final List<String> wrong = new ArrayList<String>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int start = t;
+			threads.add(new Thread() {
+				public void run() {
+					for (int i = start; i < names.size(); i += 3) {
+						String n = names.get(i);
+						if (!show(trie.split(n)).equals(show(cache.split(n))))
+							synchronized (wrong) {
+								wrong.add(n);
+							}
+					}
+				}
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		assertEquals(new ArrayList<String>(), wrong);
+	}
+
+	/**
+	 * Defining a unit or prefix discards the trie and cache, and names
+	 * are then resolved by the tables until they are built again.
+	 */
+	@Test
+	public void names_changed_test() {
+		Tables.namesChanged();
+		assertNull(engine.trie);
+		assertNull(engine.cache);
+		assertEquals("k|ft", show(Factor.split("kft")));
+		assertEquals("-|ft", show(Factor.split("fts")));
+
+		NameTrie.build();
+		NameCache.build();
+		assertNotNull(engine.trie);
+		assertNotNull(engine.cache);
+		assertEquals("k|ft", show(Factor.split("kft")));
+	}
+}
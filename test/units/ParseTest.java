@@ -0,0 +1,139 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseTest {
+
+	/**
+	 * Functions applied within functions, and units reduced within
+	 * units, deeper than 4 levels.
+	 */
+	static final String DEFS = "m !\nkg !\n" + "f1(x) [m;m] 2 x ; f1/2\n"
+			+ "f2(x) [m;m] f1(x) + f1(1 m) ; ~f1(f2 - f1(1 m))\n"
+			+ "f3(x) [m;m] f2(f1(x)) ; ~f1(~f2(f3))\n"
+			+ "f4(x) [m;m] f3(f2(x)) ; ~f2(~f3(f4))\n"
+			+ "f5(x) [m;m] f4(f3(x)) ; ~f3(~f4(f5))\n"
+			+ "f6(x) [m;m] f5(f4(x)) ; ~f4(~f5(f6))\n" + "twom 2 m\n"
+			+ "usix f6(1 m)\n" + "ca 2 cb\ncb 2 cc\ncc 2 cd\ncd 2 ce\n"
+			+ "ce 2 cf\ncf 2 cg\ncg 2 usix\n";
+
+	static UnitsEngine engine;
+
+	UnitsEngine prev;
+
+	@Before
+	public void enter() throws Exception {
+		if (engine == null) {
+			File f = Engines.write(DEFS);
+			engine = Engines.load(f.getPath());
+		}
+		prev = engine.enter();
+	}
+
+	@After
+	public void leave() {
+		UnitsEngine.leave(prev);
+	}
+
+	static double meters(String expr) {
+		Value v = Value.parse(expr);
+		v.completereduce();
+		assertSame(expr, Value.parse("m").dimension(), v.dimension());
+		return v.factor;
+	}
+
+	/** f1..f6 computed directly. */
+	static double f(int n, double x) {
+		switch (n) {
+		case 1:
+			return 2 * x;
+		case 2:
+			return f(1, x) + f(1, 1);
+		default:
+			return f(n - 1, f(n - 2, x));
+		}
+	}
+
+	/** Nested parses, each level with its own Parser. */
+	@Test
+	public void nested_test() {
+		for (int n = 1; n <= 6; n++)
+			for (double x : new double[] { 0.5, 1, 3 })
+				assertEquals("f" + n + "(" + x + ")", f(n, x),
+						meters("f" + n + "(" + x + " m)"), 1e-9);
+		assertEquals(128 * f(6, 1), meters("ca"), 1e-9);
+		assertEquals(f(6, 1), meters("usix"), 1e-9);
+		assertEquals(f(6, f(6, 1)), meters("f6(f6(1 m))"), 1e-9);
+		assertEquals(2, meters("~f6(f6(2 m))"), 1e-9);
+		assertEquals(f(3, 2) + f(2, 2), meters("f3(twom) + f2(twom)"), 1e-9);
+	}
+
+	/**
+	 * An error at any level leaves the Parsers ready for the next parse,
+	 * and parameters and results are not kept.
+	 */
+	@Test
+	public void error_test() {
+		for (int i = 0; i < 10; i++) {
+			try {
+				Value.parse("f6(1 kg)");
+				fail("f6(1 kg)");
+			} catch (EvalError e) {
+			}
+			try {
+				Value.parse("f5(1 m) + (");
+				fail("syntax");
+			} catch (EvalError e) {
+			}
+			assertEquals(f(5, 1), meters("f5(1 m)"), 1e-9);
+		}
+
+		// The parameter 'x' of the functions is not a unit afterwards.
+		try {
+			Value.parse("x");
+			fail("x");
+		} catch (EvalError e) {
+			assertEquals("Unit 'x' is unknown.", e.getMessage());
+		}
+	}
+
+	/** Each thread has its own Parsers. */
+	@Test
+	public void threads_test() throws Exception {
+		final List<String> wrong = new ArrayList<String>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int n = 3 + t % 4;
+			threads.add(new Thread() {
+				public void run() {
+					UnitsEngine prev = engine.enter();
+					try {
+						for (int i = 0; i < 200; i++) {
+							double x = 1 + i % 5;
+							double r = meters("f" + n + "(" + x + " m)");
+							if (Math.abs(r - f(n, x)) > 1e-9)
+								synchronized (wrong) {
+									wrong.add(n + " " + x + " " + r);
+								}
+						}
+					} finally {
+						UnitsEngine.leave(prev);
+					}
+				}
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		assertEquals(new ArrayList<String>(), wrong);
+	}
+}
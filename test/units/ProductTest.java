@@ -0,0 +1,80 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ProductTest extends Engines.Default {
+
+	static Factor unit(String name) {
+		return engine.units.get(name);
+	}
+
+	/** Checks that factors are distinct, in order of 'id'. */
+	static void assertSorted(Product p) {
+		for (int i = 0; i < p.size(); i++) {
+			assertTrue(p.exponent(i) > 0);
+			if (i > 0)
+				assertTrue(p.factor(i - 1).id < p.factor(i).id);
+		}
+	}
+
+	/** A power is one entry with the exponent. */
+	@Test
+	public void power_test() {
+		Value v = Value.parse("m^1000");
+		assertEquals(1, v.numerator.size());
+		assertSame(unit("m"), v.numerator.factor(0));
+		assertEquals(1000, v.numerator.exponent(0));
+		assertTrue(v.denominator.isEmpty());
+		assertEquals("Conformability error\nm^1000\nm^999\n",
+				Engines.convert(engine, "m^1000", "m^999"));
+
+		Product p = new Product().add(unit("m"), 3).add(unit("s"));
+		Product q = p.power(4);
+		assertEquals(" m^12 s^4", q.asString());
+		assertEquals(" m^3 s", q.root(4).asString());
+		assertNull(q.root(8));
+		assertTrue(p.power(0).isEmpty());
+	}
+
+	/** Adding keeps distinct factors in order of 'id'. */
+	@Test
+	public void add_test() {
+		String[] names = { "s", "kg", "m", "A", "s", "m", "K", "mol", "cd",
+				"kg" };
+		Product p = new Product();
+		for (String n : names)
+			p.add(unit(n));
+		assertSorted(p);
+		assertEquals(7, p.size());
+		assertEquals(" A K cd kg^2 m^2 mol s^2", p.asString());
+
+		Product r = new Product();
+		for (int i = names.length - 1; i >= 0; i--)
+			r.add(new Product().add(unit(names[i])));
+		assertSorted(r);
+		assertTrue(p.hasSameFactorsAs(r, Ignore.NONE));
+		assertFalse(p.hasSameFactorsAs(r.add(unit("m")), Ignore.NONE));
+	}
+
+	/** Cancelling matches factors by identity. */
+	@Test
+	public void cancel_test() {
+		Product num = new Product().add(unit("m"), 3).add(unit("s"))
+				.add(unit("kg"));
+		Product den = new Product().add(unit("s"), 2).add(unit("m"))
+				.add(unit("A"));
+		assertTrue(Product.cancel(num, den));
+		assertSorted(num);
+		assertSorted(den);
+		assertEquals(" kg m^2", num.asString());
+		assertEquals(" A s", den.asString());
+		assertFalse(Product.cancel(num, den));
+
+		Value v = Value.parse("m^3 s kg / s^2 m A");
+		v.cancel();
+		assertEquals(" kg m^2", v.numerator.asString());
+		assertEquals(" A s", v.denominator.asString());
+	}
+}
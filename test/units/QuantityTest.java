@@ -0,0 +1,84 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class QuantityTest extends Engines.Default {
+
+	static Quantity q(String expr) {
+		Value v = Value.parse(expr);
+		v.completereduce();
+		return v.quantity();
+	}
+
+	/** Arithmetic gives new Quantities and leaves the operands unchanged. */
+	@Test
+	public void immutable_test() {
+		Quantity ft = q("ft");
+		Quantity s = q("s");
+		Quantity speed = ft.over(s);
+		assertEquals(0.3048, ft.factor, 0);
+		assertSame(q("m").dim, ft.dim);
+		assertSame(q("m/s").dim, speed.dim);
+		assertEquals(0.3048, speed.factor, 0);
+
+		Quantity area = ft.times(ft);
+		assertNotSame(ft, area);
+		assertEquals(0.3048 * 0.3048, area.factor, 0);
+		assertSame(q("m^2").dim, area.dim);
+		assertEquals(0.3048, ft.factor, 0);
+
+		assertEquals(3 * 0.3048, ft.times(3).factor, 0);
+		assertSame(ft.dim, ft.times(3).dim);
+		assertSame(s.dim.inverse(), s.inverse().dim);
+		assertTrue(ft.over(ft).isNumber());
+		assertTrue(ft.conformsTo(q("mile"), Ignore.NONE));
+		assertFalse(ft.conformsTo(s, Ignore.NONE));
+	}
+
+	/** Power computes the factor as 'power' of Value does. */
+	@Test
+	public void power_test() {
+		for (String u : new String[] { "ft", "inch", "mile", "furlong" })
+			for (int n = 0; n < 8; n++) {
+				Value v = Value.parse(u);
+				v.completereduce();
+				v.power(n);
+				assertEquals(u + "^" + n, v.factor, q(u).power(n).factor, 0);
+				assertSame(v.dimension(), q(u).power(n).dim);
+			}
+		try {
+			q("ft").power(-1);
+			fail("ft^-1");
+		} catch (EvalError e) {
+		}
+	}
+
+	/** A Value built from a Quantity is a copy that can be changed. */
+	@Test
+	public void value_test() {
+		Quantity n = q("N");
+		Value v = new Value(n);
+		assertEquals(n.factor, v.quantity().factor, 0);
+		assertSame(n.dim, v.quantity().dim);
+		assertEquals(Value.fromString("N").asString(), n.asString());
+
+		v.mult(Value.parse("m"));
+		v.completereduce();
+		assertSame(q("J").dim, v.dimension());
+		assertSame(q("N").dim, n.dim);
+		assertEquals(1, n.factor, 0);
+	}
+
+	/** Values are kept as Quantities by unit lists and functions. */
+	@Test
+	public void users_test() {
+		ComputedFunction tempF = (ComputedFunction) DefinedFunction.table()
+				.get("tempF");
+		assertSame(tempF.parameter(true), tempF.parameter(true));
+		assertSame(q("K").dim, tempF.parameter(true).dim);
+		assertEquals("5;8.8976378\n",
+				Engines.convert(engine, "1.75 m", "ft;in"));
+	}
+}
@@ -0,0 +1,107 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+public class SnapshotTest {
+
+	static final String[][] CONVERSIONS = { { "ft", "m" },
+			{ "mph", "km/hr" }, { "kft", "mile" }, { "acre ft", "gallons" },
+			{ "tempF(212)", "tempC" }, { "pH(7)", "mol/liter" },
+			{ "zincgauge(10)", "mm" }, { "3 euro", "francefranc" },
+			{ "1|3 lightyears", "parsec" }, { "uu", "m" },
+			{ "uf(3)", "m" }, { "6 m", "uf" }, { "ft", "kg" },
+			{ "nosuchunit", "m" } };
+
+	static Vector<String> files(String... names) {
+		return new Vector<String>(Arrays.asList(names));
+	}
+
+	/** Reads a snapshot with messages of verbose mode going to 'out'. */
+	static UnitsEngine read(File snap, Vector<String> files, String locale,
+			Engines.Out out) {
+		Env.Options opts = Engines.options(out);
+		opts.verbose = 2;
+		Env.Options prev = Env.enter(opts);
+		try {
+			return Snapshot.read(snap.getPath(), files, locale);
+		} finally {
+			Env.leave(prev);
+		}
+	}
+
+	static void assertSameEngine(UnitsEngine expected, UnitsEngine actual) {
+		List<String> a = Engines.dump(expected);
+		List<String> b = Engines.dump(actual);
+		assertEquals(a.size(), b.size());
+		for (int i = 0; i < a.size(); i++)
+			assertEquals(a.get(i), b.get(i));
+		for (String[] c : CONVERSIONS)
+			assertEquals(c[0] + " -> " + c[1],
+					Engines.convert(expected, c[0], c[1]),
+					Engines.convert(actual, c[0], c[1]));
+	}
+
+	/** A snapshot read back gives the same tables and conversions. */
+	@Test
+	public void round_trip_test() throws Exception {
+		File extra = Engines.write("uu 3 ft\nuf(x) [1;m] 2 x m ; uf / 2 m\n");
+		Vector<String> files = files("units.dat", extra.getPath());
+		UnitsEngine e = Engines.load("units.dat", extra.getPath());
+		for (boolean reduced : new boolean[] { false, true }) {
+			File snap = File.createTempFile("units", ".snap");
+			snap.deleteOnExit();
+			assertTrue(Snapshot.write(e, snap.getPath(), reduced));
+
+			Engines.Out out = new Engines.Out();
+			UnitsEngine s = read(snap, files, "en_US", out);
+			assertNotNull(out.toString(), s);
+			assertEquals("", out.toString());
+			assertSameEngine(Engines.load("units.dat", extra.getPath()), s);
+			assertEquals("6\n", Engines.convert(s, "uf(3)", "m"));
+			assertEquals("3\n", Engines.convert(s, "6 m", "uf"));
+		}
+	}
+
+	/** A snapshot is not used when a definition file has changed. */
+	@Test
+	public void stale_test() throws Exception {
+		File f = Engines.write("m !\nfoo 2 m\n");
+		Vector<String> files = files(f.getPath());
+		UnitsEngine e = Engines.load(f.getPath());
+		File snap = File.createTempFile("units", ".snap");
+		snap.deleteOnExit();
+		assertTrue(Snapshot.write(e, snap.getPath(), true));
+		assertNotNull(read(snap, files, "en_US", new Engines.Out()));
+
+		// Same length, different contents.
+		Engines.rewrite(f, "m !\nfoo 3 m\n");
+		Engines.Out out = new Engines.Out();
+		assertNull(read(snap, files, "en_US", out));
+		assertEquals("Snapshot '" + snap.getPath() + "' is older than '"
+				+ f.getPath() + "'; it is not used.\n", out.toString());
+
+		// Other locale or other files.
+		Engines.rewrite(f, "m !\nfoo 2 m\n");
+		out = new Engines.Out();
+		assertNull(read(snap, files, "en_GB", out));
+		assertTrue(out.toString(),
+				out.toString().contains("was built for another locale"));
+		out = new Engines.Out();
+		assertNull(read(snap, files(f.getPath(), f.getPath()), "en_US", out));
+		assertTrue(out.toString(),
+				out.toString().contains("was built from other files"));
+
+		// Back to the original contents: usable again.
+		out = new Engines.Out();
+		UnitsEngine s = read(snap, files, "en_US", out);
+		assertNotNull(out.toString(), s);
+		assertEquals("2\n", Engines.convert(s, "foo", "m"));
+	}
+}
@@ -0,0 +1,218 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TabularFunctionTest extends Engines.Default {
+
+	// Both tables increasing.
+	static final double[] UP_X = { 0, 1, 2, 4, 8 };
+	static final double[] UP_Y = { 0, 10, 30, 70, 150 };
+
+	// Arguments increasing, values decreasing.
+	static final double[] DOWN_X = { 0, 1, 3, 7 };
+	static final double[] DOWN_Y = { 100, 60, 20, 0 };
+
+	// Arguments decreasing, values increasing.
+	static final double[] REV_X = { 7, 3, 1, 0 };
+	static final double[] REV_Y = { 0, 20, 60, 100 };
+
+	// Not monotonic: the first segment containing the argument is used.
+	static final double[] WAVY_X = { 0, 2, 1, 3 };
+	static final double[] WAVY_Y = { 0, 20, 40, 60 };
+
+	static TabularFunction table(String name, double[] x, double[] y) {
+		return new TabularFunction(name, null, "m", x, y);
+	}
+
+	/** Interpolation by linear scan, as before binary search. */
+	static double linear(double v, double[] in, double[] out) {
+		for (int i = 0; i < in.length - 1; i++)
+			if ((in[i] <= v && v <= in[i + 1])
+					|| (in[i] >= v && v >= in[i + 1]))
+				return out[i] + (v - in[i]) * (out[i + 1] - out[i])
+						/ (in[i + 1] - in[i]);
+		throw new AssertionError("outside");
+	}
+
+	static double one(TabularFunction f, double v, boolean inverse) {
+		double[] a = { v };
+		f.interpolate(a, a, inverse);
+		return a[0];
+	}
+
+	/** Arguments in increasing order over the range of a table. */
+	static double[] sweep(double[] t) {
+		double lo = Math.min(t[0], t[t.length - 1]);
+		double hi = Math.max(t[0], t[t.length - 1]);
+		double[] a = new double[61];
+		for (int i = 0; i < a.length; i++)
+			a[i] = lo + (hi - lo) * i / (a.length - 1);
+		return a;
+	}
+
+	static double[] reversed(double[] a) {
+		double[] r = new double[a.length];
+		for (int i = 0; i < a.length; i++)
+			r[i] = a[a.length - 1 - i];
+		return r;
+	}
+
+	static double[] shuffled(double[] a) {
+		double[] r = a.clone();
+		for (int i = 0; i < r.length; i++) {
+			int j = (i * 37 + 11) % r.length;
+			double t = r[i];
+			r[i] = r[j];
+			r[j] = t;
+		}
+		return r;
+	}
+
+	/** Checks one direction of a table against the linear scan. */
+	static void check(String name, double[] x, double[] y, boolean inverse) {
+		TabularFunction f = table(name, x, y);
+		double[] in = inverse ? y : x;
+		double[] out = inverse ? x : y;
+
+		// Knots, including the first and last.
+		for (int i = 0; i < in.length; i++)
+			assertEquals(name + " knot " + i, linear(in[i], in, out),
+					one(f, in[i], inverse), 0);
+		assertEquals(out[0], one(f, in[0], inverse), 0);
+		assertEquals(out[in.length - 1], one(f, in[in.length - 1], inverse),
+				0);
+
+		// Batches sorted either way, and unsorted.
+		double[] up = sweep(in);
+		double[][] batches = { up, reversed(up), shuffled(up) };
+		for (double[] args : batches) {
+			double[] res = new double[args.length];
+			f.interpolate(args, res, inverse);
+			for (int k = 0; k < args.length; k++)
+				assertEquals(name + "(" + args[k] + ")",
+						linear(args[k], in, out), res[k], 0);
+		}
+
+		// In place.
+		double[] args = up.clone();
+		f.interpolate(args, args, inverse);
+		for (int k = 0; k < args.length; k++)
+			assertEquals(linear(up[k], in, out), args[k], 0);
+	}
+
+	@Test
+	public void increasing_test() {
+		check("up", UP_X, UP_Y, false);
+		check("up", UP_X, UP_Y, true);
+		TabularFunction f = table("up", UP_X, UP_Y);
+		assertEquals(20, one(f, 1.5, false), 0);
+		assertEquals(1.5, one(f, 20, true), 0);
+	}
+
+	@Test
+	public void decreasing_test() {
+		check("down", DOWN_X, DOWN_Y, false);
+		check("down", DOWN_X, DOWN_Y, true);
+		check("rev", REV_X, REV_Y, false);
+		check("rev", REV_X, REV_Y, true);
+		TabularFunction f = table("down", DOWN_X, DOWN_Y);
+		assertEquals(40, one(f, 2, false), 0);
+		assertEquals(2, one(f, 40, true), 0);
+		assertEquals(5, one(f, 10, true), 0);
+	}
+
+	@Test
+	public void not_monotonic_test() {
+		check("wavy", WAVY_X, WAVY_Y, false);
+		check("wavy", WAVY_X, WAVY_Y, true);
+		TabularFunction f = table("wavy", WAVY_X, WAVY_Y);
+		assertEquals(15, one(f, 1.5, false), 0);
+	}
+
+	@Test
+	public void outside_domain_test() {
+		TabularFunction up = table("up", UP_X, UP_Y);
+		TabularFunction down = table("down", DOWN_X, DOWN_Y);
+		Object[][] cases = { { up, -0.5, false }, { up, 8.5, false },
+				{ up, -1.0, true }, { up, 151.0, true },
+				{ up, Double.NaN, false }, { down, 7.5, false },
+				{ down, -1.0, false }, { down, 101.0, true },
+				{ down, -0.5, true } };
+		for (Object[] c : cases) {
+			TabularFunction f = (TabularFunction) c[0];
+			double v = (Double) c[1];
+			boolean inverse = (Boolean) c[2];
+			try {
+				one(f, v, inverse);
+				fail((inverse ? "~" : "") + f.name + "(" + v + ")");
+			} catch (EvalError e) {
+				assertTrue(e.getMessage(), e.getMessage().endsWith(
+						" is outside the domain of '" + (inverse ? "~" : "")
+								+ f.name + "'."));
+			}
+		}
+
+		// The error is reported for the first bad element of a batch.
+		try {
+			up.interpolate(new double[] { 1, 2, 9, 3 }, new double[4], false);
+			fail("batch");
+		} catch (EvalError e) {
+			assertEquals("Argument 9 is outside the domain of 'up'.",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void same_as_value_test() {
+		TabularFunction f = (TabularFunction) DefinedFunction.table().get(
+				"zincgauge");
+		double[] args = { 1, 3.5, 10, 15, 24, 28 };
+		double[] res = new double[args.length];
+		f.interpolate(args, res, false);
+		for (int k = 0; k < args.length; k++) {
+			Value v = new Value(new Quantity(args[k], Dimension.ONE));
+			f.applyTo(v);
+			v.div(Value.parse("in"));
+			v.completereduce();
+			assertEquals(v.factor, res[k], 1e-15);
+		}
+	}
+
+	/** Conversion lowers tabular functions and their inverses. */
+	@Test
+	public void conversion_test() {
+		TabularFunction f = (TabularFunction) DefinedFunction.table().get(
+				"zincgauge");
+		double[] args = { 1, 3.5, 10, 15, 24, 28 };
+		double[] mm = args.clone();
+		Conversion c = engine.conversion("zincgauge", "mm");
+		c.apply(mm, mm);
+		for (int k = 0; k < args.length; k++) {
+			assertEquals(one(f, args[k], false) * 25.4, mm[k], 1e-12);
+			assertEquals(mm[k], c.apply(args[k]), 0);
+		}
+
+		Conversion i = engine.conversion("mm", "zincgauge");
+		double[] back = mm.clone();
+		i.apply(back, back);
+		for (int k = 0; k < args.length; k++) {
+			assertEquals(args[k], back[k], 1e-9);
+			assertEquals(back[k], i.apply(mm[k]), 0);
+		}
+
+		try {
+			c.apply(100);
+			fail("zincgauge(100)");
+		} catch (EvalError e) {
+			assertEquals("Argument 100 is outside the domain of 'zincgauge'.",
+					e.getMessage());
+		}
+		try {
+			engine.conversion("zincgauge", "kg");
+			fail("zincgauge -> kg");
+		} catch (EvalError e) {
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TwoEnginesTest {
+
+	static final String[][] CONVERSIONS = { { "gallon", "liter" },
+			{ "ton", "kg" }, { "pint", "liter" }, { "bushel", "m^3" },
+			{ "ft", "m" }, { "tempF(212)", "tempC" } };
+
+	static UnitsEngine engine(String locale) {
+		UnitsEngine e = Engines.engine(locale, "units.dat");
+		assertTrue(e.load(Engines.options(new Engines.Out())));
+		return e;
+	}
+
+	/** Output of a conversion with given verbosity. */
+	static String convert(UnitsEngine e, String have, String want,
+			int verbose) {
+		Engines.Out out = new Engines.Out();
+		Env.Options opts = Engines.options(out);
+		opts.verbose = verbose;
+		opts.oneline = verbose == 0;
+		e.convert(have, want, opts);
+		return out.toString();
+	}
+
+	/** Engines for two locales have their own tables. */
+	@Test
+	public void locales_test() {
+		UnitsEngine us = engine("en_US");
+		UnitsEngine gb = engine("en_GB");
+		assertEquals("3.7854118\n", convert(us, "gallon", "liter", 0));
+		assertEquals("4.54609\n", convert(gb, "gallon", "liter", 0));
+		assertNotSame(us.units, gb.units);
+		assertNotSame(us.units.get("ft"), gb.units.get("ft"));
+		assertNotSame(us.dimensions, gb.dimensions);
+
+		// Binding one engine does not change what the other sees.
+		UnitsEngine prev = gb.enter();
+		try {
+			assertEquals("3.7854118\n", convert(us, "gallon", "liter", 0));
+			assertSame(gb.units, Unit.table());
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+	}
+
+	/**
+	 * Two engines used by several threads at once, each conversion with
+	 * its own options, give the results of each engine used alone.
+	 */
+	@Test
+	public void threads_test() throws Exception {
+		final UnitsEngine[] engines = { engine("en_US"), engine("en_GB") };
+		final String[][][] expected = new String[2][CONVERSIONS.length][3];
+		for (int k = 0; k < 2; k++)
+			for (int c = 0; c < CONVERSIONS.length; c++)
+				for (int v = 0; v < 3; v++)
+					expected[k][c][v] = convert(engines[k],
+							CONVERSIONS[c][0], CONVERSIONS[c][1], v);
+		assertFalse(expected[0][0][0].equals(expected[1][0][0]));
+		assertFalse(expected[0][0][0].equals(expected[0][0][2]));
+
+		final int defaultVerbose = Env.verbose;
+		final List<String> wrong = Collections
+				.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 6; t++) {
+			final int seed = t;
+			threads.add(new Thread() {
+				public void run() {
+					for (int i = 0; i < 300; i++) {
+						int k = (i + seed) % 2;
+						int c = (i * 7 + seed) % CONVERSIONS.length;
+						int v = (i + seed / 2) % 3;
+						String r = convert(engines[k], CONVERSIONS[c][0],
+								CONVERSIONS[c][1], v);
+						if (!r.equals(expected[k][c][v]))
+							wrong.add(k + " " + c + " " + v + ": " + r);
+					}
+				}
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		assertEquals(Collections.emptyList(), wrong);
+		assertEquals(defaultVerbose, Env.verbose);
+	}
+}
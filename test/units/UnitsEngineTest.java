@@ -0,0 +1,325 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UnitsEngineTest {
+
+	static final String BASE = "m !\ns !\nbar 3 foo\nfoo 2 m\n";
+
+	UnitsEngine saved;
+
+	@Before
+	public void save() {
+		saved = UnitsEngine.standard();
+	}
+
+	@After
+	public void restore() {
+		UnitsEngine.setStandard(saved);
+	}
+
+	static Env.Options quiet(Engines.Out out) {
+		Env.Options opts = Engines.options(out);
+		opts.verbose = 0;
+		opts.oneline = true;
+		return opts;
+	}
+
+	/**
+	 * Conversions by the standard engine, as done by the command line and the
+	 * GUI, while the standard engine is replaced by 'update' and 'reload'.
+	 * Every conversion uses one engine, so 'bar' is always conformable to
+	 * 'm' and the result is that of one of the engines.
+	 */
+	@Test
+	public void reload_during_conversions_test() throws Exception {
+		File base = Engines.write(BASE);
+		File over = Engines.write("foo 2 m\n");
+		UnitsEngine.setStandard(Engines.load(base.getPath()));
+		Env.Options opts = Engines.options(new Engines.Out());
+		assertNotNull(UnitsEngine.update(over.getPath(), opts));
+
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicInteger done = new AtomicInteger(0);
+		final List<String> wrong = Collections
+				.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final boolean api = t % 2 == 1;
+			threads.add(new Thread() {
+				public void run() {
+					while (!stop.get()) {
+						Engines.Out out = new Engines.Out();
+						Env.Options opts = quiet(out);
+						if (api)
+							UnitsEngine.standard().convert("bar", "m", opts);
+						else {
+							Env.Options prevOpts = Env.enter(opts);
+							UnitsEngine prev = UnitsEngine.pin();
+							try {
+								Value have = Value.fromString("bar");
+								Env.convert("bar", have, "m");
+							} finally {
+								UnitsEngine.leave(prev);
+								Env.leave(prevOpts);
+							}
+						}
+						String r = out.toString();
+						if (!r.equals("6\n") && !r.equals("12\n"))
+							wrong.add(r);
+						done.incrementAndGet();
+					}
+				}
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		try {
+			for (int i = 0; i < 200; i++) {
+				Engines.rewrite(over, i % 2 == 0 ? "foo 4 m\n" : "foo 2 m\n");
+				if (i % 10 == 9)
+					assertNotNull(UnitsEngine.reload(opts));
+				else
+					assertNotNull(UnitsEngine.update(over.getPath(), opts));
+			}
+		} finally {
+			stop.set(true);
+			for (Thread t : threads)
+				t.join();
+		}
+		assertEquals(Collections.emptyList(), wrong);
+		assertTrue(done.get() > 0);
+		assertEquals("6\n", Engines.convert(UnitsEngine.standard(), "bar", "m"));
+	}
+
+	/**
+	 * A thread doing several conversions, as the interactive command line,
+	 * uses the engine that is standard when each conversion starts.
+	 */
+	@Test
+	public void repin_test() throws Exception {
+		File base = Engines.write(BASE);
+		UnitsEngine first = Engines.load(base.getPath());
+		UnitsEngine second = Engines.load(base.getPath());
+		UnitsEngine.setStandard(first);
+		UnitsEngine prev = UnitsEngine.pin();
+		try {
+			assertSame(first, UnitsEngine.current());
+			UnitsEngine.setStandard(second);
+			assertSame(first, UnitsEngine.current());
+			UnitsEngine.repin();
+			assertSame(second, UnitsEngine.current());
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+		UnitsEngine.setStandard(first);
+		assertSame("not bound after leave", first, UnitsEngine.current());
+	}
+
+	/** Waits until a conversion by the standard engine gives 'expected'. */
+	static void await(String have, String want, String expected)
+			throws InterruptedException {
+		String r = null;
+		for (int i = 0; i < 500; i++) {
+			r = Engines.convert(UnitsEngine.standard(), have, want);
+			if (r.equals(expected))
+				return;
+			Thread.sleep(20);
+		}
+		assertEquals(expected, r);
+	}
+
+	@Test
+	public void watch_test() throws Exception {
+		File base = Engines.write(BASE);
+		File over = Engines.write("foo 2 m\n");
+		UnitsEngine.setStandard(Engines.load(base.getPath()));
+		Env.Options opts = Engines.options(new Engines.Out());
+		assertNotNull(UnitsEngine.update(over.getPath(), opts));
+
+		UnitsWatcher w = UnitsEngine.watch(10, opts);
+		try {
+			Thread.sleep(200);
+
+			// A changed overlay file is applied again.
+			Engines.rewrite(over, "foo 20 m\n");
+			await("bar", "m", "60\n");
+			assertEquals(1, UnitsEngine.standard().overlays.size());
+
+			// A changed definition file reloads everything,
+			// with the overlay applied again.
+			Engines.rewrite(base, BASE + "baz 7 bar\n");
+			await("baz", "m", "420\n");
+			assertEquals("60\n",
+					Engines.convert(UnitsEngine.standard(), "bar", "m"));
+		} finally {
+			w.stop();
+		}
+	}
+
+	/**
+	 * Redefining a unit in an overlay changes everything that depends on
+	 * it, and nothing else; the base engine is not changed.
+	 */
+	@Test
+	public void overlay_invalidates_dependents_test() throws Exception {
+		UnitsEngine base = Engines.load("units.dat");
+		File f = Engines.write("euro 2 US$\n");
+		UnitsEngine e = base.overlay(f.getPath(),
+				Engines.options(new Engines.Out()));
+		assertNotNull(e);
+
+		assertEquals("2\n", Engines.convert(e, "euro", "US$"));
+		assertEquals("2\n", Engines.convert(e, "\u20ac", "US$"));
+		assertEquals("2\n", Engines.convert(e, "EUR", "US$"));
+		assertEquals("2\n", Engines.convert(e, "6.55957 francefranc", "US$"));
+		assertEquals("2\n", Engines.convert(e, "euro/kg", "US$/kg"));
+		assertEquals("2000\n", Engines.convert(e, "euro/kg", "US$/tonne"));
+
+		assertEquals("1.3774\n", Engines.convert(base, "euro", "US$"));
+		assertEquals("1.3774\n", Engines.convert(base, "\u20ac", "US$"));
+		assertEquals("1.3774\n",
+				Engines.convert(base, "6.55957 francefranc", "US$"));
+		assertEquals("1.3774\n", Engines.convert(base, "euro/kg", "US$/kg"));
+
+		assertSame(base.units.get("ft"), e.units.get("ft"));
+		assertSame(base.units.get("US$"), e.units.get("US$"));
+		assertNotSame(base.units.get("euro"), e.units.get("euro"));
+		assertNotSame(base.units.get("francefranc"), e.units.get("francefranc"));
+
+		// An overlay of the overlay.
+		Engines.rewrite(f, "euro 3 US$\nbigeuro 10 euro\n");
+		UnitsEngine e2 = e.overlay(f.getPath(),
+				Engines.options(new Engines.Out()));
+		assertEquals("3\n", Engines.convert(e2, "6.55957 francefranc", "US$"));
+		assertEquals("30\n", Engines.convert(e2, "bigeuro", "US$"));
+		assertEquals("2\n", Engines.convert(e, "6.55957 francefranc", "US$"));
+		assertEquals("Unit 'bigeuro' is unknown.\n",
+				Engines.convert(e, "bigeuro", "US$"));
+		assertEquals(1, e2.overlays.size());
+	}
+
+	/**
+	 * An overlay shares interned Dimensions with its base, so that the
+	 * reduced forms of shared entities conform in both.
+	 */
+	@Test
+	public void overlay_shares_dimensions_test() throws Exception {
+		UnitsEngine base = Engines.load("units.dat");
+		File f = Engines.write("euro 2 US$\nfurlongrate furlong/fortnight\n");
+		UnitsEngine e = base.overlay(f.getPath(),
+				Engines.options(new Engines.Out()));
+		assertSame(base.dimensions, e.dimensions);
+		assertEquals("1\n", Engines.convert(e, "furlongrate",
+				"furlong/fortnight"));
+
+		Dimension speed;
+		UnitsEngine prev = base.enter();
+		try {
+			speed = Value.fromString("m/s").dimension();
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+		prev = e.enter();
+		try {
+			assertSame(speed, Value.fromString("furlongrate").dimension());
+			assertSame(speed, Value.fromString("knot").dimension());
+		} finally {
+			UnitsEngine.leave(prev);
+		}
+	}
+
+	/** Entities of two engines that are not the same objects. */
+	static List<String> renewed(UnitsEngine a, UnitsEngine b) {
+		List<String> r = new ArrayList<String>();
+		for (String n : a.units.keySet())
+			if (a.units.get(n) != b.units.get(n))
+				r.add(n);
+		for (String n : a.prefixes.keySet())
+			if (a.prefixes.get(n) != b.prefixes.get(n))
+				r.add(n + "-");
+		for (String n : a.functions.keySet())
+			if (a.functions.get(n) != b.functions.get(n))
+				r.add(n + "()");
+		for (String n : a.aliases.keySet())
+			if (a.aliases.get(n) != b.aliases.get(n))
+				r.add(n + ";");
+		Collections.sort(r);
+		return r;
+	}
+
+	/** An update touching one unit does not rebuild the others. */
+	@Test
+	public void update_renews_only_dependents_test() throws Exception {
+		UnitsEngine base = Engines.load("units.dat");
+		Env.Options opts = Engines.options(new Engines.Out());
+
+		File f = Engines.write("brandnewunit 3 m\n");
+		UnitsEngine e = base.overlay(f.getPath(), opts);
+		assertEquals(Collections.emptyList(), renewed(base, e));
+		assertEquals("3\n", Engines.convert(e, "brandnewunit", "m"));
+
+		Engines.rewrite(f, "francefranc 1|6 euro\n");
+		e = base.overlay(f.getPath(), opts);
+		assertEquals(Arrays.asList("franc", "francefranc"), renewed(base, e));
+		assertSame(base.units.get("euro"), e.units.get("euro"));
+
+		Engines.rewrite(f, "euro 2 US$\n");
+		e = base.overlay(f.getPath(), opts);
+		List<String> r = renewed(base, e);
+		assertTrue(r.contains("euro"));
+		assertTrue(r.contains("francefranc"));
+		assertTrue(r.contains("EUR"));
+		assertFalse(r.contains("US$"));
+		assertFalse(r.contains("ft"));
+		assertTrue(r.toString(), r.size() < 100);
+	}
+
+	/**
+	 * A new unit or prefix changes the meaning of names that stand for it
+	 * in plural or prefixed form.
+	 */
+	@Test
+	public void update_resolves_names_again_test() throws Exception {
+		File base = Engines.write("m !\nk- 1000\nft 3|10 m\n"
+				+ "a 3 pennies\nb 2 boxes\nc 3 zzm\nd 2 kft\ne 5 ft\n");
+		UnitsEngine e = Engines.load(base.getPath());
+		assertEquals("600\n", Engines.convert(e, "d", "m"));
+		Env.Options opts = Engines.options(new Engines.Out());
+
+		File f = Engines.write("penny 2 m\nbox 5 m\nzz- 10\nkft 7 m\n");
+		UnitsEngine o = e.overlay(f.getPath(), opts);
+		assertEquals("6\n", Engines.convert(o, "a", "m"));
+		assertEquals("10\n", Engines.convert(o, "b", "m"));
+		assertEquals("30\n", Engines.convert(o, "c", "m"));
+		assertEquals("14\n", Engines.convert(o, "d", "m"));
+		assertEquals("1.5\n", Engines.convert(o, "e", "m"));
+		assertEquals(Arrays.asList("a", "b", "c", "d"), renewed(e, o));
+
+		// The same as loading both files.
+		UnitsEngine both = Engines.load(base.getPath(), f.getPath());
+		for (String u : new String[] { "a", "b", "c", "d", "e" })
+			assertEquals(Engines.convert(both, u, "m"),
+					Engines.convert(o, u, "m"));
+
+		// Names of the derived graph are updated: a further overlay
+		// finds names mentioned only in the first one.
+		Engines.rewrite(f, "g 2 megaboxes\n");
+		UnitsEngine o2 = o.overlay(f.getPath(), opts);
+		File f2 = Engines.write("mega- 1e6\n");
+		UnitsEngine o3 = o2.overlay(f2.getPath(), opts);
+		assertEquals("10000000\n", Engines.convert(o3, "g", "m"));
+	}
+}
@@ -0,0 +1,412 @@
+package units;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UnitsFileTest {
+
+	/**
+	 * A file of about 2000 lines with locales, nested includes,
+	 * redefinitions across chunks, and bad lines.
+	 */
+	static File bigFile() throws Exception {
+		File inner = Engines.write("innerunit 7 m\n" + "a10b 11 m\n"
+				+ "!locale en_GB\n" + "innergb 2 m\n" + "!endlocale\n");
+		File outer = Engines.write("outerunit 3 innerunit\n" + "!include "
+				+ inner.getPath() + "\n" + "outer_2 2 a10b\n");
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			if (i % 300 == 250)
+				sb.append("!locale en_GB\n");
+			if (i % 300 == 280)
+				sb.append("!endlocale\n");
+			if (i == 700)
+				sb.append("!include ").append(outer.getPath()).append('\n');
+			if (i % 97 == 0)
+				sb.append("# comment ").append(i).append('\n');
+			if (i % 211 == 0)
+				sb.append("bad").append(i % 7 + 2).append(" 3 m\n");
+			if (i % 150 == 0 && i > 0)
+				sb.append("a").append(i - 120).append("b ").append(i)
+						.append(" \\\n   s  # redefined\n");
+			else if (i > 0 && i % 3 == 0)
+				sb.append("a").append(i).append("b 2 a").append(i - 1)
+						.append("b\n");
+			else
+				sb.append("a").append(i).append("b ").append(i + 1)
+						.append(" m\n");
+		}
+		sb.append("uf(x) x a3b\n");
+		sb.append("!unitlist ul a1b;a2b\n");
+		return Engines.write(sb.toString());
+	}
+
+	@Test
+	public void chunked_parse_same_as_sequential_test() throws Exception {
+		String big = bigFile().getPath();
+
+		Engines.Out seqOut = new Engines.Out();
+		UnitsEngine seq = Engines.loadSequentially(seqOut, "units.dat", big);
+		Engines.Out parOut = new Engines.Out();
+		UnitsEngine par = Engines.load(parOut, "units.dat", big);
+
+		List<String> expected = Engines.dump(seq);
+		List<String> actual = Engines.dump(par);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(expected.get(i), actual.get(i));
+		assertEquals(seqOut.toString(), parOut.toString());
+
+		assertTrue(parOut.toString().contains("Unit 'a30b' defined in"));
+		assertTrue(parOut.toString().contains("Unit 'bad4' is ignored"));
+		assertEquals("150\n", Engines.convert(par, "a30b", "s"));
+		assertEquals("22\n", Engines.convert(par, "outer_2", "m"));
+		assertEquals("12\n", Engines.convert(par, "uf(2)", "m"));
+		assertEquals("Unit 'a260b' is unknown.\n",
+				Engines.convert(par, "a260b", "m"));
+	}
+
+	/**
+	 * Definitions with continuation lines, comments inside continued
+	 * lines, a comment hiding the rest of a continued line, a bad line,
+	 * and a locale block.
+	 */
+	static final String EDGES = "# edge cases\n" + "m !\n" + "ea 3 m\n"
+			+ "eb 3 \\\n" + "   m  # meters\n" + "ec 3 # comment \\\n"
+			+ "   m\n" + "\n" + "   \n" + "ed 2 \\\n" + "  \\\n" + "  ea\n"
+			+ "!locale en_GB\n" + "ee 5 m\n" + "!endlocale\n" + "ef 6 ee\n"
+			+ "bad1 2 m\n" + "eg(x) [m;m] 2 x ; eg/2\n" + "eh 8 \\\n";
+
+	/** Contents of the file where the given unit is defined. */
+	static String contents(UnitsEngine e, String unit) {
+		return e.units.get(unit).location.file.contents();
+	}
+
+	/** Dump, messages and conversions of an engine for the file. */
+	static List<String> results(File f, String... conversions) {
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = Engines.load(out, f.getPath());
+		List<String> r = Engines.dump(e);
+		r.add(out.toString());
+		for (String c : conversions)
+			r.add(Engines.convert(e, c, "m"));
+		r.add(contents(e, "ea"));
+		return r;
+	}
+
+	/**
+	 * A file with CRLF or CR line ends, or without the final newline,
+	 * gives the definitions, locations, messages and contents of the
+	 * same file with LF line ends.
+	 */
+	@Test
+	public void line_ends_test() throws Exception {
+		String text = EDGES + "ei 9 m";
+		String[] conv = { "ea", "eb", "ec", "ed", "ee", "ef", "eg(1 m)",
+				"ei" };
+		File f = Engines.write(text + "\n");
+		List<String> expected = results(f, conv);
+		for (String variant : new String[] { text,
+				text.replace("\n", "\r\n") + "\r\n",
+				text.replace("\n", "\r") + "\r", text.replace("\n", "\r\n") }) {
+			Engines.rewrite(f, variant);
+			assertEquals(expected, results(f, conv));
+		}
+		Engines.rewrite(f, text + "\n");
+		assertEquals(expected, results(f, conv));
+	}
+
+	/**
+	 * Continuation lines are joined before the comment is cut, and the
+	 * location spans all lines of a definition.
+	 */
+	@Test
+	public void continuation_test() throws Exception {
+		File f = Engines.write(EDGES);
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = Engines.load(out, f.getPath());
+		assertEquals("3\n", Engines.convert(e, "eb", "m"));
+		assertEquals("Conformability error\n3\nm\n",
+				Engines.convert(e, "ec", "m"));
+		assertEquals("6\n", Engines.convert(e, "ed", "m"));
+		assertEquals("Unit 'ee' is unknown.\n",
+				Engines.convert(e, "ee", "m"));
+		assertEquals("Unit 'eh' is unknown.\n",
+				Engines.convert(e, "eh", "m"));
+		assertTrue(out.toString().contains(
+				"The last line of '" + f.getPath()
+						+ "' is missing its continuation and is ignored."));
+
+		Location eb = e.units.get("eb").location;
+		assertEquals(4, eb.lineNum);
+		assertEquals(EDGES.indexOf("eb"), eb.beginChar);
+		assertEquals(EDGES.indexOf("meters\n") + 6, eb.endChar);
+		Location ed = e.units.get("ed").location;
+		assertEquals(10, ed.lineNum);
+		assertEquals("ed 2 \\\n  \\\n  ea", EDGES.substring(ed.beginChar,
+				ed.endChar));
+		assertEquals(EDGES, contents(e, "ea"));
+	}
+
+	/**
+	 * Every line of a file of 65000 lines is read, with the location of
+	 * the previous reader, also with CRLF line ends.
+	 */
+	@Test
+	public void long_file_test() throws Exception {
+		int n = 65000;
+		List<Integer> starts = new ArrayList<Integer>();
+		StringBuilder sb = new StringBuilder("m !\n");
+		for (int i = 1; i < n; i++) {
+			starts.add(sb.length());
+			if (i % 10 == 0)
+				sb.append("l").append(i).append("u ").append(i)
+						.append(" \\\n  m # ").append(i).append('\n');
+			else
+				sb.append("l").append(i).append("u ").append(i)
+						.append(" m\n");
+		}
+		String text = sb.toString();
+		File f = Engines.write(text);
+		UnitsEngine e = Engines.load(f.getPath());
+		assertEquals(n, e.units.size());
+		int line = 2;
+		for (int i = 1; i < n; i++) {
+			Location loc = e.units.get("l" + i + "u").location;
+			assertEquals(line, loc.lineNum);
+			assertEquals(starts.get(i - 1).intValue(), loc.beginChar);
+			int end = text.indexOf('\n', loc.beginChar);
+			if (i % 10 == 0)
+				end = text.indexOf('\n', end + 1);
+			assertEquals(end, loc.endChar);
+			line += i % 10 == 0 ? 2 : 1;
+		}
+		assertEquals("64999\n", Engines.convert(e, "l64999u", "m"));
+		assertEquals("64990\n", Engines.convert(e, "l64990u", "m"));
+		assertEquals(text, contents(e, "l1u"));
+
+		List<String> expected = Engines.dump(e);
+		Engines.rewrite(f, text.replace("\n", "\r\n"));
+		UnitsEngine crlf = Engines.load(f.getPath());
+		assertEquals(expected, Engines.dump(crlf));
+		assertEquals(text, contents(crlf, "l1u"));
+	}
+
+	/**
+	 * The text of a file is read again when needed, and is the text
+	 * of the file when loaded, with line ends normalized.
+	 */
+	@Test
+	public void contents_test() throws Exception {
+		String text = "m !\nca 2 m\ncb 3 \\\n  ca # comment\n";
+		File f = Engines.write(text.replace("\n", "\r\n"));
+		UnitsEngine e = Engines.load(f.getPath());
+		UnitsFile file = e.units.get("ca").location.file;
+		assertEquals(text, file.contents());
+		assertSame(file.contents(), file.contents());
+		Location cb = e.units.get("cb").location;
+		assertEquals("cb 3 \\\n  ca # comment",
+				file.contents().substring(cb.beginChar, cb.endChar));
+
+		// Also for an engine read from a snapshot.
+		File snap = File.createTempFile("units", ".snap");
+		snap.deleteOnExit();
+		assertTrue(Snapshot.write(e, snap.getPath(), true));
+		UnitsEngine s = SnapshotTest.read(snap,
+				SnapshotTest.files(f.getPath()), "en_US", new Engines.Out());
+		assertNotNull(s);
+		assertEquals(text, s.units.get("ca").location.file.contents());
+
+		// A file with the same text is still the same.
+		Engines.rewrite(f, text);
+		assertEquals(text,
+				Engines.load(f.getPath()).units.get("ca").location.file
+						.contents());
+	}
+
+	/**
+	 * After the file is changed or removed, its text is not available,
+	 * and 'showSource' reports that the file was changed.
+	 */
+	@Test
+	public void changed_test() throws Exception {
+		String text = "m !\nca 2 m\ncb 3 ca\n";
+		String[] changes = { "m !\nca 2 m\ncb 3 ca\ncc 4 m\n",
+				"m !\nca 2 m\ncb 4 ca\n", "" };
+		for (String changed : changes) {
+			File f = Engines.write(text);
+			UnitsEngine e = Engines.load(f.getPath());
+			Engines.rewrite(f, changed);
+			assertNull(e.units.get("cb").location.file.contents());
+			assertEquals("File '" + f.getPath()
+					+ "' was changed after 'cb' was defined in it.\n",
+					showSource(e, "cb"));
+		}
+
+		File f = Engines.write(text);
+		UnitsEngine e = Engines.load(f.getPath());
+		assertTrue(f.delete());
+		assertEquals("File '" + f.getPath() + "' was not found\n"
+				+ "File '" + f.getPath()
+				+ "' was changed after 'cb' was defined in it.\n",
+				showSource(e, "cb"));
+		assertEquals(
+				"'cx' is not the name of a unit, function, or unit list.\n",
+				showSource(e, "cx"));
+	}
+
+	/** Output of 'showSource' by an engine. */
+	static String showSource(UnitsEngine e, String name) {
+		Engines.Out out = new Engines.Out();
+		Env.Options prev = Env.enter(Engines.options(out));
+		UnitsEngine p = e.enter();
+		try {
+			Tables.showSource(name);
+		} finally {
+			UnitsEngine.leave(p);
+			Env.leave(prev);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Blank lines, comment lines, and definitions for another locale,
+	 * between definitions, commands and bad lines.
+	 */
+	static final String SKIPPED = "# head\n" + "m !\n" + "\n" + "   \n"
+			+ "  # indented comment\n" + "qa 2 m\n" + "!locale en_GB\n"
+			+ "qb 3 m\n" + "bad2 3 m\n" + "!foo\n" + "+++\n" + "qd 3 \\\n"
+			+ "  m\n" + "!endlocale\n" + "\n" + "#\n" + "qe 4 qa\n"
+			+ "bad5 5 m\n" + "!locale en_US\n" + "qg 6 m\n" + "+++\n"
+			+ "bad3 6 m\n" + "!endlocale\n" + "qi 7 \\\n" + "\n" + "  m\n"
+			+ "\t# tab comment\n" + "qa 8 m\n" + "!locale en_GB\n"
+			+ "!include nosuch.units\n" + "!endlocale\n" + "qj 9 \\\n"
+			+ "  \\\n" + "  m # c\n";
+
+	/**
+	 * Skipped lines leave no trace, and messages and locations of the
+	 * other lines have their line numbers.
+	 */
+	@Test
+	public void skipped_lines_test() throws Exception {
+		File f = Engines.write(SKIPPED);
+		String where = "'" + f.getPath() + "', line ";
+		Engines.Out out = new Engines.Out();
+		UnitsEngine e = Engines.load(out, f.getPath());
+		assertEquals(where + "10. Unrecognized command '!foo'.\n"
+				+ where + "18. Unit 'bad5' is ignored. "
+				+ "Its name ends with a digit 2-9 without '_'.\n"
+				+ where + "21. Unit '+++' is ignored. Definition missing.\n"
+				+ where + "22. Unit 'bad3' is ignored. "
+				+ "Its name ends with a digit 2-9 without '_'.\n"
+				+ where + "26. Unit 'm' is ignored. Definition missing.\n"
+				+ "Unit 'qa' defined in " + where + "6, is redefined in "
+				+ where + "28.\n", out.toString());
+		String[][] lines = { { "m", "2" }, { "qa", "28" }, { "qe", "17" },
+				{ "qg", "20" }, { "qi", "24" }, { "qj", "32" } };
+		assertEquals(lines.length, e.units.size());
+		for (String[] l : lines)
+			assertEquals(l[0], where + l[1], e.units.get(l[0]).location
+					.where());
+		assertEquals("qj 9 \\\n  \\\n  m # c",
+				SKIPPED.substring(e.units.get("qj").location.beginChar,
+						e.units.get("qj").location.endChar));
+		assertEquals("Conformability error\n7\nm\n",
+				Engines.convert(e, "qi", "m"));
+		assertEquals("32\n", Engines.convert(e, "qe", "m"));
+		assertEquals("Unit 'qb' is unknown.\n",
+				Engines.convert(e, "qb", "m"));
+
+		Engines.Out gbOut = new Engines.Out();
+		UnitsEngine gb = Engines.engine("en_GB", f.getPath());
+		assertTrue(gb.load(Engines.options(gbOut)));
+		assertTrue(gbOut.toString().startsWith(
+				where + "9. Unit 'bad2' is ignored. "
+						+ "Its name ends with a digit 2-9 without '_'.\n"
+						+ where + "10. Unrecognized command '!foo'.\n"
+						+ where + "11. Unit '+++' is ignored. "
+						+ "Definition missing.\n"));
+		assertEquals(where + "12", gb.units.get("qd").location.where());
+		assertNull(gb.units.get("qg"));
+	}
+
+	/**
+	 * In a long file, the lines are skipped and reported as by the
+	 * sequential reader, across chunks.
+	 */
+	@Test
+	public void skipped_lines_in_chunks_test() throws Exception {
+		StringBuilder sb = new StringBuilder("m !\n");
+		for (int i = 0; i < 300; i++)
+			sb.append(SKIPPED.replace("q", "q" + i + "q").replace("m !\n",
+					""));
+		File f = Engines.write(sb.toString());
+
+		Engines.Out seqOut = new Engines.Out();
+		UnitsEngine seq = Engines.loadSequentially(seqOut, f.getPath());
+		Engines.Out parOut = new Engines.Out();
+		UnitsEngine par = Engines.load(parOut, f.getPath());
+		assertEquals(Engines.dump(seq), Engines.dump(par));
+		assertEquals(seqOut.toString(), parOut.toString());
+		assertEquals(1 + 300 * 5, par.units.size());
+		assertTrue(parOut.toString().contains(
+				"', line 9885. Unit 'bad5' is ignored."));
+	}
+
+	/** File access where reading the given file fails after some bytes. */
+	static class FailingAcc extends UnitsFile.FileAcc {
+		final UnitsFile.FileAcc acc;
+		final String name;
+		final byte[] bytes;
+
+		FailingAcc(UnitsFile.FileAcc acc, String name, String text) {
+			this.acc = acc;
+			this.name = name;
+			this.bytes = text.getBytes();
+		}
+
+		@Override
+		InputStream open(String n) {
+			if (!n.equals(name))
+				return acc.open(n);
+			return new ByteArrayInputStream(bytes) {
+				@Override
+				public int read(byte[] b) throws IOException {
+					if (pos == count)
+						throw new IOException("disk gone");
+					return read(b, 0, 1);
+				}
+			};
+		}
+	}
+
+	/**
+	 * An error in reading a file is reported with the line reached, and
+	 * the file is not loaded.
+	 */
+	@Test
+	public void read_error_test() throws Exception {
+		File f = Engines.write("ra 2 m\nrb 3 m\nrc");
+		Engines.defaultEngine();
+		UnitsFile.FileAcc acc = UnitsFile.fileAcc;
+		UnitsFile.fileAcc = new FailingAcc(acc, f.getPath(),
+				"ra 2 m\nrb 3 m\nrc");
+		try {
+			Engines.Out out = new Engines.Out();
+			UnitsEngine e = Engines.engine("en_US", f.getPath());
+			assertFalse(e.load(Engines.options(out)));
+			assertEquals("Error in reading line 3 from file '" + f.getPath()
+					+ "': disk gone\n", out.toString());
+		} finally {
+			UnitsFile.fileAcc = acc;
+		}
+	}
+}